@@ -0,0 +1,180 @@
+package com.anonymous.KDS;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+
+/**
+ * 订单接收的准入控制，TCP（4321）和 HTTP（4323）服务器共用一个实例。
+ *
+ * 限制同时打开的连接数和正在处理（已收到、还没确认）的订单数，分别有全局上限和每个客户端（按 IP）的上限。
+ * 超过连接上限时服务器回复 BUSY 后关闭连接；超过订单上限时这个订单直接回复 BUSY，不交给 AddOrder，
+ * 客户端按回复里的 retry-after 等待后重发。这样工作线程池和日志的等待队列都有上限，
+ * 一台 POS 出问题或者一大批订单同时到达时，内存占用不会随之增长，也不会挤占其他 POS。
+ *
+ * 帧大小和读取超时也在这里配置，由服务器在解析和定期检查连接时使用。
+ */
+final class AdmissionControl {
+
+    /**
+     * maxConnections 能配置的最大值。每个连接最多有一个任务在订单处理阶段（OrderStage）里排队，
+     * 处理阶段的队列按这个值分配，所以队列不会满。
+     */
+    static final int MAX_CONNECTIONS_LIMIT = 1024;
+
+    static final class Limits {
+        int maxConnections = 64;
+        int maxConnectionsPerClient = 8;
+        int maxInFlight = 256;
+        int maxInFlightPerClient = 32;
+        // 单个订单帧（HTTP 请求体）的最大字节数
+        int maxFrameBytes = OrderFrameDecoder.DEFAULT_MAX_FRAME_BYTES;
+        // 一帧开始后必须在这个时间内收完，防止慢速发送（slow loris）一直占着连接
+        int readTimeoutMs = 15_000;
+        // 没有未完成的帧和订单时，连接空闲这么久后关闭
+        int idleTimeoutMs = 5 * 60_000;
+        // BUSY 回复里建议的重试间隔
+        int retryAfterMs = 1000;
+
+        Limits copy() {
+            Limits copy = new Limits();
+            copy.maxConnections = maxConnections;
+            copy.maxConnectionsPerClient = maxConnectionsPerClient;
+            copy.maxInFlight = maxInFlight;
+            copy.maxInFlightPerClient = maxInFlightPerClient;
+            copy.maxFrameBytes = maxFrameBytes;
+            copy.readTimeoutMs = readTimeoutMs;
+            copy.idleTimeoutMs = idleTimeoutMs;
+            copy.retryAfterMs = retryAfterMs;
+            return copy;
+        }
+    }
+
+    private static final class Client {
+        int connections;
+        int inFlight;
+    }
+
+    // 配置时整体替换，读取方不需要加锁
+    private volatile Limits limits = new Limits();
+    private final HashMap<InetAddress, Client> clients = new HashMap<>();
+    private int connections;
+    private int inFlight;
+
+    // 统计
+    private long connectionsRejected;
+    private long ordersRejected;
+    private long readTimeouts;
+    private long idleTimeouts;
+
+    Limits limits() {
+        return limits;
+    }
+
+    /** 新的限制只影响之后的连接和订单，已经接受的不受影响 */
+    void configure(Limits limits) {
+        Limits copy = limits.copy();
+        copy.maxConnections = Math.min(MAX_CONNECTIONS_LIMIT, Math.max(1, copy.maxConnections));
+        copy.maxConnectionsPerClient = Math.max(1, copy.maxConnectionsPerClient);
+        copy.maxInFlight = Math.max(1, copy.maxInFlight);
+        copy.maxInFlightPerClient = Math.max(1, copy.maxInFlightPerClient);
+        copy.maxFrameBytes = Math.max(1024, copy.maxFrameBytes);
+        copy.readTimeoutMs = Math.max(1000, copy.readTimeoutMs);
+        copy.idleTimeoutMs = Math.max(copy.readTimeoutMs, copy.idleTimeoutMs);
+        copy.retryAfterMs = Math.max(0, copy.retryAfterMs);
+        this.limits = copy;
+    }
+
+    /**
+     * 接受一个新连接。返回 false 时服务器应回复 BUSY 并关闭连接，不需要调用 closeConnection。
+     */
+    synchronized boolean openConnection(InetAddress address) {
+        Limits current = limits;
+        Client client = clients.get(address);
+        if (connections >= current.maxConnections
+                || (client != null && client.connections >= current.maxConnectionsPerClient)) {
+            connectionsRejected++;
+            KdsMetrics.increment(KdsMetrics.Counter.BUSY);
+            return false;
+        }
+        if (client == null) {
+            client = new Client();
+            clients.put(address, client);
+        }
+        client.connections++;
+        connections++;
+        return true;
+    }
+
+    synchronized void closeConnection(InetAddress address) {
+        Client client = clients.get(address);
+        if (client == null) return;
+        client.connections--;
+        connections--;
+        if (client.connections <= 0 && client.inFlight <= 0) clients.remove(address);
+    }
+
+    /**
+     * 接受 count 个订单（HTTP 批量请求一次接受整批）。返回 false 时应回复 BUSY；
+     * 返回 true 时每个订单确认（或失败）后都要调用一次 complete。
+     * 这个客户端没有正在处理的订单时，超过上限的一整批也会接受，避免大批量请求永远进不来。
+     */
+    synchronized boolean admit(InetAddress address, int count) {
+        Limits current = limits;
+        Client client = clients.get(address);
+        int clientInFlight = client != null ? client.inFlight : 0;
+        if ((inFlight > 0 && inFlight + count > current.maxInFlight)
+                || (clientInFlight > 0 && clientInFlight + count > current.maxInFlightPerClient)) {
+            ordersRejected += count;
+            KdsMetrics.add(KdsMetrics.Counter.BUSY, count);
+            return false;
+        }
+        if (client == null) {
+            client = new Client();
+            clients.put(address, client);
+        }
+        client.inFlight += count;
+        inFlight += count;
+        return true;
+    }
+
+    synchronized void complete(InetAddress address) {
+        inFlight--;
+        Client client = clients.get(address);
+        if (client == null) return;
+        client.inFlight--;
+        if (client.connections <= 0 && client.inFlight <= 0) clients.remove(address);
+    }
+
+    synchronized void readTimedOut() {
+        readTimeouts++;
+        KdsMetrics.increment(KdsMetrics.Counter.TIMEOUTS);
+    }
+
+    synchronized void idleTimedOut() {
+        idleTimeouts++;
+    }
+
+    synchronized Stats stats() {
+        Stats stats = new Stats();
+        stats.limits = limits;
+        stats.connections = connections;
+        stats.inFlight = inFlight;
+        stats.clients = clients.size();
+        stats.connectionsRejected = connectionsRejected;
+        stats.ordersRejected = ordersRejected;
+        stats.readTimeouts = readTimeouts;
+        stats.idleTimeouts = idleTimeouts;
+        return stats;
+    }
+
+    static final class Stats {
+        Limits limits;
+        int connections;
+        int inFlight;
+        int clients;
+        long connectionsRejected;
+        long ordersRejected;
+        long readTimeouts;
+        long idleTimeouts;
+    }
+}
@@ -0,0 +1,85 @@
+package com.anonymous.KDS;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 主 KDS 按商品分类拆分订单：每个子 KDS 只收到自己分类的商品（分类为 all 的收到整个订单）。
+ *
+ * 创建时把子 KDS 的分类编译成 分类 -> 下标 的路由表，拆分时每个商品只查一次表，
+ * 每个分类的子订单只序列化一次，同一分类的多个子 KDS 共用。
+ * 商品分类的归一化规则与 JS 端 distributionService 一致：drinks / Beverage 归为 Drinks，
+ * 没有分类的按名称判断是否是饮料，其余为 default（只发给 all）。
+ */
+final class CategoryRouter {
+
+    static final String ALL = "all";
+    static final String DRINKS = "Drinks";
+    static final String DEFAULT = "default";
+
+    private static final String[] DRINK_KEYWORDS = { "coffee", "tea", "juice", "dew", "smoothie", "crush", "water" };
+    // 原始分类 -> 归一化后的分类，所有路由表共用
+    private static final Map<String, String> CANONICAL = new ConcurrentHashMap<>();
+
+    // 需要拆分的分类（不含 all），下标即路由表的值
+    private final String[] categories;
+    private final Map<String, Integer> table = new HashMap<>();
+
+    CategoryRouter(Collection<String> subCategories) {
+        List<String> distinct = new ArrayList<>();
+        for (String category : subCategories) {
+            if (category == null || ALL.equals(category) || table.containsKey(category)) continue;
+            table.put(category, distinct.size());
+            distinct.add(category);
+        }
+        this.categories = distinct.toArray(new String[0]);
+    }
+
+    /** 是否有需要拆分的分类（全是 all 时不需要解析订单） */
+    boolean splits() {
+        return categories.length > 0;
+    }
+
+    /**
+     * 拆分订单，返回 分类 -> 子订单 JSON，没有该分类商品的分类值为 ""。
+     */
+    Map<String, String> route(Order order, String id) {
+        List<List<Order.Item>> buckets = new ArrayList<>(categories.length);
+        for (int i = 0; i < categories.length; i++) buckets.add(new ArrayList<>());
+        for (Order.Item item : order.items) {
+            Integer index = table.get(categoryOf(item));
+            if (index != null) buckets.get(index).add(item);
+        }
+        Map<String, String> routes = new HashMap<>(categories.length * 2);
+        for (int i = 0; i < categories.length; i++) {
+            List<Order.Item> items = buckets.get(i);
+            routes.put(categories[i], items.isEmpty() ? "" : order.toJson(id, items, categories[i]));
+        }
+        return routes;
+    }
+
+    /** 商品归一化后的分类 */
+    static String categoryOf(Order.Item item) {
+        String raw = item.category;
+        if (raw == null || raw.isEmpty()) {
+            if (item.name != null) {
+                String name = item.name.toLowerCase(Locale.ROOT);
+                for (String keyword : DRINK_KEYWORDS) {
+                    if (name.contains(keyword)) return DRINKS;
+                }
+            }
+            return DEFAULT;
+        }
+        String canonical = CANONICAL.get(raw);
+        if (canonical == null) {
+            canonical = raw.equalsIgnoreCase("drinks") || raw.equals("Beverage") ? DRINKS : raw;
+            CANONICAL.put(raw, canonical);
+        }
+        return canonical;
+    }
+}
@@ -0,0 +1,154 @@
+package com.anonymous.KDS;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 可重复使用的 ESC/POS 指令缓冲区。整张小票（文字、对齐、加粗/字号、走纸、切纸）
+ * 先写进这里，再用一次 sendData 发给打印机，不再每行一次 USB 传输。
+ * TicketTemplate 编译时也用它把固定的文字和指令预先编码成字节。
+ *
+ * 纯 Java，不依赖 Android 和打印机 SDK。不是线程安全的，每个打印线程用一个实例。
+ * 文字默认按 GBK 编码，与 POSPrinter.printText 一致。
+ */
+final class EscPosBuffer {
+
+    static final int ALIGN_LEFT = 0;
+    static final int ALIGN_CENTER = 1;
+    static final int ALIGN_RIGHT = 2;
+
+    private static final byte ESC = 0x1B;
+    private static final byte GS = 0x1D;
+    private static final byte LF = 0x0A;
+
+    private final CharsetEncoder encoder;
+    private byte[] buffer;
+    private int length;
+
+    EscPosBuffer() {
+        this(1024, Charset.forName("GBK"));
+    }
+
+    EscPosBuffer(int initialCapacity, Charset charset) {
+        buffer = new byte[initialCapacity];
+        encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /** 清空内容，保留已分配的空间 */
+    EscPosBuffer reset() {
+        length = 0;
+        return this;
+    }
+
+    /** ESC @：恢复打印机默认设置 */
+    EscPosBuffer initialize() {
+        return command(ESC, (byte) '@');
+    }
+
+    /** ESC a n */
+    EscPosBuffer align(int alignment) {
+        return command(ESC, (byte) 'a', (byte) alignment);
+    }
+
+    /** ESC E n */
+    EscPosBuffer bold(boolean bold) {
+        return command(ESC, (byte) 'E', (byte) (bold ? 1 : 0));
+    }
+
+    /** GS ! n，宽高倍数 1-8 */
+    EscPosBuffer size(int width, int height) {
+        return command(GS, (byte) '!', (byte) (((width - 1) & 0x07) << 4 | ((height - 1) & 0x07)));
+    }
+
+    EscPosBuffer text(CharSequence text) {
+        return text(text, 0, text.length());
+    }
+
+    /** 写入 text 中 [start, end) 的字符 */
+    EscPosBuffer text(CharSequence text, int start, int end) {
+        if (start >= end) return this;
+        ensureCapacity((int) Math.ceil((end - start) * encoder.maxBytesPerChar()));
+        ByteBuffer out = ByteBuffer.wrap(buffer, length, buffer.length - length);
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(text, start, end), out, true);
+        encoder.flush(out);
+        length = out.position();
+        return this;
+    }
+
+    EscPosBuffer repeat(char c, int count) {
+        if (c < 0x80) {
+            ensureCapacity(count);
+            Arrays.fill(buffer, length, length + count, (byte) c);
+            length += count;
+            return this;
+        }
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) sb.append(c);
+        return text(sb);
+    }
+
+    EscPosBuffer newline() {
+        ensureCapacity(1);
+        buffer[length++] = LF;
+        return this;
+    }
+
+    /** ESC d n：打印并走纸 n 行 */
+    EscPosBuffer feed(int lines) {
+        return command(ESC, (byte) 'd', (byte) lines);
+    }
+
+    /** GS V 0：全切 */
+    EscPosBuffer cut() {
+        return command(GS, (byte) 'V', (byte) 0);
+    }
+
+    /**
+     * GS ( k：打印二维码（Model 2，纠错等级 M）。moduleSize 为每个点的宽度 1-16，
+     * 内容按 UTF-8 编码。
+     */
+    EscPosBuffer qrCode(String data, int moduleSize) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        int storeLength = bytes.length + 3;
+        command(GS, (byte) '(', (byte) 'k', (byte) 4, (byte) 0, (byte) 49, (byte) 65, (byte) 50, (byte) 0);
+        command(GS, (byte) '(', (byte) 'k', (byte) 3, (byte) 0, (byte) 49, (byte) 67, (byte) moduleSize);
+        command(GS, (byte) '(', (byte) 'k', (byte) 3, (byte) 0, (byte) 49, (byte) 69, (byte) 49);
+        command(GS, (byte) '(', (byte) 'k', (byte) storeLength, (byte) (storeLength >> 8), (byte) 49, (byte) 80, (byte) 48);
+        raw(bytes);
+        return command(GS, (byte) '(', (byte) 'k', (byte) 3, (byte) 0, (byte) 49, (byte) 81, (byte) 48);
+    }
+
+    /** 原样写入字节（例如其他 ESC/POS 指令） */
+    EscPosBuffer raw(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+        return this;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /** 复制出当前内容，用于发给打印机（发送可能是异步的，不能直接交出内部数组） */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private EscPosBuffer command(byte... bytes) {
+        return raw(bytes);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra <= buffer.length) return;
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+    }
+}
@@ -0,0 +1,325 @@
+package com.anonymous.KDS;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * OrderHttpServer 的增量解析器，每个连接一个实例。
+ *
+ * 连接开始时按 HTTP/1.1 解析请求（只支持 Content-Length，不支持 chunked），
+ * 升级为 WebSocket 后按 RFC 6455 解析帧：分片的消息合并成一条，控制帧（ping / pong / close）单独交付。
+ * 收到的字节先追加到可复用的数组中，请求头和消息完整时才生成对象。
+ */
+final class HttpFrameDecoder {
+
+    static final int MAX_HEADER_SIZE = 16 * 1024;
+    /** 默认的请求体（WebSocket 消息）最大字节数 */
+    static final int MAX_BODY_SIZE = 1024 * 1024;
+
+    static final int OP_CONTINUATION = 0x0;
+    static final int OP_TEXT = 0x1;
+    static final int OP_BINARY = 0x2;
+    static final int OP_CLOSE = 0x8;
+    static final int OP_PING = 0x9;
+    static final int OP_PONG = 0xA;
+
+    private static final int INITIAL_CAPACITY = 2048;
+
+    /** 请求格式错误，status 为要回复的 HTTP 状态码（WebSocket 为关闭码） */
+    static class HttpException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    static final class Request {
+        final String method;
+        final String path;
+        final String version;
+        // 头字段名为小写
+        final Map<String, String> headers;
+        final String body;
+
+        Request(String method, String path, String version, Map<String, String> headers, String body) {
+            this.method = method;
+            this.path = path;
+            this.version = version;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String header(String name) {
+            return headers.get(name);
+        }
+
+        boolean keepAlive() {
+            String connection = headers.get("connection");
+            if (connection != null && connection.toLowerCase(Locale.ROOT).contains("close")) return false;
+            if ("HTTP/1.0".equals(version)) {
+                return connection != null && connection.toLowerCase(Locale.ROOT).contains("keep-alive");
+            }
+            return true;
+        }
+
+        boolean isWebSocketUpgrade() {
+            String upgrade = headers.get("upgrade");
+            return "GET".equals(method) && upgrade != null && upgrade.equalsIgnoreCase("websocket")
+                && headers.get("sec-websocket-key") != null;
+        }
+    }
+
+    /** 完整的 WebSocket 消息（或控制帧） */
+    static final class Message {
+        final int opcode;
+        final byte[] payload;
+
+        Message(int opcode, byte[] payload) {
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+
+        String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final int maxBodySize;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+    // 已经找过 "\r\n\r\n" 的位置，避免每次从头找
+    private int scanned;
+    private Request pendingHeaders;
+    private int bodyLength = -1;
+    private boolean continueNeeded;
+
+    private boolean webSocket;
+    // 分片消息
+    private int fragmentOpcode = -1;
+    private byte[] fragments = new byte[0];
+    private int fragmentsLength;
+
+    HttpFrameDecoder() {
+        this(MAX_BODY_SIZE);
+    }
+
+    /** @param maxBodySize 请求体或 WebSocket 消息的最大字节数，超过时回复 413（关闭码 1009） */
+    HttpFrameDecoder(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    void upgradeToWebSocket() {
+        webSocket = true;
+    }
+
+    boolean isWebSocket() {
+        return webSocket;
+    }
+
+    /** 是否收到了不完整的请求、帧或分片消息 */
+    boolean hasPartialInput() {
+        return length > 0 || pendingHeaders != null || fragmentOpcode >= 0;
+    }
+
+    /**
+     * 请求头带 "Expect: 100-continue" 且请求体还没收完时返回一次 true，服务器应先回复 100 Continue。
+     */
+    boolean takeContinue() {
+        boolean result = continueNeeded;
+        continueNeeded = false;
+        return result;
+    }
+
+    /**
+     * 消费 in 中的字节，返回一个完整的请求；数据不足时返回 null。
+     */
+    Request decodeRequest(ByteBuffer in) throws HttpException {
+        append(in);
+        if (pendingHeaders == null) {
+            int end = indexOfHeaderEnd();
+            if (end < 0) {
+                if (length > MAX_HEADER_SIZE) throw new HttpException(431, "请求头太大");
+                return null;
+            }
+            pendingHeaders = parseHeaders(end);
+            consume(end + 4);
+            bodyLength = contentLength(pendingHeaders);
+            continueNeeded = length < bodyLength
+                && "100-continue".equalsIgnoreCase(pendingHeaders.header("expect"));
+        }
+        if (length < bodyLength) return null;
+        Request headers = pendingHeaders;
+        String body = bodyLength > 0 ? new String(buffer, 0, bodyLength, StandardCharsets.UTF_8) : "";
+        consume(bodyLength);
+        pendingHeaders = null;
+        bodyLength = -1;
+        continueNeeded = false;
+        return new Request(headers.method, headers.path, headers.version, headers.headers, body);
+    }
+
+    /**
+     * 消费 in 中的字节，返回一个完整的消息或控制帧；数据不足时返回 null。
+     * 客户端发来的帧必须带掩码。
+     */
+    Message decodeMessage(ByteBuffer in) throws HttpException {
+        append(in);
+        while (true) {
+            if (length < 2) return null;
+            int b0 = buffer[0] & 0xFF;
+            int b1 = buffer[1] & 0xFF;
+            boolean fin = (b0 & 0x80) != 0;
+            int opcode = b0 & 0x0F;
+            if ((b0 & 0x70) != 0) throw new HttpException(1002, "不支持的扩展位");
+            if ((b1 & 0x80) == 0) throw new HttpException(1002, "客户端帧没有掩码");
+            long payloadLength = b1 & 0x7F;
+            int header = 2;
+            if (payloadLength == 126) {
+                if (length < 4) return null;
+                payloadLength = ((buffer[2] & 0xFF) << 8) | (buffer[3] & 0xFF);
+                header = 4;
+            } else if (payloadLength == 127) {
+                if (length < 10) return null;
+                payloadLength = 0;
+                for (int i = 2; i < 10; i++) payloadLength = (payloadLength << 8) | (buffer[i] & 0xFF);
+                header = 10;
+                // 最高位为 1 时长度是负数，超过 int 的长度也无法分配
+                if (payloadLength < 0 || payloadLength > Integer.MAX_VALUE) throw new HttpException(1009, "消息太大");
+            }
+            boolean control = (opcode & 0x8) != 0;
+            if (control && (payloadLength > 125 || !fin)) throw new HttpException(1002, "控制帧格式错误");
+            if (payloadLength + fragmentsLength > maxBodySize) throw new HttpException(1009, "消息太大");
+            long total = header + 4 + payloadLength;
+            if (length < total) return null;
+            byte[] payload = new byte[(int) payloadLength];
+            int maskAt = header;
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = (byte) (buffer[header + 4 + i] ^ buffer[maskAt + (i & 3)]);
+            }
+            consume((int) total);
+            if (control) return new Message(opcode, payload);
+            if (opcode == OP_CONTINUATION) {
+                if (fragmentOpcode < 0) throw new HttpException(1002, "没有开始的分片");
+            } else {
+                if (fragmentOpcode >= 0) throw new HttpException(1002, "上一条分片消息还没结束");
+                if (opcode != OP_TEXT && opcode != OP_BINARY) throw new HttpException(1002, "未知的操作码 " + opcode);
+                if (fin) return new Message(opcode, payload);
+                fragmentOpcode = opcode;
+                fragmentsLength = 0;
+            }
+            appendFragment(payload);
+            if (fin) {
+                byte[] message = new byte[fragmentsLength];
+                System.arraycopy(fragments, 0, message, 0, fragmentsLength);
+                Message result = new Message(fragmentOpcode, message);
+                fragmentOpcode = -1;
+                fragmentsLength = 0;
+                return result;
+            }
+        }
+    }
+
+    /** 服务器发给客户端的帧（不带掩码） */
+    static byte[] encodeFrame(int opcode, byte[] payload) {
+        int header = payload.length < 126 ? 2 : payload.length <= 0xFFFF ? 4 : 10;
+        byte[] frame = new byte[header + payload.length];
+        frame[0] = (byte) (0x80 | opcode);
+        if (header == 2) {
+            frame[1] = (byte) payload.length;
+        } else if (header == 4) {
+            frame[1] = 126;
+            frame[2] = (byte) (payload.length >>> 8);
+            frame[3] = (byte) payload.length;
+        } else {
+            frame[1] = 127;
+            long len = payload.length;
+            for (int i = 9; i >= 2; i--) {
+                frame[i] = (byte) len;
+                len >>>= 8;
+            }
+        }
+        System.arraycopy(payload, 0, frame, header, payload.length);
+        return frame;
+    }
+
+    private void append(ByteBuffer in) {
+        int n = in.remaining();
+        if (n == 0) return;
+        if (length + n > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, length + n)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+        in.get(buffer, length, n);
+        length += n;
+    }
+
+    private void appendFragment(byte[] payload) {
+        if (fragmentsLength + payload.length > fragments.length) {
+            byte[] grown = new byte[Math.max(fragments.length * 2, fragmentsLength + payload.length)];
+            System.arraycopy(fragments, 0, grown, 0, fragmentsLength);
+            fragments = grown;
+        }
+        System.arraycopy(payload, 0, fragments, fragmentsLength, payload.length);
+        fragmentsLength += payload.length;
+    }
+
+    private void consume(int n) {
+        System.arraycopy(buffer, n, buffer, 0, length - n);
+        length -= n;
+        scanned = 0;
+    }
+
+    private int indexOfHeaderEnd() {
+        for (int i = Math.max(0, scanned - 3); i + 3 < length; i++) {
+            if (buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r' && buffer[i + 3] == '\n') {
+                return i;
+            }
+        }
+        scanned = length;
+        return -1;
+    }
+
+    private Request parseHeaders(int end) throws HttpException {
+        String text = new String(buffer, 0, end, StandardCharsets.ISO_8859_1);
+        String[] lines = text.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            throw new HttpException(400, "请求行格式错误: " + lines[0]);
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) throw new HttpException(400, "请求头格式错误: " + lines[i]);
+            headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT), lines[i].substring(colon + 1).trim());
+        }
+        String path = requestLine[1];
+        int query = path.indexOf('?');
+        if (query >= 0) path = path.substring(0, query);
+        return new Request(requestLine[0], path, requestLine[2], headers, null);
+    }
+
+    private int contentLength(Request request) throws HttpException {
+        String encoding = request.header("transfer-encoding");
+        if (encoding != null && !encoding.equalsIgnoreCase("identity")) {
+            throw new HttpException(411, "不支持 Transfer-Encoding: " + encoding + "，请使用 Content-Length");
+        }
+        String value = request.header("content-length");
+        if (value == null) return 0;
+        try {
+            int n = Integer.parseInt(value);
+            if (n < 0) throw new HttpException(400, "Content-Length 无效");
+            if (n > maxBodySize) throw new HttpException(413, "请求体太大");
+            return n;
+        } catch (NumberFormatException e) {
+            throw new HttpException(400, "Content-Length 无效");
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 订单热路径的指标：每个阶段一个 LatencyHistogram，再加上计数器（连接、字节、错误）和队列深度。
+ * 所有方法都是静态的，TCP / HTTP 服务器、AddOrder、打印队列直接记录，不需要互相持有引用。
+ * 记录只做原子加，不分配对象；getMetrics 和定时快照文件读取时才生成结果。
+ *
+ * 一个订单依次经过：accept（建立连接）→ frame（第一个字节到整帧）→ parse → dedup → journal（落盘）
+ * → bridgePost（进入合并队列到发给 JS）→ jsAck（发出到 JS 处理完这一批）
+ * → printEnqueue（打印任务排队）→ paperOut（写给打印机）。
+ */
+final class KdsMetrics {
+
+    enum Stage {
+        ACCEPT("accept"),
+        FRAME("frame"),
+        PARSE("parse"),
+        DEDUP("dedup"),
+        JOURNAL("journal"),
+        BRIDGE_POST("bridgePost"),
+        JS_ACK("jsAck"),
+        PRINT_ENQUEUE("printEnqueue"),
+        PAPER_OUT("paperOut");
+
+        final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+    }
+
+    enum Counter {
+        CONNECTIONS("connections"),
+        BYTES_IN("bytesIn"),
+        BYTES_OUT("bytesOut"),
+        ORDERS("orders"),
+        DUPLICATES("duplicates"),
+        // 帧或 HTTP 请求格式错误
+        FRAME_ERRORS("frameErrors"),
+        // 无法解析、按原始数据交给 JS 的订单
+        PARSE_ERRORS("parseErrors"),
+        // 回复了 NACK / ERROR 的订单
+        ORDER_ERRORS("orderErrors"),
+        // 读写连接时的 IO 错误
+        CONNECTION_ERRORS("connectionErrors"),
+        // 超过准入限制、回复了 BUSY 的连接和订单
+        BUSY("busyReplies"),
+        // 一帧没有在读取超时内收完而被关闭的连接
+        TIMEOUTS("readTimeouts");
+
+        final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    /** 队列深度：进入时加一，离开时减一 */
+    enum Gauge {
+        OPEN_CONNECTIONS("openConnections"),
+        // 已交给工作线程、还没回复的订单
+        ORDERS_IN_FLIGHT("ordersInFlight"),
+        // 已写入日志、等待 fsync 的订单
+        JOURNAL_PENDING("journalPending"),
+        // 所有打印机排队中的任务
+        PRINT_QUEUED("printQueued");
+
+        final String key;
+
+        Gauge(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final LatencyHistogram[] STAGES = new LatencyHistogram[Stage.values().length];
+    private static final AtomicLongArray COUNTERS = new AtomicLongArray(Counter.values().length);
+    private static final AtomicLongArray GAUGES = new AtomicLongArray(Gauge.values().length);
+    private static volatile long startedAt = System.currentTimeMillis();
+
+    static {
+        for (int i = 0; i < STAGES.length; i++) STAGES[i] = new LatencyHistogram();
+    }
+
+    private KdsMetrics() {
+    }
+
+    /** 记录阶段耗时，startNanos 为该阶段开始时的 System.nanoTime() */
+    static void record(Stage stage, long startNanos) {
+        STAGES[stage.ordinal()].recordSince(startNanos);
+    }
+
+    static void recordNanos(Stage stage, long nanos) {
+        STAGES[stage.ordinal()].recordNanos(nanos);
+    }
+
+    static LatencyHistogram histogram(Stage stage) {
+        return STAGES[stage.ordinal()];
+    }
+
+    static void increment(Counter counter) {
+        COUNTERS.incrementAndGet(counter.ordinal());
+    }
+
+    static void add(Counter counter, long delta) {
+        if (delta > 0) COUNTERS.addAndGet(counter.ordinal(), delta);
+    }
+
+    static void adjust(Gauge gauge, long delta) {
+        GAUGES.addAndGet(gauge.ordinal(), delta);
+    }
+
+    /** 清空直方图和计数器，队列深度保持不变 */
+    static void reset() {
+        for (LatencyHistogram histogram : STAGES) histogram.reset();
+        for (int i = 0; i < COUNTERS.length(); i++) COUNTERS.set(i, 0);
+        startedAt = System.currentTimeMillis();
+    }
+
+    static Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        snapshot.takenAt = System.currentTimeMillis();
+        snapshot.sinceMs = snapshot.takenAt - startedAt;
+        for (Stage stage : Stage.values()) snapshot.stages.put(stage.key, STAGES[stage.ordinal()].snapshot());
+        for (Counter counter : Counter.values()) snapshot.counters.put(counter.key, COUNTERS.get(counter.ordinal()));
+        for (Gauge gauge : Gauge.values()) snapshot.queues.put(gauge.key, GAUGES.get(gauge.ordinal()));
+        return snapshot;
+    }
+
+    static final class Snapshot {
+        long takenAt;
+        // 距离启动或上一次 reset 的时间
+        long sinceMs;
+        final Map<String, LatencyHistogram.Snapshot> stages = new LinkedHashMap<>();
+        final Map<String, Long> counters = new LinkedHashMap<>();
+        // 调用方可以加入自己的队列深度（例如 JS 合并队列）
+        final Map<String, Long> queues = new LinkedHashMap<>();
+
+        String toJson() {
+            StringBuilder json = new StringBuilder(1024);
+            json.append("{\"takenAt\":").append(takenAt).append(",\"sinceMs\":").append(sinceMs).append(",\"stages\":{");
+            boolean first = true;
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : stages.entrySet()) {
+                LatencyHistogram.Snapshot s = entry.getValue();
+                if (!first) json.append(',');
+                first = false;
+                json.append('"').append(entry.getKey()).append("\":{\"count\":").append(s.count)
+                    .append(",\"meanMs\":").append(ms(s.meanMs))
+                    .append(",\"p50Ms\":").append(ms(s.p50Ms))
+                    .append(",\"p90Ms\":").append(ms(s.p90Ms))
+                    .append(",\"p99Ms\":").append(ms(s.p99Ms))
+                    .append(",\"p999Ms\":").append(ms(s.p999Ms))
+                    .append(",\"maxMs\":").append(ms(s.maxMs)).append('}');
+            }
+            json.append("},\"counters\":");
+            appendLongs(json, counters);
+            json.append(",\"queues\":");
+            appendLongs(json, queues);
+            return json.append('}').toString();
+        }
+
+        private static String ms(double value) {
+            return String.format(Locale.ROOT, "%.3f", value);
+        }
+
+        private static void appendLongs(StringBuilder json, Map<String, Long> values) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Long> entry : values.entrySet()) {
+                if (!first) json.append(',');
+                first = false;
+                json.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+            }
+            json.append('}');
+        }
+    }
+
+    /** 先写临时文件再改名，读取方不会看到写了一半的快照 */
+    static void writeSnapshot(Snapshot snapshot, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(snapshot.toJson().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) throw new IOException("无法替换 " + file.getName());
+    }
+}
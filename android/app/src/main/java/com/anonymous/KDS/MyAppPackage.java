@@ -25,6 +25,7 @@ public class MyAppPackage implements ReactPackage {
            ReactApplicationContext reactContext) {
        List<NativeModule> modules = new ArrayList<>();
        modules.add(new OrderHandlerModule(reactContext));
+       modules.add(new OrderStoreModule(reactContext));
        return modules;
    }
 
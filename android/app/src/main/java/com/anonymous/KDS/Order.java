@@ -0,0 +1,338 @@
+package com.anonymous.KDS;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * 原生层解析后的订单模型。
+ *
+ * 由 OrderParser 的事件直接构建（见 Builder），toWritableMap() 生成的结构与
+ * JS 端 formatTCPOrder 的输出（FormattedOrder）一致，JS 收到后不需要再解析或格式化。
+ */
+final class Order {
+
+    static final class Option {
+        String name;
+        String value;
+        double price;
+    }
+
+    static final class Item {
+        String id;
+        String name;
+        int quantity = 1;
+        double price;
+        String category;
+        double prepareTime;
+        final List<Option> options = new ArrayList<>();
+        // POS 发来的 options 数组原样保留（formatTCPOrder 直接交给 JS），没有时为 null
+        List<Object> rawOptions;
+    }
+
+    String orderId;
+    String orderNum;
+    // 非订单消息（例如子 KDS 的 order_items_completed）的类型
+    String messageType;
+    String orderTime;
+    String pickupMethod;
+    String pickupTime;
+    String tableNumber;
+    double totalPrepareTime;
+    // FormattedOrder 的 status（OrderStore 建索引用），POS 订单一般没有
+    String status;
+    final List<Item> items = new ArrayList<>();
+
+    /** 带 type 字段的是状态消息而不是订单 */
+    boolean isMessage() {
+        return messageType != null;
+    }
+
+    String displayId() {
+        if (orderNum != null) return orderNum;
+        return orderId;
+    }
+
+    static Order parse(OrderParser parser, String json) throws OrderParser.ParseException {
+        Builder builder = new Builder();
+        parser.parse(json, builder);
+        return builder.order;
+    }
+
+    /** 直接解析 UTF-8 字节，例如 OrderFrameDecoder 交付的帧 */
+    static Order parse(OrderParser parser, byte[] utf8, int offset, int length) throws OrderParser.ParseException {
+        Builder builder = new Builder();
+        parser.parse(utf8, offset, length, builder);
+        return builder.order;
+    }
+
+    /**
+     * 转换为 JS 端的 FormattedOrder 结构，缺省值与 formatTCPOrder 保持一致，商品的 options 原样传递。
+     */
+    WritableMap toWritableMap() {
+        String now = isoNow();
+        String id = displayId() != null ? displayId() : String.valueOf(System.currentTimeMillis());
+
+        WritableMap map = Arguments.createMap();
+        map.putString("id", id);
+        map.putString("_id", id);
+        map.putString("orderTime", orderTime != null ? orderTime : now);
+        map.putString("pickupMethod", pickupMethod != null ? pickupMethod : "未知");
+        map.putString("pickupTime", pickupTime != null ? pickupTime : now);
+        map.putString("order_num", orderNum != null ? orderNum : id);
+        if (tableNumber != null) map.putString("tableNumber", tableNumber);
+        map.putString("source", "tcp");
+        map.putDouble("total_prepare_time", totalPrepareTime);
+
+        WritableArray products = Arguments.createArray();
+        for (Item item : items) {
+            WritableMap product = Arguments.createMap();
+            product.putString("id", item.id != null ? item.id : "tcp-item");
+            product.putString("name", item.name != null ? item.name : "未知商品");
+            product.putInt("quantity", item.quantity);
+            product.putDouble("price", item.price);
+            product.putString("category", item.category != null ? item.category : "default");
+            product.putDouble("prepare_time", item.prepareTime);
+
+            product.putArray("options", writableArray(item.rawOptions != null ? item.rawOptions : new ArrayList<>()));
+            products.pushMap(product);
+        }
+        map.putArray("products", products);
+        return map;
+    }
+
+    /**
+     * 生成 FormattedOrder 结构的 JSON（与 toWritableMap 相同的缺省值），只包含 items 中的商品。
+     * 主 KDS 按分类拆分订单后发给子 KDS 用；targetCategory 为 null 时不输出，商品保留原来的分类。
+     */
+    String toJson(String id, List<Item> items, String targetCategory) {
+        String now = isoNow();
+        if (id == null) id = displayId() != null ? displayId() : String.valueOf(System.currentTimeMillis());
+        StringBuilder sb = new StringBuilder(256 + items.size() * 128);
+        sb.append("{\"id\":").append(quote(id));
+        sb.append(",\"_id\":").append(quote(id));
+        sb.append(",\"orderTime\":").append(quote(orderTime != null ? orderTime : now));
+        sb.append(",\"pickupMethod\":").append(quote(pickupMethod != null ? pickupMethod : "未知"));
+        sb.append(",\"pickupTime\":").append(quote(pickupTime != null ? pickupTime : now));
+        sb.append(",\"order_num\":").append(quote(orderNum != null ? orderNum : id));
+        if (tableNumber != null) sb.append(",\"tableNumber\":").append(quote(tableNumber));
+        if (status != null) sb.append(",\"status\":").append(quote(status));
+        sb.append(",\"source\":\"tcp\"");
+        sb.append(",\"total_prepare_time\":").append(formatNumber(totalPrepareTime));
+        if (targetCategory != null) sb.append(",\"targetCategory\":").append(quote(targetCategory));
+        sb.append(",\"products\":[");
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":").append(quote(item.id != null ? item.id : "tcp-item"));
+            sb.append(",\"name\":").append(quote(item.name != null ? item.name : "未知商品"));
+            sb.append(",\"quantity\":").append(item.quantity);
+            sb.append(",\"price\":").append(formatNumber(item.price));
+            // 拆分后的子订单中商品分类统一为归一化后的分类（子 KDS 按分类过滤显示）
+            String category = targetCategory != null ? targetCategory : item.category != null ? item.category : "default";
+            sb.append(",\"category\":").append(quote(category));
+            sb.append(",\"prepare_time\":").append(formatNumber(item.prepareTime));
+            sb.append(",\"options\":");
+            if (item.rawOptions != null) appendJson(sb, item.rawOptions);
+            else sb.append("[]");
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static WritableArray writableArray(List<?> values) {
+        WritableArray array = Arguments.createArray();
+        for (Object value : values) {
+            if (value == null) array.pushNull();
+            else if (value instanceof String) array.pushString((String) value);
+            else if (value instanceof Double) array.pushDouble((Double) value);
+            else if (value instanceof Boolean) array.pushBoolean((Boolean) value);
+            else if (value instanceof Map) array.pushMap(writableMap((Map<?, ?>) value));
+            else if (value instanceof List) array.pushArray(writableArray((List<?>) value));
+        }
+        return array;
+    }
+
+    private static WritableMap writableMap(Map<?, ?> values) {
+        WritableMap map = Arguments.createMap();
+        for (Map.Entry<?, ?> entry : values.entrySet()) {
+            String key = (String) entry.getKey();
+            Object value = entry.getValue();
+            if (value == null) map.putNull(key);
+            else if (value instanceof String) map.putString(key, (String) value);
+            else if (value instanceof Double) map.putDouble(key, (Double) value);
+            else if (value instanceof Boolean) map.putBoolean(key, (Boolean) value);
+            else if (value instanceof Map) map.putMap(key, writableMap((Map<?, ?>) value));
+            else if (value instanceof List) map.putArray(key, writableArray((List<?>) value));
+        }
+        return map;
+    }
+
+    /** 把 OrderParser.arrayValue 生成的值写回 JSON */
+    private static void appendJson(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof String) {
+            sb.append(quote((String) value));
+        } else if (value instanceof Double) {
+            sb.append(formatNumber((Double) value));
+        } else if (value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                sb.append(quote((String) entry.getKey())).append(':');
+                appendJson(sb, entry.getValue());
+            }
+            sb.append('}');
+        } else if (value instanceof List) {
+            sb.append('[');
+            List<?> list = (List<?>) value;
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) sb.append(',');
+                appendJson(sb, list.get(i));
+            }
+            sb.append(']');
+        }
+    }
+
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // 与 JS 的 Number.prototype.toString 一致：整数不带小数点
+    static String formatNumber(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String isoNow() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date());
+    }
+
+    /**
+     * 把 OrderParser 的事件组装成 Order。
+     */
+    static final class Builder implements OrderParser.Handler {
+        Order order;
+        private Item item;
+        private Option option;
+        // _id，orderId 为空时才使用
+        private String objectId;
+
+        @Override
+        public void startOrder() {
+            order = new Order();
+            objectId = null;
+        }
+
+        @Override
+        public void startItem() {
+            item = new Item();
+        }
+
+        @Override
+        public void startOption() {
+            option = new Option();
+        }
+
+        @Override
+        public void endOption() {
+            if (item != null) item.options.add(option);
+            option = null;
+        }
+
+        @Override
+        public void endItem() {
+            order.items.add(item);
+            item = null;
+        }
+
+        /** 与 JS 的 order_num || orderId || _id 相同，和字段在 JSON 中的顺序无关 */
+        @Override
+        public void endOrder() {
+            if (order.orderId == null) order.orderId = objectId;
+        }
+
+        @Override
+        public void stringValue(OrderParser.Field field, String value) {
+            switch (field) {
+                // 空字符串在 JS 里为假，取下一个；重复的键和 JSON.parse 一样取最后一个
+                case ORDER_ID: order.orderId = value.isEmpty() ? null : value; break;
+                case ORDER_OBJECT_ID: objectId = value.isEmpty() ? null : value; break;
+                case ORDER_NUM: order.orderNum = value.isEmpty() ? null : value; break;
+                case MESSAGE_TYPE: order.messageType = value; break;
+                case ORDER_TIME: order.orderTime = value; break;
+                case PICKUP_METHOD: order.pickupMethod = value; break;
+                case PICKUP_TIME: order.pickupTime = value; break;
+                case TABLE_NUMBER: order.tableNumber = value; break;
+                case ORDER_STATUS: order.status = value; break;
+                case ITEM_ID: item.id = value; break;
+                case ITEM_NAME: item.name = value; break;
+                case ITEM_CATEGORY: item.category = value; break;
+                case OPTION_NAME: option.name = value; break;
+                case OPTION_VALUE: option.value = value; break;
+                default:
+                    // 数字字段以字符串形式出现，例如 "quantity": "2"
+                    try {
+                        numberValue(field, Double.parseDouble(value));
+                    } catch (NumberFormatException ignored) {
+                        // 忽略无法识别的数字
+                    }
+            }
+        }
+
+        @Override
+        public void numberValue(OrderParser.Field field, double value) {
+            switch (field) {
+                case ORDER_ID: order.orderId = value != 0 ? formatNumber(value) : null; break;
+                case ORDER_OBJECT_ID: objectId = value != 0 ? formatNumber(value) : null; break;
+                case ORDER_NUM: order.orderNum = value != 0 ? formatNumber(value) : null; break;
+                case TABLE_NUMBER: order.tableNumber = formatNumber(value); break;
+                case TOTAL_PREPARE_TIME: order.totalPrepareTime = value; break;
+                case ITEM_ID: item.id = formatNumber(value); break;
+                case ITEM_QUANTITY: if (value > 0) item.quantity = (int) value; break;
+                case ITEM_PRICE: item.price = value; break;
+                case ITEM_PREPARE_TIME: item.prepareTime = value; break;
+                case OPTION_VALUE: option.value = formatNumber(value); break;
+                case OPTION_PRICE: option.price = value; break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void arrayValue(OrderParser.Field field, List<Object> values) {
+            if (field == OrderParser.Field.ITEM_OPTIONS) item.rawOptions = values;
+        }
+    }
+}
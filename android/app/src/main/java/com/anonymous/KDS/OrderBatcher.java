@@ -0,0 +1,235 @@
+package com.anonymous.KDS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import android.util.Log;
+
+/**
+ * 订单微批处理：在一个时间窗口内（或攒够 N 个）到达的订单合并成一次事件发给 JS，
+ * 避免一大批订单同时到达时每单跨一次 bridge、触发一次重新渲染。
+ *
+ * 没有 JS 监听者时订单先保留在队列里，监听者注册后再一起发出。下游（JS 线程）已满时 Sink 拒绝批次，
+ * 批次放回队列最前面，稍后（或下游调用 resume 时）重试，不阻塞批处理线程。
+ * 队列里的订单都已经确认给 POS，不会整批丢弃：Sink 抛出异常时批次放回队列，逐个重新发送，
+ * 只丢弃单独发送仍然抛出异常的订单（数据本身有问题，重试也不会成功）。
+ */
+final class OrderBatcher {
+
+    private static final String TAG = "OrderBatcher";
+
+    static final int DEFAULT_WINDOW_MS = 30;
+    static final int DEFAULT_MAX_BATCH = 50;
+    // 下游已满时多久之后重试
+    static final int RETRY_DELAY_MS = 100;
+    // 积压超过这个数时记录一次日志（不丢弃）
+    private static final int PENDING_WARNING = 1000;
+
+    interface Sink {
+        /**
+         * 在批处理线程上调用，batch 中的元素是 WritableMap（订单）或 String（原始消息）。
+         * 返回 false 表示下游已满、批次没有发出，批次留在队列里稍后重试。
+         */
+        boolean emit(List<Object> batch);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Sink sink;
+    // 记录每个订单从 add 到发给 JS 的耗时，为 null 时不记录
+    private final LatencyHistogram latency;
+    // 与 pending 一一对应的 add 时间（System.nanoTime()）
+    private long[] addedAt = new long[DEFAULT_MAX_BATCH];
+    // 正在发出的批次的 add 时间，只在批处理线程上使用（下游拒绝时据此放回队列）
+    private long[] emittingAddedAt = new long[DEFAULT_MAX_BATCH];
+
+    private int windowMs = DEFAULT_WINDOW_MS;
+    private int maxBatch = DEFAULT_MAX_BATCH;
+    private boolean ready;
+    private ArrayList<Object> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    // 下游拒绝了上一个批次，等待重试期间新订单不触发立即发送
+    private boolean deferred;
+    // 发送失败的批次放回队列后，队首还有这么多个订单要逐个发送
+    private int isolating;
+    private boolean warned;
+
+    // 统计
+    private long ordersReceived;
+    private long ordersEmitted;
+    private long batchesEmitted;
+    private long ordersCoalesced;
+    private long flushesDeferred;
+    private long ordersDropped;
+    private int largestBatch;
+    private int maxPending;
+
+    OrderBatcher(ScheduledExecutorService scheduler, Sink sink) {
+        this(scheduler, sink, null);
+    }
+
+    OrderBatcher(ScheduledExecutorService scheduler, Sink sink, LatencyHistogram latency) {
+        this.scheduler = scheduler;
+        this.sink = sink;
+        this.latency = latency;
+    }
+
+    synchronized void configure(int windowMs, int maxBatch) {
+        this.windowMs = Math.max(0, windowMs);
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    /**
+     * JS 是否已经有监听者。从 false 变为 true 时立即发出积压的订单。
+     */
+    synchronized void setReady(boolean ready) {
+        this.ready = ready;
+        if (ready && !pending.isEmpty()) scheduleFlush(0);
+    }
+
+    synchronized void add(Object order) {
+        ordersReceived++;
+        if (pending.size() == addedAt.length) addedAt = Arrays.copyOf(addedAt, addedAt.length * 2);
+        addedAt[pending.size()] = System.nanoTime();
+        pending.add(order);
+        if (pending.size() > maxPending) maxPending = pending.size();
+        if (pending.size() >= PENDING_WARNING && !warned) {
+            warned = true;
+            Log.e(TAG, ready ? "JS处理不过来，积压订单超过 " + PENDING_WARNING + " 个"
+                : "没有JS监听者，积压订单超过 " + PENDING_WARNING + " 个");
+        }
+        if (!ready || deferred) return;
+        if (pending.size() >= maxBatch) {
+            scheduleFlush(0);
+        } else if (scheduledFlush == null) {
+            scheduleFlush(windowMs);
+        }
+    }
+
+    /** 下游又有空间时调用，立即重试被拒绝的批次 */
+    synchronized void resume() {
+        if (!deferred) return;
+        deferred = false;
+        if (ready && !pending.isEmpty()) scheduleFlush(0);
+    }
+
+    private void scheduleFlush(long delayMs) {
+        if (scheduledFlush != null) {
+            if (delayMs > 0 || scheduledFlush.getDelay(TimeUnit.MILLISECONDS) <= 0) return;
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = scheduler.schedule(this::flush, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        List<Object> batch;
+        synchronized (this) {
+            scheduledFlush = null;
+            deferred = false;
+            if (!ready || pending.isEmpty()) return;
+            int limit = isolating > 0 ? 1 : maxBatch;
+            if (pending.size() <= limit) {
+                batch = pending;
+                pending = new ArrayList<>();
+            } else {
+                batch = new ArrayList<>(pending.subList(0, limit));
+                pending.subList(0, limit).clear();
+            }
+            if (emittingAddedAt.length < batch.size()) emittingAddedAt = new long[addedAt.length];
+            System.arraycopy(addedAt, 0, emittingAddedAt, 0, batch.size());
+            System.arraycopy(addedAt, batch.size(), addedAt, 0, pending.size());
+        }
+        boolean emitted;
+        Exception failure = null;
+        try {
+            emitted = sink.emit(batch);
+        } catch (Exception e) {
+            emitted = false;
+            failure = e;
+        }
+        synchronized (this) {
+            if (failure != null) {
+                if (batch.size() > 1) {
+                    // 不知道是哪个订单的问题，放回队列逐个发送
+                    Log.e(TAG, "发送订单批次失败，逐个重新发送: " + failure.getMessage());
+                    isolating = batch.size();
+                    putBack(batch);
+                    scheduleFlush(0);
+                    return;
+                }
+                ordersDropped++;
+                Log.e(TAG, "订单无法发送，丢弃: " + failure.getMessage());
+                if (isolating > 0) isolating--;
+                if (!pending.isEmpty()) scheduleFlush(isolating > 0 ? 0 : windowMs);
+                return;
+            }
+            if (!emitted) {
+                requeue(batch);
+                return;
+            }
+            if (isolating > 0) isolating--;
+            batchesEmitted++;
+            ordersEmitted += batch.size();
+            ordersCoalesced += batch.size() - 1;
+            if (batch.size() > largestBatch) largestBatch = batch.size();
+            if (pending.size() < PENDING_WARNING) warned = false;
+            if (!pending.isEmpty()) scheduleFlush(pending.size() >= maxBatch ? 0 : windowMs);
+        }
+        if (latency != null) {
+            long now = System.nanoTime();
+            for (int i = 0; i < batch.size(); i++) latency.recordNanos(now - emittingAddedAt[i]);
+        }
+    }
+
+    /** 下游拒绝的批次放回队列最前面，RETRY_DELAY_MS 之后（或 resume 时）重试 */
+    private void requeue(List<Object> batch) {
+        flushesDeferred++;
+        putBack(batch);
+        deferred = true;
+        if (scheduledFlush != null) scheduledFlush.cancel(false);
+        scheduledFlush = scheduler.schedule(this::flush, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** 没有发出的批次连同 add 时间放回队列最前面 */
+    private void putBack(List<Object> batch) {
+        int size = pending.size() + batch.size();
+        if (addedAt.length < size) addedAt = Arrays.copyOf(addedAt, Integer.highestOneBit(size) << 1);
+        System.arraycopy(addedAt, 0, addedAt, batch.size(), pending.size());
+        System.arraycopy(emittingAddedAt, 0, addedAt, 0, batch.size());
+        pending.addAll(0, batch);
+    }
+
+    synchronized Stats stats() {
+        Stats stats = new Stats();
+        stats.ordersReceived = ordersReceived;
+        stats.ordersEmitted = ordersEmitted;
+        stats.batchesEmitted = batchesEmitted;
+        stats.ordersCoalesced = ordersCoalesced;
+        stats.flushesDeferred = flushesDeferred;
+        stats.ordersDropped = ordersDropped;
+        stats.largestBatch = largestBatch;
+        stats.pending = pending.size();
+        stats.maxPending = maxPending;
+        stats.windowMs = windowMs;
+        stats.maxBatch = maxBatch;
+        return stats;
+    }
+
+    static final class Stats {
+        long ordersReceived;
+        long ordersEmitted;
+        long batchesEmitted;
+        long ordersCoalesced;
+        // 下游已满、批次推迟发送的次数
+        long flushesDeferred;
+        // 单独发送仍然失败而丢弃的订单（仍在订单日志里，重启后恢复）
+        long ordersDropped;
+        int largestBatch;
+        int pending;
+        int maxPending;
+        int windowMs;
+        int maxBatch;
+    }
+}
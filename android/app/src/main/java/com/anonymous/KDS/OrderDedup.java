@@ -0,0 +1,286 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import android.util.Log;
+
+/**
+ * 订单去重窗口：POS 在网络中断后重发的订单直接确认，不再写日志、不再交给 JS。
+ *
+ * 以订单号 + 订单内容的哈希为键：订单号和内容都相同是重发（DUPLICATE），
+ * 订单号相同但内容不同是修改后的订单（CHANGED），照常交付。
+ * 窗口同时受时间（windowMs）和数量（capacity）限制，超出的最早的记录被淘汰。
+ *
+ * 记录按到达顺序放在环形的基本类型数组里（订单号哈希、内容哈希、时间，各 8 字节），
+ * 另有一个线性探测的 int 索引（订单号哈希 -> 环形位置），查找和插入都是 O(1)，不创建对象。
+ * 每条记录同时写进文件中对应的固定位置（不 fsync，进程被杀不会丢失），重启后读回。
+ */
+final class OrderDedup {
+
+    private static final String TAG = "OrderDedup";
+
+    private static final int MAGIC = 0x4B445344;
+    private static final int HEADER_SIZE = 8;
+    private static final int SLOT_SIZE = 24;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    enum Result { NEW, DUPLICATE, CHANGED }
+
+    private final int capacity;
+    private final long windowMs;
+    // 环形缓冲区，times 为 0 表示已删除
+    private final long[] ids;
+    private final long[] hashes;
+    private final long[] times;
+    private int head;
+    private int count;
+    // 环形位置 + 1，0 表示空
+    private final int[] index;
+    private final int indexMask;
+    private final FileChannel channel;
+    private final ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+
+    // 统计
+    private long admitted;
+    private long duplicates;
+    private long changed;
+    private long evicted;
+
+    private OrderDedup(int capacity, long windowMs, FileChannel channel) {
+        this.capacity = capacity;
+        this.windowMs = windowMs;
+        this.ids = new long[capacity];
+        this.hashes = new long[capacity];
+        this.times = new long[capacity];
+        int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.index = new int[indexSize];
+        this.indexMask = indexSize - 1;
+        this.channel = channel;
+    }
+
+    /**
+     * 打开（不存在或容量不同时新建）去重文件，读回时间窗口内的记录。
+     */
+    static OrderDedup open(File file, int capacity, long windowMs) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        OrderDedup dedup = new OrderDedup(capacity, windowMs, channel);
+        try {
+            dedup.load(System.currentTimeMillis());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return dedup;
+    }
+
+    /**
+     * 检查并记录一个订单。NEW 和 CHANGED 的订单处理失败时应调用 forget，让重发的订单能再次处理。
+     */
+    synchronized Result admit(String orderId, String content, long now) {
+        expire(now);
+        long id = hash(orderId);
+        long contentHash = hash(content);
+        int position = find(id);
+        Result result = Result.NEW;
+        if (position >= 0) {
+            if (hashes[position] == contentHash) {
+                duplicates++;
+                return Result.DUPLICATE;
+            }
+            remove(position);
+            changed++;
+            result = Result.CHANGED;
+        }
+        insert(id, contentHash, now);
+        admitted++;
+        return result;
+    }
+
+    /** 撤销 admit 的记录（内容相同时） */
+    synchronized void forget(String orderId, String content) {
+        int position = find(hash(orderId));
+        if (position >= 0 && hashes[position] == hash(content)) remove(position);
+    }
+
+    synchronized Stats stats() {
+        Stats stats = new Stats();
+        stats.admitted = admitted;
+        stats.duplicates = duplicates;
+        stats.changed = changed;
+        stats.evicted = evicted;
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (times[(head + i) % capacity] != 0) size++;
+        }
+        stats.size = size;
+        stats.capacity = capacity;
+        stats.windowMs = windowMs;
+        return stats;
+    }
+
+    static final class Stats {
+        long admitted;
+        // 重发而被直接确认的订单数
+        long duplicates;
+        // 订单号相同、内容不同的订单数
+        long changed;
+        // 因为数量限制被淘汰的记录数
+        long evicted;
+        int size;
+        int capacity;
+        long windowMs;
+    }
+
+    synchronized void close() {
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭去重文件时出错: " + e.getMessage());
+        }
+    }
+
+    // ---- 环形缓冲区和索引 ----
+
+    private void expire(long now) {
+        while (count > 0) {
+            long time = times[head];
+            if (time != 0 && now - time < windowMs) return;
+            if (time != 0) remove(head);
+            head = (head + 1) % capacity;
+            count--;
+        }
+    }
+
+    private void insert(long id, long contentHash, long now) {
+        if (count == capacity) {
+            if (times[head] != 0) {
+                remove(head);
+                evicted++;
+            }
+            head = (head + 1) % capacity;
+            count--;
+        }
+        int position = (head + count) % capacity;
+        count++;
+        ids[position] = id;
+        hashes[position] = contentHash;
+        times[position] = now;
+        int i = home(id);
+        while (index[i] != 0) i = (i + 1) & indexMask;
+        index[i] = position + 1;
+        write(position);
+    }
+
+    private int find(long id) {
+        for (int i = home(id); index[i] != 0; i = (i + 1) & indexMask) {
+            int position = index[i] - 1;
+            if (ids[position] == id) return position;
+        }
+        return -1;
+    }
+
+    /** 从索引中删除（线性探测的后移删除），环形位置标记为已删除 */
+    private void remove(int position) {
+        int i = home(ids[position]);
+        while (index[i] != position + 1) i = (i + 1) & indexMask;
+        int j = i;
+        while (true) {
+            j = (j + 1) & indexMask;
+            if (index[j] == 0) break;
+            int k = home(ids[index[j] - 1]);
+            // k 不在 (i, j] 之间时，j 上的记录可以移到 i
+            boolean between = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (!between) {
+                index[i] = index[j];
+                i = j;
+            }
+        }
+        index[i] = 0;
+        times[position] = 0;
+        write(position);
+    }
+
+    private int home(long id) {
+        return (int) (id ^ (id >>> 32)) & indexMask;
+    }
+
+    /** FNV-1a 64 位哈希 */
+    private static long hash(String s) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            h = (h ^ (c & 0xff)) * FNV_PRIME;
+            h = (h ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    // ---- 文件 ----
+
+    private void write(int position) {
+        slot.clear();
+        slot.putLong(ids[position]).putLong(hashes[position]).putLong(times[position]).flip();
+        try {
+            while (slot.hasRemaining()) {
+                channel.write(slot, HEADER_SIZE + (long) position * SLOT_SIZE + slot.position());
+            }
+        } catch (IOException e) {
+            // 只影响重启后的去重，订单照常处理
+            Log.e(TAG, "写入去重文件失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 读回窗口内的记录，按时间顺序重新放进环形缓冲区并重写整个文件。
+     */
+    private void load(long now) throws IOException {
+        long expected = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+        ByteBuffer data = ByteBuffer.allocate((int) expected);
+        if (channel.size() == expected) {
+            while (data.hasRemaining()) {
+                if (channel.read(data, data.position()) < 0) break;
+            }
+        }
+        int loaded = 0;
+        if (!data.hasRemaining() && data.getInt(0) == MAGIC && data.getInt(4) == capacity) {
+            long[][] entries = new long[capacity][];
+            for (int i = 0; i < capacity; i++) {
+                int offset = HEADER_SIZE + i * SLOT_SIZE;
+                long time = data.getLong(offset + 16);
+                if (time == 0 || now - time >= windowMs) continue;
+                entries[loaded++] = new long[] { data.getLong(offset), data.getLong(offset + 8), time };
+            }
+            Arrays.sort(entries, 0, loaded, (a, b) -> Long.compare(a[2], b[2]));
+            for (int i = 0; i < loaded; i++) {
+                int previous = find(entries[i][0]);
+                if (previous >= 0) remove(previous);
+                insertInMemory(entries[i][0], entries[i][1], entries[i][2]);
+            }
+        }
+        // 重写整个文件，文件中的位置与环形缓冲区一致
+        data.clear();
+        data.putInt(MAGIC).putInt(capacity);
+        for (int i = 0; i < capacity; i++) data.putLong(ids[i]).putLong(hashes[i]).putLong(times[i]);
+        data.flip();
+        channel.truncate(0);
+        while (data.hasRemaining()) channel.write(data, data.position());
+        channel.force(false);
+        Log.d(TAG, "去重窗口已加载: " + loaded + " 条记录");
+    }
+
+    private void insertInMemory(long id, long contentHash, long time) {
+        int position = count++;
+        ids[position] = id;
+        hashes[position] = contentHash;
+        times[position] = time;
+        int i = home(id);
+        while (index[i] != 0) i = (i + 1) & indexMask;
+        index[i] = position + 1;
+    }
+}
@@ -0,0 +1,279 @@
+package com.anonymous.KDS;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 4321 端口订单协议的增量帧解析器，每个连接一个实例。
+ *
+ * 支持两种分帧方式，由连接收到的第一个字节决定：
+ *
+ * 1. 文本模式（旧 POS 客户端）：逐行发送订单内容，最后单独发送一行 "end"（不区分大小写）。
+ *    与原来的 readLine 实现保持一致：行与行直接拼接，不保留换行符。
+ *
+ * 2. 二进制模式：每帧为 [MAGIC_V1][varint 长度][payload]。
+ *    payload 按原样（UTF-8）交付，保留换行，内容里出现 "end" 也不受影响。
+ *    MAGIC_V1 是 UTF-8 的续字节，不可能出现在文本订单的开头，因此可以安全地区分两种模式。
+ *
+ * 会话模式（一个连接连续发送多个订单）：每个订单带一个序号，服务器按序号回复 ACK/NACK。
+ *    文本：订单前单独发送一行 "SEQ n"（n 为十进制序号），然后是订单内容和 "end"。
+ *    二进制：[MAGIC_V2][varint 序号][varint 长度][payload]。
+ * 带序号的帧可以通过 lastSequence() 取得序号，旧格式的帧返回 -1。
+ *
+ * 字节直接追加到可复用的 payload 数组中，整单完成时才复制出一个刚好大小的 byte[]（UTF-8 原文），
+ * 交给 OrderParser 直接解析，不在 Selector 线程上解码成 String。
+ * 单帧超过 maxFrameBytes 时抛出 FrameException，收到过大帧后数组缩回初始大小，空闲连接不占用大块内存。
+ */
+final class OrderFrameDecoder {
+
+    /** 二进制分帧第 1 版的魔数 */
+    static final byte MAGIC_V1 = (byte) 0xB1;
+    /** 带序号的二进制分帧（会话模式） */
+    static final byte MAGIC_V2 = (byte) 0xB2;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    /** 默认的单帧最大字节数，与 HTTP 请求体的上限相同 */
+    static final int DEFAULT_MAX_FRAME_BYTES = 1024 * 1024;
+    // payload 数组超过这个大小时，交付一帧后缩回 INITIAL_CAPACITY
+    private static final int RETAINED_CAPACITY = 64 * 1024;
+    // varint 最多 10 个字节（64 位）
+    private static final int MAX_VARINT_BYTES = 10;
+
+    enum Mode { UNKNOWN, LINES, BINARY }
+
+    static class FrameException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        FrameException(String message) {
+            super(message);
+        }
+    }
+
+    private final int maxFrameBytes;
+    private Mode mode = Mode.UNKNOWN;
+    private byte[] payload = new byte[INITIAL_CAPACITY];
+    private int payloadLen;
+
+    // 文本模式：当前行在 payload 中的起始位置
+    private int lineStart;
+
+    // 二进制模式：-1 表示正在读取帧头，frameMagic 为 0 表示还没读到魔数
+    private int frameLength = -1;
+    private byte frameMagic;
+    private long varintValue;
+    private int varintBytes;
+
+    // 当前帧的序号，-1 表示没有序号
+    private long sequence = -1;
+    private long lastSequence = -1;
+
+    OrderFrameDecoder() {
+        this(DEFAULT_MAX_FRAME_BYTES);
+    }
+
+    OrderFrameDecoder(int maxFrameBytes) {
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    /**
+     * 从缓冲区中消费字节，直到得到一个完整的订单。
+     * @return 完整订单的 UTF-8 字节；数据不足时返回 null，未消费的字节留在 in 中
+     */
+    byte[] decode(ByteBuffer in) throws FrameException {
+        if (!in.hasRemaining()) return null;
+        if (mode == Mode.UNKNOWN) {
+            byte first = in.get(in.position());
+            mode = first == MAGIC_V1 || first == MAGIC_V2 ? Mode.BINARY : Mode.LINES;
+        }
+        return mode == Mode.BINARY ? decodeBinary(in) : decodeLines(in);
+    }
+
+    /**
+     * 连接关闭时调用：文本模式下没有收到 "end" 也把已收到的内容当作一个订单（与旧实现一致）。
+     * @return 剩余的订单内容；没有数据时返回 null
+     */
+    byte[] finish() throws FrameException {
+        if (mode == Mode.BINARY) {
+            if (frameMagic != 0 || payloadLen > 0) throw new FrameException("连接在帧中途关闭");
+            return null;
+        }
+        // 会话模式下半个订单不能当作完整订单交付
+        if (sequence >= 0) throw new FrameException("连接在帧中途关闭");
+        int lineEnd = payloadLen;
+        if (lineEnd > lineStart && payload[lineEnd - 1] == '\r') lineEnd--;
+        payloadLen = isEndLine(lineStart, lineEnd) ? lineStart : lineEnd;
+        if (payloadLen == 0) return null;
+        return takeFrame();
+    }
+
+    Mode mode() {
+        return mode;
+    }
+
+    /** 最近一次 decode/finish 返回的帧的序号，没有序号时为 -1 */
+    long lastSequence() {
+        return lastSequence;
+    }
+
+    boolean hasPartialFrame() {
+        return payloadLen > 0 || frameMagic != 0 || sequence >= 0;
+    }
+
+    /**
+     * 按二进制分帧编码一个订单，供客户端（子 KDS 转发等）使用。
+     */
+    static byte[] encodeBinary(String order) {
+        return encodeBinary(-1, order);
+    }
+
+    /**
+     * 按二进制分帧编码一个带序号的订单（会话模式）；sequence 为负数时编码为不带序号的帧。
+     */
+    static byte[] encodeBinary(long sequence, String order) {
+        byte[] body = order.getBytes(StandardCharsets.UTF_8);
+        byte[] header = new byte[1 + 2 * MAX_VARINT_BYTES];
+        int h = 0;
+        if (sequence >= 0) {
+            header[h++] = MAGIC_V2;
+            h = putVarint(header, h, sequence);
+        } else {
+            header[h++] = MAGIC_V1;
+        }
+        h = putVarint(header, h, body.length);
+        byte[] frame = new byte[h + body.length];
+        System.arraycopy(header, 0, frame, 0, h);
+        System.arraycopy(body, 0, frame, h, body.length);
+        return frame;
+    }
+
+    private static int putVarint(byte[] out, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private byte[] decodeLines(ByteBuffer in) throws FrameException {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (b == '\n') {
+                int lineEnd = payloadLen;
+                if (lineEnd > lineStart && payload[lineEnd - 1] == '\r') lineEnd--;
+                if (isEndLine(lineStart, lineEnd)) {
+                    payloadLen = lineStart;
+                    return takeFrame();
+                }
+                if (lineStart == 0 && sequence < 0 && isSeqLine(lineEnd)) {
+                    sequence = parseSeqLine(lineEnd);
+                    payloadLen = 0;
+                    continue;
+                }
+                payloadLen = lineEnd;
+                lineStart = payloadLen;
+                continue;
+            }
+            append(b);
+        }
+        return null;
+    }
+
+    // "SEQ <n>"：只在订单的第一行识别
+    private boolean isSeqLine(int to) {
+        if (to < 5 || to > 4 + 18) return false;
+        if ((payload[0] | 0x20) != 's' || (payload[1] | 0x20) != 'e' || (payload[2] | 0x20) != 'q' || payload[3] != ' ') {
+            return false;
+        }
+        for (int i = 4; i < to; i++) {
+            if (payload[i] < '0' || payload[i] > '9') return false;
+        }
+        return true;
+    }
+
+    private long parseSeqLine(int to) {
+        long value = 0;
+        for (int i = 4; i < to; i++) value = value * 10 + (payload[i] - '0');
+        return value;
+    }
+
+    private byte[] decodeBinary(ByteBuffer in) throws FrameException {
+        while (in.hasRemaining()) {
+            if (frameLength < 0) {
+                if (frameMagic == 0) {
+                    byte magic = in.get();
+                    if (magic != MAGIC_V1 && magic != MAGIC_V2) throw new FrameException("无效的帧头");
+                    frameMagic = magic;
+                    varintValue = 0;
+                    varintBytes = 0;
+                    continue;
+                }
+                byte b = in.get();
+                varintValue |= (long) (b & 0x7F) << (7 * varintBytes);
+                varintBytes++;
+                if ((b & 0x80) != 0) {
+                    if (varintBytes == MAX_VARINT_BYTES) throw new FrameException("帧头溢出");
+                    continue;
+                }
+                if (frameMagic == MAGIC_V2 && sequence < 0) {
+                    if (varintValue < 0) throw new FrameException("序号溢出");
+                    sequence = varintValue;
+                    varintValue = 0;
+                    varintBytes = 0;
+                    continue;
+                }
+                if (varintValue < 0 || varintValue > Integer.MAX_VALUE) throw new FrameException("帧长度溢出");
+                if (varintValue > maxFrameBytes) throw new FrameException("帧超过最大长度 " + maxFrameBytes + " 字节");
+                frameLength = (int) varintValue;
+                ensureCapacity(frameLength);
+                payloadLen = 0;
+                if (frameLength == 0) return takeBinaryFrame();
+                continue;
+            }
+            // 按剩余长度整块拷贝，读满 N 个字节即为一帧
+            int n = Math.min(frameLength - payloadLen, in.remaining());
+            in.get(payload, payloadLen, n);
+            payloadLen += n;
+            if (payloadLen == frameLength) return takeBinaryFrame();
+        }
+        return null;
+    }
+
+    private byte[] takeBinaryFrame() {
+        frameLength = -1;
+        frameMagic = 0;
+        return takeFrame();
+    }
+
+    private byte[] takeFrame() {
+        byte[] frame = Arrays.copyOf(payload, payloadLen);
+        if (payload.length > RETAINED_CAPACITY) payload = new byte[INITIAL_CAPACITY];
+        payloadLen = 0;
+        lineStart = 0;
+        lastSequence = sequence;
+        sequence = -1;
+        return frame;
+    }
+
+    private boolean isEndLine(int from, int to) {
+        return to - from == 3
+            && (payload[from] | 0x20) == 'e'
+            && (payload[from + 1] | 0x20) == 'n'
+            && (payload[from + 2] | 0x20) == 'd';
+    }
+
+    private void append(byte b) throws FrameException {
+        if (payloadLen >= maxFrameBytes) throw new FrameException("帧超过最大长度 " + maxFrameBytes + " 字节");
+        if (payloadLen == payload.length) ensureCapacity(payload.length * 2);
+        payload[payloadLen++] = b;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= payload.length) return;
+        byte[] grown = new byte[Math.max(capacity, payload.length * 2)];
+        System.arraycopy(payload, 0, grown, 0, payloadLen);
+        payload = grown;
+    }
+}
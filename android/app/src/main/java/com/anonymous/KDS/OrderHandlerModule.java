@@ -3,22 +3,33 @@ package com.anonymous.KDS;
 
 
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
 import com.facebook.react.bridge.ReactApplicationContext;
-import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import android.content.Context;
+import android.net.wifi.WifiManager;
 import android.util.Log;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.io.PrintWriter;
 
 public class OrderHandlerModule extends ReactContextBaseJavaModule{
 
@@ -30,188 +41,858 @@ public class OrderHandlerModule extends ReactContextBaseJavaModule{
     // private ReactApplicationContext appContext;
     // private Callback OrderCallbackFunct;
     private OrderServer Server; // 添加一个正确的类成员变量
+    // 外卖平板和云端转发用的 HTTP / WebSocket 入口，和 TCP 服务器共用 AddOrder
+    private OrderHttpServer httpServer;
+    // TCP 和 HTTP 服务器共用的连接数、订单数、帧大小和超时限制
+    private final AdmissionControl admission = new AdmissionControl();
+    // TCP 和 HTTP 服务器共用的订单处理阶段（解析、校验、去重、写日志），见 getPipelineStats
+    private static final int ORDER_THREADS = 2;
+    private static final long STAGE_SHUTDOWN_WAIT_MS = 2000;
+    private final OrderStage orderStage = new OrderStage("OrderWorker", ORDER_THREADS, AdmissionControl.MAX_CONNECTIONS_LIMIT);
+    private final SubKdsConnectionPool subKdsPool = new SubKdsConnectionPool();
     @Override
     public String getName(){
         return "OrderHandlerModule";
     }
 
-    public static class Order{   
-        String OrderID;
-        String[] ItemName;
-        Order(String orderID, String[] items) { 
-            this.OrderID = orderID;
-            this.ItemName = items;
-        }
-    }
     private ReactApplicationContext appContext;
 
  
     OrderHandlerModule(ReactApplicationContext reactContext) { 
         super(reactContext);
         this.appContext = reactContext;
+        this.batchScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "KDS-OrderBatcher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.orderBatcher = new OrderBatcher(batchScheduler, this::emitOrderBatch,
+            KdsMetrics.histogram(KdsMetrics.Stage.BRIDGE_POST));
+        this.replicationBatcher = new OrderBatcher(batchScheduler, this::emitReplicationBatch);
+        this.journal = openJournal(reactContext);
+        this.dedup = openDedup(reactContext);
+        this.replica = openReplica(reactContext);
+        this.discovery = openDiscovery(reactContext);
+        this.intake = new OrderIntake(journal, dedup, replica, this::queueReplication, new OrderIntake.Listener() {
+            @Override
+            public void raw(String payload) {
+                orderBatcher.add(payload);
+            }
+
+            @Override
+            public Object prepare(Order order) {
+                return order.toWritableMap();
+            }
+
+            @Override
+            public void deliver(Object payload) {
+                orderBatcher.add(payload);
+            }
+
+            @Override
+            public void acknowledged(Order order, String orderId) {
+                replicate(order, orderId);
+            }
+        });
+        subKdsPool.setDiscovery(discovery);
+        this.metricsFile = new File(reactContext.getFilesDir(), METRICS_FILE);
+        batchScheduler.scheduleWithFixedDelay(this::writeMetricsSnapshot,
+            METRICS_SNAPSHOT_INTERVAL_MS, METRICS_SNAPSHOT_INTERVAL_MS, TimeUnit.MILLISECONDS);
 
         Log.d(TAG, "=== OrderHandlerModule Initialization ===");
         Log.d(TAG, "Creating OrderServer instance...");
-        this.Server = new OrderServer(); // 使用类成员变量
+        this.Server = new OrderServer(admission, orderStage); // 使用类成员变量
         
         Log.d(TAG, "Starting TCP server...");
         this.Server.startServer(this);
+        this.httpServer = new OrderHttpServer(this, admission, orderStage);
+        this.httpServer.start();
         Log.d(TAG, "Module initialization completed");
         
         Runtime.getRuntime().addShutdownHook(
             new Thread(() -> {
                 Log.d(TAG, "Shutting down server");
-                this.Server.stopServer();
+                closeServer();
             })
         );
     }
 
 
-    private Callback OrderCallbackFunct;
+    // JS 端通过 NativeEventEmitter 监听的事件，数据为订单数组
+    static final String EVENT_ORDERS_RECEIVED = "onOrdersReceived";
+
+    private final ScheduledExecutorService batchScheduler;
+    private final OrderBatcher orderBatcher;
+    // 订单预写日志，打开失败时为 null
+    private static final String JOURNAL_FILE = "orders.journal";
+    private final OrderJournal journal;
+    // 重发订单的去重窗口，打开失败时为 null
+    private static final String DEDUP_FILE = "orders.dedup";
+    private static final int DEDUP_CAPACITY = 8192;
+    private static final long DEDUP_WINDOW_MS = 12 * 60 * 60 * 1000L;
+    private final OrderDedup dedup;
+    // TCP 和 HTTP 服务器共用的确认路径（解析、去重、写日志），订单通过 Listener 交给 OrderBatcher
+    private final OrderIntake intake;
+    // 子 KDS：主 KDS 推送的变化按批次通过 onReplication 事件发给 JS，数据为 { seq, op, orderId, data } 数组
+    static final String EVENT_REPLICATION = "onReplication";
+    private static final String REPLICA_FILE = "replica.state";
+    private final OrderBatcher replicationBatcher;
+    // 打开失败时为 null，不接收复制
+    private final SubKdsReplica replica;
+    // 主 KDS：第一次设置子 KDS 时打开复制日志
+    private static final String REPLICATION_FILE = "replication.log";
+    private static final int REPLICATION_CAPACITY = 1000;
+    private SubKdsReplicator replicator;
+    // 局域网内其他 KDS 上线或离线时发给 JS，数据为当前所有 KDS 的数组（见 getPeers）
+    static final String EVENT_PEERS = "onPeersChanged";
+    private static final String BROADCAST_ADDRESS = "255.255.255.255";
+    // 打开失败时为 null，不广播信标，子 KDS 都按在线处理
+    private final PeerDiscovery discovery;
+    // 部分设备在 Wi-Fi 省电时会丢弃广播包，持有期间保证能收到其他 KDS 的信标
+    private WifiManager.MulticastLock multicastLock;
+    // JS 上报的当前订单数，写在信标里
+    private volatile int discoveryLoad;
+    // 定时写入的指标快照（见 getMetrics），App 卡住或被杀后仍能从文件里看到之前的延迟
+    private static final String METRICS_FILE = "metrics.json";
+    private static final long METRICS_SNAPSHOT_INTERVAL_MS = 60_000;
+    private final File metricsFile;
+    // 最近发出的订单批次的时间，JS 按顺序调用 ackOrderBatch 时计算 jsAck 延迟
+    private static final int JS_ACK_WINDOW = 64;
+    private final long[] batchPostedAt = new long[JS_ACK_WINDOW];
+    private long batchesPosted;
+    private long batchesAcked;
+    private int listenerCount;
+    // 交给 JS 模块线程、还没发出的批次最多这么多个；满了之后 OrderBatcher 推迟发送，订单留在它的队列里合并
+    private static final int MAX_JS_QUEUED_BATCHES = 8;
+    private final Semaphore jsQueueSlots = new Semaphore(MAX_JS_QUEUED_BATCHES);
+    private final AtomicInteger maxJsQueued = new AtomicInteger();
+    private final AtomicLong jsEmitted = new AtomicLong();
+    // JS 线程的队列已满、批次推迟发送的次数
+    private final AtomicLong jsQueueFull = new AtomicLong();
+    private final LatencyHistogram jsQueueWait = new LatencyHistogram();
+    private final LatencyHistogram jsEmitTime = new LatencyHistogram();
+
+    // NativeEventEmitter 需要的方法。JS 端同时监听订单、复制和 KDS 上下线事件，共用一个计数
+    @ReactMethod
+    public void addListener(String eventName) {
+        if (!EVENT_ORDERS_RECEIVED.equals(eventName) && !EVENT_REPLICATION.equals(eventName)
+                && !EVENT_PEERS.equals(eventName)) return;
+        synchronized (this) {
+            listenerCount++;
+        }
+        orderBatcher.setReady(true);
+        replicationBatcher.setReady(true);
+    }
 
     @ReactMethod
-    public void BindCallback (Callback callback) { 
-        this.OrderCallbackFunct = callback;
+    public void removeListeners(double count) {
+        boolean ready;
+        synchronized (this) {
+            listenerCount = Math.max(0, listenerCount - (int) count);
+            ready = listenerCount > 0;
+        }
+        // JS 重新加载时已经发出的批次不会再确认
+        if (!ready) {
+            synchronized (batchPostedAt) {
+                batchesAcked = batchesPosted;
+            }
+        }
+        orderBatcher.setReady(ready);
+        replicationBatcher.setReady(ready);
     }
 
+    /**
+     * 设置订单合并窗口：windowMs 毫秒内到达的订单（最多 maxBatch 个）合并成一次事件。
+     */
+    @ReactMethod
+    public void configureOrderBatching(int windowMs, int maxBatch) {
+        orderBatcher.configure(windowMs, maxBatch);
+    }
 
     @ReactMethod
-    public void TestAdd (){
-        if (this.OrderCallbackFunct != null) { 
-            this.OrderCallbackFunct.invoke("test call added");
-        } 
+    public void getOrderBatchStats(Promise promise) {
+        OrderBatcher.Stats stats = orderBatcher.stats();
+        WritableMap map = Arguments.createMap();
+        map.putDouble("ordersReceived", stats.ordersReceived);
+        map.putDouble("ordersEmitted", stats.ordersEmitted);
+        map.putDouble("batchesEmitted", stats.batchesEmitted);
+        map.putDouble("ordersCoalesced", stats.ordersCoalesced);
+        map.putDouble("flushesDeferred", stats.flushesDeferred);
+        map.putDouble("ordersDropped", stats.ordersDropped);
+        map.putInt("largestBatch", stats.largestBatch);
+        map.putInt("pending", stats.pending);
+        map.putInt("maxPending", stats.maxPending);
+        map.putInt("windowMs", stats.windowMs);
+        map.putInt("maxBatch", stats.maxBatch);
+        promise.resolve(map);
     }
-    
-    public void AddOrder(String orderstring) { 
+
+    /**
+     * 打开订单日志并把上次崩溃前已确认、但还没出餐的订单重新交给 JS。
+     * JS 会按订单号去重，已经保存过的订单不会重复显示。
+     * 打开失败时不使用日志，订单仍然可以接收，只是不再保证崩溃后不丢单。
+     */
+    private OrderJournal openJournal(ReactApplicationContext context) {
         try {
-            Log.d(TAG, "Received order: " + orderstring);
-            if (this.OrderCallbackFunct != null) {
-                // 在主线程中执行回调
-                appContext.runOnUiQueueThread(() -> {
-                    try {
-                        this.OrderCallbackFunct.invoke(orderstring);
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error invoking callback: " + e.getMessage());
-                    }
-                });
+            OrderJournal opened = OrderJournal.open(new File(context.getFilesDir(), JOURNAL_FILE));
+            for (String json : opened.liveOrders()) {
+                try {
+                    orderBatcher.add(ParseOrder(json).toWritableMap());
+                } catch (OrderParser.ParseException e) {
+                    Log.e(TAG, "日志中的订单解析失败: " + e.getMessage());
+                }
+            }
+            return opened;
+        } catch (IOException e) {
+            Log.e(TAG, "打开订单日志失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 打开失败时不去重，重发的订单仍由 JS 按订单号去重。
+     */
+    private OrderDedup openDedup(ReactApplicationContext context) {
+        try {
+            return OrderDedup.open(new File(context.getFilesDir(), DEDUP_FILE), DEDUP_CAPACITY, DEDUP_WINDOW_MS);
+        } catch (IOException e) {
+            Log.e(TAG, "打开去重文件失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * HTTP / WebSocket 入口的统计：{ requests, ordersAccepted, ordersFailed, webSocketMessages, badRequests, connections }
+     */
+    @ReactMethod
+    public void getHttpServerStats(Promise promise) {
+        OrderHttpServer server = httpServer;
+        if (server == null) {
+            promise.resolve(null);
+            return;
+        }
+        OrderHttpServer.Stats stats = server.stats();
+        WritableMap map = Arguments.createMap();
+        map.putDouble("requests", stats.requests);
+        map.putDouble("ordersAccepted", stats.ordersAccepted);
+        map.putDouble("ordersFailed", stats.ordersFailed);
+        map.putDouble("webSocketMessages", stats.webSocketMessages);
+        map.putDouble("badRequests", stats.badRequests);
+        map.putInt("connections", stats.connections);
+        map.putInt("port", OrderHttpServer.PORT);
+        promise.resolve(map);
+    }
+
+    /**
+     * 修改准入限制，limits 只需包含要修改的项：maxConnections、maxConnectionsPerClient、maxInFlight、
+     * maxInFlightPerClient、maxFrameBytes、readTimeoutMs、idleTimeoutMs、retryAfterMs。
+     * 返回生效后的限制和当前状态（与 getAdmissionStats 相同）。
+     */
+    @ReactMethod
+    public void configureAdmission(ReadableMap limits, Promise promise) {
+        AdmissionControl.Limits updated = admission.limits().copy();
+        updated.maxConnections = intOption(limits, "maxConnections", updated.maxConnections);
+        updated.maxConnectionsPerClient = intOption(limits, "maxConnectionsPerClient", updated.maxConnectionsPerClient);
+        updated.maxInFlight = intOption(limits, "maxInFlight", updated.maxInFlight);
+        updated.maxInFlightPerClient = intOption(limits, "maxInFlightPerClient", updated.maxInFlightPerClient);
+        updated.maxFrameBytes = intOption(limits, "maxFrameBytes", updated.maxFrameBytes);
+        updated.readTimeoutMs = intOption(limits, "readTimeoutMs", updated.readTimeoutMs);
+        updated.idleTimeoutMs = intOption(limits, "idleTimeoutMs", updated.idleTimeoutMs);
+        updated.retryAfterMs = intOption(limits, "retryAfterMs", updated.retryAfterMs);
+        admission.configure(updated);
+        getAdmissionStats(promise);
+    }
+
+    private static int intOption(ReadableMap map, String key, int fallback) {
+        if (map == null || !map.hasKey(key) || map.isNull(key) || map.getType(key) != ReadableType.Number) return fallback;
+        return (int) map.getDouble(key);
+    }
+
+    /** 当前的准入限制、连接数、正在处理的订单数，以及回复了 BUSY 和超时关闭的次数 */
+    @ReactMethod
+    public void getAdmissionStats(Promise promise) {
+        AdmissionControl.Stats stats = admission.stats();
+        WritableMap limits = Arguments.createMap();
+        limits.putInt("maxConnections", stats.limits.maxConnections);
+        limits.putInt("maxConnectionsPerClient", stats.limits.maxConnectionsPerClient);
+        limits.putInt("maxInFlight", stats.limits.maxInFlight);
+        limits.putInt("maxInFlightPerClient", stats.limits.maxInFlightPerClient);
+        limits.putInt("maxFrameBytes", stats.limits.maxFrameBytes);
+        limits.putInt("readTimeoutMs", stats.limits.readTimeoutMs);
+        limits.putInt("idleTimeoutMs", stats.limits.idleTimeoutMs);
+        limits.putInt("retryAfterMs", stats.limits.retryAfterMs);
+        WritableMap map = Arguments.createMap();
+        map.putMap("limits", limits);
+        map.putInt("connections", stats.connections);
+        map.putInt("inFlight", stats.inFlight);
+        map.putInt("clients", stats.clients);
+        map.putDouble("connectionsRejected", stats.connectionsRejected);
+        map.putDouble("ordersRejected", stats.ordersRejected);
+        map.putDouble("readTimeouts", stats.readTimeouts);
+        map.putDouble("idleTimeouts", stats.idleTimeouts);
+        promise.resolve(map);
+    }
+
+    @ReactMethod
+    public void getOrderDedupStats(Promise promise) {
+        if (dedup == null) {
+            promise.resolve(null);
+            return;
+        }
+        OrderDedup.Stats stats = dedup.stats();
+        WritableMap map = Arguments.createMap();
+        map.putDouble("admitted", stats.admitted);
+        map.putDouble("duplicates", stats.duplicates);
+        map.putDouble("duplicatesAwaitingJournal", intake.deferredDuplicates());
+        map.putDouble("changed", stats.changed);
+        map.putDouble("evicted", stats.evicted);
+        map.putInt("size", stats.size);
+        map.putInt("capacity", stats.capacity);
+        map.putDouble("windowMs", stats.windowMs);
+        promise.resolve(map);
+    }
+
+    /**
+     * 订单出餐（从界面移除）后调用，之后重启不再恢复这个订单。
+     */
+    @ReactMethod
+    public void markOrderBumped(String orderId) {
+        if (journal != null) journal.bump(orderId);
+    }
+
+    /**
+     * 打开失败时子 KDS 不接收复制，主 KDS 的复制帧会收到 NACK。
+     */
+    private SubKdsReplica openReplica(ReactApplicationContext context) {
+        try {
+            return SubKdsReplica.open(new File(context.getFilesDir(), REPLICA_FILE));
+        } catch (IOException e) {
+            Log.e(TAG, "打开复制状态失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 主 KDS 设置要复制到的子 KDS：[{ address: "ip" 或 "ip:端口", category }]（也可以只给地址，分类为 all）。
+     * 子 KDS 只收到自己分类的商品，断线重连后从最后确认的序号继续接收。
+     */
+    @ReactMethod
+    public void configureReplicas(ReadableArray replicas, Promise promise) {
+        Map<String, String> categories = new LinkedHashMap<>();
+        for (int i = 0; i < replicas.size(); i++) {
+            if (replicas.getType(i) == ReadableType.Map) {
+                ReadableMap replica = replicas.getMap(i);
+                String category = replica.hasKey("category") && !replica.isNull("category")
+                    ? replica.getString("category") : CategoryRouter.ALL;
+                categories.put(replica.getString("address"), category);
             } else {
-                Log.e(TAG, "OrderCallbackFunct is null");
+                categories.put(replicas.getString(i), CategoryRouter.ALL);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error in AddOrder: " + e.getMessage());
+        }
+        try {
+            replicator().setReplicas(categories);
+            promise.resolve(true);
+        } catch (IOException e) {
+            promise.reject("REPLICATION_ERROR", "打开复制日志失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 主 KDS 记录一个变化（op 为 order / status / bump），落盘后 resolve 分配的序号，随后推送给所有子 KDS。
+     * order 的 data 为订单 JSON，status 的 data 为新状态，bump 的 data 为空。
+     */
+    @ReactMethod
+    public void publishReplication(String op, String orderId, String data, Promise promise) {
+        if (!ReplicationLog.OP_ORDER.equals(op) && !ReplicationLog.OP_STATUS.equals(op)
+                && !ReplicationLog.OP_BUMP.equals(op)) {
+            promise.reject("REPLICATION_ERROR", "未知的复制操作: " + op);
+            return;
+        }
+        try {
+            promise.resolve((double) replicator().publish(op, orderId, data != null ? data : ""));
+        } catch (IOException e) {
+            promise.reject("REPLICATION_ERROR", "写入复制日志失败: " + e.getMessage());
         }
     }
 
-    private int parseCounter;
+    /**
+     * 子 KDS 的 JS 保存了 seq 及之前的所有变化，重启后不再需要主 KDS 重发。
+     */
+    @ReactMethod
+    public void ackReplication(double seq) {
+        if (replica != null) replica.confirm((long) seq);
+    }
 
-    private void ParseOrder (String orderString) {
-        String productName[] = null;
-        String ordeRID = null;
-        boolean newProduct = false;        
-        double productIndicie = 0;
+    /**
+     * 复制状态：主 KDS 为日志范围和各子 KDS 的确认序号、落后条数、最近一次追上用的时间；
+     * 子 KDS 为已应用和已确认的序号。
+     */
+    @ReactMethod
+    public void getReplicationStatus(Promise promise) {
+        WritableMap map = Arguments.createMap();
+        SubKdsReplicator master;
+        synchronized (this) {
+            master = replicator;
+        }
+        if (master != null) {
+            ReplicationLog log = master.log();
+            WritableMap masterMap = Arguments.createMap();
+            masterMap.putString("epoch", Long.toString(log.epoch()));
+            masterMap.putDouble("lastSeq", log.lastSequence());
+            masterMap.putDouble("oldestSeq", log.oldestSequence());
+            WritableArray replicas = Arguments.createArray();
+            for (SubKdsReplicator.Replica.Stats stats : master.stats()) {
+                WritableMap item = Arguments.createMap();
+                item.putString("address", stats.address);
+                item.putString("category", stats.category);
+                item.putBoolean("connected", stats.connected);
+                item.putDouble("ackedSeq", stats.ackedSequence);
+                item.putDouble("lag", stats.lag);
+                if (stats.lastError != null) item.putString("lastError", stats.lastError);
+                item.putDouble("reconnects", stats.reconnects);
+                item.putDouble("framesSent", stats.framesSent);
+                item.putDouble("gaps", stats.gaps);
+                item.putDouble("busyReplies", stats.busyReplies);
+                item.putDouble("lastCatchUpMs", stats.lastCatchUpMs);
+                item.putDouble("lastCatchUpEntries", stats.lastCatchUpEntries);
+                item.putBoolean("discovered", stats.discovered);
+                item.putBoolean("alive", stats.alive);
+                item.putDouble("skippedOffline", stats.skippedOffline);
+                replicas.pushMap(item);
+            }
+            masterMap.putArray("replicas", replicas);
+            map.putMap("master", masterMap);
+        }
+        if (replica != null) {
+            SubKdsReplica.Stats stats = replica.stats();
+            WritableMap replicaMap = Arguments.createMap();
+            replicaMap.putString("epoch", Long.toString(stats.epoch));
+            replicaMap.putDouble("appliedSeq", stats.applied);
+            replicaMap.putDouble("confirmedSeq", stats.confirmed);
+            replicaMap.putDouble("entriesApplied", stats.entriesApplied);
+            replicaMap.putDouble("duplicates", stats.duplicates);
+            replicaMap.putDouble("gaps", stats.gaps);
+            replicaMap.putDouble("resyncs", stats.resyncs);
+            replicaMap.putDouble("lastAppliedAt", stats.lastAppliedAt);
+            map.putMap("replica", replicaMap);
+        }
+        promise.resolve(map);
+    }
 
-        try{
-            for (parseCounter=0; parseCounter < orderString.length(); parseCounter++ ) { 
-                char character = (char) orderString.charAt(parseCounter) ;             // currenct character
-                // if (productoptions != null)  System.out.println("comppp" + character);
-                // checkers
-                if (character == '}'){
-                    newProduct = false;         // product end
+    private synchronized SubKdsReplicator replicator() throws IOException {
+        if (replicator == null) {
+            replicator = new SubKdsReplicator(
+                ReplicationLog.open(new File(appContext.getFilesDir(), REPLICATION_FILE), REPLICATION_CAPACITY));
+            replicator.setDiscovery(discovery);
+        }
+        return replicator;
+    }
 
-                    // System.out.println("Creating new order, order id = " + ordeRID + " products = " + Arrays.toString(productName));
-                    Order currentOrder = new Order(ordeRID, productName);
-                    System.out.println("Order created with " + currentOrder.OrderID);
-                }   
-                if (character == '{'){                  // new product line
-                    newProduct = true;
-                    productIndicie = 0;                 // reset indicie
-                }
-        
-                if (newProduct && character == '"'){
-                    productIndicie += 1 ;                           
-        
-                    if (productIndicie == Math.floor(productIndicie)){         // verify whole number
-        
-                        // map indices
-                        switch(  (int)Math.floor(productIndicie) ){
-                            case 1 :  
-                                ordeRID = parseSingleValue( orderString);
-                                // System.out.println("ordeRID = " + ordeRID);
-                            break;
-                            case 2 : 
-                                productName = parseSingleArray(orderString);
-                                // System.out.println(Arrays.toString(parseSingleArray(orderString)));
-                                // parseSingleArray(orderString) ;
-                                newProduct =false;
-                            // break;
-                        }
-        
-                    }
-                }
-                // }
-                // index++;
+    /**
+     * 打开失败时不发现其他 KDS，子 KDS 仍然按手动设置的 IP 推送。
+     */
+    private PeerDiscovery openDiscovery(ReactApplicationContext context) {
+        try {
+            WifiManager wifi = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+            if (wifi != null) {
+                multicastLock = wifi.createMulticastLock(TAG);
+                multicastLock.setReferenceCounted(false);
+                multicastLock.acquire();
             }
-        }catch(Exception k) { 
+        } catch (RuntimeException e) {
+            Log.e(TAG, "获取组播锁失败，屏幕关闭时可能收不到信标: " + e.getMessage());
+        }
+        try {
+            return PeerDiscovery.open(InetAddress.getByName(BROADCAST_ADDRESS), PeerDiscovery.DEFAULT_PORT,
+                OrderServer.PORT, () -> discoveryLoad, this::onPeerChanged);
+        } catch (IOException e) {
+            Log.e(TAG, "打开KDS发现服务失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 设置本机在信标里的角色（master / slave）和分类，之后开始广播。
+     * 主 KDS 收到子 KDS 的信标后就知道它的地址和分类，不需要手动输入 IP。
+     */
+    @ReactMethod
+    public void advertise(String role, String category) {
+        if (discovery != null) discovery.advertise(role, category);
+    }
 
+    /** 当前订单数，作为负载写在信标里 */
+    @ReactMethod
+    public void setDiscoveryLoad(int load) {
+        discoveryLoad = load;
+    }
+
+    /**
+     * 局域网内发现的 KDS：{ self: { id, role, category, beaconsSent, ... }, peers: [{ id, role, category, host, port, address, load, alive, lastSeenMs }] }。
+     * 发现服务不可用时 resolve null。
+     */
+    @ReactMethod
+    public void getPeers(Promise promise) {
+        if (discovery == null) {
+            promise.resolve(null);
+            return;
         }
+        PeerDiscovery.Stats stats = discovery.stats();
+        WritableMap self = Arguments.createMap();
+        self.putString("id", stats.id);
+        if (stats.role != null) self.putString("role", stats.role);
+        self.putString("category", stats.category);
+        self.putDouble("beaconsSent", stats.beaconsSent);
+        self.putDouble("beaconsReceived", stats.beaconsReceived);
+        self.putDouble("invalidBeacons", stats.invalidBeacons);
+        if (stats.lastError != null) self.putString("lastError", stats.lastError);
+        WritableMap map = Arguments.createMap();
+        map.putMap("self", self);
+        map.putArray("peers", peerArray());
+        promise.resolve(map);
+    }
 
+    private WritableArray peerArray() {
+        WritableArray peers = Arguments.createArray();
+        long now = System.nanoTime() / 1_000_000;
+        for (PeerDiscovery.Peer peer : discovery.peers()) {
+            WritableMap item = Arguments.createMap();
+            item.putString("id", peer.id);
+            item.putString("role", peer.role);
+            item.putString("category", peer.category);
+            item.putString("host", peer.host);
+            item.putInt("port", peer.port);
+            // 默认端口只用 IP，和手动输入的子 KDS 地址一致
+            item.putString("address", peer.port == OrderServer.PORT ? peer.host : peer.address());
+            item.putInt("load", peer.load);
+            item.putBoolean("alive", peer.alive);
+            item.putDouble("lastSeenMs", now - peer.lastSeen);
+            peers.pushMap(item);
+        }
+        return peers;
+    }
+
+    /** 在发现线程上调用：通知复制线程（离线的不再连接，上线的立即重连），再通知 JS */
+    private void onPeerChanged(PeerDiscovery.Peer peer) {
+        SubKdsReplicator master;
+        synchronized (this) {
+            master = replicator;
+        }
+        if (master != null) master.peerChanged(peer);
+        if (!appContext.hasActiveReactInstance()) return;
+        appContext
+            .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+            .emit(EVENT_PEERS, peerArray());
     }
 
+    @ReactMethod
+    public void TestAdd (){
+        orderBatcher.add("test call added");
+    }
+    
+    /**
+     * 由订单处理阶段（orderStage，TCP 和 HTTP 服务器共用）的线程调用，见 OrderIntake。
+     * 订单在这里（而不是 JS 线程）解析成 FormattedOrder 结构的 WritableMap，
+     * 状态消息（带 type 字段）或无法解析的数据仍以原始字符串交给 JS。
+     * 订单先写入日志并落盘，然后才进入 OrderBatcher（按批次通过 onOrdersReceived 事件发给 JS）
+     * 并回调 onComplete，服务器在回调里回复 ACK。
+     * 主 KDS 发来的复制帧按序号应用，通过 onReplication 事件交给 JS。
+     * @param onComplete 可能在日志同步线程上调用；error 不为 null 时应回复 NACK
+     */
+    public void AddOrder(String orderstring, OrderJournal.Callback onComplete) {
+        intake.add(orderstring, onComplete);
+    }
+
+    /** OrderServer 的入口：frame 是 OrderFrameDecoder 交付的 UTF-8 原文 */
+    public void AddOrder(byte[] frame, OrderJournal.Callback onComplete) {
+        intake.add(frame, onComplete);
+    }
 
     /**
-     * Attempt to read the single array starting at the current position in buffer reader. 
-     *      Format to parse :  [ "url1", "url2",  ]"
-     * @param reader
-     * @return the parsed array of urls.
+     * 主 KDS 在确认 POS 之后直接把订单按分类推送给子 KDS，不经过 JS。
      */
-    private  String[] parseSingleArray (String meta) throws IOException { 
+    private void replicate(Order order, String orderId) {
+        SubKdsReplicator master;
+        synchronized (this) {
+            master = replicator;
+        }
+        if (master == null || !master.hasReplicas()) return;
+        try {
+            master.publishOrder(order, orderId);
+        } catch (IOException e) {
+            Log.e(TAG, "订单 " + orderId + " 写入复制日志失败: " + e.getMessage());
+        }
+    }
 
-        StringBuffer b = new StringBuffer();
-        LinkedList<String> urls = new LinkedList<>();
-        boolean inArray = false;
-        int counter =0;
-        // parseCounter++;
+    /** 子 KDS 应用的复制变化，按批次通过 onReplication 事件发给 JS */
+    private void queueReplication(ReplicationFrame frame) {
+        WritableMap entry = Arguments.createMap();
+        entry.putDouble("seq", frame.sequence);
+        entry.putString("op", frame.op);
+        entry.putString("orderId", frame.orderId);
+        entry.putString("data", frame.data);
+        replicationBatcher.add(entry);
+    }
 
-        // System.out.println("parsing meta at" + parseCounter + " . at --> " + meta.charAt(parseCounter));
-        // while ((ch = reader.read()) != -1){
-        for (;  parseCounter < meta.length(); parseCounter++){
-            char character = (char)meta.charAt(parseCounter);
-            
-            if (character == '[') inArray = true;
-            if (character == ']') break;     // end of array
-            if (inArray && character == '"') counter++;
+    private boolean emitReplicationBatch(List<Object> batch) {
+        if (!appContext.hasActiveReactInstance()) {
+            // 批次留在 OrderBatcher 里，React 实例就绪后再发
+            Log.d(TAG, "React实例未就绪，稍后发送复制数据");
+            return false;
+        }
+        if (!reserveJsSlot()) return false;
+        boolean posted = false;
+        try {
+            WritableArray array = Arguments.createArray();
+            for (Object item : batch) array.pushMap((WritableMap) item);
+            emitOnJsThread(EVENT_REPLICATION, array, null);
+            posted = true;
+        } finally {
+            // 构建数组失败时批次没有交给 JS 线程，归还排队位置
+            if (!posted) jsQueueSlots.release();
+        }
+        return true;
+    }
 
-            if (counter != 0){
-                if ( (counter % 2) == 0 ){   
-                    urls.push(b.toString());
-                    b = new StringBuffer();
-                    counter = 0;
-                }else{
-                    if (character != '"') b.append(character);
+    private boolean emitOrderBatch(List<Object> batch) {
+        if (!appContext.hasActiveReactInstance()) {
+            Log.d(TAG, "React实例未就绪，稍后发送订单");
+            return false;
+        }
+        if (!reserveJsSlot()) return false;
+        boolean posted = false;
+        try {
+            WritableArray array = Arguments.createArray();
+            for (Object item : batch) {
+                if (item instanceof WritableMap) array.pushMap((WritableMap) item);
+                else array.pushString(String.valueOf(item));
+            }
+            emitOnJsThread(EVENT_ORDERS_RECEIVED, array, () -> {
+                synchronized (batchPostedAt) {
+                    batchPostedAt[(int) (batchesPosted++ % JS_ACK_WINDOW)] = System.nanoTime();
                 }
+            });
+            posted = true;
+        } finally {
+            if (!posted) jsQueueSlots.release();
+        }
+        return true;
+    }
+
+    /**
+     * JS 线程上排队的批次有上限。满了之后不等待（批处理线程还负责复制批次和指标快照），
+     * 返回 false，OrderBatcher 把批次留在队列里，JS 线程发出一个批次后再重试。
+     */
+    private boolean reserveJsSlot() {
+        if (jsQueueSlots.tryAcquire()) return true;
+        jsQueueFull.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 流水线的最后一步：批处理线程上准备好的数组交给 JS 模块线程发出，接单流程中只有这一步使用 React 的线程。
+     * 调用前必须已经通过 reserveJsSlot 占用一个排队位置，发出后释放并通知 OrderBatcher 重试推迟的批次；
+     * 本方法抛出异常时调用方负责释放。
+     * @param beforeEmit 在 JS 线程上、发出之前调用，为 null 时不调用
+     */
+    private void emitOnJsThread(String event, WritableArray array, Runnable beforeEmit) {
+        int depth = MAX_JS_QUEUED_BATCHES - jsQueueSlots.availablePermits();
+        int max;
+        while (depth > (max = maxJsQueued.get()) && !maxJsQueued.compareAndSet(max, depth)) {
+            // 其他线程同时更新了最大值，重试
+        }
+        long postedAt = System.nanoTime();
+        appContext.runOnJSQueueThread(() -> {
+            long start = System.nanoTime();
+            jsQueueWait.recordNanos(start - postedAt);
+            try {
+                if (beforeEmit != null) beforeEmit.run();
+                appContext
+                    .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                    .emit(event, array);
+            } catch (Exception e) {
+                Log.e(TAG, "发送 " + event + " 失败: " + e.getMessage());
+            } finally {
+                jsEmitTime.recordSince(start);
+                jsEmitted.incrementAndGet();
+                jsQueueSlots.release();
+                orderBatcher.resume();
+                replicationBatcher.resume();
             }
+        });
+    }
+
+    /**
+     * JS 处理完一个 onOrdersReceived 批次、订单已经保存（addTCPOrders 完成）后调用（每个批次一次，按收到的顺序），记录 jsAck 延迟。
+     */
+    @ReactMethod
+    public void ackOrderBatch() {
+        long now = System.nanoTime();
+        synchronized (batchPostedAt) {
+            if (batchesAcked >= batchesPosted) return;
+            // 落后太多的批次时间已经被覆盖，跳过
+            if (batchesPosted - batchesAcked > JS_ACK_WINDOW) batchesAcked = batchesPosted - JS_ACK_WINDOW;
+            KdsMetrics.recordNanos(KdsMetrics.Stage.JS_ACK, now - batchPostedAt[(int) (batchesAcked++ % JS_ACK_WINDOW)]);
+        }
+    }
 
+    private KdsMetrics.Snapshot metricsSnapshot() {
+        KdsMetrics.Snapshot snapshot = KdsMetrics.snapshot();
+        snapshot.queues.put("bridgePending", (long) orderBatcher.stats().pending);
+        snapshot.queues.put("orderStageQueued", (long) orderStage.stats().queued);
+        snapshot.queues.put("jsQueued", (long) (MAX_JS_QUEUED_BATCHES - jsQueueSlots.availablePermits()));
+        synchronized (batchPostedAt) {
+            snapshot.queues.put("jsUnacked", batchesPosted - batchesAcked);
         }
-    
-        return urls.toArray(new String[0]);
+        return snapshot;
     }
-    
 
+    private void writeMetricsSnapshot() {
+        try {
+            KdsMetrics.writeSnapshot(metricsSnapshot(), metricsFile);
+        } catch (IOException e) {
+            Log.e(TAG, "写入指标快照失败: " + e.getMessage());
+        }
+    }
 
-     private String parseSingleValue (String meta) { 
-        StringBuffer b = new StringBuffer();
+    /**
+     * 热路径指标：{ takenAt, sinceMs, payloadLogLevel,
+     *   stages: { accept, frame, parse, dedup, journal, bridgePost, jsAck, printEnqueue, paperOut: { count, meanMs, p50Ms, p90Ms, p99Ms, p999Ms, maxMs } },
+     *   counters: { connections, bytesIn, bytesOut, orders, duplicates, frameErrors, parseErrors, orderErrors, connectionErrors },
+     *   queues: { openConnections, ordersInFlight, journalPending, printQueued, bridgePending, jsUnacked } }
+     * 同样的内容每分钟写入 files/metrics.json。
+     */
+    @ReactMethod
+    public void getMetrics(Promise promise) {
+        KdsMetrics.Snapshot snapshot = metricsSnapshot();
+        WritableMap map = Arguments.createMap();
+        map.putDouble("takenAt", snapshot.takenAt);
+        map.putDouble("sinceMs", snapshot.sinceMs);
+        map.putString("payloadLogLevel", PayloadLog.levelName(PayloadLog.level()));
+        WritableMap stages = Arguments.createMap();
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : snapshot.stages.entrySet()) {
+            stages.putMap(entry.getKey(), histogramMap(entry.getValue()));
+        }
+        map.putMap("stages", stages);
+        WritableMap counters = Arguments.createMap();
+        for (Map.Entry<String, Long> entry : snapshot.counters.entrySet()) counters.putDouble(entry.getKey(), entry.getValue());
+        map.putMap("counters", counters);
+        WritableMap queues = Arguments.createMap();
+        for (Map.Entry<String, Long> entry : snapshot.queues.entrySet()) queues.putDouble(entry.getKey(), entry.getValue());
+        map.putMap("queues", queues);
+        promise.resolve(map);
+    }
+
+    private static WritableMap histogramMap(LatencyHistogram.Snapshot histogram) {
+        WritableMap item = Arguments.createMap();
+        item.putDouble("count", histogram.count);
+        item.putDouble("meanMs", histogram.meanMs);
+        item.putDouble("p50Ms", histogram.p50Ms);
+        item.putDouble("p90Ms", histogram.p90Ms);
+        item.putDouble("p99Ms", histogram.p99Ms);
+        item.putDouble("p999Ms", histogram.p999Ms);
+        item.putDouble("maxMs", histogram.maxMs);
+        return item;
+    }
+
+    /**
+     * 接单流水线各阶段的线程数、队列深度（当前 / 最大 / 上限）、排队时间和服务时间，按订单经过的顺序：
+     * network（TCP 和 HTTP 服务器各一个 Selector 线程，只统计正在运行的，服务时间为收完一帧的时间，队列为打开的连接）
+     * → order（解析、校验、去重、写入日志，TCP 和 HTTP 共用）
+     * → persist（日志同步线程，服务时间为一次 fsync，队列为等待 fsync 的订单）
+     * → deliver（JS 模块线程，队列为等待发出的批次，服务时间为一次 emit，rejected 为队列已满、批次推迟发送的次数）。
+     */
+    @ReactMethod
+    public void getPipelineStats(Promise promise) {
+        WritableArray stages = Arguments.createArray();
+
+        OrderStage.Stats network = new OrderStage.Stats();
+        network.name = "network";
+        OrderServer tcp = Server;
+        OrderHttpServer http = httpServer;
+        network.threads = (tcp != null ? tcp.ioThreads() : 0) + (http != null ? http.ioThreads() : 0);
+        network.capacity = admission.limits().maxConnections;
+        AdmissionControl.Stats admitted = admission.stats();
+        network.queued = admitted.connections;
+        network.rejected = admitted.connectionsRejected + admitted.ordersRejected;
+        network.serviceTime = KdsMetrics.histogram(KdsMetrics.Stage.FRAME).snapshot();
+        network.completed = network.serviceTime.count;
+        stages.pushMap(stageMap(network));
+
+        stages.pushMap(stageMap(orderStage.stats()));
+
+        if (journal != null) {
+            OrderJournal.Stats journaled = journal.stats();
+            OrderStage.Stats persist = new OrderStage.Stats();
+            persist.name = "persist";
+            persist.threads = 1;
+            persist.queued = journaled.waiting;
+            persist.maxQueued = journaled.maxWaiting;
+            persist.completed = journaled.appends;
+            persist.waitTime = journaled.syncWait;
+            persist.serviceTime = journaled.syncTime;
+            stages.pushMap(stageMap(persist));
+        }
+
+        OrderStage.Stats deliver = new OrderStage.Stats();
+        deliver.name = "deliver";
+        deliver.threads = 1;
+        deliver.capacity = MAX_JS_QUEUED_BATCHES;
+        deliver.queued = MAX_JS_QUEUED_BATCHES - jsQueueSlots.availablePermits();
+        deliver.maxQueued = maxJsQueued.get();
+        deliver.completed = jsEmitted.get();
+        deliver.rejected = jsQueueFull.get();
+        deliver.waitTime = jsQueueWait.snapshot();
+        deliver.serviceTime = jsEmitTime.snapshot();
+        WritableMap deliverMap = stageMap(deliver);
+        // 还在合并窗口里、没有交给 JS 线程的订单
+        deliverMap.putInt("batcherPending", orderBatcher.stats().pending);
+        stages.pushMap(deliverMap);
+
+        promise.resolve(stages);
+    }
+
+    private static WritableMap stageMap(OrderStage.Stats stage) {
+        WritableMap map = Arguments.createMap();
+        map.putString("name", stage.name);
+        map.putInt("threads", stage.threads);
+        map.putInt("capacity", stage.capacity);
+        map.putInt("queued", stage.queued);
+        map.putInt("maxQueued", stage.maxQueued);
+        map.putInt("running", stage.running);
+        map.putDouble("completed", stage.completed);
+        map.putDouble("rejected", stage.rejected);
+        if (stage.waitTime != null) map.putMap("waitTime", histogramMap(stage.waitTime));
+        if (stage.serviceTime != null) map.putMap("serviceTime", histogramMap(stage.serviceTime));
+        return map;
+    }
+
+    /** 清空延迟直方图和计数器（例如压测开始前），队列深度不受影响 */
+    @ReactMethod
+    public void resetMetrics() {
+        KdsMetrics.reset();
+    }
 
-        parseCounter++;
-        // System.out.println("parsing index : "+ parseCounter);
-        for (; parseCounter < meta.length(); parseCounter++){
-            char character = (char)meta.charAt(parseCounter);
-            if (character == '"'){
-                return b.toString();
-            } 
-            b.append(character);
+    /**
+     * 订单原文的日志级别："off" 不记录，"summary"（默认）只记录长度和开头，"full" 记录完整 JSON。
+     */
+    @ReactMethod
+    public void setPayloadLogLevel(String level, Promise promise) {
+        int parsed = PayloadLog.parseLevel(level);
+        if (parsed < 0) {
+            promise.reject("INVALID_LEVEL", "未知的日志级别: " + level);
+            return;
         }
+        PayloadLog.setLevel(parsed);
+        promise.resolve(PayloadLog.levelName(parsed));
+    }
 
-        return null;
+    /**
+     * 解析订单 JSON 为 Order 模型。
+     * 每次调用使用独立的解析器实例，可以在多个连接线程上同时调用。
+     * @throws OrderParser.ParseException 订单格式错误
+     */
+    static Order ParseOrder(String orderString) throws OrderParser.ParseException {
+        return Order.parse(new OrderParser(), orderString);
     }
 
     @ReactMethod
@@ -221,30 +902,83 @@ public class OrderHandlerModule extends ReactContextBaseJavaModule{
                 this.Server.stopServer();
                 this.Server = null;
             }
+            if (this.httpServer != null) {
+                this.httpServer.stop();
+                this.httpServer = null;
+            }
             Log.d(TAG, "TCP server closed successfully");
         } catch (Exception e) {
             Log.e(TAG, "Error closing TCP server: " + e.getMessage());
         }
     }
 
+    /**
+     * 通过长连接池发送数据到子 KDS，对方回复 ACK 后 resolve（见 SubKdsConnectionPool）。
+     * 使用会话帧，子 KDS 也必须是支持会话模式的版本；旧版本子 KDS 不回复，发送超时失败。
+     * 发出之后超时的数据不自动重发，对方可能已经处理，由调用方决定是否重发。
+     */
     @ReactMethod
     public void sendTCPData(String targetIP, String data, Promise promise) {
-        new Thread(() -> {
-            Socket socket = null;
-            try {
-                socket = new Socket();
-                socket.connect(new InetSocketAddress(targetIP, 4321), 5000); // 3秒超时
-                
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                out.println(data);
-                out.flush();
-                
+        subKdsPool.send(targetIP, data, (ip, success, error) -> {
+            if (success) {
                 promise.resolve(true);
-            } catch (Exception e) {
-                Log.e("OrderHandlerModule", "发送TCP数据失败: " + e.getMessage());
-                promise.reject("TCP_ERROR", "发送TCP数据失败: " + e.getMessage());
-            } 
-        }).start();
+            } else {
+                promise.reject("TCP_ERROR", "发送TCP数据失败: " + error);
+            }
+        });
+    }
+
+    /**
+     * 并行发送同一份数据到多个子 KDS。
+     * resolve 的结果以 IP 为键：{ success: boolean, error?: string, latencyMs: number }
+     */
+    @ReactMethod
+    public void broadcastTCPData(ReadableArray ips, String data, Promise promise) {
+        int count = ips.size();
+        if (count == 0) {
+            promise.resolve(Arguments.createMap());
+            return;
+        }
+        long start = System.nanoTime();
+        Map<String, WritableMap> results = new ConcurrentHashMap<>();
+        AtomicInteger remaining = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            subKdsPool.send(ips.getString(i), data, (ip, success, error) -> {
+                WritableMap result = Arguments.createMap();
+                result.putBoolean("success", success);
+                if (error != null) result.putString("error", error);
+                result.putDouble("latencyMs", (System.nanoTime() - start) / 1_000_000.0);
+                results.put(ip, result);
+                if (remaining.decrementAndGet() == 0) {
+                    WritableMap all = Arguments.createMap();
+                    for (Map.Entry<String, WritableMap> entry : results.entrySet()) {
+                        all.putMap(entry.getKey(), entry.getValue());
+                    }
+                    promise.resolve(all);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        // 先停止两个服务器，JS 重新加载后新的模块才能绑定 4321 / 4323 端口，然后再关闭它们使用的线程和存储
+        closeServer();
+        orderStage.shutdown();
+        // 已经交给处理阶段的订单写完日志后再关闭日志
+        if (!orderStage.awaitTermination(STAGE_SHUTDOWN_WAIT_MS)) Log.e(TAG, "订单处理阶段没有在关闭前处理完");
+        subKdsPool.closeAll();
+        synchronized (this) {
+            if (replicator != null) replicator.shutdown();
+        }
+        batchScheduler.shutdown();
+        writeMetricsSnapshot();
+        if (journal != null) journal.close();
+        if (dedup != null) dedup.close();
+        if (replica != null) replica.close();
+        if (discovery != null) discovery.close();
+        if (multicastLock != null && multicastLock.isHeld()) multicastLock.release();
     }
 
 }
@@ -0,0 +1,674 @@
+package com.anonymous.KDS;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import android.util.Base64;
+import android.util.Log;
+
+/**
+ * 订单 HTTP / WebSocket 服务器（端口 4323），给不会用 4321 端口协议的外卖平板和云端转发使用。
+ *
+ * POST /orders   请求体为一个订单 JSON，或订单数组（批量）。所有订单写入日志落盘后才回复 200，
+ *                结果为 {"accepted":n,"failed":m,"results":[{"ok":true},{"ok":false,"error":"..."}]}。
+ * GET /ws        升级为 WebSocket，每条文本消息是一个订单（或订单数组），
+ *                按消息顺序回复 "ACK n" 或 "NACK n 原因"（n 从 1 开始），与 4321 端口的会话模式一致。
+ * GET /health    回复 {"status":"ok"}。
+ *
+ * 和 OrderServer 一样由一个 Selector 线程处理所有连接，订单交给共用的订单处理阶段（OrderStage）调用 OrderHandlerModule.AddOrder，
+ * 解析、去重、日志和交给 JS 的流程完全相同。同一连接上的请求按顺序处理、按顺序回复（支持 keep-alive 和管线化）。
+ *
+ * 与 OrderServer 共用准入控制（AdmissionControl）：超过上限时 POST 回复 503 和 Retry-After，
+ * WebSocket 消息回复 "BUSY n retry-after=毫秒"。请求体大小、读取超时和空闲超时也使用其中的配置，
+ * WebSocket 是长连接，不按空闲关闭。
+ */
+final class OrderHttpServer {
+
+    private static final String TAG = "OrderHttpServer";
+    static final int PORT = 4323;
+    private static final int BACKLOG = 50;
+    private static final int WORKER_THREADS = 2;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 16;
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    // 积压的回复（包括还没完成的）超过这个数时暂停读取
+    private static final int MAX_QUEUED_REPLIES = 256;
+    private static final long SWEEP_INTERVAL_MS = 1000;
+
+    private final int port;
+    private final OrderHandlerModule orderModule;
+    private final AdmissionControl admission;
+    private long nextSweepAt;
+    private volatile boolean serverRunning = true;
+    private volatile Thread ioThread;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private final OrderStage orderStage;
+    private final boolean ownsOrderStage;
+    private final ByteBufferPool bufferPool = new ByteBufferPool(READ_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final ConcurrentLinkedQueue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+    // 统计
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong ordersAccepted = new AtomicLong();
+    private final AtomicLong ordersFailed = new AtomicLong();
+    private final AtomicLong webSocketMessages = new AtomicLong();
+    private final AtomicLong badRequests = new AtomicLong();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    OrderHttpServer(OrderHandlerModule orderModule, AdmissionControl admission, OrderStage orderStage) {
+        this(orderModule, PORT, admission, orderStage);
+    }
+
+    /** @param orderStage 与 OrderServer 共用的订单处理阶段，为 null 时使用自己的线程 */
+    OrderHttpServer(OrderHandlerModule orderModule, int port, AdmissionControl admission, OrderStage orderStage) {
+        this.orderModule = orderModule;
+        this.port = port;
+        this.admission = admission;
+        this.ownsOrderStage = orderStage == null;
+        this.orderStage = orderStage != null ? orderStage
+            : new OrderStage("HttpServer-Worker", WORKER_THREADS, AdmissionControl.MAX_CONNECTIONS_LIMIT);
+    }
+
+    void start() {
+        ioThread = new Thread(() -> {
+            try {
+                selector = Selector.open();
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.configureBlocking(false);
+                serverChannel.socket().setReuseAddress(true);
+                serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("0.0.0.0"), port), BACKLOG);
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+                Log.d(TAG, "HTTP服务器启动成功，端口 " + port);
+
+                while (serverRunning) {
+                    selector.select(SWEEP_INTERVAL_MS);
+                    runPendingTasks();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (!key.isValid()) continue;
+                            if (key.isAcceptable()) {
+                                accept();
+                                continue;
+                            }
+                            if (key.isReadable()) read(key);
+                            if (key.isValid() && key.isWritable()) write(key);
+                        } catch (IOException | CancelledKeyException e) {
+                            if (serverRunning) {
+                                KdsMetrics.increment(KdsMetrics.Counter.CONNECTION_ERRORS);
+                                Log.e(TAG, "处理HTTP连接时出错: " + e.getMessage());
+                            }
+                            close(key);
+                        } catch (RuntimeException e) {
+                            // 一个连接上的意外错误只关闭这个连接，不能让 Selector 线程退出
+                            KdsMetrics.increment(KdsMetrics.Counter.CONNECTION_ERRORS);
+                            Log.e(TAG, "处理HTTP连接时出现意外错误: " + e);
+                            if (key.attachment() instanceof Connection) close(key);
+                        }
+                    }
+                    sweepTimeouts();
+                }
+            } catch (IOException e) {
+                if (serverRunning) Log.e(TAG, "HTTP服务器启动失败: " + e.getMessage());
+            } finally {
+                closeAll();
+            }
+        }, "KDS-HttpServer-IO");
+        ioThread.start();
+    }
+
+    /** 正在运行的 Selector 线程数（0 或 1） */
+    int ioThreads() {
+        Thread thread = ioThread;
+        return thread != null && thread.isAlive() ? 1 : 0;
+    }
+
+    void stop() {
+        serverRunning = false;
+        try {
+            if (selector != null) selector.wakeup();
+            if (serverChannel != null && serverChannel.isOpen()) serverChannel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭HTTP服务器时出错: " + e.getMessage());
+        }
+        if (ownsOrderStage) orderStage.shutdown();
+    }
+
+    Stats stats() {
+        Stats stats = new Stats();
+        stats.requests = requests.get();
+        stats.ordersAccepted = ordersAccepted.get();
+        stats.ordersFailed = ordersFailed.get();
+        stats.webSocketMessages = webSocketMessages.get();
+        stats.badRequests = badRequests.get();
+        stats.connections = connections.get();
+        return stats;
+    }
+
+    static final class Stats {
+        long requests;
+        long ordersAccepted;
+        long ordersFailed;
+        long webSocketMessages;
+        // 格式错误、路径不存在等直接回复 4xx 的请求
+        long badRequests;
+        int connections;
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        long start = System.nanoTime();
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            InetAddress address = channel.socket().getInetAddress();
+            if (!admission.openConnection(address)) {
+                rejectConnection(channel, address);
+                start = System.nanoTime();
+                continue;
+            }
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel, address, orderStage, admission.limits().maxFrameBytes);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.incrementAndGet();
+            KdsMetrics.record(KdsMetrics.Stage.ACCEPT, start);
+            KdsMetrics.increment(KdsMetrics.Counter.CONNECTIONS);
+            KdsMetrics.adjust(KdsMetrics.Gauge.OPEN_CONNECTIONS, 1);
+            start = System.nanoTime();
+        }
+    }
+
+    /** 连接数超过上限：回复 503 后直接关闭，不注册到 Selector */
+    private void rejectConnection(SocketChannel channel, InetAddress address) {
+        Log.e(TAG, "连接数超过上限，拒绝: " + address);
+        try {
+            channel.write(ByteBuffer.wrap(busyResponse(false)));
+        } catch (IOException ignored) {
+            // 客户端已经断开
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭HTTP连接时出错: " + e.getMessage());
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            int n = connection.channel.read(buffer);
+            if (n < 0) {
+                connection.stopReading();
+                if (connection.inFlight == 0) connection.closeWhenFlushed();
+                return;
+            }
+            KdsMetrics.add(KdsMetrics.Counter.BYTES_IN, n);
+            connection.readAt = System.nanoTime();
+            connection.lastActiveAt = connection.readAt;
+            if (connection.frameStartedAt == 0) connection.frameStartedAt = connection.readAt;
+            buffer.flip();
+            if (connection.decoder.isWebSocket()) readMessages(connection, buffer);
+            else readRequests(connection, buffer);
+        } catch (HttpFrameDecoder.HttpException e) {
+            badRequests.incrementAndGet();
+            KdsMetrics.increment(KdsMetrics.Counter.FRAME_ERRORS);
+            Log.e(TAG, "HTTP请求格式错误: " + e.getMessage());
+            connection.stopReading();
+            if (connection.decoder.isWebSocket()) {
+                connection.respond(connection.slot(), closeFrame(e.status, e.getMessage()), true);
+            } else {
+                connection.respond(connection.slot(), response(e.status, error(e.getMessage()), false), true);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private void readRequests(Connection connection, ByteBuffer buffer) throws IOException {
+        HttpFrameDecoder.Request request;
+        while (!connection.readingStopped && (request = connection.decoder.decodeRequest(buffer)) != null) {
+            requests.incrementAndGet();
+            connection.frameComplete();
+            handle(connection, request);
+            // WebSocket 握手之后的字节按帧解析
+            if (connection.decoder.isWebSocket()) {
+                readMessages(connection, buffer);
+                return;
+            }
+        }
+        if (!connection.decoder.hasPartialInput()) connection.frameStartedAt = 0;
+        if (connection.decoder.takeContinue()) {
+            connection.enqueue("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private void handle(Connection connection, HttpFrameDecoder.Request request) {
+        boolean keepAlive = request.keepAlive();
+        if (!keepAlive) connection.stopReading();
+        Slot slot = connection.slot();
+        if ("/orders".equals(request.path)) {
+            if (!"POST".equals(request.method)) {
+                reject(connection, slot, 405, "只支持 POST", keepAlive);
+                return;
+            }
+            List<String> orders = splitOrders(request.body);
+            if (orders == null || orders.isEmpty()) {
+                reject(connection, slot, 400, "请求体应为订单 JSON 或订单数组", keepAlive);
+                return;
+            }
+            boolean admitted = submit(connection, orders, results -> {
+                int failed = 0;
+                StringBuilder json = new StringBuilder(32 + results.length * 16).append("{\"accepted\":");
+                for (String result : results) if (result != null) failed++;
+                json.append(results.length - failed).append(",\"failed\":").append(failed).append(",\"results\":[");
+                for (int i = 0; i < results.length; i++) {
+                    if (i > 0) json.append(',');
+                    json.append(results[i] == null ? "{\"ok\":true}" : "{\"ok\":false,\"error\":" + Order.quote(results[i]) + "}");
+                }
+                json.append("]}");
+                // 全部失败（例如日志写不进去）时回复 503，发送方应重试
+                int status = failed == results.length ? 503 : 200;
+                connection.respond(slot, response(status, json.toString(), keepAlive), !keepAlive);
+            });
+            if (!admitted) connection.respond(slot, busyResponse(keepAlive), !keepAlive);
+            return;
+        }
+        if ("/ws".equals(request.path)) {
+            if (!request.isWebSocketUpgrade()) {
+                reject(connection, slot, 400, "需要 WebSocket 握手", keepAlive);
+                return;
+            }
+            String accept = acceptKey(request.header("sec-websocket-key"));
+            connection.decoder.upgradeToWebSocket();
+            connection.respond(slot, ("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII), false);
+            return;
+        }
+        if ("/health".equals(request.path) && "GET".equals(request.method)) {
+            connection.respond(slot, response(200, "{\"status\":\"ok\"}", keepAlive), !keepAlive);
+            return;
+        }
+        reject(connection, slot, 404, "路径不存在: " + request.path, keepAlive);
+    }
+
+    private void reject(Connection connection, Slot slot, int status, String message, boolean keepAlive) {
+        badRequests.incrementAndGet();
+        connection.respond(slot, response(status, error(message), keepAlive), !keepAlive);
+    }
+
+    private void readMessages(Connection connection, ByteBuffer buffer) throws IOException {
+        HttpFrameDecoder.Message message;
+        while (!connection.readingStopped && (message = connection.decoder.decodeMessage(buffer)) != null) {
+            connection.frameComplete();
+            switch (message.opcode) {
+                case HttpFrameDecoder.OP_PING:
+                    connection.respond(connection.slot(), HttpFrameDecoder.encodeFrame(HttpFrameDecoder.OP_PONG, message.payload), false);
+                    break;
+                case HttpFrameDecoder.OP_PONG:
+                    break;
+                case HttpFrameDecoder.OP_CLOSE:
+                    connection.stopReading();
+                    connection.respond(connection.slot(), HttpFrameDecoder.encodeFrame(HttpFrameDecoder.OP_CLOSE, message.payload), true);
+                    break;
+                default:
+                    webSocketMessages.incrementAndGet();
+                    long number = ++connection.messages;
+                    Slot slot = connection.slot();
+                    List<String> orders = splitOrders(message.text());
+                    if (orders == null || orders.isEmpty()) {
+                        badRequests.incrementAndGet();
+                        connection.respond(slot, textFrame("NACK " + number + " 消息应为订单 JSON 或订单数组"), false);
+                        break;
+                    }
+                    boolean admitted = submit(connection, orders, results -> {
+                        String failure = null;
+                        for (String result : results) if (result != null && failure == null) failure = result;
+                        connection.respond(slot, textFrame(failure == null ? "ACK " + number : "NACK " + number + " " + failure), false);
+                    });
+                    if (!admitted) {
+                        connection.respond(slot, textFrame("BUSY " + number + " retry-after=" + admission.limits().retryAfterMs), false);
+                    }
+            }
+        }
+        if (!connection.decoder.hasPartialInput()) connection.frameStartedAt = 0;
+    }
+
+    interface Completion {
+        /** results[i] 为 null 表示第 i 个订单已确认，否则为错误信息 */
+        void onComplete(String[] results);
+    }
+
+    /**
+     * 按顺序把订单交给 AddOrder，所有订单都回调后（已经落盘）调用 completion。
+     * 正在处理的订单超过准入上限时不提交，返回 false，调用方回复 BUSY。
+     */
+    private boolean submit(Connection connection, List<String> orders, Completion completion) {
+        if (!admission.admit(connection.address, orders.size())) {
+            Log.d(TAG, "正在处理的订单超过上限，回复 BUSY: " + connection.address);
+            return false;
+        }
+        String[] results = new String[orders.size()];
+        AtomicInteger remaining = new AtomicInteger(orders.size());
+        connection.inFlight++;
+        KdsMetrics.adjust(KdsMetrics.Gauge.ORDERS_IN_FLIGHT, orders.size());
+        for (int i = 0; i < orders.size(); i++) {
+            int index = i;
+            String order = orders.get(i);
+            OrderJournal.Callback callback = error -> {
+                KdsMetrics.adjust(KdsMetrics.Gauge.ORDERS_IN_FLIGHT, -1);
+                admission.complete(connection.address);
+                if (error == null) {
+                    ordersAccepted.incrementAndGet();
+                } else {
+                    ordersFailed.incrementAndGet();
+                    KdsMetrics.increment(KdsMetrics.Counter.ORDER_ERRORS);
+                    results[index] = error.getMessage() != null ? error.getMessage() : error.toString();
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    runOnSelector(() -> {
+                        connection.inFlight--;
+                        completion.onComplete(results);
+                    });
+                }
+            };
+            try {
+                connection.orderExecutor.execute(() -> {
+                    try {
+                        orderModule.AddOrder(order, callback);
+                    } catch (Exception e) {
+                        Log.e(TAG, "处理订单时出错: " + e.getMessage());
+                        callback.onComplete(new IOException(e.getMessage(), e));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 每个连接最多有一个任务在 orderStage 里排队，只有服务器关闭时才会走到这里
+                callback.onComplete(new IOException("服务器正在关闭"));
+            }
+        }
+        return true;
+    }
+
+    /** 订单 JSON 或订单数组拆成单个订单；既不是对象也不是数组时返回 null */
+    private static List<String> splitOrders(String body) {
+        String trimmed = body.trim();
+        if (trimmed.startsWith("{")) return Collections.singletonList(trimmed);
+        if (!trimmed.startsWith("[")) return null;
+        try {
+            return new OrderParser().splitArray(trimmed);
+        } catch (OrderParser.ParseException e) {
+            return null;
+        }
+    }
+
+    private static byte[] response(int status, String body, boolean keepAlive) {
+        return response(status, body, keepAlive, "");
+    }
+
+    private static byte[] response(int status, String body, boolean keepAlive, String extraHeaders) {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + " " + reason(status) + "\r\n"
+            + "Content-Type: application/json; charset=utf-8\r\n"
+            + "Content-Length: " + content.length + "\r\n"
+            + extraHeaders
+            + (keepAlive ? "" : "Connection: close\r\n")
+            + "\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+        byte[] result = new byte[headBytes.length + content.length];
+        System.arraycopy(headBytes, 0, result, 0, headBytes.length);
+        System.arraycopy(content, 0, result, headBytes.length, content.length);
+        return result;
+    }
+
+    /** 超过准入上限：503，Retry-After 只能是整秒，毫秒数放在响应体里 */
+    private byte[] busyResponse(boolean keepAlive) {
+        int retryAfterMs = admission.limits().retryAfterMs;
+        return response(503, "{\"error\":\"busy\",\"retryAfterMs\":" + retryAfterMs + "}", keepAlive,
+            "Retry-After: " + Math.max(1, (retryAfterMs + 999) / 1000) + "\r\n");
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + Order.quote(message) + "}";
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 411: return "Length Required";
+            case 413: return "Payload Too Large";
+            case 431: return "Request Header Fields Too Large";
+            case 503: return "Service Unavailable";
+            default: return "Error";
+        }
+    }
+
+    private static byte[] textFrame(String text) {
+        return HttpFrameDecoder.encodeFrame(HttpFrameDecoder.OP_TEXT, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] closeFrame(int code, String reason) {
+        byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(text.length, 123);
+        byte[] payload = new byte[2 + length];
+        payload[0] = (byte) (code >>> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(text, 0, payload, 2, length);
+        return HttpFrameDecoder.encodeFrame(HttpFrameDecoder.OP_CLOSE, payload);
+    }
+
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.encodeToString(digest, Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        while (!connection.outbox.isEmpty()) {
+            ByteBuffer head = connection.outbox.peek();
+            int written = connection.channel.write(head);
+            KdsMetrics.add(KdsMetrics.Counter.BYTES_OUT, written);
+            if (written > 0) connection.lastActiveAt = System.nanoTime();
+            if (head.hasRemaining()) return;
+            connection.outbox.poll();
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        if (connection.closeAfterWrite) close(key);
+        else connection.resumeReading();
+    }
+
+    /**
+     * 与 OrderServer 相同：关闭请求（消息）没有在读取超时内收完、回复积压没有写出去的连接，
+     * 以及空闲超过空闲超时的 HTTP 连接。
+     */
+    private void sweepTimeouts() {
+        long now = System.nanoTime();
+        if (now - nextSweepAt < 0) return;
+        nextSweepAt = now + SWEEP_INTERVAL_MS * 1_000_000L;
+        AdmissionControl.Limits limits = admission.limits();
+        long readTimeout = limits.readTimeoutMs * 1_000_000L;
+        long idleTimeout = limits.idleTimeoutMs * 1_000_000L;
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof Connection)) continue;
+            Connection connection = (Connection) key.attachment();
+            boolean slowFrame = connection.frameStartedAt != 0 && !connection.readingStopped
+                && now - connection.frameStartedAt > readTimeout;
+            boolean stalled = !connection.outbox.isEmpty() && now - connection.lastActiveAt > readTimeout;
+            if (slowFrame || stalled) {
+                admission.readTimedOut();
+                Log.e(TAG, (slowFrame ? "读取请求超时" : "客户端不读取回复") + "，关闭连接: " + connection.address);
+                close(key);
+            } else if (!connection.decoder.isWebSocket() && connection.inFlight == 0 && connection.slots.isEmpty()
+                    && connection.outbox.isEmpty() && connection.frameStartedAt == 0
+                    && now - connection.lastActiveAt > idleTimeout) {
+                admission.idleTimedOut();
+                close(key);
+            }
+        }
+    }
+
+    private void runOnSelector(Runnable task) {
+        pendingTasks.offer(task);
+        Selector s = selector;
+        if (s != null) s.wakeup();
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (CancelledKeyException ignored) {
+                // 连接已经关闭
+            }
+        }
+    }
+
+    private void close(SelectionKey key) {
+        if (key.attachment() instanceof Connection && key.isValid()) {
+            connections.decrementAndGet();
+            KdsMetrics.adjust(KdsMetrics.Gauge.OPEN_CONNECTIONS, -1);
+            admission.closeConnection(((Connection) key.attachment()).address);
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭HTTP连接时出错: " + e.getMessage());
+        }
+    }
+
+    private void closeAll() {
+        if (selector == null) return;
+        try {
+            for (SelectionKey key : selector.keys()) close(key);
+            selector.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭HTTP服务器时出错: " + e.getMessage());
+        }
+    }
+
+    /** 一个请求（或 WebSocket 消息）的回复，按请求顺序发出 */
+    private static final class Slot {
+        byte[] data;
+        boolean close;
+    }
+
+    /**
+     * 单个连接的状态。除 orderExecutor 外，所有字段只能在 Selector 线程访问。
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final InetAddress address;
+        final HttpFrameDecoder decoder;
+        final ArrayDeque<ByteBuffer> outbox = new ArrayDeque<>();
+        // 还没发出的回复，队首完成后才能发送后面的
+        final ArrayDeque<Slot> slots = new ArrayDeque<>();
+        final SerialExecutor orderExecutor;
+        SelectionKey key;
+        boolean closeAfterWrite;
+        boolean readingStopped;
+        int inFlight;
+        // WebSocket 消息编号
+        long messages;
+        // 最近一次读取和当前请求（消息）第一个字节到达的时间（System.nanoTime()），没有未完成的请求时为 0
+        long readAt;
+        long frameStartedAt;
+        // 最近一次读到或写出数据的时间，用于读取超时和空闲超时
+        long lastActiveAt = System.nanoTime();
+        // 回复积压时暂停读取，回复写完后恢复
+        boolean readingPaused;
+
+        Connection(SocketChannel channel, InetAddress address, OrderStage orderStage, int maxBodySize) {
+            this.channel = channel;
+            this.address = address;
+            this.orderExecutor = new SerialExecutor(orderStage);
+            this.decoder = new HttpFrameDecoder(maxBodySize);
+        }
+
+        /** 一个请求或消息解析完成，同一次读取中的下一个从这次读取开始计时 */
+        void frameComplete() {
+            KdsMetrics.record(KdsMetrics.Stage.FRAME, frameStartedAt);
+            frameStartedAt = readAt;
+        }
+
+        Slot slot() {
+            Slot slot = new Slot();
+            slots.offer(slot);
+            pauseIfBacklogged();
+            return slot;
+        }
+
+        /** 填入回复，按顺序发出已经完成的回复 */
+        void respond(Slot slot, byte[] data, boolean close) {
+            slot.data = data;
+            slot.close = close;
+            while (!slots.isEmpty() && slots.peek().data != null) {
+                Slot head = slots.poll();
+                enqueue(head.data);
+                if (head.close) {
+                    slots.clear();
+                    closeWhenFlushed();
+                    return;
+                }
+            }
+            if (readingStopped && inFlight == 0 && slots.isEmpty()) closeWhenFlushed();
+        }
+
+        void enqueue(byte[] data) {
+            outbox.offer(ByteBuffer.wrap(data));
+            if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            pauseIfBacklogged();
+        }
+
+        /** 管线化的请求或没读走的回复太多时暂停读取，不再为这个连接分配新的回复 */
+        private void pauseIfBacklogged() {
+            if (readingPaused || readingStopped || slots.size() + outbox.size() < MAX_QUEUED_REPLIES) return;
+            readingPaused = true;
+            if (key.isValid()) key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+
+        void resumeReading() {
+            if (!readingPaused || slots.size() + outbox.size() >= MAX_QUEUED_REPLIES) return;
+            readingPaused = false;
+            if (!readingStopped && key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+
+        void stopReading() {
+            readingStopped = true;
+            if (key.isValid()) key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+
+        void closeWhenFlushed() {
+            closeAfterWrite = true;
+            if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+}
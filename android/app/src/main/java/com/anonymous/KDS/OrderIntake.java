@@ -0,0 +1,172 @@
+package com.anonymous.KDS;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import android.util.Log;
+
+/**
+ * 订单的确认路径，TCP 和 HTTP 服务器收到的每个订单都经过这里：解析 → 去重 → 写入订单日志并落盘 → 回调。
+ * 回调 error 为 null 时服务器回复 ACK，所以已确认的订单在崩溃后一定能从日志恢复。
+ *
+ * 不依赖 React，OrderHandlerModule 通过 Listener 把订单交给 JS，压测和测试直接使用本类。
+ * 状态消息（带 type 字段）和无法解析的数据不去重、不写日志，原样交给 Listener 后直接确认。
+ * 去重窗口内订单号和内容都相同的订单（POS 重发）不写日志也不交给 Listener；
+ * 原订单还没落盘时，重发等原订单的日志回调用同样的结果回复（见 PendingAppends）。
+ * 主 KDS 发来的复制帧（见 ReplicationFrame）按序号交给 SubKdsReplica 应用。
+ *
+ * 可以在多个订单处理线程上同时调用。
+ */
+final class OrderIntake {
+
+    private static final String TAG = "OrderIntake";
+
+    /** 订单的去向，回调不能抛出异常 */
+    interface Listener {
+        /** 状态消息或无法解析的数据，在调用 add 的线程上调用 */
+        void raw(String payload);
+
+        /** 在调用 add 的线程上把订单转换成交给 JS 的数据，落盘后交给 deliver */
+        Object prepare(Order order);
+
+        /** 订单已落盘（或没有订单号、不写日志），在回复 ACK 之前调用，可能在日志同步线程上 */
+        void deliver(Object payload);
+
+        /** 有订单号的订单回复 ACK 之后调用（主 KDS 据此复制给子 KDS），可能在日志同步线程上 */
+        void acknowledged(Order order, String orderId);
+    }
+
+    // 为 null 时不写日志，订单交给 Listener 后直接确认
+    private final OrderJournal journal;
+    // 为 null 时不去重
+    private final OrderDedup dedup;
+    // 为 null 时复制帧回复 NACK
+    private final SubKdsReplica replica;
+    private final SubKdsReplica.Sink replicationSink;
+    private final Listener listener;
+    // 还在等待落盘的订单，它们的重发等原订单的日志回调后再回复
+    private final PendingAppends pendingAppends = new PendingAppends();
+
+    OrderIntake(OrderJournal journal, OrderDedup dedup, SubKdsReplica replica,
+                SubKdsReplica.Sink replicationSink, Listener listener) {
+        this.journal = journal;
+        this.dedup = dedup;
+        this.replica = replica;
+        this.replicationSink = replicationSink;
+        this.listener = listener;
+    }
+
+    /** HTTP 入口：请求体已经是字符串 */
+    void add(String orderstring, OrderJournal.Callback onComplete) {
+        add(orderstring, null, onComplete);
+    }
+
+    /**
+     * TCP 入口：frame 是 OrderFrameDecoder 交付的 UTF-8 原文，直接交给 OrderParser 按字节解析。
+     * 日志、去重和 JS 仍使用字符串，解码在订单处理线程上进行，不占用 Selector 线程。
+     */
+    void add(byte[] frame, OrderJournal.Callback onComplete) {
+        add(new String(frame, StandardCharsets.UTF_8), frame, onComplete);
+    }
+
+    /**
+     * @param utf8 orderstring 的 UTF-8 字节，为 null 时解析字符串
+     * @param onComplete 可能在日志同步线程上调用；error 不为 null 时应回复 NACK
+     */
+    private void add(String orderstring, byte[] utf8, OrderJournal.Callback onComplete) {
+        if (ReplicationFrame.isReplication(orderstring)) {
+            receiveReplication(orderstring, onComplete);
+            return;
+        }
+        PayloadLog.log(TAG, "Received order: ", orderstring);
+        KdsMetrics.increment(KdsMetrics.Counter.ORDERS);
+        Order order = null;
+        long parseStart = System.nanoTime();
+        try {
+            order = utf8 != null
+                ? Order.parse(new OrderParser(), utf8, 0, utf8.length)
+                : Order.parse(new OrderParser(), orderstring);
+            KdsMetrics.record(KdsMetrics.Stage.PARSE, parseStart);
+        } catch (OrderParser.ParseException e) {
+            KdsMetrics.increment(KdsMetrics.Counter.PARSE_ERRORS);
+            Log.e(TAG, "订单解析失败，按原始数据交给JS: " + e.getMessage());
+        }
+        if (order == null || order.isMessage()) {
+            listener.raw(orderstring);
+            onComplete.onComplete(null);
+            return;
+        }
+        String orderId = order.displayId();
+        boolean journaled = journal != null && orderId != null;
+        if (dedup != null && orderId != null) {
+            long dedupStart = System.nanoTime();
+            OrderDedup.Result result;
+            boolean deferred = false;
+            synchronized (pendingAppends) {
+                result = dedup.admit(orderId, orderstring, System.currentTimeMillis());
+                if (result == OrderDedup.Result.DUPLICATE) {
+                    deferred = pendingAppends.await(orderId, orderstring, onComplete);
+                } else if (journaled) {
+                    pendingAppends.begin(orderId, orderstring);
+                }
+            }
+            KdsMetrics.record(KdsMetrics.Stage.DEDUP, dedupStart);
+            if (result == OrderDedup.Result.DUPLICATE) {
+                KdsMetrics.increment(KdsMetrics.Counter.DUPLICATES);
+                if (deferred) {
+                    // 原订单还没落盘，等它的日志回调用同样的结果回复
+                    Log.d(TAG, "重复的订单，等待原订单落盘后确认: " + orderId);
+                } else {
+                    Log.d(TAG, "重复的订单，直接确认: " + orderId);
+                    onComplete.onComplete(null);
+                }
+                return;
+            }
+        }
+        Object payload = listener.prepare(order);
+        if (!journaled) {
+            // 没有订单号的订单无法在出餐时从日志中移除，不写入日志
+            listener.deliver(payload);
+            onComplete.onComplete(null);
+            if (orderId != null) listener.acknowledged(order, orderId);
+            return;
+        }
+        Order parsed = order;
+        long journalStart = System.nanoTime();
+        KdsMetrics.adjust(KdsMetrics.Gauge.JOURNAL_PENDING, 1);
+        journal.append(orderId, orderstring, error -> {
+            KdsMetrics.adjust(KdsMetrics.Gauge.JOURNAL_PENDING, -1);
+            KdsMetrics.record(KdsMetrics.Stage.JOURNAL, journalStart);
+            if (error == null) listener.deliver(payload);
+            List<OrderJournal.Callback> duplicates;
+            synchronized (pendingAppends) {
+                // 没有确认的订单 POS 会重发，不能当作重复
+                if (error != null && dedup != null) dedup.forget(orderId, orderstring);
+                duplicates = pendingAppends.complete(orderId, orderstring);
+            }
+            onComplete.onComplete(error);
+            PendingAppends.notify(duplicates, error);
+            if (error == null) listener.acknowledged(parsed, orderId);
+        });
+    }
+
+    private void receiveReplication(String payload, OrderJournal.Callback onComplete) {
+        if (replica == null) {
+            onComplete.onComplete(new IOException("复制状态不可用"));
+            return;
+        }
+        try {
+            replica.receive(ReplicationFrame.parse(payload), replicationSink);
+            onComplete.onComplete(null);
+        } catch (SubKdsReplica.GapException e) {
+            onComplete.onComplete(e);
+        } catch (IllegalArgumentException e) {
+            onComplete.onComplete(new IOException(e.getMessage()));
+        }
+    }
+
+    /** 等待原订单落盘后才确认的重发次数 */
+    long deferredDuplicates() {
+        return pendingAppends.deferred();
+    }
+}
@@ -0,0 +1,251 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import android.util.Log;
+
+/**
+ * 订单预写日志（append-only）。订单在回复 ACK 之前先写入日志并 fsync，
+ * 应用在 ACK 之后、JS 保存之前崩溃也不会丢单；启动时重放日志中未出餐的订单。
+ *
+ * 记录（格式见 RecordLog）：
+ *   ORDER [订单号][订单 JSON]
+ *   BUMP  [订单号]
+ *
+ * 使用组提交：写入线程只把记录写进文件，由单独的同步线程一次 force()
+ * 覆盖期间写入的所有记录，再依次回调，高峰期每次 fsync 可以确认很多个订单。
+ * 出餐（bump）的订单积累到一定量后重写日志，只保留仍在进行中的订单。
+ */
+final class OrderJournal {
+
+    private static final String TAG = "OrderJournal";
+
+    private static final byte TYPE_ORDER = 1;
+    private static final byte TYPE_BUMP = 2;
+    // 已失效的记录超过这个大小并且超过有效记录时压缩
+    private static final long COMPACT_MIN_DEAD_BYTES = 256 * 1024;
+
+    interface Callback {
+        /** 在同步线程上调用，error 为 null 表示记录已落盘 */
+        void onComplete(IOException error);
+    }
+
+    private RecordLog log;
+    // 仍在进行中的订单：订单号 -> JSON，按到达顺序
+    private final LinkedHashMap<String, String> live = new LinkedHashMap<>();
+    private long liveBytes;
+    // 已写入、等待下一次 fsync 的回调
+    private ArrayList<Callback> waiting = new ArrayList<>();
+    // waiting 中第一个记录写入的时间（System.nanoTime()）
+    private long waitingSince;
+    private boolean closed;
+    private final Thread syncThread;
+
+    // 统计
+    private long appends;
+    private long syncs;
+    private long compactions;
+    private int maxWaiting;
+    // 批次中最早的记录等到 fsync 开始的时间，以及每次 fsync 的耗时
+    private final LatencyHistogram syncWait = new LatencyHistogram();
+    private final LatencyHistogram syncTime = new LatencyHistogram();
+
+    private OrderJournal() {
+        this.syncThread = new Thread(this::syncLoop, "KDS-OrderJournal-Sync");
+        this.syncThread.setDaemon(true);
+    }
+
+    /**
+     * 打开（不存在则创建）日志文件并重放，之后可以通过 liveOrders() 取得未出餐的订单。
+     */
+    static OrderJournal open(File file) throws IOException {
+        OrderJournal journal = new OrderJournal();
+        synchronized (journal) {
+            journal.log = RecordLog.open(file, journal::apply);
+            Log.d(TAG, "订单日志重放完成：" + journal.live.size() + " 个未出餐订单");
+            if (journal.log.size() > journal.liveBytes) journal.compactLocked();
+        }
+        journal.syncThread.start();
+        return journal;
+    }
+
+    /** 重放得到的未出餐订单 JSON，按到达顺序 */
+    synchronized List<String> liveOrders() {
+        return new ArrayList<>(live.values());
+    }
+
+    /**
+     * 追加一个订单。记录落盘后（或失败时）在同步线程上回调。
+     */
+    void append(String orderId, String json, Callback callback) {
+        IOException error;
+        synchronized (this) {
+            error = closed ? new IOException("订单日志已关闭") : null;
+            if (error == null) {
+                try {
+                    int size = log.append(TYPE_ORDER, orderId, json);
+                    putLive(orderId, json, size);
+                    appends++;
+                    if (waiting.isEmpty()) waitingSince = System.nanoTime();
+                    waiting.add(callback);
+                    if (waiting.size() > maxWaiting) maxWaiting = waiting.size();
+                    notifyAll();
+                    return;
+                } catch (IOException e) {
+                    Log.e(TAG, "写入订单日志失败: " + e.getMessage());
+                    error = e;
+                }
+            }
+        }
+        callback.onComplete(error);
+    }
+
+    /**
+     * 标记订单已出餐，之后重放和压缩时不再保留。不等待落盘：
+     * 崩溃后最多把刚出餐的订单重新显示一次。
+     */
+    synchronized void bump(String orderId) {
+        if (closed || !removeLive(orderId)) return;
+        try {
+            log.append(TYPE_BUMP, orderId);
+        } catch (IOException e) {
+            Log.e(TAG, "写入订单日志失败: " + e.getMessage());
+        }
+    }
+
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            syncThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            log.close();
+        }
+    }
+
+    synchronized Stats stats() {
+        Stats stats = new Stats();
+        stats.appends = appends;
+        stats.syncs = syncs;
+        stats.compactions = compactions;
+        stats.liveOrders = live.size();
+        stats.fileBytes = log.size();
+        stats.waiting = waiting.size();
+        stats.maxWaiting = maxWaiting;
+        stats.syncWait = syncWait.snapshot();
+        stats.syncTime = syncTime.snapshot();
+        return stats;
+    }
+
+    static final class Stats {
+        long appends;
+        long syncs;
+        long compactions;
+        int liveOrders;
+        long fileBytes;
+        // 已写入、等待 fsync 的记录
+        int waiting;
+        int maxWaiting;
+        LatencyHistogram.Snapshot syncWait;
+        LatencyHistogram.Snapshot syncTime;
+    }
+
+    private boolean apply(byte type, String[] fields) {
+        if (type == TYPE_ORDER && fields.length == 2) {
+            putLive(fields[0], fields[1], RecordLog.recordSize(fields));
+            return true;
+        }
+        if (type == TYPE_BUMP && fields.length == 1) {
+            removeLive(fields[0]);
+            return true;
+        }
+        return false;
+    }
+
+    private void putLive(String orderId, String json, int size) {
+        String previous = live.put(orderId, json);
+        if (previous != null) liveBytes -= RecordLog.recordSize(orderId, previous);
+        liveBytes += size;
+    }
+
+    private boolean removeLive(String orderId) {
+        String json = live.remove(orderId);
+        if (json == null) return false;
+        liveBytes -= RecordLog.recordSize(orderId, json);
+        return true;
+    }
+
+    private void syncLoop() {
+        while (true) {
+            List<Callback> batch;
+            synchronized (this) {
+                while (waiting.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (waiting.isEmpty()) return;
+                batch = waiting;
+                waiting = new ArrayList<>();
+            }
+            IOException error = null;
+            long syncStart = System.nanoTime();
+            syncWait.recordNanos(syncStart - waitingSince);
+            try {
+                // 一次 fsync 覆盖 batch 中所有记录（以及之后刚写入的）
+                log.force();
+            } catch (IOException e) {
+                Log.e(TAG, "订单日志同步失败: " + e.getMessage());
+                error = e;
+            }
+            syncTime.recordSince(syncStart);
+            synchronized (this) {
+                syncs++;
+            }
+            for (Callback callback : batch) {
+                try {
+                    callback.onComplete(error);
+                } catch (Exception e) {
+                    Log.e(TAG, "订单日志回调出错: " + e.getMessage());
+                }
+            }
+            maybeCompact();
+        }
+    }
+
+    private synchronized void maybeCompact() {
+        if (closed) return;
+        long dead = log.size() - liveBytes;
+        if (dead < COMPACT_MIN_DEAD_BYTES || dead < liveBytes) return;
+        try {
+            compactLocked();
+        } catch (IOException e) {
+            Log.e(TAG, "压缩订单日志失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 只保留仍在进行中的订单。调用方持有锁；还在等待同步的记录已经包含在新文件里，
+     * 之后的 force 作用于新文件。
+     */
+    private void compactLocked() throws IOException {
+        log.compact(target -> {
+            for (Map.Entry<String, String> entry : live.entrySet()) {
+                target.append(TYPE_ORDER, entry.getKey(), entry.getValue());
+            }
+        });
+        liveBytes = log.size();
+        compactions++;
+    }
+}
@@ -0,0 +1,627 @@
+package com.anonymous.KDS;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 订单 JSON 的流式解析器，直接在 UTF-8 字节切片上工作（例如 OrderFrameDecoder 的帧缓冲区）。
+ *
+ * 不构建中间的 JSON 树，解析过程中把订单、商品、选项作为事件交给 Handler：
+ * 只有识别出的字段才会生成 String，未知字段的值直接跳过，不分配内存。
+ * 所有状态都在实例里，不同连接各用一个实例即可并行解析；输入格式错误时抛出 ParseException。
+ *
+ * 识别的字段与 JS 端 formatTCPOrder / formatNetworkOrder 使用的字段一致：
+ *   订单：order_num, orderId, _id, type, time/orderTime, pickupMethod/pick_method,
+ *         pickupTime/pick_time, tableNumber/table_number, total_prepare_time, status, products/items
+ *   商品：id/_id, name, quantity/qty, price, category（字符串或数组的第一个元素）, prepare_time, options/option
+ *   选项：name, value, price/price_adjust
+ * 商品的 options 数组除了逐个选项的事件，还整体读成通用的 JSON 值交给 Handler.arrayValue：
+ * formatTCPOrder 把它原样交给 JS，选项里的其他字段也要保留。
+ */
+final class OrderParser {
+
+    enum Field {
+        ORDER_ID, ORDER_OBJECT_ID, ORDER_NUM, MESSAGE_TYPE, ORDER_TIME, PICKUP_METHOD, PICKUP_TIME, TABLE_NUMBER, TOTAL_PREPARE_TIME, ORDER_STATUS,
+        ITEM_ID, ITEM_NAME, ITEM_QUANTITY, ITEM_PRICE, ITEM_CATEGORY, ITEM_PREPARE_TIME, ITEM_OPTIONS,
+        OPTION_NAME, OPTION_VALUE, OPTION_PRICE
+    }
+
+    interface Handler {
+        void startOrder();
+        void startItem();
+        void startOption();
+        void stringValue(Field field, String value);
+        void numberValue(Field field, double value);
+        /** 原样的 JSON 数组：对象为 Map，数组为 List，数字为 Double，另有 String、Boolean 和 null */
+        void arrayValue(Field field, List<Object> values);
+        void endOption();
+        void endItem();
+        void endOrder();
+    }
+
+    static class ParseException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int position;
+
+        ParseException(String message, int position) {
+            super(message + " (位置 " + position + ")");
+            this.position = position;
+        }
+    }
+
+    private static final int SCOPE_ORDER = 0;
+    private static final int SCOPE_ITEM = 1;
+    private static final int SCOPE_OPTION = 2;
+
+    // 特殊键：进入商品 / 选项数组
+    private static final int KEY_UNKNOWN = -1;
+    private static final int KEY_ITEMS = -2;
+    private static final int KEY_OPTIONS = -3;
+
+    private static final int MAX_DEPTH = 64;
+    private static final Field[] FIELDS = Field.values();
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private static final byte[][][] KEY_NAMES = new byte[3][][];
+    private static final int[][] KEY_CODES = new int[3][];
+
+    static {
+        defineKeys(SCOPE_ORDER, new Object[] {
+            "order_num", Field.ORDER_NUM,
+            // 订单号按 JS 的 order_num || orderId || _id 取（见 Order.displayId），订单的 id 不使用
+            "orderId", Field.ORDER_ID,
+            "_id", Field.ORDER_OBJECT_ID,
+            "type", Field.MESSAGE_TYPE,
+            "time", Field.ORDER_TIME,
+            "orderTime", Field.ORDER_TIME,
+            "pickupMethod", Field.PICKUP_METHOD,
+            "pick_method", Field.PICKUP_METHOD,
+            "pickupTime", Field.PICKUP_TIME,
+            "pick_time", Field.PICKUP_TIME,
+            "tableNumber", Field.TABLE_NUMBER,
+            "table_number", Field.TABLE_NUMBER,
+            "total_prepare_time", Field.TOTAL_PREPARE_TIME,
+            "status", Field.ORDER_STATUS,
+            "products", KEY_ITEMS,
+            "items", KEY_ITEMS,
+        });
+        defineKeys(SCOPE_ITEM, new Object[] {
+            "id", Field.ITEM_ID,
+            "_id", Field.ITEM_ID,
+            "name", Field.ITEM_NAME,
+            "quantity", Field.ITEM_QUANTITY,
+            "qty", Field.ITEM_QUANTITY,
+            "price", Field.ITEM_PRICE,
+            "category", Field.ITEM_CATEGORY,
+            "prepare_time", Field.ITEM_PREPARE_TIME,
+            "options", Field.ITEM_OPTIONS,
+            "option", KEY_OPTIONS,
+        });
+        defineKeys(SCOPE_OPTION, new Object[] {
+            "name", Field.OPTION_NAME,
+            "value", Field.OPTION_VALUE,
+            "price", Field.OPTION_PRICE,
+            "price_adjust", Field.OPTION_PRICE,
+        });
+    }
+
+    private static void defineKeys(int scope, Object[] pairs) {
+        int n = pairs.length / 2;
+        KEY_NAMES[scope] = new byte[n][];
+        KEY_CODES[scope] = new int[n];
+        for (int i = 0; i < n; i++) {
+            KEY_NAMES[scope][i] = ((String) pairs[2 * i]).getBytes(StandardCharsets.US_ASCII);
+            Object code = pairs[2 * i + 1];
+            KEY_CODES[scope][i] = code instanceof Field ? ((Field) code).ordinal() : (Integer) code;
+        }
+    }
+
+    private byte[] buf;
+    private int pos;
+    private int end;
+    private Handler handler;
+    // 含转义字符的字符串解码用的临时缓冲区
+    private byte[] scratch = new byte[256];
+
+    void parse(String order, Handler handler) throws ParseException {
+        byte[] bytes = order.getBytes(StandardCharsets.UTF_8);
+        parse(bytes, 0, bytes.length, handler);
+    }
+
+    /**
+     * 解析 buf[offset, offset + length) 中的一个订单对象。
+     */
+    void parse(byte[] buf, int offset, int length, Handler handler) throws ParseException {
+        this.buf = buf;
+        this.pos = offset;
+        this.end = offset + length;
+        this.handler = handler;
+        try {
+            skipWhitespace();
+            expect('{');
+            handler.startOrder();
+            parseObjectBody(SCOPE_ORDER, 1);
+            handler.endOrder();
+            skipWhitespace();
+            if (pos != end) throw error("订单后有多余的数据");
+        } finally {
+            this.buf = null;
+            this.handler = null;
+        }
+    }
+
+    /**
+     * 把 JSON 数组拆成各个元素的原文（批量接收订单时用），元素本身不解析，只检查格式。
+     */
+    List<String> splitArray(String json) throws ParseException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        this.buf = bytes;
+        this.pos = 0;
+        this.end = bytes.length;
+        List<String> elements = new ArrayList<>();
+        try {
+            skipWhitespace();
+            expect('[');
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+            } else {
+                while (true) {
+                    skipWhitespace();
+                    int start = pos;
+                    skipValue(1);
+                    elements.add(new String(bytes, start, pos - start, StandardCharsets.UTF_8));
+                    skipWhitespace();
+                    byte c = next();
+                    if (c == ']') break;
+                    if (c != ',') throw error("需要 ',' 或 ']'");
+                }
+            }
+            skipWhitespace();
+            if (pos != end) throw error("数组后有多余的数据");
+            return elements;
+        } finally {
+            this.buf = null;
+        }
+    }
+
+    private void parseObjectBody(int scope, int depth) throws ParseException {
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            int code = readKey(scope);
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            parseMember(code, depth);
+            skipWhitespace();
+            byte c = next();
+            if (c == ',') continue;
+            if (c == '}') return;
+            throw error("对象中缺少 ',' 或 '}'");
+        }
+    }
+
+    private void parseMember(int code, int depth) throws ParseException {
+        byte c = peek();
+        if (code == KEY_ITEMS && c == '[') {
+            parseObjectArray(SCOPE_ITEM, depth + 1);
+            return;
+        }
+        if (code == KEY_OPTIONS && c == '[') {
+            parseObjectArray(SCOPE_OPTION, depth + 1);
+            return;
+        }
+        if (code < 0) {
+            skipValue(depth);
+            return;
+        }
+        Field field = FIELDS[code];
+        if (field == Field.ITEM_OPTIONS) {
+            if (c != '[') {
+                skipValue(depth);
+                return;
+            }
+            // 先发出各个选项的事件，再从头把整个数组读一遍
+            int start = pos;
+            parseObjectArray(SCOPE_OPTION, depth + 1);
+            pos = start;
+            handler.arrayValue(field, readArray(depth + 1));
+            return;
+        }
+        if (c == '"') {
+            handler.stringValue(field, readString());
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            handler.numberValue(field, readNumber());
+        } else if (c == '[' && field == Field.ITEM_CATEGORY) {
+            readFirstStringOfArray(field, depth + 1);
+        } else {
+            skipValue(depth);
+        }
+    }
+
+    private void parseObjectArray(int scope, int depth) throws ParseException {
+        if (depth > MAX_DEPTH) throw error("嵌套过深");
+        expect('[');
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() == '{') {
+                pos++;
+                if (scope == SCOPE_ITEM) handler.startItem(); else handler.startOption();
+                parseObjectBody(scope, depth + 1);
+                if (scope == SCOPE_ITEM) handler.endItem(); else handler.endOption();
+            } else {
+                skipValue(depth);
+            }
+            skipWhitespace();
+            byte c = next();
+            if (c == ',') continue;
+            if (c == ']') return;
+            throw error("数组中缺少 ',' 或 ']'");
+        }
+    }
+
+    // 网络订单的 category 是数组，取第一个字符串
+    private void readFirstStringOfArray(Field field, int depth) throws ParseException {
+        expect('[');
+        boolean found = false;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            if (!found && peek() == '"') {
+                handler.stringValue(field, readString());
+                found = true;
+            } else {
+                skipValue(depth);
+            }
+            skipWhitespace();
+            byte c = next();
+            if (c == ',') continue;
+            if (c == ']') return;
+            throw error("数组中缺少 ',' 或 ']'");
+        }
+    }
+
+    /**
+     * 读取任意 JSON 值，生成 Map / List / String / Double / Boolean / null。
+     */
+    private Object readValue(int depth) throws ParseException {
+        switch (peek()) {
+            case '"':
+                return readString();
+            case '{':
+                return readObject(depth + 1);
+            case '[':
+                return readArray(depth + 1);
+            case 't':
+                expectLiteral("true");
+                return Boolean.TRUE;
+            case 'f':
+                expectLiteral("false");
+                return Boolean.FALSE;
+            case 'n':
+                expectLiteral("null");
+                return null;
+            default:
+                return readNumber();
+        }
+    }
+
+    private List<Object> readArray(int depth) throws ParseException {
+        if (depth > MAX_DEPTH) throw error("嵌套过深");
+        expect('[');
+        List<Object> values = new ArrayList<>();
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return values;
+        }
+        while (true) {
+            skipWhitespace();
+            values.add(readValue(depth));
+            skipWhitespace();
+            byte c = next();
+            if (c == ',') continue;
+            if (c == ']') return values;
+            throw error("数组中缺少 ',' 或 ']'");
+        }
+    }
+
+    private Map<String, Object> readObject(int depth) throws ParseException {
+        if (depth > MAX_DEPTH) throw error("嵌套过深");
+        expect('{');
+        Map<String, Object> values = new LinkedHashMap<>();
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return values;
+        }
+        while (true) {
+            skipWhitespace();
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            values.put(key, readValue(depth));
+            skipWhitespace();
+            byte c = next();
+            if (c == ',') continue;
+            if (c == '}') return values;
+            throw error("对象中缺少 ',' 或 '}'");
+        }
+    }
+
+    /**
+     * 读取键名并在当前作用域的字段表中查找；含转义的键名按未知字段处理。
+     */
+    private int readKey(int scope) throws ParseException {
+        expect('"');
+        int start = pos;
+        boolean escaped = false;
+        while (true) {
+            byte c = next();
+            if (c == '"') break;
+            if (c == '\\') {
+                escaped = true;
+                next();
+            }
+        }
+        if (escaped) return KEY_UNKNOWN;
+        int len = pos - 1 - start;
+        byte[][] names = KEY_NAMES[scope];
+        outer:
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = names[i];
+            if (name.length != len) continue;
+            for (int j = 0; j < len; j++) {
+                if (name[j] != buf[start + j]) continue outer;
+            }
+            return KEY_CODES[scope][i];
+        }
+        return KEY_UNKNOWN;
+    }
+
+    private String readString() throws ParseException {
+        expect('"');
+        int start = pos;
+        while (pos < end) {
+            byte c = buf[pos];
+            if (c == '"') {
+                String value = new String(buf, start, pos - start, StandardCharsets.UTF_8);
+                pos++;
+                return value;
+            }
+            if (c == '\\') return readEscapedString(start);
+            pos++;
+        }
+        throw error("字符串没有结束");
+    }
+
+    private String readEscapedString(int start) throws ParseException {
+        int len = pos - start;
+        ensureScratch(len + 16);
+        System.arraycopy(buf, start, scratch, 0, len);
+        while (true) {
+            byte c = next();
+            if (c == '"') return new String(scratch, 0, len, StandardCharsets.UTF_8);
+            ensureScratch(len + 4);
+            if (c != '\\') {
+                scratch[len++] = c;
+                continue;
+            }
+            byte e = next();
+            switch (e) {
+                case '"': case '\\': case '/': scratch[len++] = e; break;
+                case 'b': scratch[len++] = '\b'; break;
+                case 'f': scratch[len++] = '\f'; break;
+                case 'n': scratch[len++] = '\n'; break;
+                case 'r': scratch[len++] = '\r'; break;
+                case 't': scratch[len++] = '\t'; break;
+                case 'u': len = appendCodePoint(len, readUnicodeEscape()); break;
+                default: throw error("无效的转义字符");
+            }
+        }
+    }
+
+    private int readUnicodeEscape() throws ParseException {
+        int ch = readHex4();
+        if (Character.isHighSurrogate((char) ch) && pos + 6 <= end && buf[pos] == '\\' && buf[pos + 1] == 'u') {
+            int save = pos;
+            pos += 2;
+            int low = readHex4();
+            if (Character.isLowSurrogate((char) low)) return Character.toCodePoint((char) ch, (char) low);
+            pos = save;
+        }
+        if (Character.isSurrogate((char) ch)) return '?';
+        return ch;
+    }
+
+    private int readHex4() throws ParseException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            byte c = next();
+            int digit = Character.digit(c, 16);
+            if (digit < 0) throw error("无效的 \\u 转义");
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private int appendCodePoint(int len, int cp) {
+        if (cp < 0x80) {
+            scratch[len++] = (byte) cp;
+        } else if (cp < 0x800) {
+            scratch[len++] = (byte) (0xC0 | (cp >> 6));
+            scratch[len++] = (byte) (0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            scratch[len++] = (byte) (0xE0 | (cp >> 12));
+            scratch[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            scratch[len++] = (byte) (0x80 | (cp & 0x3F));
+        } else {
+            scratch[len++] = (byte) (0xF0 | (cp >> 18));
+            scratch[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            scratch[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            scratch[len++] = (byte) (0x80 | (cp & 0x3F));
+        }
+        return len;
+    }
+
+    private void ensureScratch(int capacity) {
+        if (capacity <= scratch.length) return;
+        byte[] grown = new byte[Math.max(capacity, scratch.length * 2)];
+        System.arraycopy(scratch, 0, grown, 0, scratch.length);
+        scratch = grown;
+    }
+
+    /**
+     * 常见的短数字（不超过 15 位有效数字、无指数）直接计算，其他情况交给 Double.parseDouble。
+     */
+    private double readNumber() throws ParseException {
+        int start = pos;
+        boolean negative = false;
+        if (peek() == '-') {
+            negative = true;
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean fraction = false;
+        boolean slowPath = false;
+        while (pos < end) {
+            byte c = buf[pos];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (fraction) decimals++;
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else if (c == 'e' || c == 'E' || c == '+' || (c == '-' && pos > start)) {
+                slowPath = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (digits == 0) throw error("无效的数字");
+        if (slowPath || digits > 15) {
+            try {
+                return Double.parseDouble(new String(buf, start, pos - start, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw error("无效的数字");
+            }
+        }
+        double value = decimals == 0 ? mantissa : mantissa / POW10[decimals];
+        return negative ? -value : value;
+    }
+
+    /**
+     * 跳过任意 JSON 值，不生成任何对象。
+     */
+    private void skipValue(int depth) throws ParseException {
+        byte c = peek();
+        switch (c) {
+            case '"':
+                skipString();
+                return;
+            case '{':
+            case '[':
+                skipContainer(depth);
+                return;
+            case 't':
+                expectLiteral("true");
+                return;
+            case 'f':
+                expectLiteral("false");
+                return;
+            case 'n':
+                expectLiteral("null");
+                return;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    while (pos < end) {
+                        byte d = buf[pos];
+                        if ((d >= '0' && d <= '9') || d == '.' || d == 'e' || d == 'E' || d == '+' || d == '-') pos++;
+                        else break;
+                    }
+                    return;
+                }
+                throw error("无效的值");
+        }
+    }
+
+    private void skipContainer(int depth) throws ParseException {
+        int level = 0;
+        do {
+            byte c = next();
+            if (c == '"') {
+                pos--;
+                skipString();
+            } else if (c == '{' || c == '[') {
+                if (++level + depth > MAX_DEPTH) throw error("嵌套过深");
+            } else if (c == '}' || c == ']') {
+                level--;
+            }
+        } while (level > 0);
+    }
+
+    private void skipString() throws ParseException {
+        expect('"');
+        while (true) {
+            byte c = next();
+            if (c == '"') return;
+            if (c == '\\') next();
+        }
+    }
+
+    private void expectLiteral(String literal) throws ParseException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next() != literal.charAt(i)) throw error("无效的值");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte c = buf[pos];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') pos++;
+            else return;
+        }
+    }
+
+    private void expect(char c) throws ParseException {
+        if (next() != c) throw error("需要 '" + c + "'");
+    }
+
+    private byte peek() throws ParseException {
+        if (pos >= end) throw error("数据不完整");
+        return buf[pos];
+    }
+
+    private byte next() throws ParseException {
+        if (pos >= end) throw error("数据不完整");
+        return buf[pos++];
+    }
+
+    private ParseException error(String message) {
+        return new ParseException(message, pos);
+    }
+}
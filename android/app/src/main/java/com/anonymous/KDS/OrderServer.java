@@ -1,111 +1,470 @@
 package com.anonymous.KDS;
 
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
-import android.util.Log;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import android.util.Log;
 
 
+/**
+ * 订单 TCP 服务器（端口 4321）。
+ *
+ * 使用单个 NIO Selector 线程处理所有连接的 accept/read/write，
+ * 完整订单交给订单处理阶段（OrderStage，与 OrderHttpServer 共用）的线程调用 OrderHandlerModule.AddOrder，
+ * 订单写入日志落盘后才回复确认。
+ * 无论连接多少台 POS / 子 KDS，线程数都保持不变。
+ *
+ * 旧客户端每个连接发送一个订单，服务器回复 "ok"、"OK" 后关闭连接。
+ * 会话模式下（帧带序号，见 OrderFrameDecoder）连接保持打开，客户端可以连续发送订单，
+ * 服务器对每个订单异步回复 "ACK n" 或 "NACK n 原因"，同一连接上的订单按到达顺序交付。
+ *
+ * 准入控制见 AdmissionControl：连接数或正在处理的订单数超过上限时回复 "BUSY retry-after=毫秒"
+ * （会话模式为 "BUSY n retry-after=毫秒"，连接保持打开），客户端等待后重发；旧协议回复后关闭连接。
+ * 一帧没有在读取超时内收完（慢速发送）、客户端不读回复导致回复积压、或者连接长时间空闲时关闭连接。
+ */
 public class OrderServer {
-  
+
     private static final String TAG = "VendServer";
-    private static final int PORT = 4321;
-    private boolean serverRunning = true;
-    private ServerSocket serverSocket;
+    static final int PORT = 4321;
+    private static final int BACKLOG = 50;
+    private static final int WORKER_THREADS = 2;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 16;
+    // 积压的回复超过这个数时暂停读取，直到客户端把回复读走
+    private static final int MAX_QUEUED_REPLIES = 256;
+    // 检查读取超时和空闲连接的间隔
+    private static final long SWEEP_INTERVAL_MS = 1000;
+
+    private volatile boolean serverRunning = true;
+    // Selector 线程，getPipelineStats 按它是否还在运行统计 network 阶段的线程数
+    private volatile Thread ioThread;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    // 调用 AddOrder 的线程；由调用方创建时由调用方关闭
+    private final OrderStage orderStage;
+    private final boolean ownsOrderStage;
+    private final ByteBufferPool bufferPool = new ByteBufferPool(READ_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    // 其他线程提交给 Selector 线程执行的任务（例如写回复）
+    private final ConcurrentLinkedQueue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    private final AdmissionControl admission;
+    private final int port;
+    private long nextSweepAt;
+
+    public OrderServer() {
+        this(new AdmissionControl(), null);
+    }
+
+    /**
+     * @param admission 与 OrderHttpServer 共用的准入控制
+     * @param orderStage 与 OrderHttpServer 共用的订单处理阶段，为 null 时使用自己的线程
+     */
+    OrderServer(AdmissionControl admission, OrderStage orderStage) {
+        this(admission, orderStage, PORT);
+    }
+
+    /** @param port 监听端口，同一台机器上运行多个 KDS（例如测试主 / 子 KDS）时使用 */
+    OrderServer(AdmissionControl admission, OrderStage orderStage, int port) {
+        this.admission = admission;
+        this.port = port;
+        this.ownsOrderStage = orderStage == null;
+        this.orderStage = orderStage != null ? orderStage
+            : new OrderStage("OrderServer-Worker", WORKER_THREADS, AdmissionControl.MAX_CONNECTIONS_LIMIT);
+    }
 
     public void startServer(OrderHandlerModule OrderModule){
-        new Thread(() -> {
+        ioThread = new Thread(() -> {
             try {
                 Log.d(TAG, "正在启动服务器...");
-                serverSocket = new ServerSocket(PORT, 50, InetAddress.getByName("0.0.0.0"));
+                selector = Selector.open();
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.configureBlocking(false);
+                serverChannel.socket().setReuseAddress(true);
+                serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("0.0.0.0"), port), BACKLOG);
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
                 Log.d(TAG, "服务器启动成功！");
 
                 while (serverRunning) {
-                    try {
-                        Log.d(TAG, "等待新的客户端连接...");
-                        Socket clientSocket = serverSocket.accept();
-                        Log.d(TAG, "新客户端已连接: " + clientSocket.getInetAddress());
-                        new ClientHandler(clientSocket, OrderModule).start();
-                    } catch (IOException e) {
-                        if (serverRunning) {
-                            Log.e(TAG, "处理客户端连接时出错: " + e.getMessage());
+                    selector.select(SWEEP_INTERVAL_MS);
+                    runPendingTasks();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (!key.isValid()) continue;
+                            if (key.isAcceptable()) {
+                                accept(OrderModule);
+                                continue;
+                            }
+                            if (key.isReadable()) read(key);
+                            if (key.isValid() && key.isWritable()) write(key);
+                        } catch (IOException | CancelledKeyException e) {
+                            if (serverRunning) {
+                                KdsMetrics.increment(KdsMetrics.Counter.CONNECTION_ERRORS);
+                                Log.e(TAG, "处理客户端连接时出错: " + e.getMessage());
+                            }
+                            close(key);
+                        } catch (RuntimeException e) {
+                            // 一个连接上的意外错误只关闭这个连接，不能让 Selector 线程退出
+                            KdsMetrics.increment(KdsMetrics.Counter.CONNECTION_ERRORS);
+                            Log.e(TAG, "处理客户端连接时出现意外错误: " + e);
+                            if (key.attachment() instanceof ClientConnection) close(key);
                         }
                     }
+                    sweepTimeouts();
                 }
             } catch (IOException e) {
-                Log.e(TAG, "服务器启动失败: " + e.getMessage());
-                e.printStackTrace();
+                if (serverRunning) {
+                    Log.e(TAG, "服务器启动失败: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            } finally {
+                closeAll();
             }
-        }).start();
+        }, "KDS-OrderServer-IO");
+        ioThread.start();
+    }
+
+    /** 正在运行的 Selector 线程数（0 或 1） */
+    int ioThreads() {
+        Thread thread = ioThread;
+        return thread != null && thread.isAlive() ? 1 : 0;
     }
 
     public void stopServer() {
         serverRunning = false;
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+            if (selector != null) selector.wakeup();
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
             }
         } catch (IOException e) {
             Log.e(TAG, "关闭服务器时出错: " + e.getMessage());
         }
+        if (ownsOrderStage) orderStage.shutdown();
     }
 
-    static class ClientHandler extends Thread {
-        private final Socket clientSocket;
-        private final OrderHandlerModule orderModule;
+    private void accept(OrderHandlerModule orderModule) throws IOException {
+        SocketChannel channel;
+        long start = System.nanoTime();
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            InetAddress address = channel.socket().getInetAddress();
+            if (!admission.openConnection(address)) {
+                rejectConnection(channel, address);
+                start = System.nanoTime();
+                continue;
+            }
+            channel.socket().setTcpNoDelay(true);
+            ClientConnection connection = new ClientConnection(channel, address, orderModule, orderStage,
+                admission.limits().maxFrameBytes);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            KdsMetrics.record(KdsMetrics.Stage.ACCEPT, start);
+            KdsMetrics.increment(KdsMetrics.Counter.CONNECTIONS);
+            KdsMetrics.adjust(KdsMetrics.Gauge.OPEN_CONNECTIONS, 1);
+            Log.d(TAG, "新客户端已连接: " + channel.socket().getInetAddress());
+            start = System.nanoTime();
+        }
+    }
 
-        ClientHandler(Socket socket, OrderHandlerModule orderModule) {
-            this.clientSocket = socket;
-            this.orderModule = orderModule;
+    /** 连接数超过上限：回复 BUSY 后直接关闭，不注册到 Selector */
+    private void rejectConnection(SocketChannel channel, InetAddress address) {
+        Log.e(TAG, "连接数超过上限，拒绝: " + address);
+        try {
+            channel.write(ByteBuffer.wrap(("BUSY retry-after=" + admission.limits().retryAfterMs + "\n")
+                .getBytes(StandardCharsets.US_ASCII)));
+        } catch (IOException ignored) {
+            // 客户端已经断开
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭连接时出错: " + e.getMessage());
         }
+    }
 
-        @Override
-        public void run() {
-            try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)
-            ) {
-                String message;
-                StringBuilder b = new StringBuilder();
-                while ((message = in.readLine()) != null) {
-                    // Log.d(TAG, "收到数据行: " + message);
-                    if (message.equalsIgnoreCase("end")) {
-                        out.println("ok");
-                        break;
-                    }
-                    b.append(message);
-                }
-                
-                String completeData = b.toString();
-                Log.d(TAG, "完整客户端请求 = " + completeData);
-                
+    private void read(SelectionKey key) throws IOException {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            readFrames(key, connection, buffer);
+        } catch (OrderFrameDecoder.FrameException e) {
+            KdsMetrics.increment(KdsMetrics.Counter.FRAME_ERRORS);
+            Log.e(TAG, "订单帧格式错误: " + e.getMessage());
+            connection.stopReading();
+            connection.enqueue("ERROR: " + e.getMessage() + "\n");
+            connection.closeWhenFlushed();
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private void readFrames(SelectionKey key, ClientConnection connection, ByteBuffer buffer) throws IOException {
+        int n = connection.channel.read(buffer);
+        if (n < 0) {
+            // 客户端关闭了输出：没有收到 "end" 也按旧逻辑把已收到的数据当作订单
+            connection.stopReading();
+            byte[] remaining = connection.decoder.finish();
+            if (remaining != null) {
+                if (admit(connection, -1)) dispatch(connection, -1, remaining);
+            } else if (connection.inFlight == 0) {
+                connection.closeWhenFlushed();
+            }
+            return;
+        }
+        KdsMetrics.add(KdsMetrics.Counter.BYTES_IN, n);
+        long now = System.nanoTime();
+        connection.lastActiveAt = now;
+        // 当前帧的第一个字节到达的时间
+        if (connection.frameStartedAt == 0) connection.frameStartedAt = now;
+        buffer.flip();
+        byte[] frame;
+        while ((frame = connection.decoder.decode(buffer)) != null) {
+            KdsMetrics.record(KdsMetrics.Stage.FRAME, connection.frameStartedAt);
+            // 同一次读取中的下一帧从这次读取开始计时
+            connection.frameStartedAt = now;
+            long sequence = connection.decoder.lastSequence();
+            if (sequence < 0) {
+                // 旧协议：一个连接只承载一个订单，收到完整的帧后不再读取
+                connection.stopReading();
+                if (!admit(connection, -1)) return;
+                connection.enqueue("ok\n");
+                dispatch(connection, -1, frame);
+                return;
+            }
+            if (admit(connection, sequence)) dispatch(connection, sequence, frame);
+        }
+        if (!buffer.hasRemaining() && !connection.decoder.hasPartialFrame()) connection.frameStartedAt = 0;
+    }
+
+    /**
+     * 正在处理的订单超过上限时回复 BUSY 并返回 false，订单不交给 AddOrder；旧协议回复后关闭连接。
+     * 返回 true 时这个订单回复（reply）时归还名额。
+     */
+    private boolean admit(ClientConnection connection, long sequence) {
+        if (admission.admit(connection.address, 1)) return true;
+        int retryAfterMs = admission.limits().retryAfterMs;
+        Log.d(TAG, "正在处理的订单超过上限，回复 BUSY: " + connection.address);
+        if (sequence < 0) {
+            connection.enqueue("BUSY retry-after=" + retryAfterMs + "\n");
+            connection.closeWhenFlushed();
+        } else {
+            connection.enqueue("BUSY " + sequence + " retry-after=" + retryAfterMs + "\n");
+        }
+        return false;
+    }
+
+    /**
+     * 把订单交给工作线程处理，处理完成后回复确认。
+     * @param sequence 会话模式下的订单序号，旧协议为 -1
+     */
+    private void dispatch(ClientConnection connection, long sequence, byte[] completeData) {
+        connection.inFlight++;
+        KdsMetrics.adjust(KdsMetrics.Gauge.ORDERS_IN_FLIGHT, 1);
+        try {
+            connection.orderExecutor.execute(() -> {
                 try {
-                    // 处理完整的订单数据
-                    orderModule.AddOrder(completeData);
-                    
-                    // 发送确认消息
-                    out.println("OK");
-                    out.flush();
-                    
+                    // 处理完整的订单数据，订单写入日志落盘后才回复确认
+                    connection.orderModule.AddOrder(completeData, error -> {
+                        if (error == null) {
+                            reply(connection, sequence, sequence < 0 ? "OK\n" : "ACK " + sequence + "\n");
+                        } else {
+                            reply(connection, sequence, errorReply(sequence, error));
+                        }
+                    });
                 } catch (Exception e) {
-                    Log.e(TAG, "处理订单时出错: " + e.getMessage());
-                    out.println("ERROR: " + e.getMessage());
-                    out.flush();
+                    reply(connection, sequence, errorReply(sequence, e));
                 }
-                
-            } catch (IOException e) {
-                Log.e(TAG, "Socket IO错误: " + e.getMessage());
+            });
+        } catch (RejectedExecutionException e) {
+            // 每个连接最多有一个任务在 orderStage 里排队，队列按连接数上限分配，只有服务器关闭时才会走到这里
+            reply(connection, sequence, errorReply(sequence, new IOException("服务器正在关闭")));
+        }
+    }
+
+    private static String errorReply(long sequence, Exception e) {
+        KdsMetrics.increment(KdsMetrics.Counter.ORDER_ERRORS);
+        Log.e(TAG, "处理订单时出错: " + e.getMessage());
+        return sequence < 0
+            ? "ERROR: " + e.getMessage() + "\n"
+            : "NACK " + sequence + " " + e.getMessage() + "\n";
+    }
+
+    /**
+     * 发送确认消息（可以在任意线程调用）；旧协议或客户端已关闭输出时，写完后关闭连接。
+     */
+    private void reply(ClientConnection connection, long sequence, String reply) {
+        KdsMetrics.adjust(KdsMetrics.Gauge.ORDERS_IN_FLIGHT, -1);
+        admission.complete(connection.address);
+        runOnSelector(() -> {
+            connection.inFlight--;
+            if (!connection.key.isValid()) return;
+            connection.lastActiveAt = System.nanoTime();
+            connection.enqueue(reply);
+            if (sequence < 0 || (connection.readingStopped && connection.inFlight == 0)) {
+                connection.closeWhenFlushed();
+            }
+        });
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        while (!connection.outbox.isEmpty()) {
+            ByteBuffer head = connection.outbox.peek();
+            int written = connection.channel.write(head);
+            KdsMetrics.add(KdsMetrics.Counter.BYTES_OUT, written);
+            if (written > 0) connection.lastActiveAt = System.nanoTime();
+            if (head.hasRemaining()) return;
+            connection.outbox.poll();
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        if (connection.closeAfterWrite) close(key);
+        else connection.resumeReading();
+    }
+
+    /**
+     * 每隔 SWEEP_INTERVAL_MS 检查一次：一帧没有在读取超时内收完、回复积压超过读取超时没有写出去的连接，
+     * 以及没有未完成的帧和订单、空闲超过空闲超时的连接，直接关闭。
+     */
+    private void sweepTimeouts() {
+        long now = System.nanoTime();
+        if (now - nextSweepAt < 0) return;
+        nextSweepAt = now + SWEEP_INTERVAL_MS * 1_000_000L;
+        AdmissionControl.Limits limits = admission.limits();
+        long readTimeout = limits.readTimeoutMs * 1_000_000L;
+        long idleTimeout = limits.idleTimeoutMs * 1_000_000L;
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof ClientConnection)) continue;
+            ClientConnection connection = (ClientConnection) key.attachment();
+            boolean slowFrame = connection.frameStartedAt != 0 && !connection.readingStopped
+                && now - connection.frameStartedAt > readTimeout;
+            boolean stalled = !connection.outbox.isEmpty() && now - connection.lastActiveAt > readTimeout;
+            if (slowFrame || stalled) {
+                admission.readTimedOut();
+                Log.e(TAG, (slowFrame ? "读取订单帧超时" : "客户端不读取回复") + "，关闭连接: " + connection.address);
+                close(key);
+            } else if (connection.inFlight == 0 && connection.outbox.isEmpty() && connection.frameStartedAt == 0
+                    && now - connection.lastActiveAt > idleTimeout) {
+                admission.idleTimedOut();
+                Log.d(TAG, "连接空闲超时，关闭: " + connection.address);
+                close(key);
+            }
+        }
+    }
+
+    private void runOnSelector(Runnable task) {
+        pendingTasks.offer(task);
+        Selector s = selector;
+        if (s != null) s.wakeup();
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (CancelledKeyException ignored) {
+                // 连接已经关闭
+            }
+        }
+    }
+
+    private void close(SelectionKey key) {
+        if (key.attachment() instanceof ClientConnection && key.isValid()) {
+            KdsMetrics.adjust(KdsMetrics.Gauge.OPEN_CONNECTIONS, -1);
+            admission.closeConnection(((ClientConnection) key.attachment()).address);
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭客户端连接时出错: " + e.getMessage());
+        }
+    }
+
+    private void closeAll() {
+        if (selector == null) return;
+        try {
+            for (SelectionKey key : selector.keys()) close(key);
+            selector.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭服务器时出错: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 单个客户端连接的状态。除 orderExecutor 外，所有字段只能在 Selector 线程访问。
+     */
+    static class ClientConnection {
+        final SocketChannel channel;
+        final InetAddress address;
+        final OrderHandlerModule orderModule;
+        final OrderFrameDecoder decoder;
+        final ArrayDeque<ByteBuffer> outbox = new ArrayDeque<>();
+        // 保证同一连接上的订单按顺序交付
+        final SerialExecutor orderExecutor;
+        SelectionKey key;
+        boolean closeAfterWrite;
+        boolean readingStopped;
+        // 回复积压时暂停读取，回复写完后恢复
+        boolean readingPaused;
+        // 已交给工作线程但还没回复的订单数
+        int inFlight;
+        // 当前帧的第一个字节到达的时间（System.nanoTime()），没有未完成的帧时为 0
+        long frameStartedAt;
+        // 最近一次读到数据、写出数据或产生回复的时间，用于读取超时和空闲超时
+        long lastActiveAt = System.nanoTime();
+
+        ClientConnection(SocketChannel channel, InetAddress address, OrderHandlerModule orderModule,
+                         OrderStage orderStage, int maxFrameBytes) {
+            this.channel = channel;
+            this.address = address;
+            this.orderModule = orderModule;
+            this.orderExecutor = new SerialExecutor(orderStage);
+            this.decoder = new OrderFrameDecoder(maxFrameBytes);
+        }
+
+        void enqueue(String text) {
+            outbox.offer(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+            if (!key.isValid()) return;
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            if (outbox.size() >= MAX_QUEUED_REPLIES && !readingStopped && !readingPaused) {
+                readingPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
             }
         }
+
+        void resumeReading() {
+            if (!readingPaused) return;
+            readingPaused = false;
+            if (!readingStopped && key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+
+        void stopReading() {
+            readingStopped = true;
+            if (key.isValid()) key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+
+        void closeWhenFlushed() {
+            closeAfterWrite = true;
+            if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
     }
 
     public static void Log(String text){
         System.out.println(text);
     }
-}
\ No newline at end of file
+}
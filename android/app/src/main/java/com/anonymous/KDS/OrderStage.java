@@ -0,0 +1,122 @@
+package com.anonymous.KDS;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订单流水线中的一个阶段：固定数量的线程加一个有上限的等待队列。
+ *
+ * 每个任务记录排队时间（提交到开始执行）和服务时间（执行耗时），以及当前和最大的排队数，
+ * getPipelineStats 据此判断是哪个阶段跟不上。队列满时 execute 抛出 RejectedExecutionException，
+ * 不会无限堆积任务。
+ */
+final class OrderStage implements Executor {
+
+    private final String name;
+    private final int threads;
+    private final int capacity;
+    private final ThreadPoolExecutor executor;
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    // 已提交、还没开始执行的任务
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger maxQueued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param name 阶段名，线程名为 "KDS-" + name + "-n"
+     * @param capacity 等待队列的上限（不包括正在执行的任务）
+     */
+    OrderStage(String name, int threads, int capacity) {
+        this.name = name;
+        this.threads = threads;
+        this.capacity = capacity;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(capacity), r -> {
+                Thread t = new Thread(r, "KDS-" + name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        long submittedAt = System.nanoTime();
+        int depth = queued.incrementAndGet();
+        int max;
+        while (depth > (max = maxQueued.get()) && !maxQueued.compareAndSet(max, depth)) {
+            // 其他线程同时更新了最大值，重试
+        }
+        try {
+            executor.execute(() -> {
+                queued.decrementAndGet();
+                running.incrementAndGet();
+                long start = System.nanoTime();
+                waitTime.recordNanos(start - submittedAt);
+                try {
+                    task.run();
+                } finally {
+                    serviceTime.recordSince(start);
+                    running.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /** shutdown 之后等待已提交的任务执行完，超时返回 false */
+    boolean awaitTermination(long timeoutMs) {
+        try {
+            return executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    Stats stats() {
+        Stats stats = new Stats();
+        stats.name = name;
+        stats.threads = threads;
+        stats.capacity = capacity;
+        stats.queued = queued.get();
+        stats.maxQueued = maxQueued.get();
+        stats.running = running.get();
+        stats.completed = completed.get();
+        stats.rejected = rejected.get();
+        stats.waitTime = waitTime.snapshot();
+        stats.serviceTime = serviceTime.snapshot();
+        return stats;
+    }
+
+    /** 各阶段共用的统计格式，日志同步和 JS 投递阶段也按这个格式填写 */
+    static final class Stats {
+        String name;
+        int threads;
+        // 等待队列上限，0 表示由其他限制（例如准入控制）间接限制
+        int capacity;
+        int queued;
+        int maxQueued;
+        int running;
+        long completed;
+        long rejected;
+        LatencyHistogram.Snapshot waitTime;
+        LatencyHistogram.Snapshot serviceTime;
+    }
+}
@@ -0,0 +1,288 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import android.util.Log;
+
+/**
+ * 订单本地存储（取代 JS 端每次改动都整体重写的 AsyncStorage 数组）。
+ *
+ * 每个订单以 JS 传来的 JSON 原样保存，按订单号、状态、商品分类、下单时间建内存索引，
+ * 增删改只追加一条记录（格式见 RecordLog），代价与订单总数无关：
+ *   UPSERT [订单号][订单 JSON]
+ *   STATUS [订单号][状态]
+ *   REMOVE [订单号]
+ * 失效的记录积累到一定量后压缩文件。不逐条 fsync，和 AsyncStorage 一样依赖系统回写；
+ * 刚到达的 TCP 订单由 OrderJournal 保证不丢。
+ *
+ * 所有方法都是同步的（synchronized），可以在任意线程调用。
+ */
+final class OrderStore {
+
+    private static final String TAG = "OrderStore";
+
+    private static final byte TYPE_UPSERT = 1;
+    private static final byte TYPE_STATUS = 2;
+    private static final byte TYPE_REMOVE = 3;
+    // 已失效的记录超过这个大小并且超过有效记录时压缩
+    private static final long COMPACT_MIN_DEAD_BYTES = 256 * 1024;
+
+    private static final class Entry {
+        final String id;
+        // 插入顺序，查询结果按它倒序（最新的在前）
+        final long sequence;
+        String json;
+        // JSON 中的 status；updateStatus 之后 status 与它不同，输出时覆盖
+        String jsonStatus;
+        String status;
+        List<String> categories = Collections.emptyList();
+        long time;
+        // 重建这个订单需要的记录字节数
+        int bytes;
+
+        Entry(String id, long sequence) {
+            this.id = id;
+            this.sequence = sequence;
+        }
+
+        String output() {
+            if (status == null || status.equals(jsonStatus)) return json;
+            // JSON.parse 对重复的键取最后一个，在末尾追加 status 即可覆盖原值
+            int end = json.lastIndexOf('}');
+            if (end < 0) return json;
+            boolean empty = json.substring(json.indexOf('{') + 1, end).trim().isEmpty();
+            return json.substring(0, end) + (empty ? "" : ",") + "\"status\":" + Order.quote(status) + "}";
+        }
+    }
+
+    private final RecordLog log;
+    private final OrderParser parser = new OrderParser();
+    private final LinkedHashMap<String, Entry> byId = new LinkedHashMap<>();
+    private final HashMap<String, LinkedHashSet<Entry>> byStatus = new HashMap<>();
+    private final HashMap<String, LinkedHashSet<Entry>> byCategory = new HashMap<>();
+    private final TreeMap<Long, LinkedHashSet<Entry>> byTime = new TreeMap<>();
+    private final SimpleDateFormat[] timeFormats;
+    private long nextSequence;
+    private long liveBytes;
+
+    private OrderStore(File file) throws IOException {
+        // 没有时区的格式按本机时区解析
+        String[] patterns = {
+            "yyyy-MM-dd'T'HH:mm:ss.SSSX", "yyyy-MM-dd'T'HH:mm:ssX", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd HH:mm:ss"
+        };
+        timeFormats = new SimpleDateFormat[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            timeFormats[i] = new SimpleDateFormat(patterns[i], Locale.US);
+            timeFormats[i].setLenient(false);
+        }
+        log = RecordLog.open(file, this::apply);
+    }
+
+    static OrderStore open(File file) throws IOException {
+        OrderStore store = new OrderStore(file);
+        synchronized (store) {
+            Log.d(TAG, "订单存储已加载：" + store.byId.size() + " 个订单");
+            store.maybeCompact();
+        }
+        return store;
+    }
+
+    /**
+     * 新增或替换订单。已有的订单保持原来的位置。
+     * @throws OrderParser.ParseException JSON 格式错误（不写入）
+     */
+    synchronized void upsert(String id, String json) throws IOException, OrderParser.ParseException {
+        Order order = Order.parse(parser, json);
+        int size = log.append(TYPE_UPSERT, id, json);
+        put(id, json, order, size);
+        maybeCompact();
+    }
+
+    /** 只修改订单状态，返回订单是否存在 */
+    synchronized boolean updateStatus(String id, String status) throws IOException {
+        Entry entry = byId.get(id);
+        if (entry == null) return false;
+        int size = log.append(TYPE_STATUS, id, status);
+        setStatus(entry, status, size);
+        maybeCompact();
+        return true;
+    }
+
+    /** 删除订单，返回订单是否存在 */
+    synchronized boolean remove(String id) throws IOException {
+        if (!byId.containsKey(id)) return false;
+        log.append(TYPE_REMOVE, id);
+        removeEntry(id);
+        maybeCompact();
+        return true;
+    }
+
+    /**
+     * 查询订单 JSON，最新的在前。参数为 null（sinceTime <= 0）表示不按该条件过滤；
+     * 指定 sinceTime 时不包含下单时间无法识别的订单。
+     */
+    synchronized List<String> query(String status, String category, long sinceTime) {
+        // 从最小的候选集合开始，再用其余条件过滤
+        Collection<Entry> candidates = byId.values();
+        if (status != null) candidates = smaller(candidates, byStatus.get(status));
+        if (category != null) candidates = smaller(candidates, byCategory.get(category));
+        if (sinceTime > 0) {
+            Collection<Entry> recent = new ArrayList<>();
+            for (LinkedHashSet<Entry> entries : byTime.tailMap(sinceTime, true).values()) recent.addAll(entries);
+            candidates = smaller(candidates, recent);
+        }
+
+        ArrayList<Entry> matches = new ArrayList<>();
+        for (Entry entry : candidates) {
+            if (status != null && !status.equals(entry.status)) continue;
+            if (category != null && !entry.categories.contains(category)) continue;
+            if (sinceTime > 0 && entry.time < sinceTime) continue;
+            matches.add(entry);
+        }
+        Collections.sort(matches, (a, b) -> Long.compare(b.sequence, a.sequence));
+        List<String> result = new ArrayList<>(matches.size());
+        for (Entry entry : matches) result.add(entry.output());
+        return result;
+    }
+
+    synchronized int size() {
+        return byId.size();
+    }
+
+    synchronized void close() {
+        log.close();
+    }
+
+    private static Collection<Entry> smaller(Collection<Entry> current, Collection<Entry> index) {
+        if (index == null) return Collections.emptyList();
+        return index.size() < current.size() ? index : current;
+    }
+
+    // ---- 索引维护 ----
+
+    private boolean apply(byte type, String[] fields) {
+        if (type == TYPE_UPSERT && fields.length == 2) {
+            try {
+                put(fields[0], fields[1], Order.parse(parser, fields[1]), RecordLog.recordSize(fields));
+            } catch (OrderParser.ParseException e) {
+                // 写入前已经校验过，不应该发生；跳过这条记录
+                Log.e(TAG, "订单解析失败: " + fields[0] + " " + e.getMessage());
+            }
+            return true;
+        }
+        if (type == TYPE_STATUS && fields.length == 2) {
+            Entry entry = byId.get(fields[0]);
+            if (entry != null) setStatus(entry, fields[1], RecordLog.recordSize(fields));
+            return true;
+        }
+        if (type == TYPE_REMOVE && fields.length == 1) {
+            removeEntry(fields[0]);
+            return true;
+        }
+        return false;
+    }
+
+    private void put(String id, String json, Order order, int size) {
+        Entry old = byId.get(id);
+        Entry entry = new Entry(id, old != null ? old.sequence : nextSequence++);
+        // 替换时 byId.put 保持原来的顺序，压缩后重新加载顺序不变
+        if (old != null) unindex(old);
+        entry.json = json;
+        entry.jsonStatus = order.status;
+        entry.status = order.status;
+        entry.time = parseTime(order.orderTime);
+        LinkedHashSet<String> categories = new LinkedHashSet<>();
+        for (Order.Item item : order.items) {
+            if (item.category != null) categories.add(item.category);
+        }
+        entry.categories = new ArrayList<>(categories);
+        entry.bytes = size;
+
+        byId.put(id, entry);
+        liveBytes += size;
+        if (entry.status != null) index(byStatus, entry.status, entry);
+        for (String category : entry.categories) index(byCategory, category, entry);
+        byTime.computeIfAbsent(entry.time, t -> new LinkedHashSet<>()).add(entry);
+    }
+
+    private void setStatus(Entry entry, String status, int size) {
+        if (entry.status != null) unindex(byStatus, entry.status, entry);
+        // 多次修改状态只需要保留最后一条 STATUS 记录
+        int previous = entry.status != null && !entry.status.equals(entry.jsonStatus)
+            ? RecordLog.recordSize(entry.id, entry.status) : 0;
+        entry.status = status;
+        entry.bytes += size - previous;
+        liveBytes += size - previous;
+        index(byStatus, status, entry);
+    }
+
+    private void removeEntry(String id) {
+        Entry entry = byId.remove(id);
+        if (entry != null) unindex(entry);
+    }
+
+    private void unindex(Entry entry) {
+        liveBytes -= entry.bytes;
+        if (entry.status != null) unindex(byStatus, entry.status, entry);
+        for (String category : entry.categories) unindex(byCategory, category, entry);
+        LinkedHashSet<Entry> sameTime = byTime.get(entry.time);
+        if (sameTime != null) {
+            sameTime.remove(entry);
+            if (sameTime.isEmpty()) byTime.remove(entry.time);
+        }
+    }
+
+    private static void index(Map<String, LinkedHashSet<Entry>> index, String key, Entry entry) {
+        index.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(entry);
+    }
+
+    private static void unindex(Map<String, LinkedHashSet<Entry>> index, String key, Entry entry) {
+        LinkedHashSet<Entry> entries = index.get(key);
+        if (entries == null) return;
+        entries.remove(entry);
+        if (entries.isEmpty()) index.remove(key);
+    }
+
+    /** 下单时间（毫秒），无法识别时为 0 */
+    private long parseTime(String time) {
+        if (time == null) return 0;
+        for (SimpleDateFormat format : timeFormats) {
+            try {
+                return format.parse(time).getTime();
+            } catch (ParseException ignored) {
+                // 尝试下一种格式
+            }
+        }
+        return 0;
+    }
+
+    private void maybeCompact() {
+        long dead = log.size() - liveBytes;
+        if (dead < COMPACT_MIN_DEAD_BYTES || dead < liveBytes) return;
+        try {
+            log.compact(target -> {
+                for (Entry entry : byId.values()) {
+                    target.append(TYPE_UPSERT, entry.id, entry.json);
+                    if (entry.status != null && !entry.status.equals(entry.jsonStatus)) {
+                        target.append(TYPE_STATUS, entry.id, entry.status);
+                    }
+                }
+            });
+            liveBytes = log.size();
+        } catch (IOException e) {
+            Log.e(TAG, "压缩订单存储失败: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import android.util.Log;
+
+/**
+ * 订单存储的 JS 接口（见 OrderStore）。
+ *
+ * JS 按订单增量调用 upsertOrder / updateStatus / removeOrder，不再每次改动都重写整个数组；
+ * queryOrders 返回订单 JSON 数组字符串，JS 端一次 JSON.parse 即可。
+ */
+public class OrderStoreModule extends ReactContextBaseJavaModule {
+
+    private static final String TAG = "OrderStoreModule";
+    private static final String STORE_FILE = "orders.store";
+
+    // 打开失败时为 null，所有方法返回 STORE_UNAVAILABLE，JS 退回 AsyncStorage
+    private final OrderStore store;
+
+    OrderStoreModule(ReactApplicationContext reactContext) {
+        super(reactContext);
+        OrderStore opened = null;
+        try {
+            opened = OrderStore.open(new File(reactContext.getFilesDir(), STORE_FILE));
+        } catch (IOException e) {
+            Log.e(TAG, "打开订单存储失败: " + e.getMessage());
+        }
+        this.store = opened;
+    }
+
+    @Override
+    public String getName() {
+        return "OrderStoreModule";
+    }
+
+    /**
+     * 新增或替换订单。
+     * @param orderJson 订单（FormattedOrder）的 JSON
+     */
+    @ReactMethod
+    public void upsertOrder(String orderId, String orderJson, Promise promise) {
+        if (!checkAvailable(promise)) return;
+        try {
+            store.upsert(orderId, orderJson);
+            promise.resolve(true);
+        } catch (OrderParser.ParseException e) {
+            promise.reject("INVALID_ORDER", "订单格式错误: " + e.getMessage());
+        } catch (IOException e) {
+            Log.e(TAG, "保存订单失败: " + e.getMessage());
+            promise.reject("STORE_ERROR", "保存订单失败: " + e.getMessage());
+        }
+    }
+
+    /** resolve 订单是否存在 */
+    @ReactMethod
+    public void updateStatus(String orderId, String status, Promise promise) {
+        if (!checkAvailable(promise)) return;
+        try {
+            promise.resolve(store.updateStatus(orderId, status));
+        } catch (IOException e) {
+            Log.e(TAG, "更新订单状态失败: " + e.getMessage());
+            promise.reject("STORE_ERROR", "更新订单状态失败: " + e.getMessage());
+        }
+    }
+
+    /** resolve 订单是否存在 */
+    @ReactMethod
+    public void removeOrder(String orderId, Promise promise) {
+        if (!checkAvailable(promise)) return;
+        try {
+            promise.resolve(store.remove(orderId));
+        } catch (IOException e) {
+            Log.e(TAG, "删除订单失败: " + e.getMessage());
+            promise.reject("STORE_ERROR", "删除订单失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 按条件查询订单，最新的在前。status / category 为 null、sinceTime（毫秒）<= 0 时不过滤。
+     * resolve 订单 JSON 数组字符串。
+     */
+    @ReactMethod
+    public void queryOrders(String status, String category, double sinceTime, Promise promise) {
+        if (!checkAvailable(promise)) return;
+        List<String> orders = store.query(status, category, (long) sinceTime);
+        int length = 2;
+        for (String order : orders) length += order.length() + 1;
+        StringBuilder json = new StringBuilder(length).append('[');
+        for (int i = 0; i < orders.size(); i++) {
+            if (i > 0) json.append(',');
+            json.append(orders.get(i));
+        }
+        promise.resolve(json.append(']').toString());
+    }
+
+    private boolean checkAvailable(Promise promise) {
+        if (store != null) return true;
+        promise.reject("STORE_UNAVAILABLE", "订单存储不可用");
+        return false;
+    }
+
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        if (store != null) store.close();
+    }
+}
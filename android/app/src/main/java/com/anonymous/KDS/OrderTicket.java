@@ -0,0 +1,139 @@
+package com.anonymous.KDS;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.ReadableType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 打印小票用的订单数据，在提交打印任务时从 JS 传来的 ReadableMap 复制出来，
+ * 打印线程不再访问 ReadableMap。
+ *
+ * 兼容 printOrder 旧的参数（orderId / items）和 FormattedOrder（id / products），缺少的字段为 null 或 0。
+ * 顶层的其他文字和数字字段原样保存在 fields 中，供小票模板使用。
+ */
+final class OrderTicket {
+
+    static final class Option {
+        String name;
+        String value;
+        double price;
+    }
+
+    static final class Item {
+        String name;
+        int quantity;
+        double price;
+        String category;
+        final List<Option> options = new ArrayList<>();
+    }
+
+    String shopName;
+    String orderId;
+    String orderTime;
+    String pickupMethod;
+    String tableNumber;
+    final List<Item> items = new ArrayList<>();
+    final Map<String, String> fields = new HashMap<>();
+
+    /** 合计：商品单价 × 数量，加上选项的加价 */
+    double total() {
+        double total = 0;
+        for (Item item : items) {
+            total += item.price * item.quantity;
+            for (Option option : item.options) {
+                if (option.price > 0) total += option.price;
+            }
+        }
+        return total;
+    }
+
+    /** 只包含部分商品的副本（按工作站拆分订单时使用），订单信息相同 */
+    OrderTicket withItems(List<Item> subset) {
+        OrderTicket copy = new OrderTicket();
+        copy.shopName = shopName;
+        copy.orderId = orderId;
+        copy.orderTime = orderTime;
+        copy.pickupMethod = pickupMethod;
+        copy.tableNumber = tableNumber;
+        copy.items.addAll(subset);
+        copy.fields.putAll(fields);
+        return copy;
+    }
+
+    static OrderTicket from(ReadableMap map) {
+        OrderTicket ticket = new OrderTicket();
+        ReadableMapKeySetIterator keys = map.keySetIterator();
+        while (keys.hasNextKey()) {
+            String key = keys.nextKey();
+            String value = string(map, key);
+            if (value != null) ticket.fields.put(key, value);
+        }
+        ticket.shopName = string(map, "shopName");
+        ticket.orderId = string(map, "orderId");
+        if (ticket.orderId == null) ticket.orderId = string(map, "id");
+        ticket.orderTime = string(map, "orderTime");
+        ticket.pickupMethod = string(map, "pickupMethod");
+        ticket.tableNumber = string(map, "tableNumber");
+
+        ReadableArray items = array(map, "items");
+        if (items == null) items = array(map, "products");
+        if (items != null) {
+            for (int i = 0; i < items.size(); i++) {
+                if (items.getType(i) != ReadableType.Map) continue;
+                ReadableMap source = items.getMap(i);
+                Item item = new Item();
+                item.name = string(source, "name");
+                item.quantity = (int) number(source, "quantity");
+                item.price = number(source, "price");
+                item.category = string(source, "category");
+                ReadableArray options = array(source, "options");
+                if (options != null) {
+                    for (int j = 0; j < options.size(); j++) {
+                        if (options.getType(j) != ReadableType.Map) continue;
+                        ReadableMap optionSource = options.getMap(j);
+                        Option option = new Option();
+                        option.name = string(optionSource, "name");
+                        option.value = string(optionSource, "value");
+                        option.price = number(optionSource, "price");
+                        item.options.add(option);
+                    }
+                }
+                ticket.items.add(item);
+            }
+        }
+        return ticket;
+    }
+
+    private static String string(ReadableMap map, String key) {
+        if (!map.hasKey(key) || map.isNull(key)) return null;
+        ReadableType type = map.getType(key);
+        if (type == ReadableType.String) return map.getString(key);
+        if (type == ReadableType.Number) return Order.formatNumber(map.getDouble(key));
+        return null;
+    }
+
+    private static double number(ReadableMap map, String key) {
+        if (!map.hasKey(key) || map.isNull(key)) return 0;
+        ReadableType type = map.getType(key);
+        if (type == ReadableType.Number) return map.getDouble(key);
+        if (type == ReadableType.String) {
+            try {
+                return Double.parseDouble(map.getString(key));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private static ReadableArray array(ReadableMap map, String key) {
+        if (!map.hasKey(key) || map.getType(key) != ReadableType.Array) return null;
+        return map.getArray(key);
+    }
+}
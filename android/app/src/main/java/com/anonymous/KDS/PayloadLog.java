@@ -0,0 +1,59 @@
+package com.anonymous.KDS;
+
+import java.util.Locale;
+import android.util.Log;
+
+/**
+ * 订单原文的日志级别。每个订单都打印完整 JSON 在慢的平板上本身就是开销，
+ * 默认只记录长度和开头一小段，排查问题时由 JS（setPayloadLogLevel）临时打开完整日志。
+ */
+final class PayloadLog {
+
+    static final int OFF = 0;
+    static final int SUMMARY = 1;
+    static final int FULL = 2;
+
+    private static final int SUMMARY_CHARS = 64;
+
+    private static volatile int level = SUMMARY;
+
+    private PayloadLog() {
+    }
+
+    static int level() {
+        return level;
+    }
+
+    static void setLevel(int newLevel) {
+        level = Math.max(OFF, Math.min(FULL, newLevel));
+    }
+
+    /** "off" / "summary" / "full"，无法识别时返回 -1 */
+    static int parseLevel(String name) {
+        if (name == null) return -1;
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "off":
+                return OFF;
+            case "summary":
+                return SUMMARY;
+            case "full":
+                return FULL;
+            default:
+                return -1;
+        }
+    }
+
+    static String levelName(int value) {
+        return value == OFF ? "off" : value == FULL ? "full" : "summary";
+    }
+
+    static void log(String tag, String prefix, String payload) {
+        int current = level;
+        if (current == OFF) return;
+        if (current == FULL || payload.length() <= SUMMARY_CHARS) {
+            Log.d(tag, prefix + payload);
+        } else {
+            Log.d(tag, prefix + payload.substring(0, SUMMARY_CHARS) + "…（共 " + payload.length() + " 字符）");
+        }
+    }
+}
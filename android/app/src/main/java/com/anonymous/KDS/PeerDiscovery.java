@@ -0,0 +1,310 @@
+package com.anonymous.KDS;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntSupplier;
+import android.util.Log;
+
+/**
+ * 局域网内 KDS 互相发现：每台 KDS 每秒广播一个 UDP 信标（角色、分类、订单端口、负载），
+ * 同时接收其他 KDS 的信标，维护一张在线表。LIVENESS_TIMEOUT_MS 内没有收到信标的 KDS 标记为离线，
+ * 主 KDS 不再向离线的子 KDS 建立连接，收到信标后立即重连（见 SubKdsReplicator）。
+ *
+ * 信标格式："KDSB 版本 实例号 角色 端口 负载\n分类"。同一台机器上的多个实例共用发现端口（SO_REUSEADDR），
+ * 广播会发给每一个实例，按 "IP:端口" 区分。
+ */
+final class PeerDiscovery {
+
+    private static final String TAG = "PeerDiscovery";
+    private static final String MAGIC = "KDSB";
+    private static final int VERSION = 1;
+
+    static final int DEFAULT_PORT = 4322;
+    static final String ROLE_MASTER = "master";
+    static final String ROLE_SLAVE = "slave";
+    static final long BEACON_INTERVAL_MS = 1000;
+    // 连续错过三个信标算离线
+    static final long LIVENESS_TIMEOUT_MS = 3500;
+    // 离线这么久之后从表里删除
+    private static final long FORGET_MS = 10 * 60 * 1000L;
+    private static final int MAX_BEACON_SIZE = 512;
+
+    interface Listener {
+        /** 在发现线程上调用：KDS 上线、离线，或角色/分类变化 */
+        void onPeerChanged(Peer peer);
+    }
+
+    /** 一台 KDS 的最新信标，每次变化都生成新的对象 */
+    static final class Peer {
+        final String id;
+        final String role;
+        final String category;
+        final String host;
+        final int port;
+        final int load;
+        final long lastSeen;
+        final boolean alive;
+
+        Peer(String id, String role, String category, String host, int port, int load, long lastSeen, boolean alive) {
+            this.id = id;
+            this.role = role;
+            this.category = category;
+            this.host = host;
+            this.port = port;
+            this.load = load;
+            this.lastSeen = lastSeen;
+            this.alive = alive;
+        }
+
+        String address() {
+            return host + ":" + port;
+        }
+
+        private Peer dead() {
+            return new Peer(id, role, category, host, port, load, lastSeen, false);
+        }
+    }
+
+    private final DatagramSocket socket;
+    private final InetSocketAddress target;
+    private final String id;
+    private final int orderPort;
+    private final IntSupplier load;
+    private final Listener listener;
+    private final Thread thread;
+    private volatile boolean running = true;
+    // 还没有设置角色时只接收，不广播
+    private volatile String role;
+    private volatile String category = CategoryRouter.ALL;
+    // "IP:端口" -> 最新信标
+    private final Map<String, Peer> peers = new HashMap<>();
+
+    // 统计
+    private volatile long beaconsSent;
+    private volatile long beaconsReceived;
+    private volatile long invalidBeacons;
+    private volatile String lastError;
+
+    private PeerDiscovery(DatagramSocket socket, InetSocketAddress target, int orderPort,
+                          IntSupplier load, Listener listener) {
+        this.socket = socket;
+        this.target = target;
+        this.orderPort = orderPort;
+        this.load = load;
+        this.listener = listener;
+        this.id = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        this.thread = new Thread(this::run, "KDS-Discovery");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * 在 discoveryPort 上接收信标并向 broadcast 广播自己的信标。
+     * @param orderPort 本机 OrderServer 的端口，写在信标里
+     * @param load 信标里的负载（当前的订单数），在发现线程上调用
+     */
+    static PeerDiscovery open(InetAddress broadcast, int discoveryPort, int orderPort,
+                              IntSupplier load, Listener listener) throws IOException {
+        DatagramSocket socket = new DatagramSocket(null);
+        try {
+            socket.setReuseAddress(true);
+            socket.setBroadcast(true);
+            socket.bind(new InetSocketAddress(discoveryPort));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        PeerDiscovery discovery = new PeerDiscovery(
+            socket, new InetSocketAddress(broadcast, discoveryPort), orderPort, load, listener);
+        discovery.thread.start();
+        Log.d(TAG, "开始发现其他KDS: 端口 " + discoveryPort + "，实例 " + discovery.id);
+        return discovery;
+    }
+
+    /** 设置本机的角色和分类，之后开始广播 */
+    void advertise(String role, String category) {
+        this.category = category != null && !category.isEmpty() ? category : CategoryRouter.ALL;
+        this.role = role;
+    }
+
+    /** host:port 的 KDS，从没收到过它的信标时为 null（这时不知道它是否在线） */
+    synchronized Peer find(String host, int port) {
+        return peers.get(host + ":" + port);
+    }
+
+    synchronized List<Peer> peers() {
+        return new ArrayList<>(peers.values());
+    }
+
+    Stats stats() {
+        Stats stats = new Stats();
+        stats.id = id;
+        stats.role = role;
+        stats.category = category;
+        stats.beaconsSent = beaconsSent;
+        stats.beaconsReceived = beaconsReceived;
+        stats.invalidBeacons = invalidBeacons;
+        stats.lastError = lastError;
+        return stats;
+    }
+
+    static final class Stats {
+        String id;
+        String role;
+        String category;
+        long beaconsSent;
+        long beaconsReceived;
+        // 格式错误或版本不同的信标
+        long invalidBeacons;
+        String lastError;
+    }
+
+    void close() {
+        running = false;
+        socket.close();
+        thread.interrupt();
+    }
+
+    private void run() {
+        byte[] buffer = new byte[MAX_BEACON_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        long nextBeacon = 0;
+        while (running) {
+            long now = now();
+            if (now >= nextBeacon) {
+                sendBeacon();
+                sweep(now);
+                nextBeacon = now + BEACON_INTERVAL_MS;
+            }
+            try {
+                socket.setSoTimeout((int) Math.max(1, nextBeacon - now));
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                receive(packet);
+            } catch (SocketTimeoutException e) {
+                // 该发下一个信标了
+            } catch (IOException e) {
+                if (!running) break;
+                lastError = e.getMessage();
+                Log.e(TAG, "接收信标失败: " + e.getMessage());
+                sleepQuietly();
+            }
+        }
+        Log.d(TAG, "停止发现其他KDS");
+    }
+
+    private void sendBeacon() {
+        String currentRole = role;
+        if (currentRole == null) return;
+        int currentLoad;
+        try {
+            currentLoad = Math.max(0, load.getAsInt());
+        } catch (RuntimeException e) {
+            currentLoad = 0;
+        }
+        byte[] data = (MAGIC + " " + VERSION + " " + id + " " + currentRole + " " + orderPort + " "
+            + currentLoad + "\n" + category).getBytes(StandardCharsets.UTF_8);
+        try {
+            socket.send(new DatagramPacket(data, data.length, target));
+            beaconsSent++;
+        } catch (IOException e) {
+            // 网络还没连上时会失败，下一秒再试
+            if (running) lastError = e.getMessage();
+        }
+    }
+
+    private void receive(DatagramPacket packet) {
+        String text = new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.UTF_8);
+        int newline = text.indexOf('\n');
+        String[] parts = (newline >= 0 ? text.substring(0, newline) : text).split(" ");
+        if (parts.length != 6 || !MAGIC.equals(parts[0]) || !Integer.toString(VERSION).equals(parts[1])) {
+            invalidBeacons++;
+            return;
+        }
+        if (id.equals(parts[2])) return;
+        int port;
+        int peerLoad;
+        try {
+            port = Integer.parseInt(parts[4]);
+            peerLoad = Integer.parseInt(parts[5]);
+        } catch (NumberFormatException e) {
+            invalidBeacons++;
+            return;
+        }
+        beaconsReceived++;
+        String peerCategory = newline >= 0 && newline + 1 < text.length() ? text.substring(newline + 1) : CategoryRouter.ALL;
+        Peer peer = new Peer(parts[2], parts[3], peerCategory, packet.getAddress().getHostAddress(),
+            port, peerLoad, now(), true);
+        List<Peer> changed = new ArrayList<>(2);
+        synchronized (this) {
+            Peer previous = peers.put(peer.address(), peer);
+            if (previous == null || !previous.alive || !previous.id.equals(peer.id)
+                    || !previous.role.equals(peer.role) || !previous.category.equals(peer.category)) {
+                changed.add(peer);
+            }
+            // 同一个实例换了地址（例如 DHCP 重新分配），旧地址立即离线
+            for (Iterator<Peer> it = peers.values().iterator(); it.hasNext(); ) {
+                Peer other = it.next();
+                if (other != peer && other.id.equals(peer.id)) {
+                    it.remove();
+                    if (other.alive) changed.add(other.dead());
+                }
+            }
+        }
+        for (Peer p : changed) notifyChanged(p);
+    }
+
+    /** 标记超时的 KDS 离线，删除离线太久的 */
+    private void sweep(long now) {
+        List<Peer> changed = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Map.Entry<String, Peer>> it = peers.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Peer> entry = it.next();
+                Peer peer = entry.getValue();
+                long silent = now - peer.lastSeen;
+                if (peer.alive && silent > LIVENESS_TIMEOUT_MS) {
+                    Peer dead = peer.dead();
+                    entry.setValue(dead);
+                    changed.add(dead);
+                } else if (!peer.alive && silent > FORGET_MS) {
+                    it.remove();
+                }
+            }
+        }
+        for (Peer p : changed) notifyChanged(p);
+    }
+
+    private void notifyChanged(Peer peer) {
+        Log.d(TAG, "KDS " + peer.address() + "（" + peer.role + "，" + peer.category + "）"
+            + (peer.alive ? "在线" : "离线"));
+        if (listener == null) return;
+        try {
+            listener.onPeerChanged(peer);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "处理KDS状态变化时出错: " + e.getMessage());
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(BEACON_INTERVAL_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
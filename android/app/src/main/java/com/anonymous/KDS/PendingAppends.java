@@ -0,0 +1,89 @@
+package com.anonymous.KDS;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 已经通过去重、还在等待写入订单日志的订单。
+ *
+ * 去重窗口在 admit 时就记录了订单，原订单还没落盘时 POS 的重发会被判为 DUPLICATE。
+ * 这时不能直接确认（原订单可能写日志失败），重发的回调登记在这里，
+ * 等原订单的日志回调用同样的结果回复；原订单已经落盘后的重发才直接确认。
+ *
+ * 调用方在同一个锁（本对象）内完成 dedup.admit 和 begin / await，以及 dedup.forget 和 complete，
+ * 否则重发可能在 admit 和 begin 之间到达而被直接确认。
+ */
+final class PendingAppends {
+
+    private static final class Entry {
+        final String content;
+        List<OrderJournal.Callback> waiters;
+
+        Entry(String content) {
+            this.content = content;
+        }
+    }
+
+    // 订单号 -> 等待落盘的订单（同一订单号可能同时有修改前后两个版本）
+    private final Map<String, List<Entry>> pending = new HashMap<>();
+    private long deferred;
+
+    /** 订单开始写日志 */
+    synchronized void begin(String orderId, String content) {
+        pending.computeIfAbsent(orderId, id -> new ArrayList<>(1)).add(new Entry(content));
+    }
+
+    /**
+     * 重发的订单：原订单还在等待落盘时登记回调并返回 true；原订单已经落盘时返回 false，调用方直接确认。
+     */
+    synchronized boolean await(String orderId, String content, OrderJournal.Callback callback) {
+        Entry entry = find(orderId, content);
+        if (entry == null) return false;
+        if (entry.waiters == null) entry.waiters = new ArrayList<>(1);
+        entry.waiters.add(callback);
+        deferred++;
+        return true;
+    }
+
+    /**
+     * 原订单的日志回调，返回等待它的重发的回调。调用方在锁外用同样的 error 调用它们。
+     */
+    synchronized List<OrderJournal.Callback> complete(String orderId, String content) {
+        List<Entry> entries = pending.get(orderId);
+        if (entries == null) return Collections.emptyList();
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (!entry.content.equals(content)) continue;
+            entries.remove(i);
+            if (entries.isEmpty()) pending.remove(orderId);
+            return entry.waiters != null ? entry.waiters : Collections.emptyList();
+        }
+        return Collections.emptyList();
+    }
+
+    static void notify(List<OrderJournal.Callback> waiters, IOException error) {
+        for (OrderJournal.Callback waiter : waiters) waiter.onComplete(error);
+    }
+
+    /** 等待原订单落盘后才回复的重发数 */
+    synchronized long deferred() {
+        return deferred;
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    private Entry find(String orderId, String content) {
+        List<Entry> entries = pending.get(orderId);
+        if (entries == null) return null;
+        for (Entry entry : entries) {
+            if (entry.content.equals(content)) return entry;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,52 @@
+package com.anonymous.KDS;
+
+import java.util.List;
+
+/**
+ * 一次批量打印（重打一段订单、交班汇总等）：多张小票作为一个打印任务，
+ * 只检查一次连接，排版进同一个缓冲区，分段写给打印机。
+ *
+ * 已经写给打印机的张数记录在 printed 中，任务因打印机离线放回队列后从下一张继续，不会重复打印。
+ */
+final class PrintBatch {
+
+    interface Progress {
+        /** 第 index 张（从 0 开始）已经写给打印机，在打印线程上调用 */
+        void onPrinted(PrintBatch batch, int index, OrderTicket ticket);
+    }
+
+    final TicketTemplate template;
+    final List<OrderTicket> tickets;
+    // 每张小票之后是否切纸，否则只在最后一张之后切纸
+    final boolean cutBetween;
+    private final Progress progress;
+    // 只在打印线程上修改
+    volatile int printed;
+    // 由 this 保护，进度回调可能在 submit 返回之前开始
+    private String jobId;
+
+    PrintBatch(TicketTemplate template, List<OrderTicket> tickets, boolean cutBetween, Progress progress) {
+        this.template = template;
+        this.tickets = tickets;
+        this.cutBetween = cutBetween;
+        this.progress = progress;
+    }
+
+    /** 作为一个任务加入打印机的队列 */
+    synchronized PrintQueue.Job submit(PrinterStation station, PrintQueue.Priority priority)
+            throws PrintQueue.QueueFullException {
+        PrintQueue.Job job = station.queue.submit("批量打印 " + tickets.size() + " 张", priority,
+            () -> station.printBatch(this));
+        jobId = job.id;
+        return job;
+    }
+
+    synchronized String jobId() {
+        return jobId;
+    }
+
+    void printed(int index) {
+        printed = index + 1;
+        if (progress != null) progress.onPrinted(this, index, tickets.get(index));
+    }
+}
@@ -0,0 +1,301 @@
+package com.anonymous.KDS;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import android.util.Log;
+
+/**
+ * 打印任务队列：有界、按优先级（加急 > 重打 > 普通）排序、同优先级先进先出，
+ * 由唯一的打印线程逐个执行，不同来源的打印请求不会交错输出。
+ *
+ * 提交后立即返回任务号，任务状态可以随时查询；已完成的任务保留最近 HISTORY_SIZE 个。
+ * 每台打印机一个队列，任务号在所有队列之间唯一。
+ * 打印机离线时暂停（pause），任务留在队列中，恢复（resume）后按原来的顺序打印。
+ */
+final class PrintQueue {
+
+    private static final String TAG = "PrintQueue";
+    private static final int HISTORY_SIZE = 200;
+    // 因打印机离线而放回队列的任务最多尝试的次数
+    private static final int MAX_ATTEMPTS = 5;
+    // 所有队列共用，任务号全局唯一，同时作为同优先级内的先后顺序
+    private static final AtomicLong NEXT_SEQUENCE = new AtomicLong();
+
+    enum Priority { NORMAL, REPRINT, RUSH }
+
+    enum Status { QUEUED, PRINTING, DONE, FAILED }
+
+    interface Task {
+        /** 在打印线程上执行，抛出异常表示打印失败 */
+        void print() throws Exception;
+    }
+
+    static class QueueFullException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        QueueFullException(String message) {
+            super(message);
+        }
+    }
+
+    /** Task 抛出，表示暂时无法打印（例如打印机离线），任务放回队列原来的位置，之后重试 */
+    static class RetryException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        RetryException(String message) {
+            super(message);
+        }
+    }
+
+    /** Task 抛出，表示本机打印失败、已转到另一个任务（例如备用打印机）继续打印 */
+    static class ForwardedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final Job forwardedTo;
+
+        ForwardedException(String message, Job forwardedTo) {
+            super(message);
+            this.forwardedTo = forwardedTo;
+        }
+    }
+
+    static final class Job {
+        final String id;
+        // 所属队列（打印机）的名称
+        final String queue;
+        final Priority priority;
+        final String description;
+        final long sequence;
+        final Task task;
+        final long enqueuedAt = System.currentTimeMillis();
+        final long enqueuedNanos = System.nanoTime();
+        volatile Status status = Status.QUEUED;
+        volatile long startedAt;
+        volatile long finishedAt;
+        volatile long waitMs;
+        volatile long latencyMs;
+        volatile String error;
+        volatile int attempts;
+        // 失败后转到的任务
+        volatile Job forwardedTo;
+
+        Job(String id, String queue, Priority priority, String description, long sequence, Task task) {
+            this.id = id;
+            this.queue = queue;
+            this.priority = priority;
+            this.description = description;
+            this.sequence = sequence;
+            this.task = task;
+        }
+    }
+
+    private final String name;
+    private final int capacity;
+    private final PriorityQueue<Job> queue = new PriorityQueue<>(16, (a, b) ->
+        a.priority != b.priority ? b.priority.compareTo(a.priority) : Long.compare(a.sequence, b.sequence));
+    // 正在打印和已完成的任务，按开始打印的顺序淘汰
+    private final LinkedHashMap<String, Job> history = new LinkedHashMap<String, Job>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Job> eldest) {
+            return size() > HISTORY_SIZE;
+        }
+    };
+    private final Thread worker;
+    private boolean paused;
+    private boolean shutdown;
+
+    // 统计
+    private int maxDepth;
+    private long submitted;
+    private long completed;
+    private long failed;
+    private long rejected;
+    private long forwarded;
+    private long totalLatencyMs;
+    private long maxLatencyMs;
+    private long totalWaitMs;
+
+    PrintQueue(String name, int capacity) {
+        this.name = name;
+        this.capacity = capacity;
+        this.worker = new Thread(this::run, "KDS-Printer-" + name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    synchronized Job submit(String description, Priority priority, Task task) throws QueueFullException {
+        if (shutdown) throw new QueueFullException("打印队列已关闭");
+        if (queue.size() >= capacity) {
+            rejected++;
+            throw new QueueFullException("打印队列已满（" + capacity + "）");
+        }
+        long sequence = NEXT_SEQUENCE.getAndIncrement();
+        Job job = new Job("print-" + sequence, name, priority, description, sequence, task);
+        queue.offer(job);
+        KdsMetrics.adjust(KdsMetrics.Gauge.PRINT_QUEUED, 1);
+        submitted++;
+        if (queue.size() > maxDepth) maxDepth = queue.size();
+        notifyAll();
+        return job;
+    }
+
+    /** 沿着 forwardedTo 找到最终负责打印的任务 */
+    static Job resolve(Job job) {
+        while (job.forwardedTo != null) job = job.forwardedTo;
+        return job;
+    }
+
+    synchronized Job find(String jobId) {
+        Job job = history.get(jobId);
+        if (job != null) return job;
+        for (Job queued : queue) {
+            if (queued.id.equals(jobId)) return queued;
+        }
+        return null;
+    }
+
+    /** 排在该任务前面的任务数，不在队列中时为 -1 */
+    synchronized int position(Job job) {
+        if (job.status != Status.QUEUED) return -1;
+        int ahead = 0;
+        for (Job queued : queue) {
+            if (queue.comparator().compare(queued, job) < 0) ahead++;
+        }
+        return ahead;
+    }
+
+    /** 暂停出票，已排队和新提交的任务留在队列中 */
+    synchronized void pause() {
+        paused = true;
+    }
+
+    /** 恢复出票，按优先级和提交顺序打印暂停期间积压的任务 */
+    synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    synchronized int depth() {
+        return queue.size();
+    }
+
+    synchronized Metrics metrics() {
+        Metrics metrics = new Metrics();
+        metrics.depth = queue.size();
+        metrics.maxDepth = maxDepth;
+        metrics.capacity = capacity;
+        metrics.paused = paused;
+        metrics.submitted = submitted;
+        metrics.completed = completed;
+        metrics.failed = failed;
+        metrics.rejected = rejected;
+        metrics.forwarded = forwarded;
+        long finished = completed + failed;
+        metrics.avgLatencyMs = finished > 0 ? (double) totalLatencyMs / finished : 0;
+        metrics.maxLatencyMs = maxLatencyMs;
+        metrics.avgWaitMs = finished > 0 ? (double) totalWaitMs / finished : 0;
+        return metrics;
+    }
+
+    static final class Metrics {
+        int depth;
+        int maxDepth;
+        int capacity;
+        // 暂停时 depth 个任务正在等待打印机恢复
+        boolean paused;
+        long submitted;
+        long completed;
+        long failed;
+        long rejected;
+        // failed 中转给其他打印机的任务数
+        long forwarded;
+        double avgLatencyMs;
+        long maxLatencyMs;
+        double avgWaitMs;
+    }
+
+    /** 停止打印线程，队列中未开始的任务标记为失败 */
+    synchronized void shutdown() {
+        shutdown = true;
+        Job job;
+        while ((job = queue.poll()) != null) {
+            KdsMetrics.adjust(KdsMetrics.Gauge.PRINT_QUEUED, -1);
+            job.error = "打印队列已关闭";
+            job.status = Status.FAILED;
+            history.put(job.id, job);
+        }
+        worker.interrupt();
+    }
+
+    /** 把任务放回队列，保持原来的顺序 */
+    private synchronized boolean requeue(Job job) {
+        if (shutdown) return false;
+        history.remove(job.id);
+        job.status = Status.QUEUED;
+        queue.offer(job);
+        KdsMetrics.adjust(KdsMetrics.Gauge.PRINT_QUEUED, 1);
+        return true;
+    }
+
+    private void run() {
+        while (true) {
+            Job job;
+            synchronized (this) {
+                while ((queue.isEmpty() || paused) && !shutdown) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        if (shutdown) return;
+                    }
+                }
+                if (shutdown) return;
+                job = queue.poll();
+                KdsMetrics.adjust(KdsMetrics.Gauge.PRINT_QUEUED, -1);
+                history.put(job.id, job);
+            }
+            execute(job);
+        }
+    }
+
+    private void execute(Job job) {
+        job.startedAt = System.currentTimeMillis();
+        long started = System.nanoTime();
+        job.waitMs = (started - job.enqueuedNanos) / 1_000_000;
+        // 放回队列的任务只在第一次开始时记录排队时间
+        if (job.attempts == 0) KdsMetrics.recordNanos(KdsMetrics.Stage.PRINT_ENQUEUE, started - job.enqueuedNanos);
+        job.status = Status.PRINTING;
+        job.attempts++;
+        try {
+            job.task.print();
+            job.status = Status.DONE;
+            // 小票数据全部写给打印机（出纸）所用的时间
+            KdsMetrics.record(KdsMetrics.Stage.PAPER_OUT, started);
+        } catch (RetryException e) {
+            if (job.attempts < MAX_ATTEMPTS && requeue(job)) {
+                Log.d(TAG, "打印任务 " + job.id + " 等待重试: " + e.getMessage());
+                return;
+            }
+            Log.e(TAG, "打印任务失败: " + job.id + " " + e.getMessage());
+            job.error = e.getMessage();
+            job.status = Status.FAILED;
+        } catch (Exception e) {
+            Log.e(TAG, "打印任务失败: " + job.id + " " + e.getMessage());
+            job.error = e.getMessage();
+            if (e instanceof ForwardedException) job.forwardedTo = ((ForwardedException) e).forwardedTo;
+            job.status = Status.FAILED;
+        }
+        job.finishedAt = System.currentTimeMillis();
+        job.latencyMs = (System.nanoTime() - job.enqueuedNanos) / 1_000_000;
+        synchronized (this) {
+            if (job.status == Status.DONE) completed++;
+            else failed++;
+            if (job.forwardedTo != null) forwarded++;
+            totalLatencyMs += job.latencyMs;
+            totalWaitMs += job.waitMs;
+            if (job.latencyMs > maxLatencyMs) maxLatencyMs = job.latencyMs;
+        }
+        Log.d(TAG, "打印任务 " + job.id + " " + job.status + "，排队 " + job.waitMs + "ms，总耗时 " + job.latencyMs + "ms");
+    }
+}
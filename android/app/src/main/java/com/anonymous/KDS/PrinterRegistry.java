@@ -0,0 +1,250 @@
+package com.anonymous.KDS;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * 管理多台打印机（PrinterStation）：按商品分类把订单拆分到各工作站的打印机并行出票，
+ * 打印机离线或排队过多时转给它的备用打印机。
+ *
+ * "default" 是原来的 USB 打印机，始终存在；没有对应工作站的商品由它打印。
+ * 一个订单拆分成多张小票时返回一个组任务号（group-N），查询时汇总各张小票的状态。
+ * 所有打印机的健康检查共用一个调度线程。
+ */
+final class PrinterRegistry {
+
+    private static final String TAG = "PrinterRegistry";
+
+    static final String DEFAULT_ID = "default";
+    // 排队的任务超过这个数视为忙碌，新的订单转给不那么忙的备用打印机
+    static final int BUSY_DEPTH = 5;
+    private static final int GROUP_HISTORY = 200;
+
+    static final class Config {
+        String id;
+        PrinterStation.Type type = PrinterStation.Type.USB;
+        String address;
+        List<String> categories = Collections.emptyList();
+        String backupId;
+    }
+
+    private final PrinterStation.DeviceFactory devices;
+    private final int queueCapacity;
+    private final PrinterStation.Listener listener;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "KDS-PrinterHealth");
+        t.setDaemon(true);
+        return t;
+    });
+    // 重新配置时整体替换，读取时不加锁
+    private volatile Map<String, PrinterStation> stations;
+    // 商品分类 -> 打印机
+    private volatile Map<String, PrinterStation> routes = Collections.emptyMap();
+    private final LinkedHashMap<String, List<PrintQueue.Job>> groups = new LinkedHashMap<String, List<PrintQueue.Job>>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<PrintQueue.Job>> eldest) {
+            return size() > GROUP_HISTORY;
+        }
+    };
+    private long nextGroup;
+
+    PrinterRegistry(PrinterStation.DeviceFactory devices, int queueCapacity, PrinterStation.Listener listener) {
+        this.devices = devices;
+        this.queueCapacity = queueCapacity;
+        this.listener = listener;
+        PrinterStation station = create(DEFAULT_ID, PrinterStation.Type.USB, null, Collections.emptyList(), null);
+        Map<String, PrinterStation> initial = new LinkedHashMap<>();
+        initial.put(DEFAULT_ID, station);
+        stations = initial;
+        station.start();
+    }
+
+    private PrinterStation create(String id, PrinterStation.Type type, String address,
+                                  List<String> categories, String backupId) {
+        return new PrinterStation(id, type, address, categories, backupId, queueCapacity, devices, scheduler, listener);
+    }
+
+    PrinterStation defaultStation() {
+        return stations.get(DEFAULT_ID);
+    }
+
+    PrinterStation get(String id) {
+        return stations.get(id);
+    }
+
+    Collection<PrinterStation> all() {
+        return stations.values();
+    }
+
+    /**
+     * 替换打印机配置。id、连接方式和地址都不变的打印机保留连接和队列，只更新分类和备用打印机；
+     * 配置中没有的打印机（default 除外）关闭，队列中的任务标记为失败。
+     * 配置 default 时只使用其中的分类和备用打印机。
+     */
+    synchronized void configure(List<Config> configs) {
+        Map<String, PrinterStation> current = stations;
+        Map<String, PrinterStation> next = new LinkedHashMap<>();
+        Map<String, PrinterStation> nextRoutes = new HashMap<>();
+        PrinterStation defaultStation = current.get(DEFAULT_ID);
+        defaultStation.categories = Collections.emptyList();
+        defaultStation.backupId = null;
+        next.put(DEFAULT_ID, defaultStation);
+
+        for (Config config : configs) {
+            PrinterStation station;
+            if (DEFAULT_ID.equals(config.id)) {
+                station = defaultStation;
+            } else {
+                station = current.get(config.id);
+                if (station == null || station.type != config.type || !same(station.address, config.address)) {
+                    station = create(config.id, config.type, config.address, config.categories, config.backupId);
+                    station.start();
+                }
+            }
+            station.categories = Collections.unmodifiableList(new ArrayList<>(config.categories));
+            station.backupId = config.backupId;
+            next.put(config.id, station);
+            for (String category : config.categories) {
+                if (nextRoutes.containsKey(category)) {
+                    Log.e(TAG, "分类 " + category + " 已由打印机 " + nextRoutes.get(category).id + " 负责，忽略 " + config.id);
+                } else {
+                    nextRoutes.put(category, station);
+                }
+            }
+        }
+
+        stations = next;
+        routes = nextRoutes;
+        for (PrinterStation station : current.values()) {
+            if (next.get(station.id) != station) station.shutdown();
+        }
+        Log.d(TAG, "打印机配置已更新：" + next.size() + " 台，" + nextRoutes.size() + " 个分类");
+    }
+
+    /**
+     * 按商品分类拆分订单，返回每台打印机要打印的小票（按第一次出现的顺序）。
+     * 全部商品都属于同一台打印机时，小票就是原订单。
+     */
+    Map<PrinterStation, OrderTicket> route(OrderTicket ticket) {
+        Map<String, PrinterStation> table = routes;
+        PrinterStation fallback = defaultStation();
+        LinkedHashMap<PrinterStation, List<OrderTicket.Item>> parts = new LinkedHashMap<>();
+        for (OrderTicket.Item item : ticket.items) {
+            PrinterStation station = item.category != null ? table.get(item.category) : null;
+            if (station == null) station = fallback;
+            parts.computeIfAbsent(station, s -> new ArrayList<>()).add(item);
+        }
+        LinkedHashMap<PrinterStation, OrderTicket> tickets = new LinkedHashMap<>();
+        if (parts.size() <= 1) {
+            tickets.put(parts.isEmpty() ? fallback : parts.keySet().iterator().next(), ticket);
+            return tickets;
+        }
+        for (Map.Entry<PrinterStation, List<OrderTicket.Item>> part : parts.entrySet()) {
+            tickets.put(part.getKey(), ticket.withItems(part.getValue()));
+        }
+        return tickets;
+    }
+
+    /**
+     * 提交一个订单：按分类拆分后分别加入各打印机的队列，返回任务号（拆分时为组任务号）。
+     * 任何一张小票无法加入队列时，已经加入的不撤回，抛出异常。
+     */
+    String submitOrder(TicketTemplate template, OrderTicket ticket, PrintQueue.Priority priority)
+            throws PrintQueue.QueueFullException {
+        Map<PrinterStation, OrderTicket> tickets = route(ticket);
+        List<PrintQueue.Job> jobs = new ArrayList<>(tickets.size());
+        for (Map.Entry<PrinterStation, OrderTicket> part : tickets.entrySet()) {
+            jobs.add(submit(part.getKey(), "订单 " + ticket.orderId, priority, template, part.getValue()));
+        }
+        if (jobs.size() == 1) return jobs.get(0).id;
+        synchronized (groups) {
+            String id = "group-" + nextGroup++;
+            groups.put(id, jobs);
+            return id;
+        }
+    }
+
+    /**
+     * 把一张小票加入指定打印机（离线或忙碌时为备用打印机）的队列。
+     * 打印时失败并且备用打印机在线，转给备用打印机重新排队；
+     * 否则离线的任务留在本机队列中，等恢复连接后再打印。
+     */
+    PrintQueue.Job submit(PrinterStation station, String description, PrintQueue.Priority priority,
+                          TicketTemplate template, OrderTicket ticket) throws PrintQueue.QueueFullException {
+        PrinterStation target = target(station);
+        return target.queue.submit(description + " @" + target.id, priority, task(target, description, priority, template, ticket));
+    }
+
+    private PrintQueue.Task task(PrinterStation station, String description, PrintQueue.Priority priority,
+                                 TicketTemplate template, OrderTicket ticket) {
+        return () -> {
+            try {
+                station.print(template, ticket);
+            } catch (Exception e) {
+                PrinterStation backup = backup(station);
+                if (backup == null || !backup.isOnline()) throw e;
+                PrintQueue.Job forwarded;
+                try {
+                    forwarded = backup.queue.submit(description + " @" + backup.id, priority,
+                        task(backup, description, priority, template, ticket));
+                } catch (PrintQueue.QueueFullException full) {
+                    throw e;
+                }
+                station.recordFailover();
+                throw new PrintQueue.ForwardedException(
+                    e.getMessage() + "，已转到备用打印机 " + backup.id + "（" + forwarded.id + "）", forwarded);
+            }
+        };
+    }
+
+    /** 离线时，或排队过多而备用打印机更空闲时，改用在线的备用打印机 */
+    private PrinterStation target(PrinterStation station) {
+        PrinterStation backup = backup(station);
+        if (backup == null || !backup.isOnline()) return station;
+        boolean busy = station.queue.depth() >= BUSY_DEPTH && backup.queue.depth() < station.queue.depth();
+        if (station.isOnline() && !busy) return station;
+        station.recordFailover();
+        Log.d(TAG, "打印机 " + station.id + (busy ? " 忙碌" : " 离线") + "，转到 " + backup.id);
+        return backup;
+    }
+
+    private PrinterStation backup(PrinterStation station) {
+        String backupId = station.backupId;
+        if (backupId == null || backupId.equals(station.id)) return null;
+        return stations.get(backupId);
+    }
+
+    /** 按任务号查找任务（在所有打印机的队列中） */
+    PrintQueue.Job findJob(String jobId) {
+        for (PrinterStation station : stations.values()) {
+            PrintQueue.Job job = station.queue.find(jobId);
+            if (job != null) return job;
+        }
+        return null;
+    }
+
+    /** 组任务中的各个任务，不存在时为 null */
+    List<PrintQueue.Job> findGroup(String groupId) {
+        synchronized (groups) {
+            return groups.get(groupId);
+        }
+    }
+
+    void shutdown() {
+        for (PrinterStation station : stations.values()) station.shutdown();
+        scheduler.shutdownNow();
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null || b.isEmpty() : a.equals(b);
+    }
+}
@@ -0,0 +1,471 @@
+package com.anonymous.KDS;
+
+import android.content.Context;
+import android.util.Log;
+
+import net.posprinter.IDeviceConnection;
+import net.posprinter.POSConnect;
+import net.posprinter.POSPrinter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 一台打印机（出品工作站，例如烧烤、饮品、甜品）：自己的连接、打印队列、排版缓冲区和统计。
+ * 每台打印机只在自己的打印线程上出票，不同打印机之间并行。
+ *
+ * 连接方式：usb（address 为设备路径，为空时连接第一个可用的 USB 打印机）、
+ * bluetooth（MAC 地址）、network（IP 地址）。
+ *
+ * 连接由健康检查（在共用的调度线程上）维持：
+ *   CONNECTING --连接成功且状态正常--> ONLINE --定时查询状态失败或打印时发现断开--> OFFLINE
+ *   OFFLINE --等待退避时间（从 1s 开始每次加倍，最长 60s）--> CONNECTING
+ * 不在 ONLINE 状态时打印队列暂停，任务留在队列中，恢复连接后按原来的顺序打印。
+ */
+final class PrinterStation {
+
+    private static final String TAG = "PrinterStation";
+
+    // 等待打印机回复连接状态的时间
+    private static final long STATUS_TIMEOUT_MS = 3000;
+    // 等待连接结果的时间
+    private static final long CONNECT_TIMEOUT_MS = 10_000;
+    // 在线时查询状态的间隔
+    private static final long POLL_INTERVAL_MS = 5_000;
+    private static final long INITIAL_BACKOFF_MS = 1_000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+    // 统计每分钟出票数的时间窗口
+    private static final long THROUGHPUT_WINDOW_MS = 60_000;
+    // 批量打印时缓冲区达到这个大小就写给打印机
+    private static final int BATCH_CHUNK_BYTES = 16 * 1024;
+
+    enum Type { USB, BLUETOOTH, NETWORK }
+
+    enum State { CONNECTING, ONLINE, OFFLINE }
+
+    /** 创建设备连接，默认使用 POSConnect */
+    interface DeviceFactory {
+        IDeviceConnection create(Type type);
+
+        List<String> usbDevices();
+    }
+
+    interface Listener {
+        /** 状态变化时在调度线程上调用 */
+        void onStateChanged(PrinterStation station, State state, String error);
+    }
+
+    static DeviceFactory posConnect(Context context) {
+        return new DeviceFactory() {
+            @Override
+            public IDeviceConnection create(Type type) {
+                switch (type) {
+                    case BLUETOOTH: return POSConnect.createDevice(POSConnect.DEVICE_TYPE_BLUETOOTH);
+                    case NETWORK: return POSConnect.createDevice(POSConnect.DEVICE_TYPE_ETHERNET);
+                    default: return POSConnect.createDevice(POSConnect.DEVICE_TYPE_USB);
+                }
+            }
+
+            @Override
+            public List<String> usbDevices() {
+                return POSConnect.getUsbDevices(context);
+            }
+        };
+    }
+
+    final String id;
+    final Type type;
+    final String address;
+    final PrintQueue queue;
+    // 负责的商品分类，重新配置时可以修改
+    volatile List<String> categories;
+    // 离线或忙碌时转给的备用打印机
+    volatile String backupId;
+
+    private final DeviceFactory devices;
+    private final ScheduledExecutorService scheduler;
+    private final Listener listener;
+    // 只在打印线程上使用
+    private final TicketRenderer renderer = new TicketRenderer();
+    // 健康检查写入，打印线程读取
+    private volatile IDeviceConnection device;
+    private volatile POSPrinter printer;
+    private volatile State state = State.OFFLINE;
+    private volatile String lastError;
+
+    // 以下由 this 保护
+    // 每次连接或断开加一，过期的回调据此忽略
+    private int generation;
+    // 下一次状态查询、重连或连接超时
+    private ScheduledFuture<?> timer;
+    private long backoffMs = INITIAL_BACKOFF_MS;
+    private long nextRetryAt;
+    private boolean stopped;
+    private final List<Runnable> onlineWaiters = new ArrayList<>();
+
+    // 统计
+    private long ticketsPrinted;
+    private long bytesSent;
+    private long failovers;
+    private long connectAttempts;
+    private long disconnects;
+    private final ArrayDeque<Long> recentTickets = new ArrayDeque<>();
+
+    PrinterStation(String id, Type type, String address, List<String> categories, String backupId,
+                   int queueCapacity, DeviceFactory devices, ScheduledExecutorService scheduler, Listener listener) {
+        this.id = id;
+        this.type = type;
+        this.address = address;
+        this.categories = Collections.unmodifiableList(categories);
+        this.backupId = backupId;
+        this.queue = new PrintQueue(id, queueCapacity);
+        this.devices = devices;
+        this.scheduler = scheduler;
+        this.listener = listener;
+        this.queue.pause();
+    }
+
+    /** 开始连接，之后由健康检查维持连接 */
+    synchronized void start() {
+        if (!stopped) connectLocked();
+    }
+
+    /** 放弃当前连接（不关闭，与原来的重连方式相同）并立即重新连接，退避时间重置 */
+    synchronized void reconnect() {
+        if (stopped) return;
+        backoffMs = INITIAL_BACKOFF_MS;
+        connectLocked();
+    }
+
+    /** 在线时立即回调 true，否则等到连接成功或超时后回调当前是否在线 */
+    void whenOnline(long timeoutMs, Consumer<Boolean> callback) {
+        AtomicBoolean done = new AtomicBoolean();
+        Runnable complete = () -> {
+            if (done.compareAndSet(false, true)) callback.accept(isOnline());
+        };
+        synchronized (this) {
+            if (state != State.ONLINE && !stopped) {
+                onlineWaiters.add(complete);
+                scheduler.schedule(complete, timeoutMs, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        complete.run();
+    }
+
+    /** 停止健康检查和打印队列，关闭连接 */
+    void shutdown() {
+        IDeviceConnection connection;
+        synchronized (this) {
+            stopped = true;
+            generation++;
+            cancelTimer();
+            onlineWaiters.clear();
+            connection = device;
+            device = null;
+            printer = null;
+            state = State.OFFLINE;
+        }
+        queue.shutdown();
+        close(connection);
+    }
+
+    boolean isOnline() {
+        return state == State.ONLINE;
+    }
+
+    State state() {
+        return state;
+    }
+
+    POSPrinter printer() {
+        return printer;
+    }
+
+    // ---- 健康检查（以 Locked 结尾的方法由调用方持有锁） ----
+
+    private void connectLocked() {
+        cancelTimer();
+        int attempt = ++generation;
+        connectAttempts++;
+        device = null;
+        printer = null;
+        queue.pause();
+        setStateLocked(State.CONNECTING, null);
+
+        List<String> targets;
+        if (type == Type.USB && (address == null || address.isEmpty())) {
+            targets = devices.usbDevices();
+            if (targets == null || targets.isEmpty()) {
+                failedLocked("没有找到 USB 打印机");
+                return;
+            }
+        } else {
+            targets = Collections.singletonList(address);
+        }
+        // 先安排超时，连接结果可能在 connect() 返回之前就回调
+        timer = scheduler.schedule(() -> onConnectTimeout(attempt), CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        String error = null;
+        for (String target : targets) {
+            try {
+                IDeviceConnection connection = devices.create(type);
+                Log.d(TAG, id + " 正在连接: " + target);
+                connection.connect(target, (code, connectInfo, message) ->
+                    onConnectResult(attempt, connection, code == POSConnect.CONNECT_SUCCESS, message));
+                return;
+            } catch (Exception e) {
+                Log.e(TAG, id + " 连接过程中出错: " + e.getMessage());
+                error = e.getMessage();
+            }
+        }
+        failedLocked(error);
+    }
+
+    private synchronized void onConnectResult(int attempt, IDeviceConnection connection, boolean success, String message) {
+        if (stopped || attempt != generation || state != State.CONNECTING) return;
+        if (!success) {
+            failedLocked("连接失败: " + message);
+            return;
+        }
+        Log.d(TAG, id + " 打印机连接成功");
+        device = connection;
+        POSPrinter p = new POSPrinter(connection);
+        printer = p;
+        scheduler.execute(() -> checkStatus(p, attempt));
+    }
+
+    private synchronized void onConnectTimeout(int attempt) {
+        if (stopped || attempt != generation || state != State.CONNECTING) return;
+        failedLocked("连接超时");
+    }
+
+    /** 异步查询打印机状态，结果交给 onStatus，超时记为 -1 */
+    private void checkStatus(POSPrinter p, int attempt) {
+        AtomicBoolean done = new AtomicBoolean();
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> {
+            if (done.compareAndSet(false, true)) onStatus(attempt, -1);
+        }, STATUS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        try {
+            p.isConnect((int status) -> {
+                if (done.compareAndSet(false, true)) {
+                    timeout.cancel(false);
+                    onStatus(attempt, status);
+                }
+            });
+        } catch (Exception e) {
+            if (done.compareAndSet(false, true)) {
+                timeout.cancel(false);
+                onStatus(attempt, -1);
+            }
+        }
+    }
+
+    private synchronized void onStatus(int attempt, int status) {
+        if (stopped || attempt != generation) return;
+        if (status != 1) {
+            failedLocked(status == -1 ? "打印机无响应" : "打印机未连接，状态码: " + status);
+            return;
+        }
+        if (state != State.ONLINE) {
+            backoffMs = INITIAL_BACKOFF_MS;
+            setStateLocked(State.ONLINE, null);
+            queue.resume();
+            for (Runnable waiter : onlineWaiters) scheduler.execute(waiter);
+            onlineWaiters.clear();
+        }
+        cancelTimer();
+        timer = scheduler.schedule(() -> poll(attempt), POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(int attempt) {
+        POSPrinter p;
+        synchronized (this) {
+            if (stopped || attempt != generation || state != State.ONLINE) return;
+            p = printer;
+        }
+        checkStatus(p, attempt);
+    }
+
+    /** 标记离线并暂停队列，按退避时间安排下一次重连 */
+    private void failedLocked(String error) {
+        cancelTimer();
+        generation++;
+        IDeviceConnection stale = device;
+        device = null;
+        printer = null;
+        queue.pause();
+        if (stale != null) scheduler.execute(() -> close(stale));
+        if (state == State.ONLINE) disconnects++;
+        long delay = backoffMs + ThreadLocalRandom.current().nextLong(backoffMs / 5 + 1);
+        backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+        nextRetryAt = System.currentTimeMillis() + delay;
+        setStateLocked(State.OFFLINE, error);
+        Log.e(TAG, id + " 离线: " + error + "，" + delay + "ms 后重新连接");
+        timer = scheduler.schedule(this::retry, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void retry() {
+        if (!stopped && state == State.OFFLINE) connectLocked();
+    }
+
+    /** 打印线程发现打印机断开时调用 */
+    private synchronized void reportFailure(String error) {
+        if (!stopped && state == State.ONLINE) failedLocked(error);
+    }
+
+    private void setStateLocked(State next, String error) {
+        State previous = state;
+        state = next;
+        lastError = error;
+        if (previous == next) return;
+        Log.d(TAG, id + " 状态: " + previous + " -> " + next + "，等待打印的任务: " + queue.depth());
+        scheduler.execute(() -> listener.onStateChanged(this, next, error));
+    }
+
+    private void close(IDeviceConnection connection) {
+        if (connection == null) return;
+        try {
+            connection.close();
+        } catch (Exception e) {
+            Log.d(TAG, id + " 断开连接时出错: " + e.getMessage());
+        }
+    }
+
+    private void cancelTimer() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+
+    // ---- 打印（在打印线程上） ----
+
+    /** 排版并一次写入整张小票 */
+    void print(TicketTemplate template, OrderTicket ticket) throws Exception {
+        send(renderer.render(template, ticket));
+    }
+
+    /** 打印一段居中文本 */
+    void printText(String text, boolean cutPaper) throws Exception {
+        send(renderer.renderText(text, cutPaper));
+    }
+
+    /**
+     * 批量打印：只检查一次连接，从 batch.printed 开始逐张排版进同一个缓冲区，
+     * 每满 BATCH_CHUNK_BYTES 写给打印机一次，写出后报告其中各张小票的进度。
+     * 中途写入失败时标记离线并抛出 RetryException，任务放回队列，恢复连接后从没写出的那一段继续。
+     */
+    void printBatch(PrintBatch batch) throws Exception {
+        POSPrinter p = connectedPrinter();
+        int total = batch.tickets.size();
+        int from = batch.printed;
+        renderer.begin();
+        for (int i = from; i < total; i++) {
+            boolean last = i == total - 1;
+            renderer.append(batch.template, batch.tickets.get(i), batch.cutBetween || last);
+            if (last || renderer.pending() >= BATCH_CHUNK_BYTES) {
+                byte[] data = renderer.drain();
+                try {
+                    p.sendData(data);
+                } catch (Exception e) {
+                    String error = "打印机 " + id + " 写入失败: " + e.getMessage();
+                    reportFailure(error);
+                    throw new PrintQueue.RetryException(error);
+                }
+                record(i + 1 - from, data.length);
+                for (int j = from; j <= i; j++) batch.printed(j);
+                from = i + 1;
+            }
+        }
+    }
+
+    private void send(byte[] data) throws Exception {
+        connectedPrinter().sendData(data);
+        record(1, data.length);
+    }
+
+    private synchronized void record(int tickets, int bytes) {
+        long now = System.currentTimeMillis();
+        ticketsPrinted += tickets;
+        bytesSent += bytes;
+        for (int i = 0; i < tickets; i++) recentTickets.addLast(now);
+        trimRecent(now);
+    }
+
+    /**
+     * 取得已连接的打印机。离线或检查状态失败时抛出 RetryException，
+     * 任务放回队列，等健康检查恢复连接后再打印。
+     */
+    private POSPrinter connectedPrinter() throws Exception {
+        POSPrinter p = printer;
+        if (state != State.ONLINE || p == null) throw new PrintQueue.RetryException("打印机 " + id + " 离线");
+        // 检查打印机连接状态
+        int[] result = { -1 };
+        CountDownLatch latch = new CountDownLatch(1);
+        p.isConnect((int status) -> {
+            result[0] = status;
+            latch.countDown();
+        });
+        String error = null;
+        if (!latch.await(STATUS_TIMEOUT_MS, TimeUnit.MILLISECONDS)) error = "打印机 " + id + " 无响应";
+        else if (result[0] != 1) error = "打印机 " + id + " 未连接，状态码: " + result[0];
+        if (error != null) {
+            reportFailure(error);
+            throw new PrintQueue.RetryException(error);
+        }
+        return p;
+    }
+
+    // ---- 统计 ----
+
+    synchronized void recordFailover() {
+        failovers++;
+    }
+
+    synchronized Stats stats() {
+        Stats stats = new Stats();
+        stats.state = state;
+        stats.lastError = lastError;
+        stats.nextRetryMs = state == State.OFFLINE && !stopped ? Math.max(0, nextRetryAt - System.currentTimeMillis()) : 0;
+        stats.connectAttempts = connectAttempts;
+        stats.disconnects = disconnects;
+        stats.ticketsPrinted = ticketsPrinted;
+        stats.bytesSent = bytesSent;
+        stats.failovers = failovers;
+        trimRecent(System.currentTimeMillis());
+        stats.ticketsLastMinute = recentTickets.size();
+        stats.queue = queue.metrics();
+        return stats;
+    }
+
+    static final class Stats {
+        State state;
+        String lastError;
+        // 离线时距离下一次重新连接的时间
+        long nextRetryMs;
+        long connectAttempts;
+        // 在线后又断开的次数
+        long disconnects;
+        long ticketsPrinted;
+        long bytesSent;
+        // 转给备用打印机的订单数
+        long failovers;
+        int ticketsLastMinute;
+        PrintQueue.Metrics queue;
+    }
+
+    private void trimRecent(long now) {
+        while (!recentTickets.isEmpty() && now - recentTickets.peekFirst() > THROUGHPUT_WINDOW_MS) {
+            recentTickets.removeFirst();
+        }
+    }
+}
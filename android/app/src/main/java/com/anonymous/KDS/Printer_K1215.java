@@ -16,11 +16,17 @@ import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 import java.io.File;
 
 import java.util.Set;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 
 
 import android.util.Log;
@@ -29,17 +35,33 @@ import android.util.Log;
 public class  Printer_K1215 extends ReactContextBaseJavaModule{
 
 
+    // 每台打印机的队列最多排队的任务数
+    private static final int MAX_QUEUED_JOBS = 100;
+    // reconnectPrinter 等待连接结果的时间
+    private static final long RECONNECT_WAIT_MS = 2000;
+
+    // 打印机连接状态变化：{ printerId, state: connecting|online|offline, error, heldJobs, nextRetryMs }
+    static final String EVENT_PRINTER_STATUS = "onPrinterStatusChanged";
+    // 批量打印进度：{ jobId, index, orderId, printed, total }
+    static final String EVENT_PRINT_BATCH_PROGRESS = "onPrintBatchProgress";
+
     private ReactApplicationContext appContext;
-    private POSPrinter printer;
+    // 所有打印都经过各打印机自己的队列，由各自的打印线程执行
+    private final PrinterRegistry printers;
+    private final TicketTemplates ticketTemplates;
+
     Printer_K1215(ReactApplicationContext reactContext){
         super(reactContext);
 
         this.appContext = reactContext;
+        this.ticketTemplates = new TicketTemplates(new File(reactContext.getFilesDir(), "ticket_templates"));
         Log.d("kdsapp_log", "Printer activity created");
         POSConnect.init(reactContext);
         // GetConnectMac();
         // CreateConnection();
-        CreateUsbConnection();
+        // 创建默认的 USB 打印机并开始连接，之后由健康检查维持连接
+        this.printers = new PrinterRegistry(PrinterStation.posConnect(reactContext), MAX_QUEUED_JOBS,
+            this::emitPrinterStatus);
     }
 
 
@@ -49,6 +71,46 @@ public class  Printer_K1215 extends ReactContextBaseJavaModule{
     }
 
     
+    // NativeEventEmitter 需要的方法，事件总是发送，这里不需要计数
+    @ReactMethod
+    public void addListener(String eventName) {
+    }
+
+    @ReactMethod
+    public void removeListeners(double count) {
+    }
+
+    /** 在健康检查线程上调用 */
+    private void emitPrinterStatus(PrinterStation station, PrinterStation.State state, String error) {
+        if (!appContext.hasActiveReactInstance()) return;
+        PrinterStation.Stats stats = station.stats();
+        WritableMap event = Arguments.createMap();
+        event.putString("printerId", station.id);
+        event.putString("state", state.name().toLowerCase(Locale.US));
+        event.putString("error", error);
+        event.putInt("heldJobs", stats.queue.depth);
+        event.putDouble("nextRetryMs", stats.nextRetryMs);
+        emit(EVENT_PRINTER_STATUS, event);
+    }
+
+    /** 在打印线程上调用 */
+    private void emitBatchProgress(PrintBatch batch, int index, OrderTicket ticket) {
+        if (!appContext.hasActiveReactInstance()) return;
+        WritableMap event = Arguments.createMap();
+        event.putString("jobId", batch.jobId());
+        event.putInt("index", index);
+        event.putString("orderId", ticket.orderId);
+        event.putInt("printed", index + 1);
+        event.putInt("total", batch.tickets.size());
+        emit(EVENT_PRINT_BATCH_PROGRESS, event);
+    }
+
+    private void emit(String eventName, WritableMap event) {
+        appContext
+            .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+            .emit(eventName, event);
+    }
+
     @ReactMethod
     public static void PrinterStatus(Promise promise){
         promise.resolve("this is returned");
@@ -56,36 +118,18 @@ public class  Printer_K1215 extends ReactContextBaseJavaModule{
     }
 
 
+    /**
+     * 打印一段文本。加入打印队列后立即返回任务号。
+     */
     @ReactMethod
     private void Print(String text, boolean cutPaper, Promise promise){
-        int H2 = POSConst.TXT_1WIDTH |POSConst.TXT_1HEIGHT ;
-
-        if (printer != null){
-              printer.isConnect(
-                (int status) -> {          
-                    
-                    if (status == 1) {
-                        printer.printText(text+ "\n", POSConst.ALIGNMENT_CENTER , POSConst.FNT_DEFAULT, H2);
-                        // endiing
-                        printer.feedLine(5);
-
-                        if (cutPaper) printer.cutPaper(POSConst.CUT_ALL);
-                        
-                        promise.resolve(true);
-
-                    }else{
-                        promise.resolve(false);
-                    }
-                }
-            );
-        }else{
-            Log.d("vendingapp_log", "Printer not Initialised");
-            promise.reject("Err : Printer not initialised!");
-        }
+        PrinterStation station = printers.defaultStation();
+        submitJob(station, "文本", PrintQueue.Priority.NORMAL, () -> station.printText(text, cutPaper), promise);
     }
     
     @ReactMethod
     private void isConnected(Promise promise){
+        POSPrinter printer = printers.defaultStation().printer();
         if (printer != null){
             printer.isConnect(
                 (int status) -> {          
@@ -129,29 +173,6 @@ public class  Printer_K1215 extends ReactContextBaseJavaModule{
         }
     }
 
-    private List<String> getUsbDevices(){
-        return POSConnect.getUsbDevices(appContext);
-    } 
-
-
-    private void CreateUsbConnection() { 
-
-
-        // Get the list of USB devices
-        List<String> usbDevices = getUsbDevices();
-
-        if (usbDevices != null && !usbDevices.isEmpty()) {
-            for (String usbPath : usbDevices) {
-                Log.d("vendingapp_log", "USB Device Path: " + usbPath);
-                // create connection 
-                if (CreateUsbConnectrion(usbPath)) break;
-            }
-        } else {
-            Log.d("vendingapp_log", "No USB devices found");
-        }
-    }
-
-
     // @ReactMethod
     // public void PrintReceipt 
     // (   
@@ -295,41 +316,6 @@ public class  Printer_K1215 extends ReactContextBaseJavaModule{
     // }
 
 
-    private boolean CreateUsbConnectrion(String usbpath) {
-        try {
-            IDeviceConnection device = POSConnect.createDevice(POSConnect.DEVICE_TYPE_USB);
-            device.connect(usbpath,
-                new IConnectListener() {
-                    @Override
-                    public void onStatus(int code, String connectInfo, String message) {
-                        if (code == POSConnect.CONNECT_SUCCESS) {
-                            Log.d("kdsapp_log", "打印机连接成功: " + connectInfo);
-                            Log.d("kdsapp_log", device.getConnectInfo());
-                            
-                            // 初始化打印机
-                            printer = new POSPrinter(device);
-                            printer.isConnect(
-                                (int status) -> {
-                                    if (status == 1) {
-                                        Log.d("kdsapp_log", "打印机准备就绪");
-                                    } else {
-                                        Log.d("kdsapp_log", "打印机状态异常: " + status);
-                                    }
-                                }
-                            );
-                        } else {
-                            Log.e("kdsapp_log", "连接失败: " + message + " (代码: " + code + ")");
-                        }
-                    }
-                }
-            );
-            return true;
-        } catch (Exception e) {
-            Log.e("kdsapp_log", "连接过程中出错: " + e.getMessage());
-            return false;
-        }
-    }
-
     private void CreateBluetoothConnection ()  { 
         IDeviceConnection  connect = POSConnect.createDevice(POSConnect.DEVICE_TYPE_BLUETOOTH);
         // Replace with the actual MAC address or a dynamically obtained one
@@ -352,155 +338,323 @@ public class  Printer_K1215 extends ReactContextBaseJavaModule{
 
     }
 
+    /**
+     * 打印订单小票。订单数据复制后加入打印队列，立即 resolve 任务号，
+     * 打印结果通过 getPrintJobStatus 查询。
+     * orderData.priority 可以是 "rush"（加急）或 "reprint"（重打），优先于普通任务打印。
+     * orderData.template 指定小票模板（见 saveTicketTemplate），默认 "kitchen"。
+     * 商品按分类拆分到各工作站的打印机（见 configurePrinters），拆分成多张小票时 resolve 组任务号；
+     * orderData.printer 指定打印机时整张小票由它打印。
+     */
     @ReactMethod
     public void printOrder(ReadableMap orderData, Promise promise) {
+        OrderTicket ticket;
+        PrintQueue.Priority priority;
         try {
-            if (printer == null) {
-                // 如果打印机未初始化，尝试重新连接
-                CreateUsbConnection();
-                // 给打印机一些初始化时间
-                Thread.sleep(1000);
-                if (printer == null) {
-                    promise.reject("PRINTER_ERROR", "打印机未连接");
-                    return;
-                }
+            ticket = OrderTicket.from(orderData);
+            priority = parsePriority(orderData.hasKey("priority") ? orderData.getString("priority") : null);
+        } catch (Exception e) {
+            promise.reject("PRINT_ERROR", "订单数据错误: " + e.getMessage());
+            return;
+        }
+        TicketTemplate template;
+        try {
+            String name = ticket.fields.get("template");
+            template = ticketTemplates.get(name != null ? name : TicketTemplates.KITCHEN);
+        } catch (Exception e) {
+            promise.reject("TEMPLATE_ERROR", e.getMessage());
+            return;
+        }
+        String printerId = ticket.fields.get("printer");
+        try {
+            if (printerId == null) {
+                promise.resolve(printers.submitOrder(template, ticket, priority));
+                return;
             }
-            
-            // 检查打印机连接状态
-            printer.isConnect(
-                (int status) -> {
-                    if (status != 1) {
-                        promise.reject("PRINTER_ERROR", "打印机未连接，状态码: " + status);
-                        return;
-                    }
-                    
-                    try {
-                        // 设置文本样式
-                        int H2 = POSConst.TXT_1WIDTH | POSConst.TXT_1HEIGHT;
-                        int H1 = POSConst.TXT_2WIDTH | POSConst.TXT_2HEIGHT;
-                        
-                        // 打印店铺信息
-                        String shopName = orderData.getString("shopName");
-                        printer.printText(shopName + "\n", POSConst.ALIGNMENT_CENTER, POSConst.FNT_BOLD, H1);
-                        
-                        // 打印订单信息
-                        String orderId = orderData.getString("orderId");
-                        String orderTime = orderData.getString("orderTime");
-                        String pickupMethod = orderData.getString("pickupMethod");
-                        
-                        printer.printText("订单号: " + orderId + "\n", POSConst.ALIGNMENT_LEFT, POSConst.FNT_DEFAULT, H2);
-                        printer.printText("下单时间: " + orderTime + "\n", POSConst.ALIGNMENT_LEFT, POSConst.FNT_DEFAULT, H2);
-                        printer.printText("取餐方式: " + pickupMethod + "\n", POSConst.ALIGNMENT_LEFT, POSConst.FNT_DEFAULT, H2);
-                        
-                        if (orderData.hasKey("tableNumber")) {
-                            String tableNumber = orderData.getString("tableNumber");
-                            printer.printText("桌号: " + tableNumber + "\n", POSConst.ALIGNMENT_LEFT, POSConst.FNT_DEFAULT, H2);
-                        }
-                        
-                        // 打印分隔线
-                        printer.printText("--------------------------------\n", POSConst.ALIGNMENT_CENTER, POSConst.FNT_DEFAULT, H2);
-                        
-                        // 打印表头
-                        printer.printText("商品                  数量     价格\n", POSConst.ALIGNMENT_LEFT, POSConst.FNT_BOLD, H2);
-                        printer.printText("--------------------------------\n", POSConst.ALIGNMENT_CENTER, POSConst.FNT_DEFAULT, H2);
-                        
-                        // 打印商品列表
-                        ReadableArray items = orderData.getArray("items");
-                        double total = 0;
-                        for (int i = 0; i < items.size(); i++) {
-                            ReadableMap item = items.getMap(i);
-                            String name = item.getString("name");
-                            double price = item.getDouble("price");
-                            int quantity = item.getInt("quantity");
-                            total += price * quantity;
-                            
-                            // 格式化商品行
-                            String itemLine = String.format("%-20s %3d %8.2f\n", 
-                                name.length() > 20 ? name.substring(0, 17) + "..." : name, 
-                                quantity, price);
-                            printer.printText(itemLine, POSConst.ALIGNMENT_LEFT, POSConst.FNT_DEFAULT, H2);
-                            
-                            // 打印选项
-                            if (item.hasKey("options")) {
-                                ReadableArray options = item.getArray("options");
-                                for (int j = 0; j < options.size(); j++) {
-                                    ReadableMap option = options.getMap(j);
-                                    String optName = option.getString("name");
-                                    String optValue = option.getString("value");
-                                    double optPrice = option.hasKey("price") ? option.getDouble("price") : 0;
-                                    
-                                    String optionLine = String.format("  - %s: %s", optName, optValue);
-                                    if (optPrice > 0) {
-                                        optionLine += String.format(" (+%.2f)", optPrice);
-                                        total += optPrice;
-                                    }
-                                    
-                                    printer.printText(optionLine + "\n", POSConst.ALIGNMENT_LEFT, POSConst.FNT_DEFAULT, H2);
-                                }
-                            }
-                        }
-                        
-                        // 打印合计
-                        printer.printText("--------------------------------\n", POSConst.ALIGNMENT_CENTER, POSConst.FNT_DEFAULT, H2);
-                        printer.printText(String.format("合计: %.2f元\n\n", total), POSConst.ALIGNMENT_RIGHT, POSConst.FNT_BOLD, H2);
-                        
-                        // 打印结束语
-                        printer.printText("谢谢惠顾，欢迎再次光临!\n", POSConst.ALIGNMENT_CENTER, POSConst.FNT_DEFAULT, H2);
-                        
-                        // 走纸并切纸
-                        printer.feedLine(5);
-                        printer.cutPaper(POSConst.CUT_ALL);
-                        
-                        promise.resolve(true);
-                    } catch (Exception e) {
-                        promise.reject("PRINT_ERROR", "打印过程出错: " + e.getMessage());
-                    }
-                }
-            );
+            PrinterStation station = printers.get(printerId);
+            if (station == null) {
+                promise.reject("PRINTER_NOT_FOUND", "打印机不存在: " + printerId);
+                return;
+            }
+            promise.resolve(printers.submit(station, "订单 " + ticket.orderId, priority, template, ticket).id);
+        } catch (PrintQueue.QueueFullException e) {
+            promise.reject("QUEUE_FULL", e.getMessage());
+        }
+    }
+
+    /**
+     * 批量打印多个订单（重打、交班汇总），整批作为一个打印任务加入队列，立即 resolve 任务号。
+     * 只检查一次打印机连接，所有小票排版进同一个缓冲区分段写出，每张写出后发送 onPrintBatchProgress。
+     * options：template（默认 "kitchen"）、printer（默认 "default"，不按分类拆分）、
+     * cutBetween（默认 true，为 false 时只在最后切纸）、priority（同 printOrder）。
+     */
+    @ReactMethod
+    public void printOrdersBatch(ReadableArray orders, ReadableMap options, Promise promise) {
+        List<OrderTicket> tickets = new ArrayList<>(orders.size());
+        PrintQueue.Priority priority;
+        boolean cutBetween;
+        try {
+            for (int i = 0; i < orders.size(); i++) tickets.add(OrderTicket.from(orders.getMap(i)));
+            priority = parsePriority(optionalString(options, "priority"));
+            cutBetween = options == null || !options.hasKey("cutBetween") || options.isNull("cutBetween")
+                || options.getBoolean("cutBetween");
+        } catch (Exception e) {
+            promise.reject("PRINT_ERROR", "订单数据错误: " + e.getMessage());
+            return;
+        }
+        if (tickets.isEmpty()) {
+            promise.reject("PRINT_ERROR", "没有要打印的订单");
+            return;
+        }
+        TicketTemplate template;
+        try {
+            String name = optionalString(options, "template");
+            template = ticketTemplates.get(name != null ? name : TicketTemplates.KITCHEN);
+        } catch (Exception e) {
+            promise.reject("TEMPLATE_ERROR", e.getMessage());
+            return;
+        }
+        String printerId = optionalString(options, "printer");
+        PrinterStation station = printers.get(printerId != null ? printerId : PrinterRegistry.DEFAULT_ID);
+        if (station == null) {
+            promise.reject("PRINTER_NOT_FOUND", "打印机不存在: " + printerId);
+            return;
+        }
+        try {
+            PrintBatch batch = new PrintBatch(template, tickets, cutBetween, this::emitBatchProgress);
+            promise.resolve(batch.submit(station, priority).id);
+        } catch (PrintQueue.QueueFullException e) {
+            promise.reject("QUEUE_FULL", e.getMessage());
+        }
+    }
+
+    private static String optionalString(ReadableMap map, String key) {
+        return map != null && map.hasKey(key) && !map.isNull(key) ? map.getString(key) : null;
+    }
+
+    /**
+     * 编译并保存小票模板（语法见 TicketTemplate），之后 printOrder 可以通过名称使用。
+     * 与内置模板（kitchen、receipt）同名时覆盖内置模板。模板有错误时 reject，错误信息包含行号。
+     */
+    @ReactMethod
+    public void saveTicketTemplate(String name, String source, Promise promise) {
+        try {
+            ticketTemplates.save(name, source);
+            promise.resolve(null);
         } catch (Exception e) {
-            promise.reject("PRINT_ERROR", "打印初始化错误: " + e.getMessage());
+            promise.reject("TEMPLATE_ERROR", e.getMessage());
         }
     }
 
+    /**
+     * 删除保存的小票模板，resolve 是否存在。
+     */
     @ReactMethod
-    public void reconnectPrinter(Promise promise) {
+    public void removeTicketTemplate(String name, Promise promise) {
         try {
-            // 先断开现有连接
-            if (printer != null) {
-                try {
-                    // 简单地记录日志，不尝试关闭
-                    Log.d("kdsapp_log", "尝试重新连接打印机");
-                } catch (Exception e) {
-                    Log.d("kdsapp_log", "重连打印机时出错: " + e.getMessage());
-                }
-                printer = null;
+            promise.resolve(ticketTemplates.remove(name));
+        } catch (Exception e) {
+            promise.reject("TEMPLATE_ERROR", e.getMessage());
+        }
+    }
+
+    /**
+     * 查询打印任务状态：{ jobId, status: queued|printing|done|failed, priority, description, printer,
+     * position（排在前面的任务数，仅 queued）, enqueuedAt, startedAt?, finishedAt?, waitMs?, latencyMs?, error? }
+     * 转给备用打印机的任务返回最终负责打印的任务的状态，forwardedFrom 为原任务号。
+     * 组任务号返回 { jobId, status（汇总：任一失败为 failed，全部完成为 done）, jobs: [各张小票的状态] }。
+     */
+    @ReactMethod
+    public void getPrintJobStatus(String jobId, Promise promise) {
+        List<PrintQueue.Job> group = printers.findGroup(jobId);
+        if (group != null) {
+            WritableArray jobs = Arguments.createArray();
+            PrintQueue.Status status = PrintQueue.Status.DONE;
+            for (PrintQueue.Job job : group) {
+                WritableMap map = jobStatus(job);
+                jobs.pushMap(map);
+                status = combine(status, PrintQueue.resolve(job).status);
             }
-            
-            // 重新连接
-            CreateUsbConnection();
-            
-            // 给打印机一些连接时间
-            new Thread(() -> {
-                try {
-                    Thread.sleep(2000);
-                    if (printer != null) {
-                        printer.isConnect((int status) -> {
-                            if (status == 1) {
-                                promise.resolve(true);
-                            } else {
-                                promise.resolve(false);
-                            }
-                        });
-                    } else {
-                        promise.resolve(false);
-                    }
-                } catch (Exception e) {
-                    promise.reject("RECONNECT_ERROR", e.getMessage());
+            WritableMap map = Arguments.createMap();
+            map.putString("jobId", jobId);
+            map.putString("status", status.name().toLowerCase(Locale.US));
+            map.putArray("jobs", jobs);
+            promise.resolve(map);
+            return;
+        }
+        PrintQueue.Job job = printers.findJob(jobId);
+        if (job == null) {
+            promise.reject("JOB_NOT_FOUND", "打印任务不存在: " + jobId);
+            return;
+        }
+        promise.resolve(jobStatus(job));
+    }
+
+    private WritableMap jobStatus(PrintQueue.Job original) {
+        PrintQueue.Job job = PrintQueue.resolve(original);
+        PrintQueue.Status status = job.status;
+        WritableMap map = Arguments.createMap();
+        map.putString("jobId", job.id);
+        if (job != original) map.putString("forwardedFrom", original.id);
+        map.putString("status", status.name().toLowerCase(Locale.US));
+        map.putString("priority", job.priority.name().toLowerCase(Locale.US));
+        map.putString("description", job.description);
+        map.putString("printer", job.queue);
+        if (status == PrintQueue.Status.QUEUED) {
+            PrinterStation station = printers.get(job.queue);
+            if (station != null) map.putInt("position", station.queue.position(job));
+        }
+        map.putDouble("enqueuedAt", job.enqueuedAt);
+        if (status != PrintQueue.Status.QUEUED && job.startedAt > 0) {
+            map.putDouble("startedAt", job.startedAt);
+            map.putDouble("waitMs", job.waitMs);
+        }
+        if (status == PrintQueue.Status.DONE || status == PrintQueue.Status.FAILED) {
+            if (job.finishedAt > 0) {
+                map.putDouble("finishedAt", job.finishedAt);
+                map.putDouble("latencyMs", job.latencyMs);
+            }
+            if (job.error != null) map.putString("error", job.error);
+        }
+        return map;
+    }
+
+    /** 组任务的汇总状态：失败 > 打印中 > 排队 > 完成 */
+    private static PrintQueue.Status combine(PrintQueue.Status a, PrintQueue.Status b) {
+        if (a == PrintQueue.Status.FAILED || b == PrintQueue.Status.FAILED) return PrintQueue.Status.FAILED;
+        if (a == PrintQueue.Status.PRINTING || b == PrintQueue.Status.PRINTING) return PrintQueue.Status.PRINTING;
+        if (a == PrintQueue.Status.QUEUED || b == PrintQueue.Status.QUEUED) return PrintQueue.Status.QUEUED;
+        return PrintQueue.Status.DONE;
+    }
+
+    /**
+     * 默认打印机的打印队列统计：当前/最大队列长度、提交/完成/失败/拒绝的任务数、平均和最大耗时（毫秒）
+     */
+    @ReactMethod
+    public void getPrintQueueMetrics(Promise promise) {
+        promise.resolve(queueMetrics(printers.defaultStation().queue.metrics()));
+    }
+
+    /**
+     * 配置多台打印机：[{ id, type: usb|bluetooth|network, address?, categories?: string[], backup? }]。
+     * 商品按 categories 分到对应的打印机，其余由 default（原来的 USB 打印机）打印；
+     * 打印机离线或排队过多时转给 backup。配置中没有的打印机会被关闭。
+     */
+    @ReactMethod
+    public void configurePrinters(ReadableArray configs, Promise promise) {
+        List<PrinterRegistry.Config> list = new ArrayList<>();
+        try {
+            for (int i = 0; i < configs.size(); i++) {
+                ReadableMap source = configs.getMap(i);
+                PrinterRegistry.Config config = new PrinterRegistry.Config();
+                config.id = source.getString("id");
+                if (config.id == null || config.id.isEmpty()) throw new IllegalArgumentException("缺少打印机 id");
+                if (source.hasKey("type") && !source.isNull("type")) {
+                    config.type = PrinterStation.Type.valueOf(source.getString("type").toUpperCase(Locale.US));
+                }
+                if (source.hasKey("address") && !source.isNull("address")) config.address = source.getString("address");
+                if (source.hasKey("backup") && !source.isNull("backup")) config.backupId = source.getString("backup");
+                if (source.hasKey("categories") && !source.isNull("categories")) {
+                    ReadableArray categories = source.getArray("categories");
+                    config.categories = new ArrayList<>();
+                    for (int j = 0; j < categories.size(); j++) config.categories.add(categories.getString(j));
                 }
-            }).start();
+                list.add(config);
+            }
+        } catch (Exception e) {
+            promise.reject("CONFIG_ERROR", "打印机配置错误: " + e.getMessage());
+            return;
+        }
+        printers.configure(list);
+        promise.resolve(null);
+    }
+
+    /**
+     * 所有打印机的状态和统计：[{ id, type, address, categories, backup, online,
+     * state: connecting|online|offline, lastError, nextRetryMs（离线时距离下一次重连）, connectAttempts,
+     * disconnects, ticketsPrinted, bytesSent, failovers, ticketsLastMinute, queue: 同 getPrintQueueMetrics }]
+     */
+    @ReactMethod
+    public void getPrinters(Promise promise) {
+        WritableArray result = Arguments.createArray();
+        for (PrinterStation station : printers.all()) {
+            PrinterStation.Stats stats = station.stats();
+            WritableMap map = Arguments.createMap();
+            map.putString("id", station.id);
+            map.putString("type", station.type.name().toLowerCase(Locale.US));
+            map.putString("address", station.address);
+            WritableArray categories = Arguments.createArray();
+            for (String category : station.categories) categories.pushString(category);
+            map.putArray("categories", categories);
+            map.putString("backup", station.backupId);
+            map.putBoolean("online", stats.state == PrinterStation.State.ONLINE);
+            map.putString("state", stats.state.name().toLowerCase(Locale.US));
+            map.putString("lastError", stats.lastError);
+            map.putDouble("nextRetryMs", stats.nextRetryMs);
+            map.putDouble("connectAttempts", stats.connectAttempts);
+            map.putDouble("disconnects", stats.disconnects);
+            map.putDouble("ticketsPrinted", stats.ticketsPrinted);
+            map.putDouble("bytesSent", stats.bytesSent);
+            map.putDouble("failovers", stats.failovers);
+            map.putInt("ticketsLastMinute", stats.ticketsLastMinute);
+            map.putMap("queue", queueMetrics(stats.queue));
+            result.pushMap(map);
+        }
+        promise.resolve(result);
+    }
+
+    private static WritableMap queueMetrics(PrintQueue.Metrics metrics) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("depth", metrics.depth);
+        map.putInt("maxDepth", metrics.maxDepth);
+        map.putInt("capacity", metrics.capacity);
+        map.putBoolean("paused", metrics.paused);
+        map.putDouble("submitted", metrics.submitted);
+        map.putDouble("completed", metrics.completed);
+        map.putDouble("failed", metrics.failed);
+        map.putDouble("rejected", metrics.rejected);
+        map.putDouble("avgLatencyMs", metrics.avgLatencyMs);
+        map.putDouble("maxLatencyMs", metrics.maxLatencyMs);
+        map.putDouble("avgWaitMs", metrics.avgWaitMs);
+        map.putDouble("forwarded", metrics.forwarded);
+        return map;
+    }
+
+    private void submitJob(PrinterStation station, String description, PrintQueue.Priority priority,
+                           PrintQueue.Task task, Promise promise) {
+        try {
+            promise.resolve(station.queue.submit(description, priority, task).id);
+        } catch (PrintQueue.QueueFullException e) {
+            promise.reject("QUEUE_FULL", e.getMessage());
+        }
+    }
+
+    private static PrintQueue.Priority parsePriority(String priority) {
+        if ("rush".equals(priority)) return PrintQueue.Priority.RUSH;
+        if ("reprint".equals(priority)) return PrintQueue.Priority.REPRINT;
+        return PrintQueue.Priority.NORMAL;
+    }
+
+    /**
+     * 立即重新连接默认打印机（不等退避时间），resolve 两秒内是否连接成功。
+     */
+    @ReactMethod
+    public void reconnectPrinter(Promise promise) {
+        try {
+            // 放弃现有连接并重新连接
+            Log.d("kdsapp_log", "尝试重新连接打印机");
+            PrinterStation station = printers.defaultStation();
+            station.reconnect();
+            station.whenOnline(RECONNECT_WAIT_MS, promise::resolve);
         } catch (Exception e) {
             promise.reject("RECONNECT_ERROR", e.getMessage());
         }
     }
 
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        printers.shutdown();
+    }
+
 }
@@ -0,0 +1,197 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import android.util.Log;
+
+/**
+ * 追加写的记录文件，OrderJournal 和 OrderStore 共用。
+ *
+ * 记录格式：[长度 int][CRC32 int][类型 byte]{[字段长度 int][字段 UTF-8]}...，长度不含前 8 字节。
+ * 打开时按顺序回放所有记录，遇到不完整或校验失败的记录（写入过程中被杀）就截断到最后一条完整记录。
+ * compact() 把调用方给出的记录写入新文件，落盘后原子替换旧文件。
+ *
+ * 不加锁：append/compact 由调用方串行化；force() 可以和 append 并发调用。
+ */
+final class RecordLog {
+
+    private static final String TAG = "RecordLog";
+    private static final int HEADER_SIZE = 8;
+    // 单条记录的上限，超过视为损坏
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    interface Visitor {
+        /** 回放一条记录，返回 false 表示记录无法识别（视为损坏，从这里截断） */
+        boolean record(byte type, String[] fields);
+    }
+
+    interface Rewriter {
+        void writeTo(RecordLog target) throws IOException;
+    }
+
+    private final File file;
+    private volatile FileChannel channel;
+    private long size;
+
+    private RecordLog(File file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    static RecordLog open(File file, Visitor visitor) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("无法创建目录: " + parent);
+        }
+        RecordLog log = new RecordLog(file, new RandomAccessFile(file, "rw").getChannel());
+        log.replay(visitor);
+        return log;
+    }
+
+    /** 单条记录在文件中占用的字节数 */
+    static int recordSize(String... fields) {
+        int size = HEADER_SIZE + 1;
+        for (String field : fields) size += 4 + utf8Length(field);
+        return size;
+    }
+
+    /** 追加一条记录（不落盘），返回写入的字节数 */
+    int append(byte type, String... fields) throws IOException {
+        byte[][] encoded = new byte[fields.length][];
+        int length = 1;
+        for (int i = 0; i < fields.length; i++) {
+            encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + encoded[i].length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.position(HEADER_SIZE);
+        record.put(type);
+        for (byte[] field : encoded) record.putInt(field.length).put(field);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        record.position(0);
+        // 写入失败时 size 不变，写了一半的记录会被下一条覆盖（或在重放时截断）
+        while (record.hasRemaining()) {
+            channel.write(record, size + record.position());
+        }
+        size += record.capacity();
+        return record.capacity();
+    }
+
+    /** 把已经写入的记录落盘 */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * 重写文件：rewriter 把需要保留的记录写进临时文件，落盘后替换当前文件。
+     */
+    void compact(Rewriter rewriter) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        RecordLog target = new RecordLog(temp, new RandomAccessFile(temp, "rw").getChannel());
+        try {
+            target.channel.truncate(0);
+            rewriter.writeTo(target);
+            target.force();
+        } finally {
+            target.channel.close();
+        }
+        if (!temp.renameTo(file)) throw new IOException("无法替换文件: " + file);
+        FileChannel old = channel;
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        old.close();
+        Log.d(TAG, file.getName() + " 已压缩: " + size + " -> " + target.size + " 字节");
+        size = target.size;
+    }
+
+    void close() {
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭文件时出错: " + e.getMessage());
+        }
+    }
+
+    private void replay(Visitor visitor) throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= fileSize) {
+            header.clear();
+            readFully(header, position);
+            int length = header.getInt(0);
+            int checksum = header.getInt(4);
+            if (length < 1 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > fileSize) break;
+            ByteBuffer content = ByteBuffer.allocate(length);
+            readFully(content, position + HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(content.array(), 0, length);
+            if ((int) crc.getValue() != checksum) break;
+            String[] fields = decodeFields(content);
+            if (fields == null || !visitor.record(content.get(0), fields)) break;
+            position += HEADER_SIZE + length;
+        }
+        if (position < fileSize) {
+            Log.e(TAG, file.getName() + " 末尾有 " + (fileSize - position) + " 字节不完整的记录，已截断");
+            channel.truncate(position);
+            channel.force(false);
+        }
+        size = position;
+    }
+
+    private static String[] decodeFields(ByteBuffer content) {
+        byte[] bytes = content.array();
+        int length = content.capacity();
+        int count = 0;
+        for (int p = 1; p < length; ) {
+            if (p + 4 > length) return null;
+            int fieldLength = content.getInt(p);
+            if (fieldLength < 0 || fieldLength > length - p - 4) return null;
+            p += 4 + fieldLength;
+            count++;
+        }
+        String[] fields = new String[count];
+        for (int i = 0, p = 1; i < count; i++) {
+            int fieldLength = content.getInt(p);
+            fields[i] = new String(bytes, p + 4, fieldLength, StandardCharsets.UTF_8);
+            p += 4 + fieldLength;
+        }
+        return fields;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("意外的文件结尾");
+        }
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,71 @@
+package com.anonymous.KDS;
+
+/**
+ * 主 KDS 发给子 KDS 的复制帧内容，放在会话模式的二进制帧里（帧序号就是复制序号）。
+ *
+ * 格式：第一行 "REPL epoch 序号 操作 标记 订单号"，之后是数据（新订单为订单 JSON，状态变化为状态，出餐为空）。
+ * 订单 JSON 以 "{" 开头，不会和复制帧混淆。
+ * 操作 sync 不带数据，只用来询问子 KDS 收到了哪里（见 SubKdsReplica）；skip 不带数据，只推进序号。
+ * 标记 R 表示主 KDS 已经没有子 KDS 需要的记录，子 KDS 应直接跳到这个序号。
+ */
+final class ReplicationFrame {
+
+    static final String PREFIX = "REPL ";
+    static final String OP_SYNC = "sync";
+
+    final long epoch;
+    final long sequence;
+    final String op;
+    final boolean resync;
+    final String orderId;
+    final String data;
+
+    ReplicationFrame(long epoch, long sequence, String op, boolean resync, String orderId, String data) {
+        this.epoch = epoch;
+        this.sequence = sequence;
+        this.op = op;
+        this.resync = resync;
+        this.orderId = orderId;
+        this.data = data;
+    }
+
+    static boolean isReplication(String payload) {
+        return payload.startsWith(PREFIX);
+    }
+
+    static String encode(long epoch, ReplicationLog.Entry entry, boolean resync) {
+        return encode(epoch, entry.sequence, entry.op, resync, entry.orderId, entry.data);
+    }
+
+    static String sync(long epoch, long sequence) {
+        return encode(epoch, sequence, OP_SYNC, false, "", "");
+    }
+
+    static String encode(long epoch, long sequence, String op, boolean resync, String orderId, String data) {
+        return new StringBuilder(PREFIX.length() + 48 + orderId.length() + data.length())
+            .append(PREFIX).append(epoch).append(' ').append(sequence).append(' ').append(op)
+            .append(resync ? " R " : " - ").append(orderId).append('\n').append(data)
+            .toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException 格式错误
+     */
+    static ReplicationFrame parse(String payload) {
+        int newline = payload.indexOf('\n');
+        String header = newline >= 0 ? payload.substring(PREFIX.length(), newline) : payload.substring(PREFIX.length());
+        String[] parts = header.split(" ", 5);
+        if (parts.length < 4) throw new IllegalArgumentException("复制帧格式错误: " + header);
+        try {
+            return new ReplicationFrame(
+                Long.parseLong(parts[0]),
+                Long.parseLong(parts[1]),
+                parts[2],
+                "R".equals(parts[3]),
+                parts.length > 4 ? parts[4] : "",
+                newline >= 0 ? payload.substring(newline + 1) : "");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("复制帧格式错误: " + header);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import android.util.Log;
+
+/**
+ * 主 KDS 的复制日志：每个变化（新订单、状态变化、出餐）分配一个单调递增的序号，
+ * 保留最近 capacity 条，子 KDS 重连后从自己最后确认的序号之后继续接收。
+ *
+ * 日志带一个随机的 epoch，在日志新建时生成。子 KDS 看到 epoch 变化就知道主 KDS 的日志换过了，
+ * 序号要从头对齐，不会把新日志的序号当成已经收到过的旧序号。
+ * 序号按 RESERVE_BLOCK 一段预先落盘，记录本身只写入不落盘，追加不需要等 fsync。
+ * 断电时预留了但没有落盘的序号在重启后补成 skip 记录，序号不会回退（回退的序号会被子 KDS 当作重复丢掉）。
+ * 进程被杀不影响已写入的记录。
+ */
+final class ReplicationLog {
+
+    private static final String TAG = "ReplicationLog";
+
+    private static final byte TYPE_EPOCH = 1;
+    private static final byte TYPE_ENTRY = 2;
+    private static final byte TYPE_RESERVE = 3;
+    // 每次预留的序号数，预留记录落盘后这些序号的记录不再单独落盘
+    private static final int RESERVE_BLOCK = 64;
+
+    static final String OP_ORDER = "order";
+    static final String OP_STATUS = "status";
+    static final String OP_BUMP = "bump";
+    // 不需要处理的序号：崩溃时没有落盘的预留序号，或子 KDS 的分类没有这个订单的商品
+    static final String OP_SKIP = "skip";
+
+    static final class Entry {
+        final long sequence;
+        final String op;
+        final String orderId;
+        final String data;
+        // 按分类拆分后的订单（见 CategoryRouter），只保存在内存中
+        private Map<String, String> routes;
+
+        Entry(long sequence, String op, String orderId, String data) {
+            this.sequence = sequence;
+            this.op = op;
+            this.orderId = orderId;
+            this.data = data;
+        }
+
+        /** 该分类的子订单，还没有拆分过时为 null，没有该分类的商品时为 "" */
+        synchronized String routed(String category) {
+            return routes != null ? routes.get(category) : null;
+        }
+
+        synchronized void route(String category, String payload) {
+            if (routes == null) routes = new HashMap<>();
+            routes.put(category, payload);
+        }
+    }
+
+    private final RecordLog log;
+    private final int capacity;
+    // 环形缓冲区，序号 n 的记录在 n % capacity
+    private final Entry[] entries;
+    private long epoch;
+    private long lastSequence;
+    private long oldestSequence = 1;
+    // 已经落盘预留的最大序号
+    private long reserved;
+    // 正在锁外落盘的预留，0 表示没有
+    private long pendingReserve;
+    // 文件中的记录数，超过 capacity 的两倍时压缩
+    private int fileEntries;
+
+    private ReplicationLog(File file, int capacity) throws IOException {
+        this.capacity = capacity;
+        this.entries = new Entry[capacity];
+        this.log = RecordLog.open(file, this::replay);
+        if (epoch == 0) {
+            epoch = new SecureRandom().nextLong() & Long.MAX_VALUE;
+            if (epoch == 0) epoch = 1;
+            Arrays.fill(entries, null);
+            lastSequence = 0;
+            oldestSequence = 1;
+            compact();
+        } else if (reserved > lastSequence) {
+            // 上次断电前预留的序号可能已经发给了子 KDS，补成 skip 记录，新记录从预留之后开始
+            Log.e(TAG, "复制日志缺少 " + (reserved - lastSequence) + " 条预留的记录，补为 skip");
+            while (lastSequence < reserved) {
+                long sequence = lastSequence + 1;
+                log.append(TYPE_ENTRY, Long.toString(sequence), OP_SKIP, "", "");
+                lastSequence = sequence;
+                add(new Entry(sequence, OP_SKIP, "", ""));
+                fileEntries++;
+            }
+            log.force();
+        }
+        Log.d(TAG, "复制日志已打开: epoch " + epoch + "，序号 " + oldestSequence() + ".." + lastSequence);
+    }
+
+    static ReplicationLog open(File file, int capacity) throws IOException {
+        return new ReplicationLog(file, capacity);
+    }
+
+    /**
+     * 追加一个变化，返回分配的序号。
+     * 预留的序号用掉一半时在锁外预留下一段，记录本身不等 fsync，发送线程也不用等。
+     * @param routes 已经按分类拆分好的订单，可以为 null
+     */
+    long append(String op, String orderId, String data, Map<String, String> routes) throws IOException {
+        long sequence;
+        long extendTo = 0;
+        synchronized (this) {
+            sequence = lastSequence + 1;
+            if (sequence > reserved) {
+                // 追加得比预留快（或第一次追加），这一条要等预留落盘
+                long ceiling = sequence + RESERVE_BLOCK - 1;
+                log.append(TYPE_RESERVE, Long.toString(ceiling));
+                log.force();
+                reserved = Math.max(reserved, ceiling);
+            }
+            log.append(TYPE_ENTRY, Long.toString(sequence), op, orderId, data);
+            lastSequence = sequence;
+            Entry entry = new Entry(sequence, op, orderId, data);
+            if (routes != null) entry.routes = new HashMap<>(routes);
+            add(entry);
+            fileEntries++;
+            notifyAll();
+            if (pendingReserve == 0 && reserved - sequence < RESERVE_BLOCK / 2) {
+                extendTo = reserved + RESERVE_BLOCK;
+                pendingReserve = extendTo;
+                log.append(TYPE_RESERVE, Long.toString(extendTo));
+            }
+            if (fileEntries > capacity * 2) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    // 压缩失败只是文件暂时变大，下次追加时再试
+                    Log.e(TAG, "压缩复制日志失败: " + e.getMessage());
+                }
+            }
+        }
+        if (extendTo > 0) {
+            try {
+                log.force();
+                synchronized (this) {
+                    reserved = Math.max(reserved, extendTo);
+                }
+            } finally {
+                synchronized (this) {
+                    pendingReserve = 0;
+                }
+            }
+        }
+        return sequence;
+    }
+
+    /** 序号对应的记录，已经被淘汰或还不存在时为 null */
+    synchronized Entry get(long sequence) {
+        if (sequence < oldestSequence || sequence > lastSequence) return null;
+        return entries[(int) (sequence % capacity)];
+    }
+
+    /** 从 sequence 开始最多 max 条连续的记录 */
+    synchronized List<Entry> range(long sequence, int max) {
+        long from = Math.max(sequence, oldestSequence);
+        long to = Math.min(lastSequence, from + max - 1);
+        List<Entry> result = new ArrayList<>((int) Math.max(0, to - from + 1));
+        for (long n = from; n <= to; n++) result.add(entries[(int) (n % capacity)]);
+        return result;
+    }
+
+    synchronized long epoch() {
+        return epoch;
+    }
+
+    synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    /** 还保留着的最早序号，日志为空时为 lastSequence + 1 */
+    synchronized long oldestSequence() {
+        return oldestSequence;
+    }
+
+    /**
+     * 等到有序号大于 sequence 的记录，或超时，返回当前最新的序号。
+     */
+    synchronized long awaitAfter(long sequence, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long remaining;
+        while (lastSequence <= sequence && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            wait(remaining);
+        }
+        return lastSequence;
+    }
+
+    synchronized void close() {
+        // 正常关闭时所有记录都已落盘，多预留的序号不用补
+        try {
+            if (reserved > lastSequence) log.append(TYPE_RESERVE, Long.toString(lastSequence));
+            log.force();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭复制日志时出错: " + e.getMessage());
+        }
+        log.close();
+        notifyAll();
+    }
+
+    private void add(Entry entry) {
+        entries[(int) (entry.sequence % capacity)] = entry;
+        if (entry.sequence - oldestSequence >= capacity) oldestSequence = entry.sequence - capacity + 1;
+    }
+
+    private boolean replay(byte type, String[] fields) {
+        try {
+            if (type == TYPE_EPOCH && fields.length == 2) {
+                epoch = Long.parseLong(fields[0]);
+                lastSequence = Long.parseLong(fields[1]);
+                oldestSequence = lastSequence + 1;
+                return true;
+            }
+            if (type == TYPE_RESERVE && fields.length == 1) {
+                reserved = Long.parseLong(fields[0]);
+                return true;
+            }
+            if (type == TYPE_ENTRY && fields.length == 4) {
+                long sequence = Long.parseLong(fields[0]);
+                if (epoch == 0 || sequence != lastSequence + 1) return false;
+                lastSequence = sequence;
+                add(new Entry(sequence, fields[1], fields[2], fields[3]));
+                fileEntries++;
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "复制日志记录格式错误: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * 只保留内存中的记录。epoch 记录同时保存最早记录之前的序号，压缩后序号不会从头开始。
+     */
+    private void compact() throws IOException {
+        log.compact(target -> {
+            target.append(TYPE_EPOCH, Long.toString(epoch), Long.toString(oldestSequence - 1));
+            long ceiling = Math.max(reserved, pendingReserve);
+            if (ceiling > lastSequence) target.append(TYPE_RESERVE, Long.toString(ceiling));
+            for (long n = oldestSequence; n <= lastSequence; n++) {
+                Entry entry = entries[(int) (n % capacity)];
+                target.append(TYPE_ENTRY, Long.toString(entry.sequence), entry.op, entry.orderId, entry.data);
+            }
+        });
+        fileEntries = (int) (lastSequence - oldestSequence + 1);
+    }
+}
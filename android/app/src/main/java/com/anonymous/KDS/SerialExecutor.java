@@ -0,0 +1,45 @@
+package com.anonymous.KDS;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 在共享线程池上按提交顺序逐个执行任务。
+ * 用于保证同一个连接上的订单按到达顺序交付，同时不为每个连接单独开线程。
+ */
+final class SerialExecutor implements Executor {
+
+    private final Executor executor;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private Runnable active;
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        tasks.offer(() -> {
+            try {
+                task.run();
+            } finally {
+                scheduleNext();
+            }
+        });
+        if (active == null) scheduleNext();
+    }
+
+    private synchronized void scheduleNext() {
+        if ((active = tasks.poll()) != null) {
+            try {
+                executor.execute(active);
+            } catch (RejectedExecutionException e) {
+                // 底层线程池已关闭，丢弃剩余任务，避免队列永久卡住
+                active = null;
+                tasks.clear();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.anonymous.KDS;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import android.util.Log;
+
+/**
+ * 主 KDS 向子 KDS 发送数据用的长连接池，按目标 IP 复用 socket。
+ *
+ * 每个目标一个连接，使用 OrderServer 的会话模式（带序号的二进制帧），
+ * 发送后等待对方的 "ACK n"，对方收到订单才算发送成功。
+ * 不兼容的变化：只使用"end"行协议的旧版本子 KDS 读不了会话帧，主 KDS 和子 KDS 需要一起升级；
+ * 旧版本收到会话帧后不回复，发送在 ACK 超时后失败。
+ *
+ * 同一目标的发送按顺序串行执行，不同目标在有界线程池上并行执行。
+ * 只有在数据完整写出之前失败（复用的连接已被对方关闭）时才重连重发；
+ * 写出之后等待回复超时或连接断开时，对方可能已经处理了这条数据（状态消息不去重，重发会处理两次），
+ * 直接把错误交给调用方。
+ * 空闲超过 IDLE_TIMEOUT_MS 的连接由后台定时关闭，目标从连接池中移除。
+ * 设置了 PeerDiscovery 时，信标已经超时的目标直接失败，不再等连接超时。
+ */
+final class SubKdsConnectionPool {
+
+    private static final String TAG = "SubKdsConnectionPool";
+    private static final int PORT = 4321;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int ACK_TIMEOUT_MS = 5000;
+    private static final long IDLE_TIMEOUT_MS = 60_000;
+    private static final long SWEEP_INTERVAL_MS = 15_000;
+    // 复用连接前检查对方是否已经关闭连接的等待时间
+    private static final int PROBE_TIMEOUT_MS = 1;
+    private static final int SENDER_THREADS = 4;
+    // 每个目标最多排队的发送数，超过直接失败
+    private static final int MAX_PENDING_PER_TARGET = 256;
+
+    interface SendCallback {
+        void onComplete(String targetIP, boolean success, String error);
+    }
+
+    private final ExecutorService senders;
+    private final ScheduledExecutorService sweeper;
+    private final ConcurrentHashMap<String, Target> targets = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+    private volatile PeerDiscovery discovery;
+
+    SubKdsConnectionPool() {
+        AtomicInteger count = new AtomicInteger();
+        // 每个目标的发送已经串行化，线程池队列里最多只有"目标数"个任务
+        senders = Executors.newFixedThreadPool(SENDER_THREADS, r -> {
+            Thread t = new Thread(r, "KDS-SubKdsSender-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "KDS-SubKdsIdleSweep");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweepIdle, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void setDiscovery(PeerDiscovery discovery) {
+        this.discovery = discovery;
+    }
+
+    /**
+     * 异步发送一条数据到目标子 KDS，完成后回调（在发送线程上）。
+     */
+    void send(String targetIP, String data, SendCallback callback) {
+        if (closed) {
+            callback.onComplete(targetIP, false, "连接池已关闭");
+            return;
+        }
+        PeerDiscovery current = discovery;
+        PeerDiscovery.Peer peer = current != null ? current.find(targetIP, PORT) : null;
+        if (peer != null && !peer.alive) {
+            callback.onComplete(targetIP, false, "子KDS离线（信标超时）");
+            return;
+        }
+        // 在 compute 内计数，清理空闲目标时不会移除已经有发送在排队的目标
+        Target target = targets.compute(targetIP, (ip, existing) -> {
+            Target t = existing != null ? existing : new Target(ip, new SerialExecutor(senders));
+            t.pending.incrementAndGet();
+            return t;
+        });
+        if (target.pending.get() > MAX_PENDING_PER_TARGET) {
+            target.pending.decrementAndGet();
+            callback.onComplete(targetIP, false, "发送队列已满");
+            return;
+        }
+        try {
+            target.executor.execute(() -> {
+                try {
+                    target.send(data);
+                    callback.onComplete(targetIP, true, null);
+                } catch (IOException e) {
+                    Log.e(TAG, "发送TCP数据失败: " + targetIP + " " + e.getMessage());
+                    callback.onComplete(targetIP, false, e.getMessage());
+                } finally {
+                    target.pending.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            target.pending.decrementAndGet();
+            callback.onComplete(targetIP, false, "连接池已关闭");
+        }
+    }
+
+    /** 在各目标自己的 SerialExecutor 上关闭空闲连接，没有排队发送的空闲目标从连接池中移除 */
+    private void sweepIdle() {
+        long now = System.currentTimeMillis();
+        for (Target target : targets.values()) {
+            if (target.pending.get() > 0) continue;
+            try {
+                target.executor.execute(() -> {
+                    if (now - target.lastUsed <= IDLE_TIMEOUT_MS) return;
+                    boolean removed = targets.computeIfPresent(target.ip,
+                        (ip, t) -> t == target && t.pending.get() == 0 ? null : t) == null;
+                    if (removed) {
+                        if (target.socket != null) Log.d(TAG, "关闭空闲连接: " + target.ip);
+                        target.close();
+                    }
+                });
+            } catch (RejectedExecutionException ignored) {
+                // 已经关闭
+            }
+        }
+    }
+
+    void closeAll() {
+        closed = true;
+        sweeper.shutdownNow();
+        for (Target target : targets.values()) {
+            try {
+                target.executor.execute(target::close);
+            } catch (RejectedExecutionException ignored) {
+                // 已经关闭
+            }
+        }
+        senders.shutdown();
+        targets.clear();
+    }
+
+    /** 对方收到了数据但处理失败：连接本身正常，不重连也不重发 */
+    private static final class NackException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NackException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 单个目标的连接。只在该目标的 SerialExecutor 上访问，不需要加锁。
+     */
+    private static final class Target {
+        final String ip;
+        final SerialExecutor executor;
+        final AtomicInteger pending = new AtomicInteger();
+        Socket socket;
+        OutputStream out;
+        BufferedReader in;
+        long nextSequence;
+        // 只在 SerialExecutor 上读写（包括清理空闲连接）
+        long lastUsed;
+
+        Target(String ip, SerialExecutor executor) {
+            this.ip = ip;
+            this.executor = executor;
+        }
+
+        void send(String data) throws IOException {
+            if (socket != null && (System.currentTimeMillis() - lastUsed > IDLE_TIMEOUT_MS || peerClosed())) {
+                close();
+            }
+            boolean reused = socket != null;
+            if (socket == null) connect();
+            long sequence = nextSequence++;
+            byte[] frame = OrderFrameDecoder.encodeBinary(sequence, data);
+            try {
+                out.write(frame);
+                out.flush();
+            } catch (IOException e) {
+                close();
+                // 帧没有完整写出，对方不会处理半个帧：复用的连接可能已被对方关闭，重连后再试一次
+                if (!reused) throw e;
+                Log.d(TAG, "连接已失效，重新连接: " + ip);
+                connect();
+                sequence = nextSequence++;
+                try {
+                    out.write(OrderFrameDecoder.encodeBinary(sequence, data));
+                    out.flush();
+                } catch (IOException retry) {
+                    close();
+                    throw retry;
+                }
+            }
+            try {
+                awaitReply(sequence);
+            } catch (NackException e) {
+                throw e;
+            } catch (IOException e) {
+                // 已经写出，对方可能已经处理，不重发
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * 复用连接前检查对方是否已经关闭了连接（例如对方的空闲超时），这时重连不会重复发送。
+         * 对方在两次发送之间不会主动发数据，能读到数据或 EOF 都说明连接不能再用。
+         */
+        private boolean peerClosed() {
+            try {
+                socket.setSoTimeout(PROBE_TIMEOUT_MS);
+                in.read();
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } catch (IOException e) {
+                return true;
+            } finally {
+                try {
+                    if (socket != null) socket.setSoTimeout(ACK_TIMEOUT_MS);
+                } catch (IOException ignored) {
+                    // 连接已经不能用，之后的写出会失败
+                }
+            }
+        }
+
+        private void awaitReply(long sequence) throws IOException {
+            String reply;
+            try {
+                reply = in.readLine();
+            } catch (SocketTimeoutException e) {
+                throw new IOException("等待 ACK " + sequence + " 超时（对方可能是不支持会话帧的旧版本）");
+            }
+            lastUsed = System.currentTimeMillis();
+            if (reply == null) throw new IOException("连接已关闭");
+            if (reply.equals("ACK " + sequence)) return;
+            if (reply.startsWith("NACK ")) throw new NackException("对方处理失败: " + reply);
+            // 对方超过准入上限，不重连重试，由调用方稍后重发
+            if (reply.startsWith("BUSY ")) throw new NackException("对方繁忙: " + reply);
+            throw new IOException("无效的回复: " + reply);
+        }
+
+        private void connect() throws IOException {
+            Socket s = new Socket();
+            try {
+                s.connect(new InetSocketAddress(ip, PORT), CONNECT_TIMEOUT_MS);
+                s.setSoTimeout(ACK_TIMEOUT_MS);
+                s.setTcpNoDelay(true);
+                s.setKeepAlive(true);
+                out = s.getOutputStream();
+                in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+            socket = s;
+            nextSequence = 0;
+            lastUsed = System.currentTimeMillis();
+        }
+
+        void close() {
+            if (socket == null) return;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "关闭连接时出错: " + e.getMessage());
+            }
+            socket = null;
+            out = null;
+            in = null;
+        }
+    }
+}
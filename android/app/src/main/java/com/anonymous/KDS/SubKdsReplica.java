@@ -0,0 +1,167 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import android.util.Log;
+
+/**
+ * 子 KDS 的复制状态：按序号顺序应用主 KDS 发来的变化，重复的直接确认，中间缺了就要求主 KDS 重发。
+ *
+ * applied 是已经交给 JS 的最大序号（回复 ACK 的依据），confirmed 是 JS 保存后确认的序号，
+ * 和 epoch 一起写在状态文件里。重启后从 confirmed 继续，交给 JS 但还没保存的变化会由主 KDS 重发。
+ *
+ * 回复错误 "GAP n" 表示子 KDS 只连续收到了 n（主 KDS 的 epoch 不同时为 0），
+ * OrderServer 把它变成 "NACK 序号 GAP n"，主 KDS 从 n + 1 重发。
+ */
+final class SubKdsReplica {
+
+    private static final String TAG = "SubKdsReplica";
+    private static final int STATE_SIZE = 16;
+
+    interface Sink {
+        /** 按序号顺序调用，每个序号只调用一次 */
+        void apply(ReplicationFrame frame);
+    }
+
+    /** 序号不连续，主 KDS 应从 applied + 1 重发 */
+    static class GapException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final long applied;
+
+        GapException(long applied) {
+            super("GAP " + applied);
+            this.applied = applied;
+        }
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer state = ByteBuffer.allocate(STATE_SIZE);
+    private long epoch;
+    private long applied;
+    private long confirmed;
+
+    // 统计
+    private long entriesApplied;
+    private long duplicates;
+    private long gaps;
+    private long resyncs;
+    private long lastAppliedAt;
+
+    private SubKdsReplica(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    static SubKdsReplica open(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        SubKdsReplica replica = new SubKdsReplica(channel);
+        if (channel.size() == STATE_SIZE) {
+            ByteBuffer data = ByteBuffer.allocate(STATE_SIZE);
+            while (data.hasRemaining()) {
+                if (channel.read(data, data.position()) < 0) break;
+            }
+            replica.epoch = data.getLong(0);
+            replica.confirmed = data.getLong(8);
+            replica.applied = replica.confirmed;
+        }
+        Log.d(TAG, "复制状态已加载: epoch " + replica.epoch + "，序号 " + replica.confirmed);
+        return replica;
+    }
+
+    /**
+     * 处理一个复制帧。
+     * @throws GapException 序号不连续或 epoch 不同，需要主 KDS 重发
+     */
+    synchronized void receive(ReplicationFrame frame, Sink sink) throws GapException {
+        boolean sameEpoch = frame.epoch == epoch;
+        if (ReplicationFrame.OP_SYNC.equals(frame.op)) {
+            if (!sameEpoch) throw gap(0);
+            if (frame.sequence > applied) throw gap(applied);
+            return;
+        }
+        if (sameEpoch && frame.sequence <= applied) {
+            duplicates++;
+            return;
+        }
+        boolean next = sameEpoch && frame.sequence == applied + 1;
+        // 新的 epoch 必须从 1 开始，否则要从头重发
+        boolean restart = !sameEpoch && frame.sequence == 1;
+        if (!next && !restart && !frame.resync) throw gap(sameEpoch ? applied : 0);
+        if (!next) {
+            Log.d(TAG, "复制序号跳到 " + frame.epoch + "/" + frame.sequence + "（原来 " + epoch + "/" + applied + "）");
+            if (frame.resync) resyncs++;
+            epoch = frame.epoch;
+            confirmed = frame.sequence - 1;
+            writeState();
+        }
+        applied = frame.sequence;
+        if (ReplicationLog.OP_SKIP.equals(frame.op)) return;
+        entriesApplied++;
+        lastAppliedAt = System.currentTimeMillis();
+        sink.apply(frame);
+    }
+
+    /**
+     * JS 已经保存了 sequence 及之前的所有变化，重启后不再需要重发。
+     */
+    synchronized void confirm(long sequence) {
+        if (sequence <= confirmed || sequence > applied) return;
+        confirmed = sequence;
+        writeState();
+    }
+
+    synchronized Stats stats() {
+        Stats stats = new Stats();
+        stats.epoch = epoch;
+        stats.applied = applied;
+        stats.confirmed = confirmed;
+        stats.entriesApplied = entriesApplied;
+        stats.duplicates = duplicates;
+        stats.gaps = gaps;
+        stats.resyncs = resyncs;
+        stats.lastAppliedAt = lastAppliedAt;
+        return stats;
+    }
+
+    static final class Stats {
+        long epoch;
+        long applied;
+        long confirmed;
+        long entriesApplied;
+        // 已经应用过、被直接确认的重发
+        long duplicates;
+        // 要求主 KDS 重发的次数
+        long gaps;
+        // 主 KDS 的记录已被淘汰，直接跳过的次数
+        long resyncs;
+        long lastAppliedAt;
+    }
+
+    synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭复制状态文件时出错: " + e.getMessage());
+        }
+    }
+
+    private GapException gap(long at) {
+        gaps++;
+        return new GapException(at);
+    }
+
+    private void writeState() {
+        state.clear();
+        state.putLong(epoch).putLong(confirmed).flip();
+        try {
+            while (state.hasRemaining()) channel.write(state, state.position());
+            channel.force(false);
+        } catch (IOException e) {
+            // 重启后从更早的序号开始，主 KDS 会重发，JS 按订单号去重
+            Log.e(TAG, "写入复制状态失败: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,553 @@
+package com.anonymous.KDS;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import android.util.Log;
+
+/**
+ * 主 KDS 把复制日志推送给各个子 KDS。
+ *
+ * 每个子 KDS 一个发送线程和一条长连接（OrderServer 的会话模式），只发送变化（新订单、状态变化、出餐），
+ * 不重发整个订单列表。连接建立后先发 sync 帧问子 KDS 收到了哪里，再从下一个序号开始补发，
+ * 补发时连续发送最多 WINDOW 帧再读取确认。子 KDS 回复 "NACK n GAP m" 时从 m + 1 重发，
+ * 需要的记录已经被淘汰时从最早的记录开始并带上重新同步标记。
+ * 子 KDS 超过准入上限时回复 "BUSY n retry-after=毫秒"（见 AdmissionControl），这时不断开连接，
+ * 等待 retry-after 后从已确认的序号之后重发。
+ * 断线后按退避时间重连；空闲时定期发 sync 帧检测连接。
+ *
+ * 新订单按子 KDS 的分类拆分（见 CategoryRouter），在记录变化的线程上每个分类序列化一次，
+ * 各发送线程只负责写 socket；没有自己分类商品的子 KDS 收到 skip 帧，只推进序号。
+ *
+ * 设置了 PeerDiscovery 时，信标已经超时的子 KDS 不再尝试连接（不用每次等连接超时），
+ * 重新收到信标时立即重连，不等退避时间。从没收到过信标的子 KDS（例如不同网段）照常按退避重连。
+ */
+final class SubKdsReplicator {
+
+    private static final String TAG = "SubKdsReplicator";
+    private static final int DEFAULT_PORT = 4321;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int ACK_TIMEOUT_MS = 5000;
+    private static final long KEEPALIVE_MS = 15_000;
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    // 补发时不等确认连续发送的帧数，小于子 KDS 默认的每客户端订单上限（AdmissionControl.maxInFlightPerClient）
+    private static final int WINDOW = 16;
+    // BUSY 回复没有带 retry-after 时的等待时间
+    private static final long DEFAULT_BUSY_WAIT_MS = 1000;
+
+    private final ReplicationLog log;
+    private final Map<String, Replica> replicas = new LinkedHashMap<>();
+    private volatile CategoryRouter router = new CategoryRouter(new ArrayList<>());
+    private PeerDiscovery discovery;
+    private boolean shutdown;
+
+    SubKdsReplicator(ReplicationLog log) {
+        this.log = log;
+    }
+
+    /**
+     * 设置要推送的子 KDS（"ip" 或 "ip:端口" -> 分类），新增的开始推送，不在列表中的停止。
+     */
+    synchronized void setReplicas(Map<String, String> categories) {
+        if (shutdown) return;
+        for (Map.Entry<String, Replica> entry : new ArrayList<>(replicas.entrySet())) {
+            if (!categories.containsKey(entry.getKey())) {
+                entry.getValue().stop();
+                replicas.remove(entry.getKey());
+            }
+        }
+        for (Map.Entry<String, String> entry : categories.entrySet()) {
+            String category = entry.getValue() != null ? entry.getValue() : CategoryRouter.ALL;
+            Replica replica = replicas.get(entry.getKey());
+            if (replica != null) {
+                replica.category = category;
+                continue;
+            }
+            replica = new Replica(log, entry.getKey(), category);
+            replica.discovery = discovery;
+            replicas.put(entry.getKey(), replica);
+            replica.start();
+        }
+        router = new CategoryRouter(categories.values());
+    }
+
+    synchronized void setDiscovery(PeerDiscovery discovery) {
+        this.discovery = discovery;
+        for (Replica replica : replicas.values()) replica.discovery = discovery;
+    }
+
+    /** PeerDiscovery 发现 KDS 上线或离线 */
+    synchronized void peerChanged(PeerDiscovery.Peer peer) {
+        for (Replica replica : replicas.values()) {
+            if (replica.port == peer.port && replica.host.equals(peer.host)) replica.peerChanged(peer);
+        }
+    }
+
+    synchronized boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * 记录一个变化，各发送线程随后推送给所有子 KDS。order 的 data 为订单 JSON，在这里按分类拆分。
+     */
+    long publish(String op, String orderId, String data) throws IOException {
+        Map<String, String> routes = null;
+        CategoryRouter current = router;
+        if (ReplicationLog.OP_ORDER.equals(op) && current.splits()) {
+            try {
+                routes = current.route(OrderHandlerModule.ParseOrder(data), orderId);
+            } catch (OrderParser.ParseException e) {
+                // 无法拆分的订单整个发给所有子 KDS
+                Log.e(TAG, "订单 " + orderId + " 解析失败，不按分类拆分: " + e.getMessage());
+            }
+        }
+        return log.append(op, orderId, data, routes);
+    }
+
+    /**
+     * 记录原生层已经解析好的新订单（不再经过 JS），订单只序列化一次，每个分类的子订单也只序列化一次。
+     */
+    long publishOrder(Order order, String orderId) throws IOException {
+        CategoryRouter current = router;
+        Map<String, String> routes = current.splits() ? current.route(order, orderId) : null;
+        return log.append(ReplicationLog.OP_ORDER, orderId, order.toJson(orderId, order.items, null), routes);
+    }
+
+    synchronized List<Replica.Stats> stats() {
+        List<Replica.Stats> result = new ArrayList<>(replicas.size());
+        long last = log.lastSequence();
+        for (Replica replica : replicas.values()) result.add(replica.stats(last));
+        return result;
+    }
+
+    ReplicationLog log() {
+        return log;
+    }
+
+    synchronized void shutdown() {
+        shutdown = true;
+        for (Replica replica : replicas.values()) replica.stop();
+        replicas.clear();
+        log.close();
+    }
+
+    /**
+     * 单个子 KDS 的推送状态。连接和游标只在发送线程上访问，统计字段用 volatile 供其他线程读取。
+     */
+    static final class Replica {
+        final String address;
+        private final ReplicationLog log;
+        volatile String category;
+        private final String host;
+        private final int port;
+        private volatile PeerDiscovery discovery;
+        private final Thread thread;
+        private volatile boolean running = true;
+        private Socket socket;
+        private OutputStream out;
+        private BufferedReader in;
+        // 子 KDS 已确认的最大序号
+        private volatile long acked = -1;
+        private volatile boolean connected;
+        private volatile String lastError;
+        private volatile long reconnects;
+        private volatile long framesSent;
+        private volatile long gaps;
+        // 子 KDS 回复 BUSY 的次数
+        private volatile long busyReplies;
+        private volatile long lastCatchUpMs = -1;
+        private volatile long lastCatchUpEntries;
+        // 信标超时后跳过的连接次数
+        private volatile long skippedOffline;
+        // 重新收到信标时唤醒等待中的发送线程
+        private final Object wakeup = new Object();
+        private boolean woken;
+
+        Replica(ReplicationLog log, String address, String category) {
+            this.log = log;
+            this.address = address;
+            this.category = category;
+            int colon = address.lastIndexOf(':');
+            int parsedPort = DEFAULT_PORT;
+            String parsedHost = address;
+            if (colon > 0 && address.indexOf(':') == colon) {
+                try {
+                    parsedPort = Integer.parseInt(address.substring(colon + 1));
+                    parsedHost = address.substring(0, colon);
+                } catch (NumberFormatException ignored) {
+                    // 不是端口，整个当作主机名
+                }
+            }
+            this.host = parsedHost;
+            this.port = parsedPort;
+            this.thread = new Thread(this::run, "KDS-Replica-" + address);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void stop() {
+            running = false;
+            thread.interrupt();
+            // 让阻塞在读写上的发送线程立即退出，连接由发送线程清理
+            synchronized (this) {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                        // 已经关闭
+                    }
+                }
+            }
+        }
+
+        void peerChanged(PeerDiscovery.Peer peer) {
+            if (!peer.alive) {
+                if (!connected) lastError = "子KDS离线（信标超时）";
+                return;
+            }
+            synchronized (wakeup) {
+                woken = true;
+                wakeup.notifyAll();
+            }
+        }
+
+        Stats stats(long lastSequence) {
+            Stats stats = new Stats();
+            stats.address = address;
+            stats.category = category;
+            stats.connected = connected;
+            stats.ackedSequence = acked;
+            stats.lag = acked < 0 ? -1 : Math.max(0, lastSequence - acked);
+            stats.lastError = lastError;
+            stats.reconnects = reconnects;
+            stats.framesSent = framesSent;
+            stats.gaps = gaps;
+            stats.busyReplies = busyReplies;
+            stats.lastCatchUpMs = lastCatchUpMs;
+            stats.lastCatchUpEntries = lastCatchUpEntries;
+            PeerDiscovery.Peer peer = peer();
+            stats.discovered = peer != null;
+            stats.alive = peer == null || peer.alive;
+            stats.skippedOffline = skippedOffline;
+            return stats;
+        }
+
+        static final class Stats {
+            String address;
+            String category;
+            boolean connected;
+            // -1 表示还没有连上过
+            long ackedSequence;
+            long lag;
+            String lastError;
+            long reconnects;
+            long framesSent;
+            long gaps;
+            long busyReplies;
+            // 最近一次重连后追上主 KDS 用的时间和补发的记录数，-1 表示还没有追上过
+            long lastCatchUpMs;
+            long lastCatchUpEntries;
+            // 是否收到过信标，收到过时 alive 表示信标是否还在
+            boolean discovered;
+            boolean alive;
+            long skippedOffline;
+        }
+
+        private void run() {
+            long backoff = INITIAL_BACKOFF_MS;
+            while (running) {
+                try {
+                    if (!awaitAlive()) break;
+                    connect();
+                    backoff = INITIAL_BACKOFF_MS;
+                    stream();
+                } catch (IOException e) {
+                    if (!running) break;
+                    lastError = e.getMessage();
+                    Log.e(TAG, "复制到 " + address + " 失败: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    break;
+                } finally {
+                    connected = false;
+                    closeSocket();
+                }
+                if (!running) break;
+                long delay = backoff + ThreadLocalRandom.current().nextLong(backoff / 5 + 1);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+                try {
+                    // 子 KDS 重新广播信标（例如重启完成）时立即重连
+                    if (pause(delay)) backoff = INITIAL_BACKOFF_MS;
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            Log.d(TAG, "停止复制到 " + address);
+        }
+
+        private PeerDiscovery.Peer peer() {
+            PeerDiscovery current = discovery;
+            return current != null ? current.find(host, port) : null;
+        }
+
+        /**
+         * 信标已经超时的子 KDS 不连接，等到重新收到信标。返回 false 表示已停止。
+         */
+        private boolean awaitAlive() throws InterruptedException {
+            PeerDiscovery.Peer peer = peer();
+            if (peer == null || peer.alive) return running;
+            skippedOffline++;
+            Log.d(TAG, address + " 信标超时，等待重新上线");
+            while (running) {
+                pause(MAX_BACKOFF_MS);
+                peer = peer();
+                if (peer == null || peer.alive) break;
+            }
+            return running;
+        }
+
+        /** 等待 ms 毫秒，返回 true 表示被信标唤醒 */
+        private boolean pause(long ms) throws InterruptedException {
+            synchronized (wakeup) {
+                long deadline = System.currentTimeMillis() + ms;
+                long remaining;
+                while (!woken && running && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    wakeup.wait(remaining);
+                }
+                boolean wasWoken = woken;
+                woken = false;
+                return wasWoken;
+            }
+        }
+
+        private void connect() throws IOException {
+            Socket s = new Socket();
+            try {
+                s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                s.setSoTimeout(ACK_TIMEOUT_MS);
+                s.setTcpNoDelay(true);
+                s.setKeepAlive(true);
+                synchronized (this) {
+                    if (!running) throw new IOException("已停止");
+                    socket = s;
+                    out = s.getOutputStream();
+                    in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+            connected = true;
+            reconnects++;
+            synchronized (wakeup) {
+                woken = false;
+            }
+            lastError = null;
+        }
+
+        /**
+         * 先同步游标，补发到最新，然后等待新的变化。
+         */
+        private void stream() throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            long cursor = sync(log.lastSequence());
+            long behind = log.lastSequence() - cursor;
+            boolean caughtUp = false;
+            long sent = 0;
+            while (running) {
+                long last = log.lastSequence();
+                if (cursor >= last) {
+                    if (!caughtUp) {
+                        caughtUp = true;
+                        lastCatchUpMs = (System.nanoTime() - start) / 1_000_000;
+                        lastCatchUpEntries = sent;
+                        if (behind > 0) Log.d(TAG, address + " 已追上: 补发 " + sent + " 条，用时 " + lastCatchUpMs + "ms");
+                    }
+                    last = log.awaitAfter(cursor, KEEPALIVE_MS);
+                    if (last <= cursor) {
+                        cursor = sync(last);
+                        continue;
+                    }
+                }
+                long before = cursor;
+                cursor = sendWindow(cursor);
+                sent += Math.max(0, cursor - before);
+            }
+        }
+
+        /** 发送 sync 帧，返回子 KDS 已连续收到的序号；子 KDS 繁忙时等待后重发 */
+        private long sync(long last) throws IOException, InterruptedException {
+            while (true) {
+                long epoch = log.epoch();
+                write(last, ReplicationFrame.sync(epoch, last));
+                out.flush();
+                Reply reply = readReply();
+                if (reply.type == Reply.BUSY) {
+                    awaitBusy(reply.value);
+                    continue;
+                }
+                if (reply.sequence != last) throw new IOException("无效的回复: " + reply.line);
+                return reply.type == Reply.GAP ? reply.value : last;
+            }
+        }
+
+        /**
+         * 从 cursor + 1 开始连续发送最多 WINDOW 帧，再读取每一帧的回复，返回新的游标。
+         * BUSY 在 Selector 线程上直接回复，可能排在前面帧的 ACK 之前，所以按回复里的序号对应；
+         * 有帧被拒绝时等待 retry-after，返回已连续确认的序号，下一轮从它之后重发。
+         */
+        private long sendWindow(long cursor) throws IOException, InterruptedException {
+            long epoch = log.epoch();
+            List<ReplicationLog.Entry> entries = log.range(cursor + 1, WINDOW);
+            if (entries.isEmpty()) return cursor;
+            // 需要的记录已经淘汰，从最早的记录开始，子 KDS 直接跳过中间缺失的部分
+            boolean resync = entries.get(0).sequence != cursor + 1;
+            if (resync) Log.e(TAG, address + " 需要的记录 " + (cursor + 1) + " 已被淘汰，从 " + entries.get(0).sequence + " 重新同步");
+            for (int i = 0; i < entries.size(); i++) {
+                ReplicationLog.Entry entry = entries.get(i);
+                write(entry.sequence, frame(epoch, entry, resync && i == 0));
+            }
+            out.flush();
+            long first = entries.get(0).sequence;
+            long lastSent = entries.get(entries.size() - 1).sequence;
+            boolean[] ackedInWindow = new boolean[entries.size()];
+            long gapAt = -1;
+            long busyWaitMs = -1;
+            for (int i = 0; i < entries.size(); i++) {
+                Reply reply = readReply();
+                if (reply.sequence < first || reply.sequence > lastSent) throw new IOException("无效的回复: " + reply.line);
+                if (reply.type == Reply.ACK) {
+                    ackedInWindow[(int) (reply.sequence - first)] = true;
+                } else if (reply.type == Reply.GAP) {
+                    // 后面的帧也会被拒绝，读完它们的回复后从 gapAt + 1 重发
+                    if (gapAt < 0) gapAt = reply.value;
+                } else {
+                    busyWaitMs = Math.max(busyWaitMs, reply.value);
+                }
+            }
+            long next = cursor;
+            for (int i = 0; i < entries.size() && ackedInWindow[i]; i++) next = entries.get(i).sequence;
+            if (busyWaitMs >= 0) awaitBusy(busyWaitMs);
+            return gapAt >= 0 ? Math.min(gapAt, next) : next;
+        }
+
+        /** 子 KDS 回复 BUSY：连接保持打开，等待建议的时间（收到信标唤醒时提前结束） */
+        private void awaitBusy(long retryAfterMs) throws InterruptedException {
+            busyReplies++;
+            pause(retryAfterMs);
+        }
+
+        /** 按本子 KDS 的分类生成帧内容 */
+        private String frame(long epoch, ReplicationLog.Entry entry, boolean resync) {
+            String current = category;
+            if (!ReplicationLog.OP_ORDER.equals(entry.op) || CategoryRouter.ALL.equals(current)) {
+                return ReplicationFrame.encode(epoch, entry, resync);
+            }
+            String payload = entry.routed(current);
+            if (payload == null) {
+                // 重启后读回的记录或分类刚改过，在发送线程上拆分一次，同一分类的其他子 KDS 直接使用
+                try {
+                    payload = new CategoryRouter(Collections.singleton(current))
+                        .route(OrderHandlerModule.ParseOrder(entry.data), entry.orderId).get(current);
+                } catch (OrderParser.ParseException e) {
+                    payload = entry.data;
+                }
+                entry.route(current, payload);
+            }
+            if (payload.isEmpty()) {
+                return ReplicationFrame.encode(epoch, entry.sequence, ReplicationLog.OP_SKIP, resync, entry.orderId, "");
+            }
+            return ReplicationFrame.encode(epoch, entry.sequence, entry.op, resync, entry.orderId, payload);
+        }
+
+        private void write(long sequence, String payload) throws IOException {
+            out.write(OrderFrameDecoder.encodeBinary(sequence, payload));
+            framesSent++;
+        }
+
+        /**
+         * 读取一条回复："ACK n"、"NACK n GAP m" 或 "BUSY n retry-after=毫秒"，其他回复抛出 IOException。
+         */
+        private Reply readReply() throws IOException {
+            String line = in.readLine();
+            if (line == null) throw new IOException("连接已关闭");
+            Reply reply = Reply.parse(line);
+            if (reply == null) throw new IOException("无效的回复: " + line);
+            if (reply.type == Reply.ACK) {
+                acked = Math.max(acked, reply.sequence);
+            } else if (reply.type == Reply.GAP) {
+                gaps++;
+                acked = reply.value;
+            }
+            return reply;
+        }
+
+        private synchronized void closeSocket() {
+            if (socket == null) return;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "关闭连接时出错: " + e.getMessage());
+            }
+            socket = null;
+            out = null;
+            in = null;
+        }
+    }
+
+    /** 子 KDS 对一帧的回复 */
+    static final class Reply {
+        static final int ACK = 0;
+        static final int GAP = 1;
+        static final int BUSY = 2;
+
+        final String line;
+        final int type;
+        final long sequence;
+        // GAP 为子 KDS 已连续收到的序号，BUSY 为建议的等待时间（毫秒）
+        final long value;
+
+        private Reply(String line, int type, long sequence, long value) {
+            this.line = line;
+            this.type = type;
+            this.sequence = sequence;
+            this.value = value;
+        }
+
+        /** 无法识别时返回 null */
+        static Reply parse(String line) {
+            String[] parts = line.trim().split(" ");
+            try {
+                if (parts.length == 2 && parts[0].equals("ACK")) {
+                    return new Reply(line, ACK, Long.parseLong(parts[1]), 0);
+                }
+                if (parts.length == 4 && parts[0].equals("NACK") && parts[2].equals("GAP")) {
+                    return new Reply(line, GAP, Long.parseLong(parts[1]), Long.parseLong(parts[3]));
+                }
+                if (parts.length >= 2 && parts[0].equals("BUSY")) {
+                    long wait = DEFAULT_BUSY_WAIT_MS;
+                    if (parts.length >= 3 && parts[2].startsWith("retry-after=")) {
+                        wait = Long.parseLong(parts[2].substring("retry-after=".length()));
+                    }
+                    return new Reply(line, BUSY, Long.parseLong(parts[1]), Math.max(0, wait));
+                }
+            } catch (NumberFormatException ignored) {
+                // 按无法识别处理
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.anonymous.KDS;
+
+/**
+ * 把订单小票按模板（见 TicketTemplate）排版成 ESC/POS 字节，打印线程一次 sendData 发送。
+ * 内部缓冲区重复使用，一个打印线程一个实例。
+ *
+ * 另外提供按显示宽度（中文等全角字符占 2 列）排版用的工具方法。
+ */
+final class TicketRenderer {
+
+    private static final int FEED_LINES = 5;
+
+    private final EscPosBuffer out = new EscPosBuffer();
+
+    /** 排版一张订单小票，返回的数组归调用方所有 */
+    byte[] render(TicketTemplate template, OrderTicket ticket) {
+        out.reset().initialize();
+        template.render(ticket, out);
+        return out.toByteArray();
+    }
+
+    /** 开始一批小票：清空缓冲区并初始化打印机，之后用 append 逐张写入 */
+    void begin() {
+        out.reset().initialize();
+    }
+
+    /** 追加一张小票，cut 见 TicketTemplate.render */
+    void append(TicketTemplate template, OrderTicket ticket, boolean cut) {
+        template.render(ticket, out, cut);
+    }
+
+    /** 已经排版、还没有取出的字节数 */
+    int pending() {
+        return out.length();
+    }
+
+    /** 取出已经排版的字节并清空缓冲区 */
+    byte[] drain() {
+        byte[] data = out.toByteArray();
+        out.reset();
+        return data;
+    }
+
+    /** 排版一段居中文本，用于 Print */
+    byte[] renderText(String text, boolean cutPaper) {
+        out.reset().initialize();
+        out.align(EscPosBuffer.ALIGN_CENTER).bold(false).size(1, 1);
+        out.text(text).newline().feed(FEED_LINES);
+        if (cutPaper) out.cut();
+        return out.toByteArray();
+    }
+
+    // ---- 按显示宽度排版 ----
+
+    /** 字符的显示列数：全角（中日韩文字、全角符号）为 2，其余为 1 */
+    static int charWidth(int codePoint) {
+        if (codePoint < 0x1100) return 1;
+        if ((codePoint <= 0x115F)
+            || (codePoint >= 0x2E80 && codePoint <= 0xA4CF && codePoint != 0x303F)
+            || (codePoint >= 0xAC00 && codePoint <= 0xD7A3)
+            || (codePoint >= 0xF900 && codePoint <= 0xFAFF)
+            || (codePoint >= 0xFE30 && codePoint <= 0xFE4F)
+            || (codePoint >= 0xFF00 && codePoint <= 0xFF60)
+            || (codePoint >= 0xFFE0 && codePoint <= 0xFFE6)
+            || (codePoint >= 0x1F300 && codePoint <= 0x1F64F)
+            || (codePoint >= 0x20000 && codePoint <= 0x3FFFD)) {
+            return 2;
+        }
+        return 1;
+    }
+
+    static int displayWidth(CharSequence text) {
+        return displayWidth(text, 0, text.length());
+    }
+
+    static int displayWidth(CharSequence text, int start, int end) {
+        int width = 0;
+        for (int i = start; i < end; ) {
+            int codePoint = Character.codePointAt(text, i);
+            width += charWidth(codePoint);
+            i += Character.charCount(codePoint);
+        }
+        return width;
+    }
+
+    /** 超过 width 列时截断并以 "..." 结尾 */
+    static String truncate(String text, int width) {
+        if (displayWidth(text) <= width) return text;
+        int limit = width - 3;
+        int used = 0;
+        int end = 0;
+        while (end < text.length()) {
+            int codePoint = text.codePointAt(end);
+            int w = charWidth(codePoint);
+            if (used + w > limit) break;
+            used += w;
+            end += Character.charCount(codePoint);
+        }
+        return text.substring(0, end) + "...";
+    }
+
+    /** 追加保留两位小数的金额，等同于 %.2f，但不经过 Formatter */
+    static void appendPrice(StringBuilder sb, double value) {
+        long cents = Math.round(value * 100);
+        if (cents < 0) {
+            sb.append('-');
+            cents = -cents;
+        }
+        sb.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) sb.append('0');
+        sb.append(fraction);
+    }
+}
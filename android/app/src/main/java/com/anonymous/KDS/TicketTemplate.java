@@ -0,0 +1,629 @@
+package com.anonymous.KDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * 小票模板。模板源码编译一次得到排版计划，之后每张小票只是按计划填入订单数据：
+ * 固定的文字、样式、分隔线在编译时已经编码成字节，渲染时不再解析模板，也不用 String.format。
+ *
+ * 模板按行书写，以 # 开头的行是指令，其余行是文本（{字段} 替换为订单数据，{{ 和 }} 表示花括号本身）：
+ *   #width 48                 每行的列数（标准字体），默认 48
+ *   #style [left|center|right] [bold] [x1|x2|x3]
+ *                             之后各行的样式，未写的项恢复默认（左对齐、不加粗、x1）
+ *   #rule - [n]               分隔线，用给定字符画 n 列，默认整行
+ *   #row 20< {name} | 3> {quantity} | 8> {price}
+ *                             分列输出，各列之间空一格。每列写宽度（* 表示剩余宽度）和对齐（< ^ >），
+ *                             宽度后加 ~ 表示超宽时在列内换行，否则截断并以 "..." 结尾；
+ *                             对齐符号后空一格再写内容，多出的空格保留在内容中
+ *   #if 字段 / #if !字段 ... [#else ...] #end
+ *                             字段非空（数字不为 0）时输出
+ *   #each items ... #end      逐个商品输出；商品内可以用 #each options 逐个选项输出
+ *   #qr [点大小] 内容         二维码，内容为空时不打印
+ *   #feed n / #cut            走纸 n 行 / 切纸（批量打印时可以由调用方决定是否切纸，见 render）
+ *   ## 注释
+ * 文本行超过一行时按显示宽度换行（中文占 2 列），优先在空格处断开。
+ * 样式按模板中的书写顺序生效，放大字号时每行的列数相应减少。
+ *
+ * 字段：订单 shopName orderId orderTime pickupMethod tableNumber total，以及 JS 传入的其他顶层字段；
+ * 商品 index（从 1 开始） name quantity price category；选项 name value price。
+ * 内层没有的字段到外层查找。price、total 输出两位小数。
+ *
+ * 编译后的模板不可变，可以在多个线程间共享。
+ */
+final class TicketTemplate {
+
+    static final int DEFAULT_WIDTH = 48;
+    private static final int DEFAULT_QR_SIZE = 6;
+
+    static class TemplateException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int line;
+
+        TemplateException(int line, String message) {
+            super("第 " + line + " 行: " + message);
+            this.line = line;
+        }
+    }
+
+    private enum Scope { ORDER, ITEM, OPTION }
+
+    private interface Op {
+        void render(Context context, EscPosBuffer out);
+    }
+
+    // #cut 单独成为一个 Op，批量打印时可以跳过
+    private static final Op CUT = (context, out) -> {
+        if (context.cut) out.cut();
+    };
+
+    /** 文本中的一段：固定文字或字段 */
+    private interface Value {
+        void appendTo(Context context, StringBuilder sb);
+
+        boolean present(Context context);
+    }
+
+    private static final class Context {
+        final OrderTicket ticket;
+        OrderTicket.Item item;
+        int itemIndex;
+        OrderTicket.Option option;
+        final StringBuilder text = new StringBuilder(64);
+        final StringBuilder row = new StringBuilder(64);
+        final boolean cut;
+        private double total = Double.NaN;
+
+        Context(OrderTicket ticket, boolean cut) {
+            this.ticket = ticket;
+            this.cut = cut;
+        }
+
+        double total() {
+            if (Double.isNaN(total)) total = ticket.total();
+            return total;
+        }
+    }
+
+    private static final class Cell {
+        int width;
+        int align;
+        boolean wrap;
+        Value[] parts;
+    }
+
+    private final Op[] ops;
+    // 模板中是否有 #cut
+    private final boolean cuts;
+
+    private TicketTemplate(Op[] ops, boolean cuts) {
+        this.ops = ops;
+        this.cuts = cuts;
+    }
+
+    static TicketTemplate compile(String source) throws TemplateException {
+        Compiler compiler = new Compiler(source);
+        Op[] ops = compiler.compile();
+        return new TicketTemplate(ops, compiler.cuts);
+    }
+
+    /** 把小票写入 out（不包括初始化打印机），按模板切纸 */
+    void render(OrderTicket ticket, EscPosBuffer out) {
+        run(ops, new Context(ticket, true), out);
+    }
+
+    /**
+     * 批量打印用：cut 为 false 时跳过模板中的 #cut；为 true 时按模板切纸，模板没有 #cut 则在末尾切纸。
+     */
+    void render(OrderTicket ticket, EscPosBuffer out, boolean cut) {
+        run(ops, new Context(ticket, cut), out);
+        if (cut && !cuts) out.cut();
+    }
+
+    private static void run(Op[] ops, Context context, EscPosBuffer out) {
+        for (Op op : ops) op.render(context, out);
+    }
+
+    // ---- 编译 ----
+
+    private static final class Compiler {
+        private final String[] lines;
+        private int index;
+        private int width = DEFAULT_WIDTH;
+        private int size = 1;
+        // 还没有生成 Op 的固定字节，遇到动态内容时合并成一个 Op
+        private final EscPosBuffer pending = new EscPosBuffer();
+        // block() 结束时遇到的 #else / #end
+        private String terminator;
+        boolean cuts;
+
+        Compiler(String source) {
+            this.lines = source.split("\r?\n", -1);
+        }
+
+        Op[] compile() throws TemplateException {
+            // 源码末尾的换行不算一个空行
+            int count = lines.length;
+            if (count > 0 && lines[count - 1].isEmpty()) count--;
+            List<Op> ops = block(Scope.ORDER, count);
+            if (terminator != null) throw error("多余的 " + terminator);
+            return ops.toArray(new Op[0]);
+        }
+
+        private int columns() {
+            return Math.max(1, width / size);
+        }
+
+        private TemplateException error(String message) {
+            return new TemplateException(index, message);
+        }
+
+        private List<Op> block(Scope scope, int count) throws TemplateException {
+            List<Op> ops = new ArrayList<>();
+            terminator = null;
+            while (index < count) {
+                String line = lines[index++];
+                if (!line.startsWith("#")) {
+                    text(ops, scope, line);
+                    continue;
+                }
+                if (line.startsWith("##")) continue;
+                String[] words = line.substring(1).trim().split("\\s+", 2);
+                String directive = words[0];
+                String argument = words.length > 1 ? words[1].trim() : "";
+                switch (directive) {
+                    case "end":
+                    case "else":
+                        flush(ops);
+                        terminator = "#" + directive;
+                        return ops;
+                    case "width":
+                        width = number(argument, 1, 255);
+                        break;
+                    case "style":
+                        style(argument);
+                        break;
+                    case "rule":
+                        rule(argument);
+                        break;
+                    case "row":
+                        flush(ops);
+                        ops.add(row(scope, argument));
+                        break;
+                    case "if":
+                        flush(ops);
+                        ops.add(condition(scope, argument, count));
+                        break;
+                    case "each":
+                        flush(ops);
+                        ops.add(each(scope, argument, count));
+                        break;
+                    case "qr":
+                        qr(ops, scope, argument);
+                        break;
+                    case "feed":
+                        pending.feed(number(argument, 0, 255));
+                        break;
+                    case "cut":
+                        flush(ops);
+                        ops.add(CUT);
+                        cuts = true;
+                        break;
+                    default:
+                        throw error("未知的指令 #" + directive);
+                }
+            }
+            flush(ops);
+            return ops;
+        }
+
+        private void flush(List<Op> ops) {
+            if (pending.length() == 0) return;
+            byte[] bytes = pending.toByteArray();
+            pending.reset();
+            ops.add((context, out) -> out.raw(bytes));
+        }
+
+        private void text(List<Op> ops, Scope scope, String line) throws TemplateException {
+            Value[] parts = parse(scope, line);
+            int columns = columns();
+            String literal = literal(parts);
+            if (literal != null) {
+                writeWrapped(pending, literal, columns);
+                return;
+            }
+            flush(ops);
+            ops.add((context, out) -> {
+                StringBuilder sb = context.text;
+                sb.setLength(0);
+                for (Value part : parts) part.appendTo(context, sb);
+                writeWrapped(out, sb, columns);
+            });
+        }
+
+        private void style(String argument) throws TemplateException {
+            int align = EscPosBuffer.ALIGN_LEFT;
+            boolean bold = false;
+            int newSize = 1;
+            for (String word : argument.isEmpty() ? new String[0] : argument.split("\\s+")) {
+                switch (word) {
+                    case "left": align = EscPosBuffer.ALIGN_LEFT; break;
+                    case "center": align = EscPosBuffer.ALIGN_CENTER; break;
+                    case "right": align = EscPosBuffer.ALIGN_RIGHT; break;
+                    case "bold": bold = true; break;
+                    case "x1": newSize = 1; break;
+                    case "x2": newSize = 2; break;
+                    case "x3": newSize = 3; break;
+                    default: throw error("未知的样式 " + word);
+                }
+            }
+            size = newSize;
+            pending.align(align).bold(bold).size(size, size);
+        }
+
+        private void rule(String argument) throws TemplateException {
+            String[] words = argument.isEmpty() ? new String[0] : argument.split("\\s+");
+            String mark = words.length > 0 ? words[0] : "-";
+            if (mark.codePointCount(0, mark.length()) != 1) throw error("分隔线只能用一个字符");
+            int markWidth = TicketRenderer.displayWidth(mark);
+            int count = words.length > 1 ? number(words[1], 1, 255) : columns() / markWidth;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < count; i++) sb.append(mark);
+            pending.text(sb).newline();
+        }
+
+        private Op row(Scope scope, String argument) throws TemplateException {
+            String[] specs = argument.split("\\|", -1);
+            Cell[] cells = new Cell[specs.length];
+            int fixed = specs.length - 1;
+            int star = -1;
+            for (int i = 0; i < specs.length; i++) {
+                String spec = specs[i].trim();
+                int p = 0;
+                while (p < spec.length() && (Character.isDigit(spec.charAt(p)) || spec.charAt(p) == '*')) p++;
+                if (p == 0 || p >= spec.length()) throw error("列格式应为 宽度+对齐 内容，例如 20< {name}");
+                Cell cell = new Cell();
+                String widthText = spec.substring(0, p);
+                if (widthText.equals("*")) {
+                    if (star >= 0) throw error("只能有一列宽度为 *");
+                    star = i;
+                } else {
+                    cell.width = number(widthText, 1, 255);
+                    fixed += cell.width;
+                }
+                switch (spec.charAt(p)) {
+                    case '<': cell.align = EscPosBuffer.ALIGN_LEFT; break;
+                    case '^': cell.align = EscPosBuffer.ALIGN_CENTER; break;
+                    case '>': cell.align = EscPosBuffer.ALIGN_RIGHT; break;
+                    default: throw error("未知的对齐方式 " + spec.charAt(p));
+                }
+                p++;
+                if (p < spec.length() && spec.charAt(p) == '~') {
+                    cell.wrap = true;
+                    p++;
+                }
+                // 对齐符号后的一个空格是分隔，之后的空格属于内容
+                if (p < spec.length() && spec.charAt(p) == ' ') p++;
+                cell.parts = parse(scope, spec.substring(p));
+                cells[i] = cell;
+            }
+            if (star >= 0) {
+                cells[star].width = columns() - fixed;
+                if (cells[star].width < 1) throw error("没有剩余宽度给 * 列");
+            }
+            return (context, out) -> writeRow(context, out, cells);
+        }
+
+        private Op condition(Scope scope, String argument, int count) throws TemplateException {
+            boolean negate = argument.startsWith("!");
+            String name = (negate ? argument.substring(1) : argument).trim();
+            if (name.isEmpty()) throw error("#if 缺少字段名");
+            Value value = field(scope, name);
+            int start = index;
+            Op[] then = block(scope, count).toArray(new Op[0]);
+            Op[] otherwise = new Op[0];
+            if ("#else".equals(terminator)) otherwise = block(scope, count).toArray(new Op[0]);
+            if (!"#end".equals(terminator)) throw new TemplateException(start, "#if 缺少 #end");
+            terminator = null;
+            Op[] thenOps = then;
+            Op[] otherwiseOps = otherwise;
+            return (context, out) -> run(value.present(context) != negate ? thenOps : otherwiseOps, context, out);
+        }
+
+        private Op each(Scope scope, String argument, int count) throws TemplateException {
+            int start = index;
+            if (argument.equals("items") && scope == Scope.ORDER) {
+                Op[] body = body(Scope.ITEM, count, start);
+                return (context, out) -> {
+                    int i = 0;
+                    for (OrderTicket.Item item : context.ticket.items) {
+                        context.item = item;
+                        context.itemIndex = ++i;
+                        run(body, context, out);
+                    }
+                    context.item = null;
+                };
+            }
+            if (argument.equals("options") && scope == Scope.ITEM) {
+                Op[] body = body(Scope.OPTION, count, start);
+                return (context, out) -> {
+                    for (OrderTicket.Option option : context.item.options) {
+                        context.option = option;
+                        run(body, context, out);
+                    }
+                    context.option = null;
+                };
+            }
+            throw error("#each 只能用于订单中的 items 或商品中的 options");
+        }
+
+        private Op[] body(Scope scope, int count, int start) throws TemplateException {
+            Op[] body = block(scope, count).toArray(new Op[0]);
+            if (!"#end".equals(terminator)) throw new TemplateException(start, "#each 缺少 #end");
+            terminator = null;
+            return body;
+        }
+
+        private void qr(List<Op> ops, Scope scope, String argument) throws TemplateException {
+            int moduleSize = DEFAULT_QR_SIZE;
+            String[] words = argument.split("\\s+", 2);
+            if (words.length == 2 && words[0].matches("\\d+")) {
+                moduleSize = number(words[0], 1, 16);
+                argument = words[1];
+            }
+            Value[] parts = parse(scope, argument);
+            String literal = literal(parts);
+            if (literal != null) {
+                if (!literal.isEmpty()) pending.qrCode(literal, moduleSize);
+                return;
+            }
+            flush(ops);
+            int size = moduleSize;
+            ops.add((context, out) -> {
+                StringBuilder sb = context.text;
+                sb.setLength(0);
+                for (Value part : parts) part.appendTo(context, sb);
+                if (sb.length() > 0) out.qrCode(sb.toString(), size);
+            });
+        }
+
+        private int number(String text, int min, int max) throws TemplateException {
+            try {
+                int value = Integer.parseInt(text.trim());
+                if (value >= min && value <= max) return value;
+            } catch (NumberFormatException ignored) {
+                // 下面统一报错
+            }
+            throw error("应为 " + min + "-" + max + " 的整数: " + text);
+        }
+
+        /** 把一行文本拆成固定文字和字段 */
+        private Value[] parse(Scope scope, String line) throws TemplateException {
+            List<Value> parts = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '{' && i + 1 < line.length() && line.charAt(i + 1) == '{') {
+                    literal.append('{');
+                    i++;
+                } else if (c == '}' && i + 1 < line.length() && line.charAt(i + 1) == '}') {
+                    literal.append('}');
+                    i++;
+                } else if (c == '{') {
+                    int end = line.indexOf('}', i);
+                    if (end < 0) throw error("缺少 }");
+                    String name = line.substring(i + 1, end).trim();
+                    if (name.isEmpty()) throw error("空的字段名");
+                    if (literal.length() > 0) {
+                        parts.add(constant(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    parts.add(field(scope, name));
+                    i = end;
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0 || parts.isEmpty()) parts.add(constant(literal.toString()));
+            return parts.toArray(new Value[0]);
+        }
+
+        /** 全部是固定文字时返回合并后的文字，否则返回 null */
+        private static String literal(Value[] parts) {
+            StringBuilder sb = new StringBuilder();
+            for (Value part : parts) {
+                if (!(part instanceof Constant)) return null;
+                sb.append(((Constant) part).text);
+            }
+            return sb.toString();
+        }
+    }
+
+    // ---- 字段 ----
+
+    private static final class Constant implements Value {
+        final String text;
+
+        Constant(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void appendTo(Context context, StringBuilder sb) {
+            sb.append(text);
+        }
+
+        @Override
+        public boolean present(Context context) {
+            return !text.isEmpty();
+        }
+    }
+
+    private static Value constant(String text) {
+        return new Constant(text);
+    }
+
+    /** 在编译时把字段名解析成取值函数，内层没有的字段到外层查找 */
+    private static Value field(Scope scope, String name) {
+        if (scope == Scope.OPTION) {
+            switch (name) {
+                case "name": return text(c -> c.option.name);
+                case "value": return text(c -> c.option.value);
+                case "price": return money(c -> c.option.price);
+                default: break;
+            }
+        }
+        if (scope != Scope.ORDER) {
+            switch (name) {
+                case "index": return integer(c -> c.itemIndex);
+                case "name": return text(c -> c.item.name);
+                case "quantity": return integer(c -> c.item.quantity);
+                case "price": return money(c -> c.item.price);
+                case "category": return text(c -> c.item.category);
+                default: break;
+            }
+        }
+        switch (name) {
+            case "shopName": return text(c -> c.ticket.shopName);
+            case "orderId": return text(c -> c.ticket.orderId);
+            case "orderTime": return text(c -> c.ticket.orderTime);
+            case "pickupMethod": return text(c -> c.ticket.pickupMethod);
+            case "tableNumber": return text(c -> c.ticket.tableNumber);
+            case "total": return money(Context::total);
+            default: return text(c -> c.ticket.fields.get(name));
+        }
+    }
+
+    private static Value text(Function<Context, String> getter) {
+        return new Value() {
+            @Override
+            public void appendTo(Context context, StringBuilder sb) {
+                String value = getter.apply(context);
+                if (value != null) sb.append(value);
+            }
+
+            @Override
+            public boolean present(Context context) {
+                String value = getter.apply(context);
+                return value != null && !value.isEmpty();
+            }
+        };
+    }
+
+    private static Value money(ToDoubleFunction<Context> getter) {
+        return new Value() {
+            @Override
+            public void appendTo(Context context, StringBuilder sb) {
+                TicketRenderer.appendPrice(sb, getter.applyAsDouble(context));
+            }
+
+            @Override
+            public boolean present(Context context) {
+                return getter.applyAsDouble(context) != 0;
+            }
+        };
+    }
+
+    private static Value integer(ToIntFunction<Context> getter) {
+        return new Value() {
+            @Override
+            public void appendTo(Context context, StringBuilder sb) {
+                sb.append(getter.applyAsInt(context));
+            }
+
+            @Override
+            public boolean present(Context context) {
+                return getter.applyAsInt(context) != 0;
+            }
+        };
+    }
+
+    // ---- 排版 ----
+
+    /** 按 columns 列换行输出，空文本输出一个空行 */
+    private static void writeWrapped(EscPosBuffer out, CharSequence text, int columns) {
+        int start = 0;
+        int length = text.length();
+        while (true) {
+            int end = lineEnd(text, start, columns);
+            out.text(text, start, end).newline();
+            start = skipBreak(text, end);
+            if (start >= length) return;
+        }
+    }
+
+    /** 从 start 开始一行能放下的结束位置；在空格或换行符处结束时不包含它们 */
+    private static int lineEnd(CharSequence text, int start, int columns) {
+        int used = 0;
+        int lastSpace = -1;
+        int i = start;
+        while (i < text.length()) {
+            int codePoint = Character.codePointAt(text, i);
+            if (codePoint == '\n') return i;
+            int w = TicketRenderer.charWidth(codePoint);
+            if (used + w > columns) break;
+            if (codePoint == ' ') lastSpace = i;
+            used += w;
+            i += Character.charCount(codePoint);
+        }
+        if (i >= text.length() || text.charAt(i) == ' ') return i;
+        if (lastSpace > start) return lastSpace;
+        // 一个字符都放不下时也至少输出一个
+        return i > start ? i : i + Character.charCount(Character.codePointAt(text, i));
+    }
+
+    /** 跳过换行处的一个换行符或若干空格 */
+    private static int skipBreak(CharSequence text, int end) {
+        if (end < text.length() && text.charAt(end) == '\n') return end + 1;
+        while (end < text.length() && text.charAt(end) == ' ') end++;
+        return end;
+    }
+
+    private static void writeRow(Context context, EscPosBuffer out, Cell[] cells) {
+        String[] values = new String[cells.length];
+        int[] positions = new int[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            StringBuilder sb = context.text;
+            sb.setLength(0);
+            for (Value part : cells[i].parts) part.appendTo(context, sb);
+            values[i] = cells[i].wrap ? sb.toString() : TicketRenderer.truncate(sb.toString(), cells[i].width);
+        }
+        StringBuilder row = context.row;
+        boolean more = true;
+        for (boolean first = true; more; first = false) {
+            row.setLength(0);
+            more = false;
+            for (int i = 0; i < cells.length; i++) {
+                Cell cell = cells[i];
+                if (i > 0) row.append(' ');
+                String value = values[i];
+                int start = positions[i];
+                int end;
+                if (cell.wrap) {
+                    end = lineEnd(value, start, cell.width);
+                    positions[i] = skipBreak(value, end);
+                    if (positions[i] < value.length()) more = true;
+                } else {
+                    end = first ? value.length() : start;
+                    positions[i] = value.length();
+                }
+                pad(row, value, start, end, cell.width, cell.align);
+            }
+            int trimmed = row.length();
+            while (trimmed > 0 && row.charAt(trimmed - 1) == ' ') trimmed--;
+            out.text(row, 0, trimmed).newline();
+        }
+    }
+
+    private static void pad(StringBuilder row, String value, int start, int end, int width, int align) {
+        int space = width - TicketRenderer.displayWidth(value, start, end);
+        int left = align == EscPosBuffer.ALIGN_RIGHT ? space : align == EscPosBuffer.ALIGN_CENTER ? space / 2 : 0;
+        for (int i = 0; i < left; i++) row.append(' ');
+        row.append(value, start, end);
+        for (int i = left; i < space; i++) row.append(' ');
+    }
+}
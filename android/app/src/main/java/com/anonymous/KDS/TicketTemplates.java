@@ -0,0 +1,203 @@
+package com.anonymous.KDS;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import android.util.Log;
+
+/**
+ * 小票模板的加载与缓存。
+ *
+ * 按名称查找：已编译的缓存 → 运行时保存的模板文件（目录下的 名称.tpl）→ 内置模板。
+ * 模板只在第一次使用或保存时编译一次，之后一直使用缓存的排版计划。
+ * 运行时保存的同名模板覆盖内置模板，删除后恢复内置模板。
+ */
+final class TicketTemplates {
+
+    private static final String TAG = "TicketTemplates";
+
+    static final String KITCHEN = "kitchen";
+    static final String RECEIPT = "receipt";
+    private static final String EXTENSION = ".tpl";
+
+    // 厨房小票（原来 printOrder 的版式）
+    private static final String KITCHEN_SOURCE = String.join("\n",
+        "#if shopName",
+        "#style center bold x2",
+        "{shopName}",
+        "#end",
+        "#style left",
+        "订单号: {orderId}",
+        "下单时间: {orderTime}",
+        "取餐方式: {pickupMethod}",
+        "#if tableNumber",
+        "桌号: {tableNumber}",
+        "#end",
+        "#style center",
+        "#rule - 32",
+        "#style left bold",
+        "商品                  数量     价格",
+        "#style center",
+        "#rule - 32",
+        "#style left",
+        "#each items",
+        "#row 20< {name} | 3> {quantity} | 8> {price}",
+        "#each options",
+        "#if price",
+        "  - {name}: {value} (+{price})",
+        "#else",
+        "  - {name}: {value}",
+        "#end",
+        "#end",
+        "#end",
+        "#style center",
+        "#rule - 32",
+        "#style right bold",
+        "合计: {total}元",
+        "",
+        "#style center",
+        "谢谢惠顾，欢迎再次光临!",
+        "#feed 5",
+        "#cut");
+
+    // 顾客收据（原来注释掉的 PrintReceipt 的版式），abn、tel、address、customerName、qrLink 由 JS 传入
+    private static final String RECEIPT_SOURCE = String.join("\n",
+        "#style center bold x2",
+        "{shopName}",
+        "#style center bold",
+        "{pickupMethod}",
+        "#if tableNumber",
+        "#style center bold x2",
+        "{tableNumber}",
+        "#end",
+        "#feed 1",
+        "#style center",
+        "#if customerName",
+        "NAME : {customerName}",
+        "#end",
+        "ORDER ID : {orderId}",
+        "#if abn",
+        "ABN : {abn}",
+        "#end",
+        "#if tel",
+        "TEL : {tel}",
+        "#end",
+        "#if address",
+        "{address}",
+        "#end",
+        "#feed 1",
+        "#rule -",
+        "TAX INVOICE",
+        "#rule -",
+        "#style left",
+        "#row *< Item | 9> Qty | 9> Price",
+        "#each items",
+        "#row *<~ {index}. {name} | 9> {quantity} | 9> ${price}",
+        "#each options",
+        "#if price",
+        "#row *<~   + {name}: {value} | 9> | 9> ${price}",
+        "#else",
+        "#row *<~   + {name}: {value} | 9> | 9>",
+        "#end",
+        "#end",
+        "#end",
+        "#style center",
+        "#rule -",
+        "#style left bold",
+        "Grand Total : ${total}",
+        "#if qrLink",
+        "#feed 2",
+        "#style center",
+        "#qr {qrLink}",
+        "#feed 2",
+        "Scan QR to view digital receipt",
+        "#end",
+        "#style center",
+        "Thank you for your purchase!",
+        "#feed 5",
+        "#cut");
+
+    private final File directory;
+    private final ConcurrentHashMap<String, TicketTemplate> cache = new ConcurrentHashMap<>();
+
+    TicketTemplates(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 取得编译好的模板。
+     * @throws FileNotFoundException 没有这个名称的模板
+     * @throws TicketTemplate.TemplateException 保存的模板文件无法编译
+     */
+    TicketTemplate get(String name) throws IOException, TicketTemplate.TemplateException {
+        TicketTemplate template = cache.get(name);
+        if (template != null) return template;
+        checkName(name);
+        String source = read(file(name));
+        if (source == null) source = builtIn(name);
+        if (source == null) throw new FileNotFoundException("模板不存在: " + name);
+        template = TicketTemplate.compile(source);
+        TicketTemplate previous = cache.putIfAbsent(name, template);
+        return previous != null ? previous : template;
+    }
+
+    /**
+     * 编译并保存模板。编译失败时不保存，原来的模板不变。
+     */
+    void save(String name, String source) throws IOException, TicketTemplate.TemplateException {
+        checkName(name);
+        TicketTemplate template = TicketTemplate.compile(source);
+        if (!directory.exists() && !directory.mkdirs()) throw new IOException("无法创建目录: " + directory);
+        File file = file(name);
+        File temp = new File(directory, name + EXTENSION + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(source.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) throw new IOException("无法保存模板: " + file);
+        cache.put(name, template);
+        Log.d(TAG, "模板已保存: " + name);
+    }
+
+    /** 删除保存的模板，返回是否存在；同名的内置模板重新生效 */
+    boolean remove(String name) {
+        checkName(name);
+        boolean existed = file(name).delete();
+        cache.remove(name);
+        return existed;
+    }
+
+    private File file(String name) {
+        return new File(directory, name + EXTENSION);
+    }
+
+    private static String builtIn(String name) {
+        switch (name) {
+            case KITCHEN: return KITCHEN_SOURCE;
+            case RECEIPT: return RECEIPT_SOURCE;
+            default: return null;
+        }
+    }
+
+    private static void checkName(String name) {
+        if (name == null || !name.matches("[A-Za-z0-9_-]{1,64}")) {
+            throw new IllegalArgumentException("模板名称只能包含字母、数字、- 和 _: " + name);
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        if (!file.exists()) return null;
+        try (FileInputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
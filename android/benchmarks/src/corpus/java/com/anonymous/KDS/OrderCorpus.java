@@ -0,0 +1,167 @@
+package com.anonymous.KDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 基准测试和压测用的订单语料：按高峰期的订单构成生成 POS 发来的订单 JSON，固定随机种子，每次运行内容相同。
+ *
+ * 默认（peak）60% 小单（1-3 个商品）、30% 普通单（4-8 个）、10% 团餐（20-40 个）；
+ * 商品来自饮料、热食、冷食、甜品四个分类，中英文名称混合，部分商品带规格、甜度、加料等选项。
+ */
+final class OrderCorpus {
+
+    static final int DEFAULT_SIZE = 512;
+    private static final long SEED = 20240601L;
+
+    private static final String[][] MENU = {
+        // 名称, 分类, 价格
+        { "Mountain Dew", "Drinks", "3.99" },
+        { "Iced Lemon Tea", "Drinks", "4.50" },
+        { "珍珠奶茶", "Drinks", "6.80" },
+        { "Flat White", "drinks", "5.20" },
+        { "Mango Smoothie", "Drinks", "7.00" },
+        { "Hamburger", "hot_food", "5.99" },
+        { "Double Cheeseburger", "hot_food", "9.49" },
+        { "宫保鸡丁饭", "hot_food", "12.80" },
+        { "Beef Pho (Large)", "hot_food", "14.50" },
+        { "Crispy Chicken Wings x6", "hot_food", "8.90" },
+        { "Caesar Salad", "cold_food", "8.50" },
+        { "三文鱼寿司拼盘", "cold_food", "18.00" },
+        { "Chicken Wrap", "cold_food", "7.40" },
+        { "Ice Cream", "dessert", "2.99" },
+        { "芒果布丁", "dessert", "4.20" },
+        { "Chocolate Lava Cake", "dessert", "6.50" },
+    };
+
+    private static final String[][] OPTIONS = {
+        { "size", "Large", "1.5" },
+        { "size", "Small", "0" },
+        { "甜度", "半糖", "0" },
+        { "ice", "Less ice", "0" },
+        { "extra", "Cheese", "1" },
+        { "extra", "Bacon", "2.5" },
+        { "辣度", "微辣", "0" },
+        { "note", "No onion, sauce on the side", "0" },
+    };
+
+    private static final String[] PICKUP = { "Dine In", "Takeaway", "Delivery", "Uber Eats", "自取" };
+
+    private OrderCorpus() {
+    }
+
+    static List<String> orders() {
+        return orders(DEFAULT_SIZE);
+    }
+
+    static List<String> orders(int count) {
+        Random random = new Random(SEED);
+        List<String> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) orders.add(order(random, i));
+        return orders;
+    }
+
+    /** 解析好的订单，供路由和小票排版使用 */
+    static List<Order> parsed(List<String> json) {
+        List<Order> orders = new ArrayList<>(json.size());
+        OrderParser parser = new OrderParser();
+        for (String order : json) {
+            try {
+                orders.add(Order.parse(parser, order));
+            } catch (OrderParser.ParseException e) {
+                throw new IllegalStateException("语料中的订单无法解析: " + e.getMessage(), e);
+            }
+        }
+        return orders;
+    }
+
+    /** 与 printOrder 从 FormattedOrder 复制出来的小票相同的数据 */
+    static OrderTicket ticket(Order order) {
+        OrderTicket ticket = new OrderTicket();
+        ticket.shopName = "Kitchen Hub";
+        ticket.orderId = order.displayId();
+        ticket.orderTime = order.orderTime;
+        ticket.pickupMethod = order.pickupMethod;
+        ticket.tableNumber = order.tableNumber;
+        for (Order.Item source : order.items) {
+            OrderTicket.Item item = new OrderTicket.Item();
+            item.name = source.name;
+            item.quantity = source.quantity;
+            item.price = source.price;
+            item.category = source.category;
+            for (Order.Option sourceOption : source.options) {
+                OrderTicket.Option option = new OrderTicket.Option();
+                option.name = sourceOption.name;
+                option.value = sourceOption.value;
+                option.price = sourceOption.price;
+                item.options.add(option);
+            }
+            ticket.items.add(item);
+        }
+        return ticket;
+    }
+
+    private static String order(Random random, int index) {
+        return order(random, index, items(random, "peak"));
+    }
+
+    /**
+     * 按分布取一个订单的商品数：peak 为高峰期构成，small 只有小单，group 只有团餐，数字为固定商品数。
+     */
+    static int items(Random random, String mix) {
+        switch (mix) {
+            case "peak":
+                double kind = random.nextDouble();
+                return kind < 0.6 ? 1 + random.nextInt(3) : kind < 0.9 ? 4 + random.nextInt(5) : 20 + random.nextInt(21);
+            case "small":
+                return 1 + random.nextInt(3);
+            case "group":
+                return 20 + random.nextInt(21);
+            default:
+                return Math.max(1, Integer.parseInt(mix));
+        }
+    }
+
+    /** 订单号为 "pos-" + (1000000 + index) 的一个订单 JSON（单行） */
+    static String order(Random random, int index, int items) {
+        long placedAt = 1717200000000L + index * 7000L;
+        StringBuilder sb = new StringBuilder(256 + items * 160);
+        sb.append("{\"id\":\"pos-").append(1000000 + index).append('"');
+        sb.append(",\"order_num\":").append(100 + index % 900);
+        sb.append(",\"orderTime\":\"").append(isoTime(placedAt)).append('"');
+        sb.append(",\"pickupTime\":\"").append(isoTime(placedAt + 15 * 60000L)).append('"');
+        String pickup = PICKUP[random.nextInt(PICKUP.length)];
+        sb.append(",\"pickupMethod\":\"").append(pickup).append('"');
+        if (pickup.equals("Dine In")) sb.append(",\"tableNumber\":\"T").append(1 + random.nextInt(40)).append('"');
+        sb.append(",\"source\":\"pos\",\"products\":[");
+        for (int i = 0; i < items; i++) {
+            String[] dish = MENU[random.nextInt(MENU.length)];
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":\"p").append(random.nextInt(200)).append('"');
+            sb.append(",\"name\":").append(Order.quote(dish[0]));
+            sb.append(",\"category\":\"").append(dish[1]).append('"');
+            sb.append(",\"quantity\":").append(random.nextDouble() < 0.8 ? 1 : 2 + random.nextInt(3));
+            sb.append(",\"price\":").append(dish[2]);
+            sb.append(",\"prepare_time\":").append(2 + random.nextInt(12));
+            sb.append(",\"options\":[");
+            int options = random.nextDouble() < 0.5 ? 0 : 1 + random.nextInt(3);
+            for (int j = 0; j < options; j++) {
+                String[] option = OPTIONS[random.nextInt(OPTIONS.length)];
+                if (j > 0) sb.append(',');
+                sb.append("{\"name\":").append(Order.quote(option[0]));
+                sb.append(",\"value\":").append(Order.quote(option[1]));
+                sb.append(",\"price\":").append(option[2]).append('}');
+            }
+            sb.append("]}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static String isoTime(long millis) {
+        long seconds = millis / 1000;
+        return String.format(Locale.ROOT, "2024-06-01T%02d:%02d:%02d.%03dZ",
+            (seconds / 3600) % 24, (seconds / 60) % 60, seconds % 60, millis % 1000);
+    }
+}
@@ -0,0 +1,70 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 去重：OrderDedup.admit，容量和时间窗口与 OrderHandlerModule 相同。
+ * admitNew 的订单号循环使用，间隔超过容量，每次都是新订单（满了之后每次还要淘汰一条）；
+ * admitDuplicate 为 POS 重发同一个订单。两者都包括写入去重文件。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DedupBenchmark {
+
+    private static final int CAPACITY = 8192;
+    private static final long WINDOW_MS = 12 * 60 * 60 * 1000L;
+    private static final int IDS = CAPACITY * 8;
+
+    private File file;
+    private OrderDedup dedup;
+    private String[] ids;
+    private List<String> contents;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = File.createTempFile("kds-dedup", ".bin");
+        dedup = OrderDedup.open(file, CAPACITY, WINDOW_MS);
+        contents = OrderCorpus.orders();
+        ids = new String[IDS];
+        for (int i = 0; i < IDS; i++) ids[i] = "pos-" + (1000000 + i);
+        dedup.admit("retransmitted", contents.get(0), System.currentTimeMillis());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dedup.close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public OrderDedup.Result admitNew() {
+        int i = next++ % IDS;
+        return dedup.admit(ids[i], contents.get(i % contents.size()), System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public OrderDedup.Result admitDuplicate() {
+        return dedup.admit("retransmitted", contents.get(0), System.currentTimeMillis());
+    }
+}
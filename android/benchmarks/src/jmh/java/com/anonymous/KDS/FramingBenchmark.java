@@ -0,0 +1,81 @@
+package com.anonymous.KDS;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 分帧：把整个语料按连接上收到的字节流（每次 read 最多 segment 字节）交给解析器，分数为每个订单的耗时。
+ * lines 为 "SEQ n" + 订单 + "end" 的文本协议，binary 为 MAGIC_V2 二进制帧，http 为 keep-alive 的 POST /orders。
+ * 一次调用解码整个语料（@OperationsPerInvocation），gc.alloc.rate.norm（jmh 任务总是带 -prof gc）为每个订单分配的字节数。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramingBenchmark {
+
+    @Param({ "lines", "binary", "http" })
+    public String protocol;
+
+    // 一次 read 得到的字节数：一个 TCP 段，或者 OrderServer 的读缓冲区大小
+    @Param({ "1460", "8192" })
+    public int segment;
+
+    private byte[] stream;
+
+    @Setup
+    public void setup() {
+        List<String> orders = OrderCorpus.orders();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < orders.size(); i++) {
+            byte[] frame;
+            if ("binary".equals(protocol)) {
+                frame = OrderFrameDecoder.encodeBinary(i + 1, orders.get(i));
+            } else if ("http".equals(protocol)) {
+                byte[] body = orders.get(i).getBytes(StandardCharsets.UTF_8);
+                frame = ("POST /orders HTTP/1.1\r\nHost: kds.local:4323\r\nContent-Type: application/json\r\n"
+                    + "Content-Length: " + body.length + "\r\n\r\n" + orders.get(i)).getBytes(StandardCharsets.UTF_8);
+            } else {
+                frame = ("SEQ " + (i + 1) + "\n" + orders.get(i) + "\nend\n").getBytes(StandardCharsets.UTF_8);
+            }
+            out.write(frame, 0, frame.length);
+        }
+        stream = out.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OrderCorpus.DEFAULT_SIZE)
+    public void decode(Blackhole blackhole) throws Exception {
+        boolean http = "http".equals(protocol);
+        OrderFrameDecoder orders = http ? null : new OrderFrameDecoder();
+        HttpFrameDecoder requests = http ? new HttpFrameDecoder() : null;
+        for (int offset = 0; offset < stream.length; offset += segment) {
+            ByteBuffer buffer = ByteBuffer.wrap(stream, offset, Math.min(segment, stream.length - offset));
+            if (http) {
+                HttpFrameDecoder.Request request;
+                while ((request = requests.decodeRequest(buffer)) != null) blackhole.consume(request.body);
+            } else {
+                byte[] frame;
+                while ((frame = orders.decode(buffer)) != null) blackhole.consume(frame);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 订单日志：每秒能确认多少个订单。每次操作追加一个订单并等到回调（已 fsync），之后立即出餐，
+ * 进行中的订单数量不增长，日志按正常节奏压缩。
+ * 单个连接时每个订单独占一次 fsync；多个连接同时写入时组提交让一次 fsync 确认多个订单。
+ * appendRecord 只写文件不落盘，是 fsync 之外的开销（编码、CRC、写入）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+
+    private File journalFile;
+    private File recordFile;
+    private OrderJournal journal;
+    private RecordLog records;
+    private List<String> contents;
+    private final AtomicLong next = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        journalFile = File.createTempFile("kds-journal", ".log");
+        recordFile = File.createTempFile("kds-records", ".log");
+        journal = OrderJournal.open(journalFile);
+        records = RecordLog.open(recordFile, (type, fields) -> true);
+        contents = OrderCorpus.orders();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        records.close();
+        Files.deleteIfExists(journalFile.toPath());
+        Files.deleteIfExists(recordFile.toPath());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void appendDurable() throws Exception {
+        appendAndBump();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void appendDurableConcurrent() throws Exception {
+        appendAndBump();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int appendRecord() throws IOException {
+        long i = next.getAndIncrement();
+        synchronized (records) {
+            // 不压缩，文件太大时清空
+            if (records.size() > 64L * 1024 * 1024) records.compact(target -> { });
+            return records.append((byte) 1, "pos-" + i, contents.get((int) (i % contents.size())));
+        }
+    }
+
+    private void appendAndBump() throws Exception {
+        long i = next.getAndIncrement();
+        String orderId = "pos-" + i;
+        CompletableFuture<IOException> durable = new CompletableFuture<>();
+        journal.append(orderId, contents.get((int) (i % contents.size())), durable::complete);
+        IOException error = durable.get();
+        if (error != null) throw error;
+        journal.bump(orderId);
+    }
+}
@@ -0,0 +1,107 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 订单存储：已有 orders 个订单时改动一个订单的耗时。
+ * upsert 替换一个订单，updateStatus 只改状态，removeAndUpsert 删除一个订单再加回来（订单数不变）；
+ * rewriteAll 是改动之前 JS 的做法：每次改动把整个订单数组拼成一个 JSON 重新写入文件
+ * （只包括拼接和写入，不包括 JS 的 JSON.stringify，是原做法耗时的下限）。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderStoreBenchmark {
+
+    private static final String[] STATUSES = { "pending", "in_progress", "completed" };
+
+    @Param({ "50", "500", "5000" })
+    public int orders;
+
+    private File storeFile;
+    private File arrayFile;
+    private OrderStore store;
+    private List<String> contents;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        storeFile = File.createTempFile("kds-store", ".log");
+        arrayFile = File.createTempFile("kds-orders", ".json");
+        contents = OrderCorpus.orders(orders);
+        store = OrderStore.open(storeFile);
+        for (int i = 0; i < orders; i++) store.upsert(id(i), contents.get(i));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        Files.deleteIfExists(storeFile.toPath());
+        Files.deleteIfExists(arrayFile.toPath());
+    }
+
+    @Benchmark
+    public void upsert() throws Exception {
+        int i = next();
+        store.upsert(id(i), contents.get(i));
+    }
+
+    @Benchmark
+    public boolean updateStatus() throws IOException {
+        int i = next();
+        return store.updateStatus(id(i), STATUSES[i % STATUSES.length]);
+    }
+
+    @Benchmark
+    public void removeAndUpsert() throws Exception {
+        int i = next();
+        store.remove(id(i));
+        store.upsert(id(i), contents.get(i));
+    }
+
+    @Benchmark
+    public void rewriteAll() throws IOException {
+        next();
+        StringBuilder json = new StringBuilder().append('[');
+        for (int i = 0; i < orders; i++) {
+            if (i > 0) json.append(',');
+            json.append(contents.get(i));
+        }
+        json.append(']');
+        try (FileOutputStream out = new FileOutputStream(arrayFile)) {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private int next() {
+        int i = next;
+        next = (next + 1) % orders;
+        return i;
+    }
+
+    private static String id(int i) {
+        return "order-" + i;
+    }
+}
@@ -0,0 +1,63 @@
+package com.anonymous.KDS;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 解析：AddOrder 里的 ParseOrder（每个订单一个新的解析器），
+ * HTTP 批量请求的 splitArray，以及复制给子 KDS 时生成的 FormattedOrder JSON。分数为每个订单的耗时。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+
+    private List<String> json;
+    private List<Order> orders;
+    private String batch;
+
+    @Setup
+    public void setup() {
+        json = OrderCorpus.orders();
+        orders = OrderCorpus.parsed(json);
+        batch = "[" + String.join(",\n", json) + "]";
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OrderCorpus.DEFAULT_SIZE)
+    public void parseOrder(Blackhole blackhole) throws OrderParser.ParseException {
+        for (int i = 0; i < json.size(); i++) {
+            blackhole.consume(Order.parse(new OrderParser(), json.get(i)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OrderCorpus.DEFAULT_SIZE)
+    public List<String> splitBatch() throws OrderParser.ParseException {
+        return new OrderParser().splitArray(batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OrderCorpus.DEFAULT_SIZE)
+    public void formattedJson(Blackhole blackhole) {
+        for (int i = 0; i < orders.size(); i++) {
+            Order order = orders.get(i);
+            blackhole.consume(order.toJson(null, order.items, null));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.anonymous.KDS;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 路由：主 KDS 按子 KDS 的分类拆分订单（CategoryRouter.route），分数为每个订单的耗时。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+    // 子 KDS 的分类，用 "|" 分隔
+    @Param({ "Drinks", "Drinks|hot_food|dessert", "Drinks|hot_food|cold_food|dessert|bar" })
+    public String subCategories;
+
+    private List<Order> orders;
+    private CategoryRouter router;
+
+    @Setup
+    public void setup() {
+        orders = OrderCorpus.parsed(OrderCorpus.orders());
+        router = new CategoryRouter(Arrays.asList(subCategories.split("\\|")));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OrderCorpus.DEFAULT_SIZE)
+    public void route(Blackhole blackhole) {
+        for (int i = 0; i < orders.size(); i++) {
+            Order order = orders.get(i);
+            blackhole.consume(router.route(order, order.displayId()));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.anonymous.KDS;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 本机上的真实 OrderServer：一个 POS 每秒能确认多少个订单。每次操作发送一个订单并等到确认。
+ * session 在同一个连接上发送会话帧（MAGIC_V2 + 序号），等待 "ACK n"；
+ * connection 是旧协议，每个订单一个新连接（MAGIC_V1 帧），等待 "ok"、"OK" 后关闭。
+ * 服务器不写订单日志，分数只包含连接、分帧、解析和回复，不包含 fsync。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class SessionBenchmark {
+
+    private static final int READ_TIMEOUT_MS = 5000;
+
+    @Param({ "session", "connection" })
+    public String mode;
+
+    private final AdmissionControl admission = new AdmissionControl();
+    private OrderHandlerModule module;
+    private OrderServer server;
+    private int port;
+    private List<String> orders;
+    private long next;
+    private Socket session;
+    private OutputStream sessionOut;
+    private BufferedReader sessionIn;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        orders = OrderCorpus.orders();
+        module = new OrderHandlerModule(null);
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        server = new OrderServer(admission, null, port);
+        server.startServer(module);
+        long deadline = System.currentTimeMillis() + READ_TIMEOUT_MS;
+        while (session == null) {
+            try {
+                session = open();
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(10);
+            }
+        }
+        sessionOut = session.getOutputStream();
+        sessionIn = reader(session);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        session.close();
+        server.stopServer();
+        module.close();
+    }
+
+    @Benchmark
+    public void order() throws IOException {
+        long i = next++;
+        String order = orders.get((int) (i % orders.size()));
+        if ("session".equals(mode)) {
+            sessionOut.write(OrderFrameDecoder.encodeBinary(i, order));
+            sessionOut.flush();
+            expect(sessionIn, "ACK " + i);
+            return;
+        }
+        try (Socket socket = open()) {
+            socket.getOutputStream().write(OrderFrameDecoder.encodeBinary(order));
+            BufferedReader in = reader(socket);
+            expect(in, "ok");
+            expect(in, "OK");
+            // 以 RST 关闭，本机压测时不积累 TIME_WAIT 占满临时端口
+            socket.setSoLinger(true, 0);
+        }
+    }
+
+    private Socket open() throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(READ_TIMEOUT_MS);
+        return socket;
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void expect(BufferedReader in, String expected) throws IOException {
+        String reply = in.readLine();
+        if (!expected.equals(reply)) throw new IOException("期待 \"" + expected + "\"，收到 \"" + reply + "\"");
+    }
+}
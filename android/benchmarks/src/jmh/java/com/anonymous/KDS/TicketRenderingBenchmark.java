@@ -0,0 +1,65 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 小票排版：printOrder 在打印线程上用内置模板把订单排成 ESC/POS 字节（TicketRenderer.render），
+ * 以及批量重打时把整个语料排进同一个缓冲区。分数为每张小票的耗时。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TicketRenderingBenchmark {
+
+    @Param({ TicketTemplates.KITCHEN, TicketTemplates.RECEIPT })
+    public String template;
+
+    private TicketTemplate compiled;
+    private List<OrderTicket> tickets;
+    private TicketRenderer renderer;
+
+    @Setup
+    public void setup() throws IOException, TicketTemplate.TemplateException {
+        File directory = Files.createTempDirectory("kds-templates").toFile();
+        directory.deleteOnExit();
+        compiled = new TicketTemplates(directory).get(template);
+        tickets = new ArrayList<>();
+        for (Order order : OrderCorpus.parsed(OrderCorpus.orders())) tickets.add(OrderCorpus.ticket(order));
+        renderer = new TicketRenderer();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OrderCorpus.DEFAULT_SIZE)
+    public void render(Blackhole blackhole) {
+        for (int i = 0; i < tickets.size(); i++) blackhole.consume(renderer.render(compiled, tickets.get(i)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OrderCorpus.DEFAULT_SIZE)
+    public byte[] renderBatch() {
+        renderer.begin();
+        for (int i = 0; i < tickets.size(); i++) renderer.append(compiled, tickets.get(i), i == tickets.size() - 1);
+        return renderer.drain();
+    }
+}
@@ -0,0 +1,51 @@
+package com.anonymous.KDS;
+
+import java.util.Random;
+
+/**
+ * 客户端的到达过程，给出下一个订单与上一个订单的间隔。
+ *
+ * poisson：指数分布的间隔，平均每秒 rate 个。
+ * bursty：平均速率相同，但订单成批到达（外卖平台一次推送一批、几台 POS 同时结账）：
+ * 批次之间为指数分布的间隔，一批的大小为几何分布（平均 burstSize 个），同一批内的订单背靠背发送。
+ */
+final class Arrivals {
+
+    private final Random random;
+    private final double ratePerSecond;
+    private final boolean bursty;
+    private final int burstSize;
+    private int remainingInBurst;
+
+    Arrivals(String kind, double ratePerSecond, int burstSize, Random random) {
+        if (!kind.equals("poisson") && !kind.equals("bursty")) {
+            throw new IllegalArgumentException("未知的到达过程: " + kind);
+        }
+        if (ratePerSecond <= 0) throw new IllegalArgumentException("速率必须大于 0");
+        this.random = random;
+        this.ratePerSecond = ratePerSecond;
+        this.bursty = kind.equals("bursty");
+        this.burstSize = Math.max(1, burstSize);
+    }
+
+    long nextGapNanos() {
+        if (!bursty) return exponentialNanos(1 / ratePerSecond);
+        if (remainingInBurst > 0) {
+            remainingInBurst--;
+            return 0;
+        }
+        remainingInBurst = geometric(burstSize) - 1;
+        return exponentialNanos(burstSize / ratePerSecond);
+    }
+
+    private long exponentialNanos(double meanSeconds) {
+        return (long) (-Math.log(1 - random.nextDouble()) * meanSeconds * 1e9);
+    }
+
+    /** 平均值为 mean 的几何分布（最小为 1） */
+    private int geometric(int mean) {
+        if (mean <= 1) return 1;
+        double p = 1.0 / mean;
+        return 1 + (int) (Math.log(1 - random.nextDouble()) / Math.log(1 - p));
+    }
+}
@@ -0,0 +1,380 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 4321 / 4323 端口的压测工具：同时模拟多台 POS 终端和子 KDS，复现周五晚高峰的负载，
+ * 报告每类客户端每秒确认的请求数、确认（ACK / OK / 200）延迟分位数和错误率。
+ * --pos-protocols 中的 http、ws 客户端压测 4323 端口的 OrderHttpServer，其余压测 4321 端口的 OrderServer。
+ *
+ * 默认在本进程内启动 JVM 版的 OrderServer（有 http / ws 客户端时还启动 OrderHttpServer，两者共用准入控制和订单处理阶段；
+ * OrderHandlerModule 为 src/module 下的压测版本，订单真实解析、去重、写日志并 fsync，只是不交给 JS），
+ * 也可以用 --target 压测真机上的 KDS。
+ *
+ *   ../gradlew -p benchmarks loadgen --args="--duration=60 --pos=20 --subs=3 --arrivals=bursty"
+ *
+ * 参数见 usage()。--json 把结果（包括进程内服务器的各阶段延迟）写成 JSON，方便对比两次运行。
+ */
+public final class LoadGenerator {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("target", "");
+        DEFAULTS.put("http-port", String.valueOf(OrderHttpServer.PORT));
+        DEFAULTS.put("duration", "60");
+        DEFAULTS.put("pos", "20");
+        DEFAULTS.put("pos-protocols", "lines,single");
+        DEFAULTS.put("rate", "1");
+        DEFAULTS.put("subs", "3");
+        DEFAULTS.put("sub-rate", "2");
+        DEFAULTS.put("arrivals", "poisson");
+        DEFAULTS.put("burst", "8");
+        DEFAULTS.put("sizes", "peak");
+        DEFAULTS.put("resend", "0.01");
+        DEFAULTS.put("slowloris", "2");
+        DEFAULTS.put("loris-interval", "1000");
+        DEFAULTS.put("disconnect", "2");
+        DEFAULTS.put("disconnect-rate", "0.5");
+        DEFAULTS.put("timeout", "5000");
+        DEFAULTS.put("client-ips", "distinct");
+        DEFAULTS.put("journal", "on");
+        DEFAULTS.put("max-connections", "");
+        DEFAULTS.put("max-in-flight", "");
+        DEFAULTS.put("max-in-flight-per-client", "");
+        DEFAULTS.put("read-timeout", "");
+        DEFAULTS.put("seed", "1");
+        DEFAULTS.put("json", "");
+        DEFAULTS.put("max-error-rate", "");
+    }
+
+    private final Map<String, String> options;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String key = arg.startsWith("--") && eq > 2 ? arg.substring(2, eq) : null;
+            if (key == null || !DEFAULTS.containsKey(key)) {
+                System.err.println("未知参数: " + arg);
+                usage();
+                System.exit(2);
+            }
+            options.put(key, arg.substring(eq + 1));
+        }
+        System.exit(new LoadGenerator(options).run());
+    }
+
+    private static void usage() {
+        System.err.println(String.join("\n",
+            "用法: LoadGenerator [--参数=值 ...]",
+            "  --target=host[:port]     压测已运行的 KDS；为空时在本进程内启动 OrderServer（端口 " + OrderServer.PORT + "）",
+            "  --duration=秒            压测时长",
+            "  --pos=N                  POS 终端数",
+            "  --http-port=端口         http / ws 客户端的目标端口，进程内的 OrderHttpServer 也监听它",
+            "  --pos-protocols=a,b      POS 轮流使用的协议：lines / single / session / binary，http / ws 压测 OrderHttpServer",
+            "  --rate=每秒订单数        每台 POS 的平均速率",
+            "  --subs=N --sub-rate=R    子 KDS 数和每台每秒发给主 KDS 的状态消息数（binary 会话帧）",
+            "  --arrivals=poisson|bursty  到达过程，bursty 时一批平均 --burst=N 个",
+            "  --sizes=peak|small|group|N  订单商品数分布",
+            "  --resend=比例            POS 重发上一个订单的概率",
+            "  --slowloris=N --loris-interval=毫秒  慢速发送半个帧的连接数和发送间隔",
+            "  --disconnect=N --disconnect-rate=R   帧中途断开的客户端数和每台每秒的次数",
+            "  --timeout=毫秒           连接和等待确认的超时",
+            "  --client-ips=distinct|shared  压测本机时每个客户端用不同的回环地址（127.0.x.y，仅 Linux），或都用 127.0.0.1",
+            "  --journal=on|off         进程内服务器是否写订单日志并落盘",
+            "  --max-connections=N --max-in-flight=N --max-in-flight-per-client=N --read-timeout=毫秒",
+            "                           进程内服务器的准入限制，为空时使用默认值",
+            "  --seed=N --json=文件 --max-error-rate=比例（超过时退出码为 1）"));
+    }
+
+    private int run() throws Exception {
+        String target = options.get("target");
+        File directory = null;
+        OrderHandlerModule module = null;
+        OrderServer server = null;
+        OrderHttpServer httpServer = null;
+        OrderStage orderStage = null;
+        InetSocketAddress address;
+        InetSocketAddress httpAddress;
+        String[] protocols = options.get("pos-protocols").split(",");
+        boolean http = false;
+        for (String protocol : protocols) {
+            if (protocol.trim().equals("http") || protocol.trim().equals("ws")) http = true;
+        }
+        if (target.isEmpty()) {
+            if (options.get("journal").equals("on")) directory = Files.createTempDirectory("kds-loadgen").toFile();
+            module = new OrderHandlerModule(directory);
+            orderStage = new OrderStage("OrderWorker", 2, AdmissionControl.MAX_CONNECTIONS_LIMIT);
+            AdmissionControl admission = admission();
+            server = new OrderServer(admission, orderStage);
+            server.startServer(module);
+            address = new InetSocketAddress("127.0.0.1", OrderServer.PORT);
+            httpAddress = new InetSocketAddress("127.0.0.1", integer("http-port"));
+            awaitListening(address);
+            if (http) {
+                httpServer = new OrderHttpServer(module, integer("http-port"), admission, orderStage);
+                httpServer.start();
+                awaitListening(httpAddress);
+            }
+        } else {
+            int colon = target.lastIndexOf(':');
+            address = colon < 0
+                ? new InetSocketAddress(target, OrderServer.PORT)
+                : new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+            httpAddress = new InetSocketAddress(address.getHostString(), integer("http-port"));
+        }
+
+        int durationSec = integer("duration");
+        Random seeds = new Random(Long.parseLong(options.get("seed")));
+        Map<String, SimulatedClient.Stats> clientStats = new LinkedHashMap<>();
+        List<MisbehavingClient.Stats> misbehavingStats = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        KdsMetrics.reset();
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + durationSec * 1_000_000_000L;
+
+        String sizes = options.get("sizes");
+        SimulatedClient.Payloads orders = (random, index) -> OrderCorpus.order(random, index, OrderCorpus.items(random, sizes));
+        for (int i = 0; i < integer("pos"); i++) {
+            SimulatedClient.Protocol protocol = SimulatedClient.Protocol.valueOf(protocols[i % protocols.length].trim().toUpperCase(Locale.ROOT));
+            SimulatedClient.Stats stats = clientStats.computeIfAbsent("pos-" + protocol.name().toLowerCase(Locale.ROOT), SimulatedClient.Stats::new);
+            Random random = new Random(seeds.nextLong());
+            boolean overHttp = protocol == SimulatedClient.Protocol.HTTP || protocol == SimulatedClient.Protocol.WS;
+            InetSocketAddress posTarget = overHttp ? httpAddress : address;
+            threads.add(new Thread(new SimulatedClient("pos-" + (i + 1), posTarget, localAddress(posTarget, 1, i), protocol, arrivals(number("rate"), random), orders,
+                number("resend"), integer("timeout"), random, stats, endNanos), "KDS-LoadGen-POS-" + (i + 1)));
+        }
+        for (int i = 0; i < integer("subs"); i++) {
+            SimulatedClient.Stats stats = clientStats.computeIfAbsent("sub-binary", SimulatedClient.Stats::new);
+            Random random = new Random(seeds.nextLong());
+            threads.add(new Thread(new SimulatedClient("sub-" + (i + 1), address, localAddress(address, 2, i), SimulatedClient.Protocol.BINARY,
+                arrivals(number("sub-rate"), random), LoadGenerator::statusMessage, 0, integer("timeout"), random, stats, endNanos),
+                "KDS-LoadGen-Sub-" + (i + 1)));
+        }
+        MisbehavingClient.Stats loris = new MisbehavingClient.Stats("slowloris");
+        MisbehavingClient.Stats disconnect = new MisbehavingClient.Stats("disconnect");
+        for (int i = 0; i < integer("slowloris"); i++) {
+            threads.add(new Thread(new MisbehavingClient(address, localAddress(address, 3, i), MisbehavingClient.Behavior.SLOW_LORIS, null,
+                integer("loris-interval"), new Random(seeds.nextLong()), loris, endNanos), "KDS-LoadGen-SlowLoris-" + (i + 1)));
+        }
+        for (int i = 0; i < integer("disconnect"); i++) {
+            Random random = new Random(seeds.nextLong());
+            threads.add(new Thread(new MisbehavingClient(address, localAddress(address, 4, i), MisbehavingClient.Behavior.DISCONNECT,
+                arrivals(number("disconnect-rate"), random), 0, random, disconnect, endNanos), "KDS-LoadGen-Disconnect-" + (i + 1)));
+        }
+        if (integer("slowloris") > 0) misbehavingStats.add(loris);
+        if (integer("disconnect") > 0) misbehavingStats.add(disconnect);
+
+        System.out.printf(Locale.ROOT, "压测 %s，%d 秒：%d 台 POS（%s），%d 台子 KDS，%d 个慢速连接，%d 个中途断开的客户端%n",
+            http ? address + " 和 " + httpAddress : address, durationSec, integer("pos"), options.get("pos-protocols"), integer("subs"),
+            integer("slowloris"), integer("disconnect"));
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        long nextProgress = startNanos + 10_000_000_000L;
+        while (System.nanoTime() < endNanos) {
+            Thread.sleep(Math.max(1, Math.min(endNanos, nextProgress) - System.nanoTime()) / 1_000_000 + 1);
+            if (System.nanoTime() >= nextProgress) {
+                printProgress(clientStats, (System.nanoTime() - startNanos) / 1_000_000_000L);
+                nextProgress += 10_000_000_000L;
+            }
+        }
+        // 等待最后一批订单的确认
+        for (Thread thread : threads) thread.join(integer("timeout") + 1000L);
+        double elapsedSec = (System.nanoTime() - startNanos) / 1e9;
+        KdsMetrics.Snapshot serverMetrics = server != null ? KdsMetrics.snapshot() : null;
+
+        printReport(clientStats, misbehavingStats, serverMetrics, orderStage != null ? orderStage.stats() : null,
+            httpServer != null ? httpServer.stats() : null, elapsedSec);
+        String json = options.get("json");
+        if (!json.isEmpty()) {
+            writeJson(new File(json), clientStats, misbehavingStats, serverMetrics, elapsedSec);
+            System.out.println("结果已写入 " + json);
+        }
+
+        if (server != null) server.stopServer();
+        if (httpServer != null) httpServer.stop();
+        if (orderStage != null) orderStage.shutdown();
+        if (module != null) module.close();
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) for (File file : files) file.delete();
+            directory.delete();
+        }
+
+        String maxErrorRate = options.get("max-error-rate");
+        if (maxErrorRate.isEmpty()) return 0;
+        for (SimulatedClient.Stats stats : clientStats.values()) {
+            if (errorRate(stats) > Double.parseDouble(maxErrorRate)) {
+                System.out.printf(Locale.ROOT, "%s 的错误率 %.4f 超过 %s%n", stats.name, errorRate(stats), maxErrorRate);
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    private AdmissionControl admission() {
+        AdmissionControl admission = new AdmissionControl();
+        AdmissionControl.Limits limits = admission.limits().copy();
+        if (!options.get("max-connections").isEmpty()) limits.maxConnections = integer("max-connections");
+        if (!options.get("max-in-flight").isEmpty()) limits.maxInFlight = integer("max-in-flight");
+        if (!options.get("max-in-flight-per-client").isEmpty()) limits.maxInFlightPerClient = integer("max-in-flight-per-client");
+        if (!options.get("read-timeout").isEmpty()) limits.readTimeoutMs = integer("read-timeout");
+        admission.configure(limits);
+        return admission;
+    }
+
+    /**
+     * 目标在本机时，第 group 类客户端的第 index 个绑定 127.0.group.(index + 1)，相当于不同的机器；
+     * 其他情况或 --client-ips=shared 时返回 null（不绑定）。
+     */
+    private InetAddress localAddress(InetSocketAddress target, int group, int index) throws IOException {
+        if (!options.get("client-ips").equals("distinct") || !target.getAddress().isLoopbackAddress()) return null;
+        return InetAddress.getByAddress(new byte[] { 127, 0, (byte) group, (byte) (index % 254 + 1) });
+    }
+
+    private Arrivals arrivals(double rate, Random random) {
+        return new Arrivals(options.get("arrivals"), rate, integer("burst"), random);
+    }
+
+    private int integer(String key) {
+        return Integer.parseInt(options.get(key));
+    }
+
+    private double number(String key) {
+        return Double.parseDouble(options.get(key));
+    }
+
+    /** 子 KDS 完成商品后发给主 KDS 的消息（tcpSocketService 的 order_items_completed） */
+    private static String statusMessage(Random random, int index) {
+        return "{\"type\":\"order_items_completed\",\"orderId\":\"pos-" + (1000000 + random.nextInt(Math.max(1, index)))
+            + "\",\"completedItems\":[\"p" + random.nextInt(200) + "\"],\"timestamp\":\"" + Instant.now() + "\"}";
+    }
+
+    private static void awaitListening(InetSocketAddress address) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            try (Socket probe = new Socket()) {
+                probe.connect(address, 500);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("服务器没有在 5 秒内开始监听 " + address);
+    }
+
+    private static double errorRate(SimulatedClient.Stats stats) {
+        long sent = stats.sent.get();
+        return sent > 0 ? (double) stats.errors() / sent : 0;
+    }
+
+    private static void printProgress(Map<String, SimulatedClient.Stats> clientStats, long seconds) {
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "[%3ds]", seconds));
+        for (SimulatedClient.Stats stats : clientStats.values()) {
+            line.append(String.format(Locale.ROOT, " %s %d/%d 错误 %d;", stats.name, stats.acked.get(), stats.sent.get(), stats.errors()));
+        }
+        System.out.println(line);
+    }
+
+    private static void printReport(Map<String, SimulatedClient.Stats> clientStats, List<MisbehavingClient.Stats> misbehaving,
+                                    KdsMetrics.Snapshot serverMetrics, OrderStage.Stats orderStage, OrderHttpServer.Stats http,
+                                    double elapsedSec) {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-12s %7s %7s %6s %6s %6s %6s %8s %8s %8s %8s %8s %8s %8s%n",
+            "客户端", "发送", "确认", "NACK", "超时", "IO错误", "BUSY", "错误率", "确认/秒",
+            "p50", "p90", "p99", "p99.9", "max(ms)");
+        for (SimulatedClient.Stats stats : clientStats.values()) {
+            LatencyHistogram.Snapshot latency = stats.latency.snapshot();
+            System.out.printf(Locale.ROOT, "%-12s %7d %7d %6d %6d %6d %6d %7.3f%% %8.1f %8.2f %8.2f %8.2f %8.2f %8.2f%n",
+                stats.name, stats.sent.get(), stats.acked.get(), stats.rejected.get(), stats.timeouts.get(), stats.ioErrors.get(),
+                stats.busy.get(), errorRate(stats) * 100, stats.acked.get() / elapsedSec,
+                latency.p50Ms, latency.p90Ms, latency.p99Ms, latency.p999Ms, latency.maxMs);
+            if (stats.lastError != null) System.out.println("    最近的错误: " + stats.lastError);
+        }
+        for (MisbehavingClient.Stats stats : misbehaving) {
+            System.out.printf(Locale.ROOT, "%-12s 连接 %d，发送 %d 字节，被服务器关闭 %d 次，连接失败 %d 次，最长占用 %d ms%n",
+                stats.name, stats.connections.get(), stats.bytes.get(), stats.closedByServer.get(),
+                stats.connectFailures.get(), stats.maxHeldMs());
+        }
+        if (serverMetrics == null) return;
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-12s %9s %8s %8s %8s %8s%n", "服务器阶段", "次数", "p50", "p99", "p99.9", "max(ms)");
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : serverMetrics.stages.entrySet()) {
+            LatencyHistogram.Snapshot stage = entry.getValue();
+            if (stage.count == 0) continue;
+            System.out.printf(Locale.ROOT, "%-12s %9d %8.2f %8.2f %8.2f %8.2f%n",
+                entry.getKey(), stage.count, stage.p50Ms, stage.p99Ms, stage.p999Ms, stage.maxMs);
+        }
+        System.out.println("计数: " + serverMetrics.counters);
+        System.out.println("队列: " + serverMetrics.queues);
+        if (http != null) {
+            System.out.printf(Locale.ROOT, "HTTP 服务器: 请求 %d（%.1f/秒），WebSocket 消息 %d，订单确认 %d，失败 %d，格式错误 %d%n",
+                http.requests, http.requests / elapsedSec, http.webSocketMessages, http.ordersAccepted, http.ordersFailed, http.badRequests);
+        }
+        if (orderStage == null) return;
+        System.out.printf(Locale.ROOT, "订单处理阶段: %d 线程，处理 %d，最多排队 %d（上限 %d），排队 p99 %.2f ms，处理 p99 %.2f ms%n",
+            orderStage.threads, orderStage.completed, orderStage.maxQueued, orderStage.capacity,
+            orderStage.waitTime.p99Ms, orderStage.serviceTime.p99Ms);
+    }
+
+    private void writeJson(File file, Map<String, SimulatedClient.Stats> clientStats, List<MisbehavingClient.Stats> misbehaving,
+                           KdsMetrics.Snapshot serverMetrics, double elapsedSec) throws IOException {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"options\":{");
+        boolean first = true;
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (!first) json.append(',');
+            first = false;
+            json.append(Order.quote(option.getKey())).append(':').append(Order.quote(option.getValue()));
+        }
+        json.append(String.format(Locale.ROOT, "},\"elapsedSec\":%.3f,\"clients\":{", elapsedSec));
+        first = true;
+        for (SimulatedClient.Stats stats : clientStats.values()) {
+            if (!first) json.append(',');
+            first = false;
+            LatencyHistogram.Snapshot latency = stats.latency.snapshot();
+            json.append(Order.quote(stats.name)).append(String.format(Locale.ROOT,
+                ":{\"sent\":%d,\"acked\":%d,\"rejected\":%d,\"timeouts\":%d,\"ioErrors\":%d,\"connectFailures\":%d,"
+                    + "\"resent\":%d,\"busy\":%d,\"connections\":%d,\"errorRate\":%.6f,\"ackPerSec\":%.2f,"
+                    + "\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"p999Ms\":%.3f,\"maxMs\":%.3f}",
+                stats.sent.get(), stats.acked.get(), stats.rejected.get(), stats.timeouts.get(), stats.ioErrors.get(),
+                stats.connectFailures.get(), stats.resent.get(), stats.busy.get(), stats.connections.get(), errorRate(stats),
+                stats.acked.get() / elapsedSec, latency.p50Ms, latency.p90Ms, latency.p99Ms, latency.p999Ms, latency.maxMs));
+        }
+        json.append("},\"misbehaving\":{");
+        first = true;
+        for (MisbehavingClient.Stats stats : misbehaving) {
+            if (!first) json.append(',');
+            first = false;
+            json.append(Order.quote(stats.name)).append(String.format(Locale.ROOT,
+                ":{\"connections\":%d,\"bytes\":%d,\"closedByServer\":%d,\"connectFailures\":%d,\"maxHeldMs\":%d}",
+                stats.connections.get(), stats.bytes.get(), stats.closedByServer.get(), stats.connectFailures.get(),
+                stats.maxHeldMs()));
+        }
+        json.append("},\"server\":").append(serverMetrics != null ? serverMetrics.toJson() : "null").append('}');
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.anonymous.KDS;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 行为异常的客户端，检查服务器在它们存在时是否还能正常服务其他 POS。
+ *
+ *   slowloris   打开连接，发送半个会话帧后每隔 interval 毫秒再发一个字节，一直不发完；
+ *               被服务器关闭后重新连接。统计连接被占用的时长和服务器主动关闭的次数。
+ *   disconnect  按到达过程发送订单帧（文本或二进制会话帧），在随机位置中断，
+ *               交替用 RST（SO_LINGER 0）和正常关闭（FIN）断开。
+ */
+final class MisbehavingClient implements Runnable {
+
+    enum Behavior { SLOW_LORIS, DISCONNECT }
+
+    private final InetSocketAddress target;
+    private final InetAddress localAddress;
+    private final Behavior behavior;
+    private final Arrivals arrivals;
+    private final long intervalMs;
+    private final Random random;
+    private final Stats stats;
+    private final long endNanos;
+
+    MisbehavingClient(InetSocketAddress target, InetAddress localAddress, Behavior behavior, Arrivals arrivals, long intervalMs,
+                      Random random, Stats stats, long endNanos) {
+        this.target = target;
+        this.localAddress = localAddress;
+        this.behavior = behavior;
+        this.arrivals = arrivals;
+        this.intervalMs = intervalMs;
+        this.random = random;
+        this.stats = stats;
+        this.endNanos = endNanos;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (behavior == Behavior.SLOW_LORIS) {
+                while (System.nanoTime() < endNanos) slowLoris();
+            } else {
+                long next = System.nanoTime();
+                while ((next += arrivals.nextGapNanos()) < endNanos) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    disconnectMidFrame();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void slowLoris() throws InterruptedException {
+        long openedAt = System.nanoTime();
+        try (Socket s = new Socket()) {
+            if (localAddress != null) s.bind(new InetSocketAddress(localAddress, 0));
+            s.connect(target, 5000);
+            // 只用来检测服务器是否关闭了连接
+            s.setSoTimeout(1);
+            stats.connections.incrementAndGet();
+            OutputStream out = s.getOutputStream();
+            InputStream in = s.getInputStream();
+            out.write("SEQ 1\n{\"id\":\"pos-".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            while (System.nanoTime() < endNanos) {
+                Thread.sleep(intervalMs);
+                out.write('0' + random.nextInt(10));
+                out.flush();
+                stats.bytes.incrementAndGet();
+                if (closedByServer(in)) {
+                    stats.closedByServer.incrementAndGet();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // 写入失败：连接已经被服务器关闭或重置
+            stats.closedByServer.incrementAndGet();
+            Thread.sleep(intervalMs);
+        } finally {
+            stats.recordHeld(System.nanoTime() - openedAt);
+        }
+    }
+
+    private static boolean closedByServer(InputStream in) throws IOException {
+        try {
+            // 服务器对半个帧不会回复任何内容，读到数据或 EOF 都说明连接被服务器处理掉了
+            in.read();
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    private void disconnectMidFrame() {
+        int index = random.nextInt(1_000_000);
+        String order = OrderCorpus.order(random, index, OrderCorpus.items(random, "peak"));
+        byte[] frame = random.nextBoolean()
+            ? OrderFrameDecoder.encodeBinary(1, order)
+            : ("SEQ 1\n" + order + "\nend\n").getBytes(StandardCharsets.UTF_8);
+        boolean reset = stats.attempts.getAndIncrement() % 2 == 0;
+        try (Socket s = new Socket()) {
+            if (localAddress != null) s.bind(new InetSocketAddress(localAddress, 0));
+            s.connect(target, 5000);
+            stats.connections.incrementAndGet();
+            if (reset) s.setSoLinger(true, 0);
+            int length = 1 + random.nextInt(frame.length - 1);
+            s.getOutputStream().write(frame, 0, length);
+            s.getOutputStream().flush();
+            stats.bytes.addAndGet(length);
+        } catch (IOException e) {
+            stats.connectFailures.incrementAndGet();
+        }
+    }
+
+    static final class Stats {
+        final String name;
+        final AtomicLong connections = new AtomicLong();
+        final AtomicLong attempts = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong closedByServer = new AtomicLong();
+        final AtomicLong connectFailures = new AtomicLong();
+        private final AtomicLong maxHeldNanos = new AtomicLong();
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        void recordHeld(long nanos) {
+            long max;
+            while (nanos > (max = maxHeldNanos.get()) && !maxHeldNanos.compareAndSet(max, nanos)) {
+                // 其他线程同时更新了最大值，重试
+            }
+        }
+
+        long maxHeldMs() {
+            return maxHeldNanos.get() / 1_000_000;
+        }
+    }
+}
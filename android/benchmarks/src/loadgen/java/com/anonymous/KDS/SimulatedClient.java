@@ -0,0 +1,396 @@
+package com.anonymous.KDS;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一台模拟的 POS 终端或子 KDS：按到达过程发送订单，等到确认后再发下一个（与真实 POS 一样）。
+ *
+ * 协议：
+ *   lines   旧 POS：每个订单一个连接，逐行发送订单和 "end"，收到 "ok" 和落盘后的 "OK" 后关闭。
+ *   single  sendTCPData 的旧格式：每个连接一行 JSON，发送后关闭输出，等待 "OK"。
+ *   session 会话模式的文本帧："SEQ n"、订单各行、"end"，连接保持打开，等待 "ACK n"。
+ *   binary  会话模式的二进制帧（SubKdsConnectionPool 的格式），等待 "ACK n"。
+ *   http    4323 端口（OrderHttpServer）：keep-alive 连接上 POST /orders，等待 200 和 "failed":0。
+ *   ws      4323 端口的 WebSocket（GET /ws）：每条文本消息一个订单，等待 "ACK n"。
+ *
+ * 服务器回复 BUSY（HTTP 为 503 和 retryAfterMs）时按 retry-after（加随机抖动）等待后重发同一个订单，直到压测结束。
+ *
+ * 延迟从订单按到达过程"应该发出"的时间算起，到收到确认为止。终端还在等上一个确认时，
+ * 下一个订单的排队时间也算在延迟里，服务器变慢时不会因为少发订单而低估延迟（协调遗漏）。
+ */
+final class SimulatedClient implements Runnable {
+
+    enum Protocol { LINES, SINGLE, SESSION, BINARY, HTTP, WS }
+
+    interface Payloads {
+        /** 第 index 个订单（或状态消息）的 JSON，单行 */
+        String next(Random random, int index);
+    }
+
+    // 所有客户端共用的订单号计数，保证订单号不重复
+    private static final AtomicInteger ORDER_INDEX = new AtomicInteger();
+
+    private final String name;
+    private final InetSocketAddress target;
+    // 本机压测时每个客户端绑定不同的回环地址，服务器按 IP 统计的限制和真实环境一样；为 null 时不绑定
+    private final InetAddress localAddress;
+    private final Protocol protocol;
+    private final Arrivals arrivals;
+    private final Payloads payloads;
+    private final double resendRatio;
+    private final int timeoutMs;
+    private final Random random;
+    private final Stats stats;
+    private final long endNanos;
+
+    // 会话模式的连接；http / ws 直接读字节流
+    private Socket socket;
+    private BufferedReader in;
+    private InputStream input;
+    private long sequence;
+
+    SimulatedClient(String name, InetSocketAddress target, InetAddress localAddress, Protocol protocol, Arrivals arrivals, Payloads payloads,
+                    double resendRatio, int timeoutMs, Random random, Stats stats, long endNanos) {
+        this.name = name;
+        this.target = target;
+        this.localAddress = localAddress;
+        this.protocol = protocol;
+        this.arrivals = arrivals;
+        this.payloads = payloads;
+        this.resendRatio = resendRatio;
+        this.timeoutMs = timeoutMs;
+        this.random = random;
+        this.stats = stats;
+        this.endNanos = endNanos;
+    }
+
+    @Override
+    public void run() {
+        long intended = System.nanoTime();
+        String last = null;
+        try {
+            while (true) {
+                intended += arrivals.nextGapNanos();
+                if (intended >= endNanos) break;
+                long wait = intended - System.nanoTime();
+                if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                // POS 没收到确认时会重发同一个订单，服务器应当按重复订单直接确认
+                boolean resend = last != null && random.nextDouble() < resendRatio;
+                String payload = resend ? last : payloads.next(random, ORDER_INDEX.getAndIncrement());
+                last = payload;
+                stats.sent.incrementAndGet();
+                if (resend) stats.resent.incrementAndGet();
+                try {
+                    sendUntilAdmitted(payload);
+                    stats.latency.recordSince(intended);
+                    stats.acked.incrementAndGet();
+                } catch (RejectedException e) {
+                    stats.rejected.incrementAndGet();
+                    stats.noteError(e.getMessage());
+                } catch (SocketTimeoutException e) {
+                    stats.timeouts.incrementAndGet();
+                    closeSession();
+                } catch (IOException e) {
+                    stats.ioErrors.incrementAndGet();
+                    stats.noteError(e.getClass().getSimpleName() + ": " + e.getMessage());
+                    closeSession();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeSession();
+        }
+    }
+
+    private void sendUntilAdmitted(String payload) throws IOException, InterruptedException {
+        while (true) {
+            try {
+                send(payload);
+                return;
+            } catch (BusyException e) {
+                stats.busy.incrementAndGet();
+                // 连接数超限时服务器回复 "BUSY retry-after=..." 后关闭连接，只有带序号的 BUSY 会保留会话
+                if (!e.keepsConnection) closeSession();
+                long backoffMs = e.retryAfterMs + random.nextInt(e.retryAfterMs / 2 + 1);
+                if (System.nanoTime() + backoffMs * 1_000_000L >= endNanos) throw new RejectedException("BUSY，压测结束前没有被接受");
+                Thread.sleep(backoffMs);
+            }
+        }
+    }
+
+    private void send(String payload) throws IOException {
+        switch (protocol) {
+            case LINES:
+                try (Socket s = connect()) {
+                    BufferedReader reader = reader(s);
+                    write(s.getOutputStream(), lines(payload) + "end\n");
+                    expect(reader, "ok");
+                    expect(reader, "OK");
+                }
+                return;
+            case SINGLE:
+                try (Socket s = connect()) {
+                    BufferedReader reader = reader(s);
+                    write(s.getOutputStream(), payload + "\n");
+                    s.shutdownOutput();
+                    expect(reader, "OK");
+                }
+                return;
+            case HTTP:
+                postOrder(payload);
+                return;
+            case WS:
+                sendMessage(payload);
+                return;
+            default:
+                if (socket == null) {
+                    socket = connect();
+                    in = reader(socket);
+                }
+                long seq = ++sequence;
+                OutputStream out = socket.getOutputStream();
+                if (protocol == Protocol.BINARY) {
+                    out.write(OrderFrameDecoder.encodeBinary(seq, payload));
+                    out.flush();
+                } else {
+                    write(out, "SEQ " + seq + "\n" + lines(payload) + "end\n");
+                }
+                expect(in, "ACK " + seq);
+        }
+    }
+
+    private void postOrder(String payload) throws IOException {
+        if (socket == null) {
+            socket = connect();
+            input = new BufferedInputStream(socket.getInputStream());
+        }
+        byte[] body = payload.getBytes(StandardCharsets.UTF_8);
+        OutputStream out = socket.getOutputStream();
+        out.write(("POST /orders HTTP/1.1\r\nHost: " + target.getHostString() + "\r\nContent-Type: application/json\r\n"
+            + "Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+
+        String status = readLine(input);
+        int contentLength = 0;
+        boolean close = false;
+        for (String header = readLine(input); !header.isEmpty(); header = readLine(input)) {
+            String lower = header.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("content-length:")) contentLength = Integer.parseInt(lower.substring(15).trim());
+            if (lower.startsWith("connection:") && lower.contains("close")) close = true;
+        }
+        String response = new String(input.readNBytes(contentLength), StandardCharsets.UTF_8);
+        if (close) closeSession();
+        if (status.startsWith("HTTP/1.1 200") && response.contains("\"failed\":0")) return;
+        if (status.startsWith("HTTP/1.1 503") && response.contains("\"busy\"")) {
+            int at = response.indexOf("\"retryAfterMs\":") + "\"retryAfterMs\":".length();
+            throw new BusyException(Integer.parseInt(response.substring(at, response.indexOf('}', at)).trim()), !close);
+        }
+        throw new RejectedException(status + " " + response);
+    }
+
+    private void sendMessage(String payload) throws IOException {
+        if (socket == null) {
+            socket = connect();
+            input = new BufferedInputStream(socket.getInputStream());
+            sequence = 0;
+            byte[] key = new byte[16];
+            random.nextBytes(key);
+            write(socket.getOutputStream(), "GET /ws HTTP/1.1\r\nHost: " + target.getHostString() + "\r\nUpgrade: websocket\r\n"
+                + "Connection: Upgrade\r\nSec-WebSocket-Key: " + Base64.getEncoder().encodeToString(key)
+                + "\r\nSec-WebSocket-Version: 13\r\n\r\n");
+            String status = readLine(input);
+            while (!readLine(input).isEmpty()) {
+                // 跳过握手回复的头部
+            }
+            if (!status.startsWith("HTTP/1.1 101")) throw new IOException(name + " WebSocket 握手失败: " + status);
+        }
+        long seq = ++sequence;
+        OutputStream out = socket.getOutputStream();
+        out.write(maskedTextFrame(payload.getBytes(StandardCharsets.UTF_8)));
+        out.flush();
+
+        // 服务器的帧不带掩码；订单回复都是短文本，长度不超过 125
+        int opcode = input.read();
+        int length = input.read();
+        if (opcode < 0 || length < 0) throw new IOException("连接被服务器关闭");
+        if ((opcode & 0x0F) == 0x8) throw new IOException("服务器关闭了 WebSocket");
+        if (length > 125) throw new IOException(name + " 回复帧太长: " + length);
+        check(new String(input.readNBytes(length), StandardCharsets.UTF_8), "ACK " + seq);
+    }
+
+    /** 客户端发给服务器的文本帧必须带掩码 */
+    private byte[] maskedTextFrame(byte[] payload) {
+        int header = payload.length < 126 ? 2 : payload.length <= 0xFFFF ? 4 : 10;
+        byte[] frame = new byte[header + 4 + payload.length];
+        frame[0] = (byte) 0x81;
+        if (header == 2) {
+            frame[1] = (byte) (0x80 | payload.length);
+        } else if (header == 4) {
+            frame[1] = (byte) (0x80 | 126);
+            frame[2] = (byte) (payload.length >>> 8);
+            frame[3] = (byte) payload.length;
+        } else {
+            frame[1] = (byte) (0x80 | 127);
+            long length = payload.length;
+            for (int i = 9; i >= 2; i--) {
+                frame[i] = (byte) length;
+                length >>>= 8;
+            }
+        }
+        int mask = random.nextInt();
+        for (int i = 0; i < 4; i++) frame[header + i] = (byte) (mask >>> (24 - 8 * i));
+        for (int i = 0; i < payload.length; i++) frame[header + 4 + i] = (byte) (payload[i] ^ frame[header + (i & 3)]);
+        return frame;
+    }
+
+    /** 读一行 HTTP 头（ASCII，以 CRLF 结束），不含行尾 */
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        for (int b = input.read(); b != '\n'; b = input.read()) {
+            if (b < 0) throw new IOException("连接被服务器关闭");
+            if (b != '\r') line.write(b);
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+    private Socket connect() throws IOException {
+        Socket s = new Socket();
+        try {
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(timeoutMs);
+            if (localAddress != null) s.bind(new InetSocketAddress(localAddress, 0));
+            s.connect(target, timeoutMs);
+            stats.connections.incrementAndGet();
+            return s;
+        } catch (IOException e) {
+            s.close();
+            stats.connectFailures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private void closeSession() {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        socket = null;
+        in = null;
+        input = null;
+    }
+
+    private static BufferedReader reader(Socket s) throws IOException {
+        return new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /** 旧 POS 分多行发送订单：每个商品一行（服务器把各行直接拼接） */
+    private static String lines(String json) {
+        return json.replace("},{\"id\"", "},\n{\"id\"") + "\n";
+    }
+
+    private void expect(BufferedReader reader, String expected) throws IOException {
+        String reply = reader.readLine();
+        if (reply == null) throw new IOException("连接被服务器关闭");
+        check(reply.trim(), expected);
+    }
+
+    private void check(String reply, String expected) throws IOException {
+        if (reply.equals(expected)) return;
+        if (reply.startsWith("NACK") || reply.startsWith("ERROR")) throw new RejectedException(reply);
+        if (reply.startsWith("BUSY")) throw new BusyException(reply);
+        throw new IOException(String.format(Locale.ROOT, "%s 期待 \"%s\"，收到 \"%s\"", name, expected, reply));
+    }
+
+    /** 服务器回复了 NACK / ERROR */
+    static final class RejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RejectedException(String reply) {
+            super(reply);
+        }
+    }
+
+    /** 服务器回复了 "BUSY [n] retry-after=毫秒" */
+    static final class BusyException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int retryAfterMs;
+        final boolean keepsConnection;
+
+        BusyException(String reply) {
+            super(reply);
+            keepsConnection = !reply.startsWith("BUSY retry-after=");
+            int at = reply.indexOf("retry-after=");
+            int value = 1000;
+            if (at >= 0) {
+                try {
+                    value = Integer.parseInt(reply.substring(at + "retry-after=".length()).trim());
+                } catch (NumberFormatException ignored) {
+                    // 按默认值重试
+                }
+            }
+            retryAfterMs = Math.max(0, value);
+        }
+
+        /** HTTP 的 503：keep-alive 时连接保持打开 */
+        BusyException(int retryAfterMs, boolean keepsConnection) {
+            super("503 retry-after=" + retryAfterMs);
+            this.retryAfterMs = Math.max(0, retryAfterMs);
+            this.keepsConnection = keepsConnection;
+        }
+    }
+
+    /** 同一类客户端（例如所有 lines 协议的 POS）共用的统计 */
+    static final class Stats {
+        final String name;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong connections = new AtomicLong();
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong resent = new AtomicLong();
+        final AtomicLong acked = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        // 收到 BUSY 后等待重发的次数（不算错误）
+        final AtomicLong busy = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong ioErrors = new AtomicLong();
+        final AtomicLong connectFailures = new AtomicLong();
+        // 最近一个错误，报告里帮助定位
+        volatile String lastError;
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        long errors() {
+            return rejected.get() + timeouts.get() + ioErrors.get();
+        }
+
+        void noteError(String error) {
+            lastError = error;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.anonymous.KDS;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 压测和测试用的 OrderHandlerModule（JVM 版本），只实现 OrderServer 用到的 AddOrder 和 ParseOrder。
+ *
+ * 确认路径与 app 中的 AddOrder 是同一份代码（OrderIntake）：解析订单，状态消息直接确认，
+ * 订单先去重，再写入订单日志并落盘（组提交）后回调，OrderServer 据此回复 ACK。
+ * 没有 React bridge，订单不交给 JS；确认后立即标记出餐（相当于 JS 马上出餐），日志不会随压测无限增长。
+ * 传入 SubKdsReplica 时作为子 KDS 接收复制帧，应用的变化交给 replicationSink（代替 onReplication 事件）。
+ */
+public class OrderHandlerModule {
+
+    private static final String JOURNAL_FILE = "orders.journal";
+    private static final String DEDUP_FILE = "orders.dedup";
+    private static final int DEDUP_CAPACITY = 8192;
+    private static final long DEDUP_WINDOW_MS = 12 * 60 * 60 * 1000L;
+
+    // 为 null 时不写日志，订单解析后直接确认
+    private final OrderJournal journal;
+    private final OrderDedup dedup;
+    private final OrderIntake intake;
+
+    /**
+     * @param directory 订单日志和去重文件所在的目录，为 null 时不落盘
+     */
+    OrderHandlerModule(File directory) throws IOException {
+        this(directory, null, null);
+    }
+
+    OrderHandlerModule(File directory, SubKdsReplica replica, SubKdsReplica.Sink replicationSink) throws IOException {
+        journal = directory != null ? OrderJournal.open(new File(directory, JOURNAL_FILE)) : null;
+        dedup = directory != null ? OrderDedup.open(new File(directory, DEDUP_FILE), DEDUP_CAPACITY, DEDUP_WINDOW_MS) : null;
+        intake = new OrderIntake(journal, dedup, replica, replicationSink, new OrderIntake.Listener() {
+            @Override
+            public void raw(String payload) {
+            }
+
+            @Override
+            public Object prepare(Order order) {
+                return order;
+            }
+
+            @Override
+            public void deliver(Object payload) {
+            }
+
+            @Override
+            public void acknowledged(Order order, String orderId) {
+                if (journal != null) journal.bump(orderId);
+            }
+        });
+    }
+
+    public void AddOrder(String orderstring, OrderJournal.Callback onComplete) {
+        intake.add(orderstring, onComplete);
+    }
+
+    public void AddOrder(byte[] frame, OrderJournal.Callback onComplete) {
+        intake.add(frame, onComplete);
+    }
+
+    static Order ParseOrder(String orderString) throws OrderParser.ParseException {
+        return Order.parse(new OrderParser(), orderString);
+    }
+
+    void close() {
+        if (journal != null) journal.close();
+        if (dedup != null) dedup.close();
+    }
+}
@@ -0,0 +1,7 @@
+package android.content;
+
+/**
+ * JVM 上代替 android.content.Context 的桩，只用于编译 PrinterStation（测试中不会调用 POSConnect）。
+ */
+public abstract class Context {
+}
@@ -0,0 +1,16 @@
+package android.util;
+
+/**
+ * JVM 上代替 android.util.Base64 的桩，只实现 OrderHttpServer 的 WebSocket 握手用到的部分。
+ */
+public final class Base64 {
+
+    public static final int NO_WRAP = 2;
+
+    private Base64() {
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return java.util.Base64.getEncoder().encodeToString(input);
+    }
+}
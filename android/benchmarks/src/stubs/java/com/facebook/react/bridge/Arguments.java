@@ -0,0 +1,19 @@
+package com.facebook.react.bridge;
+
+/**
+ * 只用于编译。真实的 WritableNativeMap 通过 JNI 写入，JVM 上的实现没有可比性，
+ * 所以基准测试不覆盖 toWritableMap，调用时直接报错。
+ */
+public final class Arguments {
+
+    private Arguments() {
+    }
+
+    public static WritableMap createMap() {
+        throw new UnsupportedOperationException("React bridge 在 JVM 基准测试中不可用");
+    }
+
+    public static WritableArray createArray() {
+        throw new UnsupportedOperationException("React bridge 在 JVM 基准测试中不可用");
+    }
+}
@@ -0,0 +1,12 @@
+package com.facebook.react.bridge;
+
+/** 只声明 KDS 核心类用到的方法 */
+public interface ReadableArray {
+    int size();
+
+    ReadableType getType(int index);
+
+    String getString(int index);
+
+    ReadableMap getMap(int index);
+}
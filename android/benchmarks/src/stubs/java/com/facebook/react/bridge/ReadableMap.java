@@ -0,0 +1,20 @@
+package com.facebook.react.bridge;
+
+/** 只声明 KDS 核心类用到的方法 */
+public interface ReadableMap {
+    boolean hasKey(String name);
+
+    boolean isNull(String name);
+
+    ReadableType getType(String name);
+
+    String getString(String name);
+
+    double getDouble(String name);
+
+    ReadableArray getArray(String name);
+
+    ReadableMap getMap(String name);
+
+    ReadableMapKeySetIterator keySetIterator();
+}
@@ -0,0 +1,16 @@
+package com.facebook.react.bridge;
+
+/** 只声明 KDS 核心类用到的方法 */
+public interface WritableArray extends ReadableArray {
+    void pushNull();
+
+    void pushBoolean(boolean value);
+
+    void pushDouble(double value);
+
+    void pushString(String value);
+
+    void pushArray(ReadableArray value);
+
+    void pushMap(ReadableMap value);
+}
@@ -0,0 +1,18 @@
+package com.facebook.react.bridge;
+
+/** 只声明 KDS 核心类用到的方法 */
+public interface WritableMap extends ReadableMap {
+    void putNull(String key);
+
+    void putString(String key, String value);
+
+    void putDouble(String key, double value);
+
+    void putInt(String key, int value);
+
+    void putBoolean(String key, boolean value);
+
+    void putArray(String key, ReadableArray value);
+
+    void putMap(String key, ReadableMap value);
+}
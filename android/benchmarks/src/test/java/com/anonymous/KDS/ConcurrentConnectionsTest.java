@@ -0,0 +1,107 @@
+package com.anonymous.KDS;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * 几百台旧 POS 同时连接：Selector 线程不为每个连接占用一个线程，所有连接同时打开时
+ * 每个连接的订单都要写入日志并收到 "ok" 和 "OK"。
+ */
+class ConcurrentConnectionsTest {
+
+    private static final int CLIENTS = 400;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    private static final long TIMEOUT_MS = 30_000;
+
+    @TempDir
+    Path directory;
+
+    private final AdmissionControl admission = new AdmissionControl();
+    private final List<Socket> sockets = new ArrayList<>();
+    private OrderHandlerModule module;
+    private OrderServer server;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Socket socket : sockets) socket.close();
+        if (server != null) server.stopServer();
+        if (module != null) module.close();
+    }
+
+    @Test
+    void everySimultaneousConnectionGetsOk() throws Exception {
+        // 所有连接都来自 127.0.0.1，放开每客户端的限制
+        AdmissionControl.Limits limits = admission.limits().copy();
+        limits.maxConnections = CLIENTS + 16;
+        limits.maxConnectionsPerClient = CLIENTS + 16;
+        limits.maxInFlight = CLIENTS;
+        limits.maxInFlightPerClient = CLIENTS;
+        admission.configure(limits);
+        int port = start();
+
+        for (int i = 0; i < CLIENTS; i++) {
+            Socket socket = connect(port);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            sockets.add(socket);
+        }
+        await(() -> admission.stats().connections == CLIENTS, "服务器应同时持有全部连接");
+
+        // 全部连接都打开后才开始发送，订单号各不相同
+        List<String> orders = OrderCorpus.orders(CLIENTS);
+        for (int i = 0; i < CLIENTS; i++) {
+            sockets.get(i).getOutputStream().write((orders.get(i) + "\nend\n").getBytes(StandardCharsets.UTF_8));
+        }
+        for (int i = 0; i < CLIENTS; i++) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(sockets.get(i).getInputStream(), StandardCharsets.UTF_8));
+            assertEquals("ok", in.readLine(), "第 " + i + " 个连接");
+            assertEquals("OK", in.readLine(), "第 " + i + " 个连接");
+        }
+        assertEquals(0, admission.stats().connectionsRejected);
+        assertEquals(0, admission.stats().ordersRejected);
+    }
+
+    private int start() throws IOException {
+        module = new OrderHandlerModule(directory.toFile());
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        server = new OrderServer(admission, null, port);
+        server.startServer(module);
+        return port;
+    }
+
+    /** 服务器在后台线程上启动，第一个连接可能早于监听 */
+    private static Socket connect(int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            try {
+                return new Socket("127.0.0.1", port);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError(message);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.anonymous.KDS;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import net.posprinter.IConnectListener;
+import net.posprinter.IDeviceConnection;
+import net.posprinter.IPOSListener;
+import net.posprinter.POSConnect;
+import net.posprinter.posprinterface.IDataCallback;
+import net.posprinter.posprinterface.IStatusCallback;
+
+/**
+ * 测试用的打印机连接，代替 POSConnect 创建的 USB / 蓝牙 / 网络连接。
+ * 连接结果、状态查询的回复和写入失败由 Factory（一台假打印机）控制，回调都在调用线程上同步执行，
+ * 成功写入的数据按顺序记录。
+ */
+@SuppressWarnings("deprecation")
+final class FakeDeviceConnection implements IDeviceConnection {
+
+    /** 一台假打印机，PrinterStation 每次连接都通过它创建新的 FakeDeviceConnection */
+    static final class Factory implements PrinterStation.DeviceFactory {
+        // 连接是否成功
+        volatile boolean connectable = true;
+        // 状态查询回复的状态码（1 为已连接），null 表示不回复
+        volatile Integer status = 1;
+        // 再成功写入多少次之后的下一次写入失败，-1 表示不失败；失败一次后恢复为 -1
+        private int writesBeforeFailure = -1;
+        private final List<byte[]> writes = new ArrayList<>();
+        private final List<FakeDeviceConnection> connections = new ArrayList<>();
+
+        @Override
+        public synchronized IDeviceConnection create(PrinterStation.Type type) {
+            FakeDeviceConnection connection = new FakeDeviceConnection(this);
+            connections.add(connection);
+            return connection;
+        }
+
+        @Override
+        public List<String> usbDevices() {
+            return Collections.singletonList("/dev/bus/usb/001/002");
+        }
+
+        synchronized void failWriteAfter(int successfulWrites) {
+            writesBeforeFailure = successfulWrites;
+        }
+
+        synchronized List<byte[]> writes() {
+            return new ArrayList<>(writes);
+        }
+
+        /** 所有成功写入的数据按顺序拼接 */
+        synchronized byte[] written() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (byte[] data : writes) out.write(data, 0, data.length);
+            return out.toByteArray();
+        }
+
+        synchronized List<FakeDeviceConnection> connections() {
+            return new ArrayList<>(connections);
+        }
+
+        private synchronized void write(byte[] data) {
+            if (writesBeforeFailure == 0) {
+                writesBeforeFailure = -1;
+                throw new IllegalStateException("USB 传输失败");
+            }
+            if (writesBeforeFailure > 0) writesBeforeFailure--;
+            writes.add(data.clone());
+        }
+    }
+
+    private final Factory printer;
+    volatile String target;
+    volatile boolean closed;
+
+    private FakeDeviceConnection(Factory printer) {
+        this.printer = printer;
+    }
+
+    @Override
+    public void connect(String target, IConnectListener listener) {
+        this.target = target;
+        boolean success = printer.connectable;
+        listener.onStatus(success ? POSConnect.CONNECT_SUCCESS : POSConnect.CONNECT_FAIL, target,
+            success ? "已连接" : "设备不存在");
+    }
+
+    @Override
+    public void connect(String target, IPOSListener listener) {
+        this.target = target;
+        listener.onStatus(printer.connectable ? POSConnect.CONNECT_SUCCESS : POSConnect.CONNECT_FAIL, target);
+    }
+
+    @Override
+    public void isConnect(byte[] command, IStatusCallback callback) {
+        Integer status = printer.status;
+        if (status != null && !closed) callback.receive(status);
+    }
+
+    @Override
+    public boolean isConnect() {
+        return !closed && Integer.valueOf(1).equals(printer.status);
+    }
+
+    @Override
+    public void sendData(byte[] data) {
+        if (closed) throw new IllegalStateException("连接已关闭");
+        printer.write(data);
+    }
+
+    @Override
+    public void sendData(List<byte[]> data) {
+        for (byte[] bytes : data) sendData(bytes);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public void closeSync() {
+        closed = true;
+    }
+
+    // ---- PrinterStation 不使用的方法 ----
+
+    @Override
+    public int sendSync(byte[] data) {
+        sendData(data);
+        return data.length;
+    }
+
+    @Override
+    public void readData(int timeout, IDataCallback callback) {
+    }
+
+    @Override
+    public void readData(IDataCallback callback) {
+    }
+
+    @Override
+    public byte[] readSync(int timeout) {
+        return new byte[0];
+    }
+
+    @Override
+    public void startReadLoop(IDataCallback callback) {
+    }
+
+    @Override
+    public void setSendCallback(IStatusCallback callback) {
+    }
+
+    @Override
+    public boolean connectSync(String target, IPOSListener listener) {
+        connect(target, listener);
+        return printer.connectable;
+    }
+
+    @Override
+    public boolean connectSync(String target, IConnectListener listener) {
+        connect(target, listener);
+        return printer.connectable;
+    }
+
+    @Override
+    public String getConnectInfo() {
+        return target;
+    }
+
+    @Override
+    public void setConnectInfo(String info) {
+        target = info;
+    }
+
+    @Override
+    public int getConnectType() {
+        return POSConnect.DEVICE_TYPE_USB;
+    }
+
+    @Override
+    public void setTransaction(boolean transaction) {
+    }
+
+    @Override
+    public boolean transactionPrint() {
+        return true;
+    }
+}
@@ -0,0 +1,153 @@
+package com.anonymous.KDS;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * 写入过程中被杀之后的重放：末尾不完整或校验失败的记录被截断，之前的记录全部保留，
+ * 截断后可以继续追加。
+ */
+class JournalRecoveryTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void truncatesTornTailAtEveryOffset() throws Exception {
+        File file = directory.resolve("records.log").toFile();
+        List<String> orders = OrderCorpus.orders(3);
+        long[] ends = writeRecords(file, orders);
+        byte[] complete = Files.readAllBytes(file.toPath());
+
+        // 最后一条记录写到任意一个字节时被杀
+        for (long length = ends[1]; length < ends[2]; length++) {
+            Files.write(file.toPath(), Arrays.copyOf(complete, (int) length));
+            List<String> replayed = new ArrayList<>();
+            RecordLog log = RecordLog.open(file, (type, fields) -> replayed.add(fields[1]));
+            try {
+                assertEquals(orders.subList(0, 2), replayed, "截断在第 " + length + " 字节");
+                assertEquals(ends[1], log.size());
+            } finally {
+                log.close();
+            }
+            assertEquals(ends[1], file.length());
+        }
+    }
+
+    @Test
+    void truncatesRecordWithBadChecksum() throws Exception {
+        File file = directory.resolve("records.log").toFile();
+        List<String> orders = OrderCorpus.orders(3);
+        long[] ends = writeRecords(file, orders);
+
+        // 最后一条记录内容的一个字节被改写，长度正确但 CRC 不符
+        flip(file, ends[1] + 20);
+        assertEquals(orders.subList(0, 2), replay(file));
+        assertEquals(ends[1], file.length());
+    }
+
+    @Test
+    void truncatesRecordWithBadLength() throws Exception {
+        File file = directory.resolve("records.log").toFile();
+        List<String> orders = OrderCorpus.orders(3);
+        long[] ends = writeRecords(file, orders);
+
+        // 长度字段超过上限（例如页缓存中的垃圾数据）
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(ends[1]);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        assertEquals(orders.subList(0, 2), replay(file));
+        assertEquals(ends[1], file.length());
+    }
+
+    @Test
+    void corruptionInTheMiddleDropsEverythingAfterIt() throws Exception {
+        File file = directory.resolve("records.log").toFile();
+        List<String> orders = OrderCorpus.orders(3);
+        long[] ends = writeRecords(file, orders);
+
+        // 之后的记录无法确认是否完整，一并截断
+        flip(file, ends[0] + 20);
+        assertEquals(orders.subList(0, 1), replay(file));
+        assertEquals(ends[0], file.length());
+    }
+
+    @Test
+    void journalRecoversAndKeepsAppendingAfterTornTail() throws Exception {
+        File file = directory.resolve("orders.journal").toFile();
+        List<String> orders = OrderCorpus.orders(4);
+        OrderJournal journal = OrderJournal.open(file);
+        for (int i = 0; i < 3; i++) append(journal, "A" + i, orders.get(i));
+        journal.bump("A0");
+        journal.close();
+
+        // 出餐记录写到一半时被杀：A0 重放后仍在进行中
+        long length = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length - 3);
+        }
+        journal = OrderJournal.open(file);
+        assertEquals(orders.subList(0, 3), journal.liveOrders());
+
+        // 截断后的追加从最后一条完整记录之后开始，再次重放时都在
+        append(journal, "A3", orders.get(3));
+        journal.bump("A1");
+        journal.close();
+        journal = OrderJournal.open(file);
+        try {
+            assertEquals(List.of(orders.get(0), orders.get(2), orders.get(3)), journal.liveOrders());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /** 每个订单写一条记录，返回每条记录结束的位置 */
+    private static long[] writeRecords(File file, List<String> orders) throws IOException {
+        long[] ends = new long[orders.size()];
+        RecordLog log = RecordLog.open(file, (type, fields) -> true);
+        try {
+            for (int i = 0; i < orders.size(); i++) {
+                log.append((byte) 1, "A" + i, orders.get(i));
+                ends[i] = log.size();
+            }
+        } finally {
+            log.close();
+        }
+        return ends;
+    }
+
+    private static List<String> replay(File file) throws IOException {
+        List<String> replayed = new ArrayList<>();
+        RecordLog.open(file, (type, fields) -> replayed.add(fields[1])).close();
+        return replayed;
+    }
+
+    private static void flip(File file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xFF);
+        }
+    }
+
+    private static void append(OrderJournal journal, String orderId, String json) throws Exception {
+        CompletableFuture<IOException> durable = new CompletableFuture<>();
+        journal.append(orderId, json, durable::complete);
+        assertNull(durable.get(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,175 @@
+package com.anonymous.KDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 手动推进时间的调度器：任务只在 advance / runDue 时按到期顺序在调用线程上执行，
+ * 退避、超时和定时查询可以不等待真实时间、确定地测试。其他线程可以随时提交任务。
+ */
+final class ManualScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private long now;
+    private long nextSequence;
+    private boolean shutdown;
+
+    /** 执行已经到期的任务（包括执行过程中新提交的、延迟为 0 的任务） */
+    void runDue() {
+        advance(0);
+    }
+
+    /** 时间前进 ms 毫秒，期间到期的任务按顺序执行 */
+    void advance(long ms) {
+        long target;
+        synchronized (this) {
+            target = now + ms;
+        }
+        while (true) {
+            Task task;
+            synchronized (this) {
+                task = tasks.peek();
+                if (task == null || task.due > target) break;
+                tasks.poll();
+                if (task.cancelled) continue;
+                now = Math.max(now, task.due);
+            }
+            task.done = true;
+            task.command.run();
+        }
+        synchronized (this) {
+            now = target;
+        }
+    }
+
+    /** 最早的未取消任务还有多久到期，没有时为 -1 */
+    synchronized long nextDelay() {
+        for (Task task : sorted()) {
+            if (!task.cancelled) return task.due - now;
+        }
+        return -1;
+    }
+
+    synchronized long now() {
+        return now;
+    }
+
+    private List<Task> sorted() {
+        List<Task> list = new ArrayList<>(tasks);
+        list.sort(null);
+        return list;
+    }
+
+    @Override
+    public synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        Task task = new Task(command, now + Math.max(0, unit.toMillis(delay)), nextSequence++);
+        tasks.add(task);
+        return task;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        schedule(command, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+        tasks.clear();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        return new ArrayList<>();
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return isTerminated();
+    }
+
+    private final class Task implements ScheduledFuture<Object> {
+        final Runnable command;
+        final long due;
+        final long sequence;
+        volatile boolean cancelled;
+        volatile boolean done;
+
+        Task(Runnable command, long due, long sequence) {
+            this.command = command;
+            this.due = due;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - now(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Task task = (Task) other;
+            return due != task.due ? Long.compare(due, task.due) : Long.compare(sequence, task.sequence);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (done) return false;
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done || cancelled;
+        }
+
+        @Override
+        public Object get() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.anonymous.KDS;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 已经确认给 POS 的订单不能在 OrderBatcher 里丢失；下游已满时不能阻塞批处理线程；
+ * 一个订单的数据有问题时只丢弃这一个订单。
+ */
+class OrderBatcherTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<Object> emitted = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void keepsEveryOrderWhileNoListener() throws Exception {
+        OrderBatcher batcher = new OrderBatcher(scheduler, this::accept);
+        for (int i = 0; i < 2500; i++) batcher.add(i);
+        assertEquals(2500, batcher.stats().pending);
+
+        batcher.setReady(true);
+        awaitEmitted(2500);
+        assertInOrder(2500);
+        assertEquals(0, batcher.stats().pending);
+    }
+
+    @Test
+    void fullDownstreamDefersWithoutBlockingScheduler() throws Exception {
+        AtomicBoolean full = new AtomicBoolean(true);
+        OrderBatcher batcher = new OrderBatcher(scheduler, batch -> !full.get() && accept(batch));
+        batcher.configure(0, 10);
+        batcher.setReady(true);
+        for (int i = 0; i < 95; i++) batcher.add(i);
+
+        // 下游满的时候批处理线程上的其他任务照常执行
+        long start = System.nanoTime();
+        scheduler.submit(() -> { }).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(OrderBatcher.RETRY_DELAY_MS * 5));
+        Thread.sleep(OrderBatcher.RETRY_DELAY_MS * 3);
+        assertTrue(batcher.stats().flushesDeferred > 0);
+        assertEquals(95, batcher.stats().pending);
+
+        full.set(false);
+        batcher.resume();
+        awaitEmitted(95);
+        assertInOrder(95);
+        OrderBatcher.Stats stats = batcher.stats();
+        assertEquals(95, stats.ordersEmitted);
+        assertEquals(0, stats.pending);
+    }
+
+    @Test
+    void failingBatchDropsOnlyTheBadOrder() throws Exception {
+        // 第 17 个订单的数据有问题，包含它的批次构建时抛出异常
+        OrderBatcher batcher = new OrderBatcher(scheduler, batch -> {
+            if (batch.contains(17)) throw new IllegalStateException("无法转换的订单");
+            return accept(batch);
+        });
+        batcher.configure(0, 10);
+        for (int i = 0; i < 40; i++) batcher.add(i);
+        batcher.setReady(true);
+
+        awaitEmitted(39);
+        synchronized (emitted) {
+            List<Object> expected = new ArrayList<>();
+            for (int i = 0; i < 40; i++) if (i != 17) expected.add(i);
+            assertEquals(expected, emitted);
+        }
+        OrderBatcher.Stats stats = batcher.stats();
+        assertEquals(1, stats.ordersDropped);
+        assertEquals(39, stats.ordersEmitted);
+        assertEquals(0, stats.pending);
+
+        // 逐个发送结束后恢复合并
+        batcher.setReady(false);
+        for (int i = 40; i < 60; i++) batcher.add(i);
+        batcher.setReady(true);
+        awaitEmitted(59);
+        assertEquals(stats.batchesEmitted + 2, batcher.stats().batchesEmitted);
+    }
+
+    private boolean accept(List<Object> batch) {
+        synchronized (emitted) {
+            emitted.addAll(batch);
+        }
+        return true;
+    }
+
+    private void awaitEmitted(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            synchronized (emitted) {
+                if (emitted.size() >= count) return;
+            }
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("只发出了 " + emitted.size() + " 个订单");
+            Thread.sleep(5);
+        }
+    }
+
+    private void assertInOrder(int count) {
+        synchronized (emitted) {
+            assertEquals(count, emitted.size());
+            for (int i = 0; i < count; i++) assertEquals(i, emitted.get(i));
+        }
+    }
+}
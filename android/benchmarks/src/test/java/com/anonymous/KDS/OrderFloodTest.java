@@ -0,0 +1,233 @@
+package com.anonymous.KDS;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 洪水下内存不增长：订单处理卡住（确认不回调，相当于日志停住）时，多个 POS 不等确认连续发送大订单，
+ * 服务器最多持有 maxInFlight 个订单，其余回复 BUSY，堆占用不随发送量增长。
+ */
+class OrderFloodTest {
+
+    private static final long TIMEOUT_MS = 60_000;
+    private static final int MAX_IN_FLIGHT = 64;
+    private static final int CLIENTS = 8;
+    private static final int ORDERS_PER_CLIENT = 2000;
+    // 允许的堆增长，远小于发送量
+    private static final long HEAP_GROWTH_LIMIT = 32L * 1024 * 1024;
+
+    private final AdmissionControl admission = new AdmissionControl();
+    private StuckModule module;
+    private OrderServer server;
+    private int port;
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) server.stopServer();
+        if (module != null) {
+            module.release();
+            module.close();
+        }
+    }
+
+    @Test
+    void heapStaysFlatWhileOrdersAreStuck() throws Exception {
+        AdmissionControl.Limits limits = admission.limits().copy();
+        limits.maxInFlight = MAX_IN_FLIGHT;
+        limits.maxInFlightPerClient = MAX_IN_FLIGHT;
+        admission.configure(limits);
+        start();
+
+        String order = OrderCorpus.order(new Random(1), 1, 60);
+        byte[][] frames = new byte[ORDERS_PER_CLIENT][];
+        for (int i = 0; i < ORDERS_PER_CLIENT; i++) frames[i] = OrderFrameDecoder.encodeBinary(i + 1, order);
+        long volume = (long) CLIENTS * ORDERS_PER_CLIENT * frames[0].length;
+        assertTrue(volume > 4 * HEAP_GROWTH_LIMIT, "发送量 " + volume + " 字节，应远大于允许的堆增长");
+
+        long baseline = usedHeap();
+        HeapSampler sampler = new HeapSampler();
+        sampler.start();
+        List<FloodClient> clients = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) clients.add(new FloodClient(frames));
+        for (FloodClient client : clients) client.start();
+        for (FloodClient client : clients) client.writer.join(TIMEOUT_MS);
+        int total = CLIENTS * ORDERS_PER_CLIENT;
+        await(() -> busy(clients) == total - MAX_IN_FLIGHT, "除了正在处理的订单，其余都应回复 BUSY");
+        sampler.stop();
+        long peak = Math.max(sampler.peak, usedHeap());
+
+        assertEquals(MAX_IN_FLIGHT, module.held());
+        assertEquals(MAX_IN_FLIGHT, admission.stats().inFlight);
+        assertEquals(total - MAX_IN_FLIGHT, admission.stats().ordersRejected);
+        assertTrue(peak - baseline < HEAP_GROWTH_LIMIT,
+            "发送 " + volume / (1024 * 1024) + " MiB 后堆增长了 " + (peak - baseline) / (1024 * 1024) + " MiB");
+
+        // 处理恢复后，持有的订单全部确认，名额归还
+        module.release();
+        await(() -> acked(clients) == MAX_IN_FLIGHT, "恢复后持有的订单都应确认");
+        assertEquals(0, admission.stats().inFlight);
+        for (FloodClient client : clients) client.close();
+    }
+
+    private void start() throws IOException {
+        module = new StuckModule();
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        server = new OrderServer(admission, null, port);
+        server.startServer(module);
+    }
+
+    private static long busy(List<FloodClient> clients) {
+        long count = 0;
+        for (FloodClient client : clients) count += client.busy.get();
+        return count;
+    }
+
+    private static long acked(List<FloodClient> clients) {
+        long count = 0;
+        for (FloodClient client : clients) count += client.acked.get();
+        return count;
+    }
+
+    /** GC 之后仍在使用的堆 */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 2; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError(message);
+            Thread.sleep(20);
+        }
+    }
+
+    /** 订单处理卡住：订单照常经过 OrderIntake（解析、去重），但确认全部留到 release() */
+    private static final class StuckModule extends OrderHandlerModule {
+        private final List<Runnable> held = new ArrayList<>();
+        private boolean released;
+
+        StuckModule() throws IOException {
+            super(null);
+        }
+
+        @Override
+        public void AddOrder(byte[] frame, OrderJournal.Callback onComplete) {
+            super.AddOrder(frame, error -> {
+                synchronized (this) {
+                    if (!released) {
+                        held.add(() -> onComplete.onComplete(error));
+                        return;
+                    }
+                }
+                onComplete.onComplete(error);
+            });
+        }
+
+        synchronized int held() {
+            return held.size();
+        }
+
+        void release() {
+            List<Runnable> callbacks;
+            synchronized (this) {
+                released = true;
+                callbacks = new ArrayList<>(held);
+                held.clear();
+            }
+            for (Runnable callback : callbacks) callback.run();
+        }
+    }
+
+    /** 不等确认连续发送会话帧的 POS，另一个线程读取回复 */
+    private final class FloodClient {
+        final Socket socket;
+        final Thread writer;
+        final Thread reader;
+        final AtomicLong acked = new AtomicLong();
+        final AtomicLong busy = new AtomicLong();
+
+        FloodClient(byte[][] frames) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            writer = new Thread(() -> {
+                try {
+                    OutputStream out = socket.getOutputStream();
+                    for (byte[] frame : frames) out.write(frame);
+                    out.flush();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, "KDS-Flood-Writer");
+            reader = new Thread(() -> {
+                try {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith("ACK ")) acked.incrementAndGet();
+                        else if (line.startsWith("BUSY ")) busy.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    // 测试结束时关闭连接
+                }
+            }, "KDS-Flood-Reader");
+            writer.setDaemon(true);
+            reader.setDaemon(true);
+        }
+
+        void start() {
+            reader.start();
+            writer.start();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /** 发送期间定期 GC 后采样堆占用，记录最大值 */
+    private static final class HeapSampler implements Runnable {
+        private final Thread thread = new Thread(this, "KDS-Flood-HeapSampler");
+        private volatile boolean running = true;
+        volatile long peak;
+
+        void start() {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                peak = Math.max(peak, usedHeap());
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
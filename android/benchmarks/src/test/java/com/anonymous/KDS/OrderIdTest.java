@@ -0,0 +1,40 @@
+package com.anonymous.KDS;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 订单号与 formatTCPOrder 的 order_num || orderId || _id 相同：和字段顺序无关，不使用订单的 id。
+ */
+class OrderIdTest {
+
+    @Test
+    void followsJsPriorityRegardlessOfFieldOrder() throws Exception {
+        assertEquals("N1", parse("{\"_id\":\"M1\",\"orderId\":\"O1\",\"order_num\":\"N1\"}").displayId());
+        assertEquals("N1", parse("{\"order_num\":\"N1\",\"_id\":\"M1\",\"orderId\":\"O1\"}").displayId());
+        assertEquals("O1", parse("{\"_id\":\"M1\",\"orderId\":\"O1\"}").displayId());
+        assertEquals("O1", parse("{\"orderId\":\"O1\",\"_id\":\"M1\"}").displayId());
+        assertEquals("M1", parse("{\"id\":\"I1\",\"_id\":\"M1\"}").displayId());
+        assertEquals("1001", parse("{\"_id\":\"M1\",\"orderId\":1001}").displayId());
+    }
+
+    @Test
+    void neverUsesIdAndSkipsFalsyValues() throws Exception {
+        assertNull(parse("{\"id\":\"I1\",\"products\":[{\"id\":\"p1\",\"name\":\"米饭\"}]}").displayId());
+        // JS 里空字符串和 0 为假，取下一个字段
+        assertEquals("M1", parse("{\"order_num\":\"\",\"orderId\":0,\"_id\":\"M1\"}").displayId());
+        assertEquals("O1", parse("{\"orderId\":\"O1\",\"order_num\":\"\"}").displayId());
+
+        // 只有 id 时和 formatTCPOrder 一样用当前时间作订单号，id 不出现在 FormattedOrder 里
+        String json = parse("{\"id\":\"I1\"}").toJson(null, Collections.emptyList(), null);
+        assertFalse(json.contains("I1"), json);
+    }
+
+    private static Order parse(String json) throws OrderParser.ParseException {
+        return Order.parse(new OrderParser(), json);
+    }
+}
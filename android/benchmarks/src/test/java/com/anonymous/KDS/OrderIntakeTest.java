@@ -0,0 +1,185 @@
+package com.anonymous.KDS;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * app 和 JVM 版 OrderHandlerModule 共用的确认路径：去重 → 等待原订单落盘 → 写日志 → ACK。
+ * POS 在原订单落盘前重发时，重发的确认不能早于原订单落盘；写日志失败的订单重发时不能当作重复直接确认。
+ */
+class OrderIntakeTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private OrderJournal journal;
+    private OrderDedup dedup;
+
+    @AfterEach
+    void tearDown() {
+        if (journal != null) journal.close();
+        if (dedup != null) dedup.close();
+    }
+
+    @Test
+    void duplicateIsAcknowledgedAfterOriginalIsDurable() throws Exception {
+        OrderIntake intake = open();
+        String order = OrderCorpus.orders(1).get(0);
+        String orderId = Order.parse(new OrderParser(), order).displayId();
+        CountDownLatch done = new CountDownLatch(2);
+        // 持有日志的锁，同步线程取不到这批记录，重发一定在原订单落盘之前到达
+        synchronized (journal) {
+            intake.add(order.getBytes(StandardCharsets.UTF_8), error -> {
+                events.add("original " + error);
+                done.countDown();
+            });
+            intake.add(order, error -> {
+                events.add("duplicate " + error);
+                done.countDown();
+            });
+            assertEquals(List.of(), events);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // 订单落盘后才交给 JS，然后确认原订单和等待它的重发，最后复制给子 KDS
+        awaitEvents(4);
+        assertEquals(List.of("deliver " + orderId, "original null", "duplicate null", "acknowledged " + orderId), events);
+        assertEquals(List.of(order), journal.liveOrders());
+        assertEquals(1, intake.deferredDuplicates());
+
+        // 原订单已经落盘，之后的重发直接确认
+        events.clear();
+        boolean[] acked = new boolean[1];
+        intake.add(order, error -> acked[0] = error == null);
+        assertTrue(acked[0]);
+        assertEquals(List.of(), events);
+    }
+
+    @Test
+    void failedAppendIsNotTreatedAsDuplicate() throws Exception {
+        OrderIntake intake = open();
+        journal.close();
+        String order = OrderCorpus.orders(1).get(0);
+        IOException[] first = new IOException[1];
+        intake.add(order, error -> first[0] = error);
+        assertNotNull(first[0]);
+
+        // POS 收到 NACK 后重发：去重窗口已经撤销，再次尝试写日志，仍然失败时仍然回复 NACK
+        IOException[] retry = new IOException[1];
+        intake.add(order, error -> retry[0] = error);
+        assertNotNull(retry[0]);
+        assertEquals(List.of(), events);
+        assertEquals(0, intake.deferredDuplicates());
+    }
+
+    @Test
+    void messagesAndUnparseableDataSkipJournalAndDedup() throws Exception {
+        OrderIntake intake = open();
+        String message = "{\"type\":\"order_items_completed\",\"orderId\":\"A1\",\"items\":[]}";
+        List<IOException> replies = new ArrayList<>();
+        intake.add(message, replies::add);
+        intake.add(message, replies::add);
+        intake.add("不是 JSON", replies::add);
+        assertEquals(3, replies.size());
+        for (IOException reply : replies) assertNull(reply);
+        assertEquals(List.of("raw " + message, "raw " + message, "raw 不是 JSON"), events);
+        assertEquals(List.of(), journal.liveOrders());
+    }
+
+    @Test
+    void replicationFramesNeedAReplica() {
+        OrderIntake intake = new OrderIntake(null, null, null, null, new RecordingListener());
+        IOException[] result = new IOException[1];
+        intake.add(ReplicationFrame.PREFIX + "garbage", error -> result[0] = error);
+        assertNotNull(result[0]);
+        assertEquals(List.of(), events);
+    }
+
+    @Test
+    void duplicateGetsOriginalsJournalError() {
+        PendingAppends pending = new PendingAppends();
+        pending.begin("A1", "v1");
+        IOException[] result = new IOException[1];
+        boolean[] called = new boolean[1];
+        assertTrue(pending.await("A1", "v1", error -> {
+            called[0] = true;
+            result[0] = error;
+        }));
+        // 同一订单号、内容不同的订单不是它的重发
+        assertFalse(pending.await("A1", "v2", error -> { }));
+
+        IOException failure = new IOException("磁盘已满");
+        PendingAppends.notify(pending.complete("A1", "v1"), failure);
+        assertTrue(called[0]);
+        assertSame(failure, result[0]);
+        assertEquals(0, pending.size());
+        assertEquals(1, pending.deferred());
+        assertFalse(pending.await("A1", "v1", error -> { }));
+    }
+
+    @Test
+    void changedVersionsAreTrackedSeparately() {
+        PendingAppends pending = new PendingAppends();
+        pending.begin("A1", "v1");
+        pending.begin("A1", "v2");
+        IOException[] result = { new IOException() };
+        assertTrue(pending.await("A1", "v2", error -> result[0] = error));
+        assertTrue(pending.complete("A1", "v1").isEmpty());
+        PendingAppends.notify(pending.complete("A1", "v2"), null);
+        assertNull(result[0]);
+        assertEquals(0, pending.size());
+    }
+
+    private OrderIntake open() throws IOException {
+        File dir = directory.toFile();
+        journal = OrderJournal.open(new File(dir, "orders.journal"));
+        dedup = OrderDedup.open(new File(dir, "orders.dedup"), 64, 60_000);
+        return new OrderIntake(journal, dedup, null, null, new RecordingListener());
+    }
+
+    /** acknowledged 在原订单的回调之后调用，等它记录下来 */
+    private void awaitEvents(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (events.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(5);
+    }
+
+    /** 记录 Listener 的调用，prepare 的结果是订单号 */
+    private final class RecordingListener implements OrderIntake.Listener {
+        @Override
+        public void raw(String payload) {
+            events.add("raw " + payload);
+        }
+
+        @Override
+        public Object prepare(Order order) {
+            return order.displayId();
+        }
+
+        @Override
+        public void deliver(Object payload) {
+            events.add("deliver " + payload);
+        }
+
+        @Override
+        public void acknowledged(Order order, String orderId) {
+            events.add("acknowledged " + orderId);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.anonymous.KDS;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 商品的 options 与 formatTCPOrder 一样原样传递：不补缺省值，不丢字段。
+ */
+class OrderOptionsTest {
+
+    @Test
+    void passesOptionsThroughUnchanged() throws Exception {
+        String options = "[{\"name\":\"辣度\",\"value\":\"微辣\",\"price\":0,\"group\":\"口味\"},"
+            + "{\"qty\":2,\"price_adjust\":1.5,\"tags\":[\"加料\",null,true],\"extra\":{\"note\":\"少冰\\n\"}},"
+            + "\"不要葱\"]";
+        Order order = parse("{\"order_num\":\"A1\",\"products\":[{\"name\":\"宫保鸡丁\",\"options\":" + options + "}]}");
+
+        assertEquals(options, optionsOf(order.toJson(null, order.items, null)));
+
+        // 逐个选项的事件不变，只是不再补缺省值
+        Order.Item item = order.items.get(0);
+        assertEquals(2, item.options.size());
+        assertEquals("辣度", item.options.get(0).name);
+        assertEquals("微辣", item.options.get(0).value);
+        assertNull(item.options.get(1).name);
+        assertNull(item.options.get(1).value);
+        assertEquals(1.5, item.options.get(1).price);
+    }
+
+    @Test
+    void missingOrNonArrayOptionsBecomeEmpty() throws Exception {
+        // formatTCPOrder 只认 options 数组；网络订单的 option 只用于逐个选项的事件
+        Order order = parse("{\"order_num\":\"A2\",\"products\":["
+            + "{\"name\":\"米饭\"},"
+            + "{\"name\":\"可乐\",\"options\":\"少冰\"},"
+            + "{\"name\":\"咖啡\",\"option\":[{\"name\":\"糖\",\"qty\":1}]}]}");
+        String json = order.toJson(null, order.items, null);
+        for (int i = 0; i < 3; i++) {
+            String single = order.toJson(null, Collections.singletonList(order.items.get(i)), null);
+            assertEquals("[]", optionsOf(single), json);
+        }
+        assertEquals("糖", order.items.get(2).options.get(0).name);
+    }
+
+    private static Order parse(String json) throws OrderParser.ParseException {
+        return Order.parse(new OrderParser(), json);
+    }
+
+    /** toJson 输出中第一个商品的 options 数组原文（options 是商品的最后一个字段） */
+    private static String optionsOf(String json) {
+        int start = json.indexOf("\"options\":") + "\"options\":".length();
+        int end = json.lastIndexOf("}]}");
+        return json.substring(start, end);
+    }
+}
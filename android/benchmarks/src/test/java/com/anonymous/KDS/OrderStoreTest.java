@@ -0,0 +1,96 @@
+package com.anonymous.KDS;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * 订单存储的索引：删除和修改状态之后，按状态、分类、下单时间的查询与订单本身一致，重新打开（重放记录）后也一样。
+ */
+class OrderStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private OrderStore store;
+
+    @AfterEach
+    void tearDown() {
+        if (store != null) store.close();
+    }
+
+    @Test
+    void indexesFollowRemoveAndStatusUpdate() throws Exception {
+        File file = directory.resolve("orders.store").toFile();
+        store = OrderStore.open(file);
+        store.upsert("A", order("A", "pending", "2024-05-01 12:00:00", "热菜", "饮品"));
+        store.upsert("B", order("B", "pending", "2024-05-01 12:05:00", "热菜"));
+        store.upsert("C", order("C", "pending", "2024-05-01 12:10:00", "饮品"));
+
+        assertTrue(store.updateStatus("A", "in_progress"));
+        assertTrue(store.updateStatus("A", "completed"));
+        assertTrue(store.remove("B"));
+        assertFalse(store.remove("B"));
+        assertFalse(store.updateStatus("B", "completed"));
+        assertQueries();
+
+        // 重放记录重建的索引相同
+        store.close();
+        store = OrderStore.open(file);
+        assertQueries();
+
+        // 替换订单后旧的分类和时间不再命中
+        store.upsert("C", order("C", "pending", "2024-05-01 13:00:00", "凉菜"));
+        assertEquals(List.of("A"), ids(store.query(null, "饮品", 0)));
+        assertEquals(List.of("C"), ids(store.query(null, "凉菜", 0)));
+        assertEquals(List.of("C"), ids(store.query(null, null, time("2024-05-01 12:30:00"))));
+        assertEquals(List.of("C"), ids(store.query("pending", null, 0)));
+        assertEquals(2, store.size());
+    }
+
+    private void assertQueries() {
+        assertEquals(2, store.size());
+        assertEquals(List.of("C", "A"), ids(store.query(null, null, 0)));
+        assertEquals(List.of("C"), ids(store.query("pending", null, 0)));
+        assertEquals(List.of(), ids(store.query("in_progress", null, 0)));
+        assertEquals(List.of("A"), ids(store.query("completed", null, 0)));
+        assertEquals(List.of("A"), ids(store.query(null, "热菜", 0)));
+        assertEquals(List.of("C", "A"), ids(store.query(null, "饮品", 0)));
+        assertEquals(List.of("C"), ids(store.query("pending", "饮品", 0)));
+        assertEquals(List.of("C"), ids(store.query(null, null, time("2024-05-01 12:05:00"))));
+        // 修改后的状态覆盖 JSON 中的原值
+        assertTrue(store.query("completed", null, 0).get(0).endsWith(",\"status\":\"completed\"}"));
+    }
+
+    private static String order(String id, String status, String time, String... categories) {
+        StringBuilder json = new StringBuilder()
+            .append("{\"orderId\":\"").append(id).append("\",\"status\":\"").append(status)
+            .append("\",\"orderTime\":\"").append(time).append("\",\"items\":[");
+        for (int i = 0; i < categories.length; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"name\":\"商品").append(i).append("\",\"category\":\"").append(categories[i]).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static long time(String time) {
+        return LocalDateTime.parse(time.replace(' ', 'T')).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /** 查询结果中的订单号，按返回顺序 */
+    private static List<String> ids(List<String> orders) {
+        return orders.stream().map(json -> {
+            int start = json.indexOf("\"orderId\":\"") + "\"orderId\":\"".length();
+            return json.substring(start, json.indexOf('"', start));
+        }).toList();
+    }
+}
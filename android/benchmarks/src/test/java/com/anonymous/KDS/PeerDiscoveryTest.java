@@ -0,0 +1,177 @@
+package com.anonymous.KDS;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * 本机上的一台主 KDS 和两台子 KDS，各有一个 PeerDiscovery，共用一个发现端口，信标发到回环网段的广播地址。
+ * 一台子 KDS 停机、信标超时后，主 KDS 的 SubKdsReplicator 不再连接它，另一台照常推送；
+ * 重新收到它的信标时立即重连并补齐，不等退避时间。
+ */
+class PeerDiscoveryTest {
+
+    private static final long TIMEOUT_MS = 30_000;
+    private static final String HOST = "127.0.0.1";
+
+    @TempDir
+    Path directory;
+
+    private final Map<String, Sub> subs = new LinkedHashMap<>();
+    private InetAddress broadcast;
+    private int discoveryPort;
+    private ReplicationLog log;
+    private SubKdsReplicator replicator;
+    private PeerDiscovery master;
+
+    @AfterEach
+    void tearDown() {
+        if (master != null) master.close();
+        if (replicator != null) replicator.shutdown();
+        for (Sub sub : subs.values()) sub.close();
+        if (log != null) log.close();
+    }
+
+    @Test
+    void replicatorSkipsSubWhoseBeaconTimedOut() throws Exception {
+        broadcast = InetAddress.getByName("127.255.255.255");
+        try (DatagramSocket probe = new DatagramSocket(0)) {
+            discoveryPort = probe.getLocalPort();
+        }
+        log = ReplicationLog.open(directory.resolve("replication.log").toFile(), 1000);
+        replicator = new SubKdsReplicator(log);
+        master = PeerDiscovery.open(broadcast, discoveryPort, OrderServer.PORT, () -> 0, replicator::peerChanged);
+        master.advertise(PeerDiscovery.ROLE_MASTER, CategoryRouter.ALL);
+        replicator.setDiscovery(master);
+
+        Sub first = startSub("first");
+        Sub second = startSub("second");
+        await(() -> alive(first) && alive(second), "主 KDS 应该收到两台子 KDS 的信标");
+        Map<String, String> replicas = new LinkedHashMap<>();
+        replicas.put(first.address(), CategoryRouter.ALL);
+        replicas.put(second.address(), CategoryRouter.ALL);
+        replicator.setReplicas(replicas);
+        publish(10);
+        awaitCaughtUp(first);
+        awaitCaughtUp(second);
+
+        // 第二台停机：信标停止，订单端口也不再监听
+        second.stop();
+        await(() -> !master.find(HOST, second.port).alive, "信标超时后应标记为离线");
+        await(() -> stats(second).skippedOffline > 0, "离线的子 KDS 应该跳过，不再连接");
+        publish(10);
+        awaitCaughtUp(first);
+        SubKdsReplicator.Replica.Stats offline = stats(second);
+        assertFalse(offline.alive);
+        assertFalse(offline.connected);
+        assertEquals(10, offline.ackedSequence);
+        // 离线期间一直等待信标，不按退避反复尝试连接
+        Thread.sleep(PeerDiscovery.BEACON_INTERVAL_MS * 2);
+        assertEquals(1, stats(second).skippedOffline);
+        assertEquals(offline.reconnects, stats(second).reconnects);
+
+        // 重新上线：收到信标后立即重连，远早于最长退避时间
+        long restartedAt = System.currentTimeMillis();
+        second.start();
+        awaitCaughtUp(second);
+        assertTrue(System.currentTimeMillis() - restartedAt < 10_000, "应该在收到信标后立即重连");
+        assertTrue(stats(second).alive);
+        assertEquals(20, second.replica.stats().applied);
+    }
+
+    private Sub startSub(String name) throws IOException {
+        Sub sub = new Sub(name);
+        subs.put(name, sub);
+        sub.start();
+        return sub;
+    }
+
+    private boolean alive(Sub sub) {
+        PeerDiscovery.Peer peer = master.find(HOST, sub.port);
+        return peer != null && peer.alive && PeerDiscovery.ROLE_SLAVE.equals(peer.role);
+    }
+
+    private SubKdsReplicator.Replica.Stats stats(Sub sub) {
+        for (SubKdsReplicator.Replica.Stats stats : replicator.stats()) {
+            if (stats.address.equals(sub.address())) return stats;
+        }
+        throw new AssertionError("没有 " + sub.address() + " 的复制状态");
+    }
+
+    private void publish(int count) throws IOException {
+        int base = (int) log.lastSequence();
+        List<String> orders = OrderCorpus.orders(count);
+        for (int i = 0; i < count; i++) {
+            replicator.publish(ReplicationLog.OP_ORDER, "P" + (base + i + 1), orders.get(i));
+        }
+    }
+
+    private void awaitCaughtUp(Sub sub) throws InterruptedException {
+        long last = log.lastSequence();
+        await(() -> stats(sub).ackedSequence >= last && sub.replica.stats().applied >= last,
+            sub.address() + " 没有追上 " + last);
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError(message);
+            Thread.sleep(20);
+        }
+    }
+
+    /** 一台子 KDS：OrderServer、复制状态和自己的 PeerDiscovery，停机后可以在同一端口重新启动 */
+    private final class Sub {
+        final int port;
+        final SubKdsReplica replica;
+        final OrderHandlerModule module;
+        private final AdmissionControl admission = new AdmissionControl();
+        private OrderServer server;
+        private PeerDiscovery discovery;
+
+        Sub(String name) throws IOException {
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            replica = SubKdsReplica.open(directory.resolve(name + ".state").toFile());
+            module = new OrderHandlerModule(null, replica, frame -> { });
+        }
+
+        String address() {
+            return HOST + ":" + port;
+        }
+
+        void start() throws IOException {
+            server = new OrderServer(admission, null, port);
+            server.startServer(module);
+            discovery = PeerDiscovery.open(broadcast, discoveryPort, port, () -> 0, null);
+            discovery.advertise(PeerDiscovery.ROLE_SLAVE, CategoryRouter.ALL);
+        }
+
+        void stop() {
+            if (discovery != null) discovery.close();
+            if (server != null) server.stopServer();
+            discovery = null;
+            server = null;
+        }
+
+        void close() {
+            stop();
+            module.close();
+            replica.close();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.anonymous.KDS;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * PrinterStation 的连接状态机：退避重连、离线期间保留的任务在恢复后按顺序打印、批量打印中途断开后续打。
+ * 健康检查运行在 ManualScheduler 上，打印仍在真实的打印线程上。
+ */
+class PrinterStationTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+    // 小票文字的编码，与 EscPosBuffer 一致
+    private static final Charset GBK = Charset.forName("GBK");
+
+    @TempDir
+    Path directory;
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final FakeDeviceConnection.Factory printer = new FakeDeviceConnection.Factory();
+    private final List<PrinterStation.State> states = Collections.synchronizedList(new ArrayList<>());
+    private final PrinterStation station = new PrinterStation("grill", PrinterStation.Type.USB, "",
+        Collections.singletonList("烧烤"), null, 100, printer, scheduler, (s, state, error) -> states.add(state));
+
+    @AfterEach
+    void tearDown() {
+        station.shutdown();
+    }
+
+    @Test
+    void backoffDoublesUpToLimitAndResetsAfterConnecting() {
+        printer.connectable = false;
+        station.start();
+        scheduler.runDue();
+        assertEquals(PrinterStation.State.OFFLINE, station.state());
+
+        long[] expected = { 1000, 2000, 4000, 8000, 16000, 32000, 60000, 60000 };
+        for (long backoff : expected) {
+            long delay = scheduler.nextDelay();
+            // 退避时间加最多 20% 的随机抖动
+            assertTrue(delay >= backoff && delay <= backoff + backoff / 5, "退避 " + delay + "ms，应为 " + backoff + "ms");
+            scheduler.advance(delay);
+            assertEquals(PrinterStation.State.OFFLINE, station.state());
+        }
+        assertEquals(expected.length + 1, station.stats().connectAttempts);
+
+        printer.connectable = true;
+        scheduler.advance(scheduler.nextDelay());
+        assertEquals(PrinterStation.State.ONLINE, station.state());
+
+        // 定时状态查询发现打印机没有回复：离线，退避从 1 秒重新开始
+        printer.status = null;
+        scheduler.advance(5_000);
+        scheduler.advance(3_000);
+        assertEquals(PrinterStation.State.OFFLINE, station.state());
+        long delay = scheduler.nextDelay();
+        assertTrue(delay >= 1000 && delay <= 1200, "重新连接后退避应重置，实际 " + delay + "ms");
+        assertEquals(1, station.stats().disconnects);
+        assertEquals(List.of(PrinterStation.State.CONNECTING, PrinterStation.State.OFFLINE),
+            states.subList(0, 2));
+        assertEquals(PrinterStation.State.OFFLINE, states.get(states.size() - 1));
+        assertTrue(states.contains(PrinterStation.State.ONLINE));
+    }
+
+    @Test
+    void jobsHeldWhileOfflineAreFlushedInPriorityOrder() throws Exception {
+        printer.connectable = false;
+        station.start();
+        scheduler.runDue();
+
+        List<PrintQueue.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) jobs.add(submitText("普通" + i, PrintQueue.Priority.NORMAL));
+        PrintQueue.Job rush = submitText("加急", PrintQueue.Priority.RUSH);
+        Thread.sleep(100);
+        assertEquals(4, station.queue.depth());
+        assertTrue(printer.writes().isEmpty());
+        for (PrintQueue.Job job : jobs) assertEquals(PrintQueue.Status.QUEUED, job.status);
+
+        printer.connectable = true;
+        scheduler.advance(scheduler.nextDelay());
+        assertEquals(PrinterStation.State.ONLINE, station.state());
+        await(() -> station.queue.metrics().completed == 4, "离线期间的任务没有全部打印");
+
+        List<String> printed = new ArrayList<>();
+        for (byte[] data : printer.writes()) printed.add(new String(data, StandardCharsets.ISO_8859_1));
+        String[] order = { "加急", "普通0", "普通1", "普通2" };
+        for (int i = 0; i < order.length; i++) {
+            String expected = new String(order[i].getBytes(GBK), StandardCharsets.ISO_8859_1);
+            assertTrue(printed.get(i).contains(expected), "第 " + (i + 1) + " 张应为 " + order[i]);
+        }
+        assertEquals(PrintQueue.Status.DONE, rush.status);
+        assertEquals(1, rush.attempts);
+    }
+
+    @Test
+    void batchInterruptedMidJobResumesFromFirstUnwrittenChunk() throws Exception {
+        TicketTemplate template = new TicketTemplates(directory.toFile()).get(TicketTemplates.KITCHEN);
+        List<OrderTicket> tickets = new ArrayList<>();
+        for (Order order : OrderCorpus.parsed(OrderCorpus.orders(200))) tickets.add(OrderCorpus.ticket(order));
+        TicketRenderer renderer = new TicketRenderer();
+        renderer.begin();
+        for (int i = 0; i < tickets.size(); i++) renderer.append(template, tickets.get(i), i == tickets.size() - 1);
+        byte[] expected = renderer.drain();
+        assertTrue(expected.length > 3 * 16 * 1024, "需要分成至少 3 段写出");
+
+        station.start();
+        scheduler.runDue();
+        assertEquals(PrinterStation.State.ONLINE, station.state());
+
+        // 第一段写出后 USB 断开
+        printer.failWriteAfter(1);
+        List<Integer> progress = Collections.synchronizedList(new ArrayList<>());
+        PrintBatch batch = new PrintBatch(template, tickets, false, (b, index, ticket) -> progress.add(index));
+        PrintQueue.Job job = batch.submit(station, PrintQueue.Priority.REPRINT);
+        await(() -> station.state() == PrinterStation.State.OFFLINE, "写入失败后应标记离线");
+        await(() -> job.status == PrintQueue.Status.QUEUED, "任务应放回队列");
+        int printedBeforeFailure = batch.printed;
+        assertTrue(printedBeforeFailure > 0 && printedBeforeFailure < tickets.size());
+        assertEquals(1, printer.writes().size());
+
+        // 先执行打印线程提交的关闭连接和状态通知，再等到重连时间
+        scheduler.runDue();
+        scheduler.advance(scheduler.nextDelay());
+        assertEquals(PrinterStation.State.ONLINE, station.state());
+        await(() -> job.status == PrintQueue.Status.DONE, "恢复连接后批量打印应完成");
+
+        assertEquals(2, job.attempts);
+        assertEquals(tickets.size(), batch.printed);
+        List<Integer> expectedProgress = new ArrayList<>();
+        for (int i = 0; i < tickets.size(); i++) expectedProgress.add(i);
+        assertEquals(expectedProgress, progress, "每张小票只报告一次进度");
+        // 已经写出的段不重发；续打先重新初始化打印机（ESC @），再从没写出的那一段开始
+        byte[] written = printer.written();
+        int first = printer.writes().get(0).length;
+        byte[] resumed = new byte[expected.length + 2];
+        System.arraycopy(expected, 0, resumed, 0, first);
+        resumed[first] = 0x1B;
+        resumed[first + 1] = '@';
+        System.arraycopy(expected, first, resumed, first + 2, expected.length - first);
+        assertArrayEquals(resumed, written);
+        assertEquals(tickets.size(), station.stats().ticketsPrinted);
+    }
+
+    private PrintQueue.Job submitText(String text, PrintQueue.Priority priority) throws Exception {
+        return station.queue.submit(text, priority, () -> station.printText(text, false));
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError(message);
+            Thread.sleep(5);
+        }
+    }
+}
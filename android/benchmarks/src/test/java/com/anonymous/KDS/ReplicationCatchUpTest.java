@@ -0,0 +1,137 @@
+package com.anonymous.KDS;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * 本机上的主 / 子 KDS：主 KDS 只有复制日志和 SubKdsReplicator，子 KDS 是真实的 OrderServer
+ * 加 JVM 版 OrderHandlerModule（复制帧经过 app 的 OrderIntake）和 SubKdsReplica。子 KDS 停机期间主 KDS 继续记录，重启后必须按顺序补齐。
+ */
+class ReplicationCatchUpTest {
+
+    private static final long CATCH_UP_TIMEOUT_MS = 30_000;
+
+    @TempDir
+    Path directory;
+
+    private final List<Long> applied = Collections.synchronizedList(new ArrayList<>());
+    private final AdmissionControl subAdmission = new AdmissionControl();
+    private SubKdsReplica replica;
+    private OrderHandlerModule subModule;
+    private OrderServer subServer;
+    private int subPort;
+    private ReplicationLog log;
+    private SubKdsReplicator replicator;
+
+    @AfterEach
+    void tearDown() {
+        if (replicator != null) replicator.shutdown();
+        if (subServer != null) subServer.stopServer();
+        if (subModule != null) subModule.close();
+        if (replica != null) replica.close();
+        if (log != null) log.close();
+    }
+
+    @Test
+    void subCatchesUpInOrderAfterOutage() throws Exception {
+        start();
+        publish(20);
+        awaitCaughtUp();
+
+        subServer.stopServer();
+        subServer = null;
+        publish(200);
+        Thread.sleep(200);
+        startSubServer();
+        awaitCaughtUp();
+
+        assertContiguous(220);
+        SubKdsReplicator.Replica.Stats stats = replicator.stats().get(0);
+        assertEquals(0, stats.busyReplies);
+        assertEquals(200, stats.lastCatchUpEntries);
+    }
+
+    /** 子 KDS 的每客户端订单上限小于补发窗口：回复 BUSY 后在同一连接上等待重发，不断开重连 */
+    @Test
+    void busySubIsRetriedWithoutReconnecting() throws Exception {
+        AdmissionControl.Limits limits = subAdmission.limits().copy();
+        limits.maxInFlightPerClient = 2;
+        limits.retryAfterMs = 50;
+        subAdmission.configure(limits);
+        start();
+        publish(1);
+        awaitCaughtUp();
+
+        subServer.stopServer();
+        subServer = null;
+        publish(300);
+        Thread.sleep(200);
+        startSubServer();
+        awaitCaughtUp();
+
+        assertContiguous(301);
+        SubKdsReplicator.Replica.Stats stats = replicator.stats().get(0);
+        assertTrue(stats.busyReplies > 0, "应该收到过 BUSY");
+        // 第一次连接和停机后的一次重连
+        assertEquals(2, stats.reconnects);
+    }
+
+    private void start() throws IOException {
+        replica = SubKdsReplica.open(directory.resolve("replica.state").toFile());
+        subModule = new OrderHandlerModule(null, replica, frame -> applied.add(frame.sequence));
+        try (ServerSocket probe = new ServerSocket(0)) {
+            subPort = probe.getLocalPort();
+        }
+        startSubServer();
+        log = ReplicationLog.open(directory.resolve("replication.log").toFile(), 1000);
+        replicator = new SubKdsReplicator(log);
+        replicator.setReplicas(Collections.singletonMap("127.0.0.1:" + subPort, CategoryRouter.ALL));
+    }
+
+    private void startSubServer() throws IOException {
+        subServer = new OrderServer(subAdmission, null, subPort);
+        subServer.startServer(subModule);
+    }
+
+    private void publish(int count) throws IOException {
+        int base = (int) log.lastSequence();
+        List<String> orders = OrderCorpus.orders(count);
+        for (int i = 0; i < count; i++) {
+            replicator.publish(ReplicationLog.OP_ORDER, "R" + (base + i + 1), orders.get(i));
+        }
+    }
+
+    private void awaitCaughtUp() throws InterruptedException {
+        long last = log.lastSequence();
+        await(() -> replicator.stats().get(0).ackedSequence >= last
+            && replica.stats().applied >= last, "子 KDS 没有追上 " + last);
+    }
+
+    private void assertContiguous(int count) {
+        List<Long> sequences;
+        synchronized (applied) {
+            sequences = new ArrayList<>(applied);
+        }
+        assertEquals(count, sequences.size(), "每条变化只应用一次");
+        for (int i = 0; i < count; i++) assertEquals(i + 1, (long) sequences.get(i), "按序号顺序应用");
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + CATCH_UP_TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError(message);
+            Thread.sleep(20);
+        }
+    }
+}
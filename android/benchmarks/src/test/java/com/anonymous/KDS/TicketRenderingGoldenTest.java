@@ -0,0 +1,263 @@
+package com.anonymous.KDS;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * 小票排版的标准字节：期望值按 ESC/POS 指令逐条写出（文字按 GBK 编码），不是从当前输出复制的。
+ * 比较十六进制字符串，失败时可以直接看出是哪条指令或哪一列不同。
+ */
+class TicketRenderingGoldenTest {
+
+    private static final Charset GBK = Charset.forName("GBK");
+
+    @TempDir
+    Path directory;
+
+    // ---- EscPosBuffer 指令编码 ----
+
+    @Test
+    void encodesCommands() {
+        EscPosBuffer out = new EscPosBuffer();
+        out.initialize().align(EscPosBuffer.ALIGN_CENTER).bold(true).size(2, 3)
+            .text("A").newline().feed(5).cut();
+        assertBytes(new Expected().bytes(0x1B, '@').bytes(0x1B, 'a', 1).bytes(0x1B, 'E', 1).bytes(0x1D, '!', 0x12)
+            .bytes('A', 0x0A).bytes(0x1B, 'd', 5).bytes(0x1D, 'V', 0), out);
+
+        out.reset().align(EscPosBuffer.ALIGN_RIGHT).bold(false).size(1, 1).size(8, 8);
+        assertBytes(new Expected().bytes(0x1B, 'a', 2).bytes(0x1B, 'E', 0).bytes(0x1D, '!', 0).bytes(0x1D, '!', 0x77), out);
+    }
+
+    @Test
+    void encodesTextAsGbk() {
+        EscPosBuffer out = new EscPosBuffer();
+        out.text("宫保鸡丁 x2").repeat('-', 3).repeat('＝', 2).text("abc", 1, 3);
+        assertBytes(new Expected().bytes(0xB9, 0xAC, 0xB1, 0xA3, 0xBC, 0xA6, 0xB6, 0xA1).bytes(' ', 'x', '2')
+            .bytes('-', '-', '-').bytes(0xA3, 0xBD, 0xA3, 0xBD).bytes('b', 'c'), out);
+
+        // GBK 无法表示的字符替换为 ?
+        out.reset().text("a😀b");
+        assertBytes(new Expected().bytes('a', '?', 'b'), out);
+    }
+
+    @Test
+    void encodesQrCode() {
+        EscPosBuffer out = new EscPosBuffer();
+        out.qrCode("AB", 6);
+        assertBytes(new Expected()
+            .bytes(0x1D, '(', 'k', 4, 0, 49, 65, 50, 0)
+            .bytes(0x1D, '(', 'k', 3, 0, 49, 67, 6)
+            .bytes(0x1D, '(', 'k', 3, 0, 49, 69, 49)
+            .bytes(0x1D, '(', 'k', 5, 0, 49, 80, 48, 'A', 'B')
+            .bytes(0x1D, '(', 'k', 3, 0, 49, 81, 48), out);
+    }
+
+    @Test
+    void reusesBuffer() {
+        EscPosBuffer out = new EscPosBuffer(4, GBK);
+        out.initialize().text("超过初始容量的文字");
+        byte[] first = out.toByteArray();
+        assertEquals(hex(new Expected().bytes(0x1B, '@').text("超过初始容量的文字").toByteArray()), hex(first));
+
+        // 返回的是副本，之后修改缓冲区不影响已经交出的数据
+        out.reset().text("再次");
+        assertEquals(hex(new Expected().text("再次").toByteArray()), hex(out.toByteArray()));
+        assertEquals(hex(new Expected().bytes(0x1B, '@').text("超过初始容量的文字").toByteArray()), hex(first));
+        assertNotSame(out.toByteArray(), out.toByteArray());
+    }
+
+    // ---- 显示宽度、截断和金额 ----
+
+    @Test
+    void measuresCjkAsTwoColumns() {
+        assertEquals(8, TicketRenderer.displayWidth("宫保鸡丁"));
+        assertEquals(5, TicketRenderer.displayWidth("Cola!"));
+        // 全角标点和韩文为 2 列，半角片假名为 1 列
+        assertEquals(6, TicketRenderer.displayWidth("，한ｱｲ"));
+    }
+
+    @Test
+    void truncatesByDisplayWidth() {
+        assertEquals("abcdefgh", TicketRenderer.truncate("abcdefgh", 8));
+        assertEquals("abcde...", TicketRenderer.truncate("abcdefghi", 8));
+        // 中文字放不下半个，少占一列
+        assertEquals("ab...", TicketRenderer.truncate("ab中文字", 6));
+        assertEquals("超级无...", TicketRenderer.truncate("超级无敌大鸡腿套餐", 10));
+    }
+
+    @Test
+    void formatsPricesWithTwoDecimals() {
+        assertEquals("0.00", price(0));
+        assertEquals("12.50", price(12.5));
+        assertEquals("0.30", price(0.1 + 0.2));
+        assertEquals("20.00", price(19.999));
+        assertEquals("-3.50", price(-3.5));
+        assertEquals("1234567.89", price(1234567.891));
+        assertEquals("0.05", price(0.05));
+    }
+
+    // ---- 模板 ----
+
+    @Test
+    void alignsCjkColumnsAndTruncates() throws Exception {
+        TicketTemplate template = TicketTemplate.compile(String.join("\n",
+            "#each items",
+            "#row 10< {name} | 3> {quantity} | 8> {price}",
+            "#end"));
+        OrderTicket ticket = new OrderTicket();
+        ticket.items.add(item("鸡翅", 2, 12.5));
+        ticket.items.add(item("超级无敌大鸡腿套餐", 10, 128));
+        ticket.items.add(item("Cola", 1, 3));
+        EscPosBuffer out = new EscPosBuffer();
+        template.render(ticket, out);
+        assertBytes(new Expected()
+            .line("鸡翅" + spaces(6) + " " + "  2" + " " + "   12.50")
+            .line("超级无..." + spaces(1) + " " + " 10" + " " + "  128.00")
+            .line("Cola" + spaces(6) + " " + "  1" + " " + "    3.00"), out);
+    }
+
+    @Test
+    void wrapsCjkTextByDisplayWidth() throws Exception {
+        TicketTemplate template = TicketTemplate.compile(String.join("\n",
+            "#width 10",
+            "{shopName}",
+            "#each items",
+            "#row 4<~ {name} | 5> {price}",
+            "#end"));
+        OrderTicket ticket = new OrderTicket();
+        ticket.shopName = "川味小馆总店";
+        ticket.items.add(item("辣子鸡丁", 1, 1));
+        EscPosBuffer out = new EscPosBuffer();
+        template.render(ticket, out);
+        // 10 列放 5 个中文字；4 列宽的换行列每行放 2 个，续行的其他列留空
+        assertBytes(new Expected().line("川味小馆总").line("店").line("辣子" + " " + " 1.00").line("鸡丁"), out);
+    }
+
+    @Test
+    void rendersKitchenTicket() throws Exception {
+        TicketTemplate template = new TicketTemplates(directory.toFile()).get(TicketTemplates.KITCHEN);
+        OrderTicket ticket = new OrderTicket();
+        ticket.shopName = "川味小馆";
+        ticket.orderId = "A001";
+        ticket.orderTime = "2024-05-01 12:30";
+        ticket.pickupMethod = "堂食";
+        ticket.tableNumber = "8";
+        OrderTicket.Item chicken = item("宫保鸡丁", 2, 28);
+        chicken.options.add(option("辣度", "微辣", 0));
+        OrderTicket.Item rice = item("米饭", 1, 2.5);
+        rice.options.add(option("加饭", "大份", 1));
+        ticket.items.add(chicken);
+        ticket.items.add(rice);
+
+        byte[] rendered = new TicketRenderer().render(template, ticket);
+        String rule = "-".repeat(32);
+        Expected expected = new Expected()
+            .bytes(0x1B, '@')
+            .style(1, true, 2).line("川味小馆")
+            .style(0, false, 1).line("订单号: A001").line("下单时间: 2024-05-01 12:30").line("取餐方式: 堂食").line("桌号: 8")
+            .style(1, false, 1).line(rule)
+            .style(0, true, 1).line("商品                  数量     价格")
+            .style(1, false, 1).line(rule)
+            .style(0, false, 1)
+            .line("宫保鸡丁" + spaces(15) + "2" + spaces(4) + "28.00")
+            .line("  - 辣度: 微辣")
+            .line("米饭" + spaces(19) + "1" + spaces(5) + "2.50")
+            .line("  - 加饭: 大份 (+1.00)")
+            .style(1, false, 1).line(rule)
+            .style(2, true, 1).line("合计: 59.50元").line("")
+            .style(1, false, 1).line("谢谢惠顾，欢迎再次光临!")
+            .bytes(0x1B, 'd', 5).bytes(0x1D, 'V', 0);
+        assertEquals(hex(expected.toByteArray()), hex(rendered));
+
+        // 批量打印：不切纸时只少最后的 GS V 0，同一个 TicketRenderer 连续排版结果不变
+        TicketRenderer renderer = new TicketRenderer();
+        renderer.begin();
+        renderer.append(template, ticket, false);
+        renderer.append(template, ticket, true);
+        byte[] single = expected.toByteArray();
+        byte[] uncut = Arrays.copyOf(single, single.length - 3);
+        Expected batch = new Expected().raw(uncut).raw(Arrays.copyOfRange(single, 2, single.length));
+        assertEquals(hex(batch.toByteArray()), hex(renderer.drain()));
+        assertEquals(0, renderer.pending());
+    }
+
+    // ---- 工具 ----
+
+    private static String price(double value) {
+        StringBuilder sb = new StringBuilder();
+        TicketRenderer.appendPrice(sb, value);
+        return sb.toString();
+    }
+
+    private static OrderTicket.Item item(String name, int quantity, double price) {
+        OrderTicket.Item item = new OrderTicket.Item();
+        item.name = name;
+        item.quantity = quantity;
+        item.price = price;
+        return item;
+    }
+
+    private static OrderTicket.Option option(String name, String value, double price) {
+        OrderTicket.Option option = new OrderTicket.Option();
+        option.name = name;
+        option.value = value;
+        option.price = price;
+        return option;
+    }
+
+    private static String spaces(int count) {
+        return " ".repeat(count);
+    }
+
+    private static void assertBytes(Expected expected, EscPosBuffer actual) {
+        assertEquals(hex(expected.toByteArray()), hex(actual.toByteArray()));
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 3);
+        for (byte b : bytes) {
+            if (sb.length() > 0) sb.append(b == 0x0A ? '\n' : ' ');
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /** 按指令拼出期望的字节 */
+    private static final class Expected {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Expected bytes(int... values) {
+            for (int value : values) out.write(value);
+            return this;
+        }
+
+        Expected raw(byte[] bytes) {
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Expected text(String text) {
+            return raw(text.getBytes(GBK));
+        }
+
+        Expected line(String text) {
+            return text(text).bytes(0x0A);
+        }
+
+        /** #style：ESC a、ESC E、GS ! */
+        Expected style(int align, boolean bold, int size) {
+            return bytes(0x1B, 'a', align).bytes(0x1B, 'E', bold ? 1 : 0).bytes(0x1D, '!', (size - 1) << 4 | (size - 1));
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -14,7 +14,7 @@ import { theme } from "../../styles/theme";
 import * as Network from "expo-network";
 import { Picker } from "@react-native-picker/picker";
 import AsyncStorage from "@react-native-async-storage/async-storage";
-import { CategoryType } from "@/services/distributionService";
+import { CategoryType, DiscoveredKDSInfo } from "@/services/distributionService";
 import { useLanguage } from "../../contexts/LanguageContext";
 import { SupportedLanguage } from "../../constants/translations";
 import { DistributionService } from "@/services/distributionService";
@@ -40,6 +40,10 @@ export default function SettingsScreen() {
   const [subKdsList, setSubKdsList] = useState<
     { ip: string; category: CategoryType }[]
   >([]);
+  // 通过UDP信标发现、等待确认添加的子KDS
+  const [discoveredKdsList, setDiscoveredKdsList] = useState<
+    DiscoveredKDSInfo[]
+  >([]);
   const [assignedCategory, setAssignedCategory] = useState<CategoryType>(
     CategoryType.DRINKS
   );
@@ -97,6 +101,13 @@ export default function SettingsScreen() {
     loadSettings();
   }, []);
 
+  // 监听信标发现的子KDS
+  useEffect(() => {
+    setDiscoveredKdsList(DistributionService.getDiscoveredKdsList());
+    DistributionService.setDiscoveryListener(setDiscoveredKdsList);
+    return () => DistributionService.setDiscoveryListener(null);
+  }, []);
+
   // 保存设置
   const saveSettings = async () => {
     try {
@@ -176,6 +187,31 @@ export default function SettingsScreen() {
     }
   };
 
+  // 确认添加信标发现的子KDS，使用它广播的品类
+  const confirmDiscoveredKds = (kds: DiscoveredKDSInfo) => {
+    const category = Object.values(CategoryType).includes(kds.category)
+      ? kds.category
+      : CategoryType.ALL;
+    Alert.alert(
+      t("addSubKDS"),
+      `${kds.ip} (${getCategoryDisplayName(category)})`,
+      [
+        { text: t("cancel"), style: "cancel" },
+        {
+          text: t("confirm"),
+          onPress: async () => {
+            const success = await DistributionService.addSubKDS(kds.ip, category);
+            if (success) {
+              setSubKdsList((list) => [...list, { ip: kds.ip, category }]);
+            } else {
+              Alert.alert("错误", "添加子KDS失败");
+            }
+          },
+        },
+      ]
+    );
+  };
+
   // 删除子KDS
   const removeSubKds = async (ip: string) => {
     try {
@@ -412,6 +448,23 @@ export default function SettingsScreen() {
             ) : (
               <Text style={styles.noItemsText}>{t("noSubKDS")}</Text>
             )}
+
+            {discoveredKdsList.length > 0 && (
+              <>
+                <Text style={styles.infoText}>{t("discoveredSubKDS")}</Text>
+                {discoveredKdsList.map((kds) => (
+                  <View key={kds.ip} style={styles.subKdsItem}>
+                    <Text>
+                      {kds.ip} ({getCategoryDisplayName(kds.category)})
+                      {kds.alive ? "" : ` - ${t("offline")}`}
+                    </Text>
+                    <TouchableOpacity onPress={() => confirmDiscoveredKds(kds)}>
+                      <Text style={styles.confirmDiscoveredButton}>{t("add")}</Text>
+                    </TouchableOpacity>
+                  </View>
+                ))}
+              </>
+            )}
           </>
         )}
 
@@ -660,6 +713,9 @@ const styles = StyleSheet.create({
   removeButton: {
     color: "red",
   },
+  confirmDiscoveredButton: {
+    color: "#4CAF50",
+  },
   noItemsText: {
     fontSize: 16,
     color: "#999",
@@ -10,7 +10,7 @@ import {
 import { Ionicons } from "@expo/vector-icons";
 import { FormattedOrder } from "@/services/types";
 import { NativeModules } from "react-native";
-import { checkPrinter } from "../services/orderPrinter";
+import { checkPrinter, waitForPrintJob } from "../services/orderPrinter";
 import { colors } from "../styles/color";
 import { useOrders } from "@/contexts/OrderContext";
 const { Printer_K1215 } = NativeModules;
@@ -130,8 +130,9 @@ export const OrderTimer: React.FC<OrderTimerProps> = ({ order }) => {
         return;
       }
 
-      // 直接打印当前订单
-      const result = await Printer_K1215.printOrder(order);
+      // 加入打印队列并等待打印完成
+      const jobId = await Printer_K1215.printOrder(order);
+      const result = await waitForPrintJob(jobId);
 
       if (result) {
         Alert.alert(
@@ -157,6 +157,8 @@ export const translations = {
     addSubKDS: "添加副屏设备",
     enterSubKDSIPAddress: "输入副屏IP地址",
     noSubKDS: "暂无副屏设备",
+    discoveredSubKDS: "局域网内发现的副屏设备（确认后添加）",
+    offline: "离线",
     saveSettings: "保存设置",
     
     // 品类显示
@@ -343,6 +345,8 @@ export const translations = {
     addSubKDS: "Add Slave KDS",
     enterSubKDSIPAddress: "Enter Slave KDS IP Address",
     noSubKDS: "No Slave KDS",
+    discoveredSubKDS: "Slave KDS found on the network (confirm to add)",
+    offline: "Offline",
     saveSettings: "Save Settings",
     
     // Category display
@@ -163,27 +163,17 @@ export function OrderProvider({ children }: { children: React.ReactNode }) {
   const removeOrder = useCallback(
     (orderId: string, source: "network" | "tcp" | "all" = "all") => {
       if (source === "network" || source === "all") {
-        setNetworkOrders((prev) => {
-          const newOrders = prev.filter((order) => order.id !== orderId);
-          // 保存更新后的网络订单列表
-          OrderService.saveNetworkOrders(newOrders);
-          return newOrders;
-        });
+        setNetworkOrders((prev) => prev.filter((order) => order.id !== orderId));
       }
 
       if (source === "tcp" || source === "all") {
-        setTcpOrders((prev) => {
-          const newOrders = prev.filter((order) => order.id !== orderId);
-          // 保存更新后的TCP订单列表
-          OrderService.saveTCPOrders(newOrders);
-          return newOrders;
-        });
+        setTcpOrders((prev) => prev.filter((order) => order.id !== orderId));
       }
 
       // 更新合并的订单列表
       setOrders((prev) => prev.filter((order) => order.id !== orderId));
 
-      // 调用OrderService的移除方法
+      // 调用OrderService的移除方法（同时从本地存储中删除）
       OrderService.removeOrder(orderId);
     },
     []
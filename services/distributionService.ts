@@ -1,6 +1,7 @@
 import AsyncStorage from '@react-native-async-storage/async-storage';
 import { FormattedOrder, OrderItem } from './types';
 import { OrderService } from './orderService/OrderService';
+import { KdsPeer } from './orderModule';
 import { TCPSocketService } from './tcpSocketService';
 import { Alert } from 'react-native';
 
@@ -26,11 +27,22 @@ interface SubKDSInfo {
   connected: boolean;
 }
 
+// 通过UDP信标发现、还没有添加的子KDS
+export interface DiscoveredKDSInfo {
+  ip: string;
+  // 子KDS自己广播的品类，只作为添加时的默认值
+  category: CategoryType;
+  alive: boolean;
+}
+
 export class DistributionService {
   private static role: KDSRole = KDSRole.MASTER;
   private static masterIP: string = "";
   private static subKdsList: SubKDSInfo[] = [];
   private static tcpSockets: Map<string, any> = new Map(); // 保存与子KDS的连接
+  // 信标不经过认证，发现的子KDS只在内存中列出，由操作员在设置页面确认添加
+  private static discoveredKdsList: Map<string, DiscoveredKDSInfo> = new Map();
+  private static discoveryListener: ((peers: DiscoveredKDSInfo[]) => void) | null = null;
   
   private static initialized = false;
   
@@ -136,36 +148,18 @@ export class DistributionService {
       // 3. 设置子KDS注册回调
       TCPSocketService.setRegistrationCallback(async (ip: string, category: CategoryType) => {
         console.log(`收到子KDS注册请求: IP=${ip}, 品类=${category}`);
-        
-        // 检查子KDS是否已存在
-        const existingIndex = this.subKdsList.findIndex(kds => kds.ip === ip);
-        
-        if (existingIndex >= 0) {
-          console.log(`子KDS ${ip} 已存在，更新连接状态和品类`);
-          // 更新现有子KDS的状态和品类
-          this.subKdsList[existingIndex] = {
-            ...this.subKdsList[existingIndex],
-            category: category,
-            connected: true
-          };
-        } else {
-          console.log(`添加新的子KDS: ${ip}, 品类: ${category}`);
-          // 添加新的子KDS
-          this.subKdsList.push({
-            ip: ip,
-            category: category,
-            connected: true
-          });
-        }
-        
-        // 保存更新后的子KDS列表
-        await AsyncStorage.setItem("sub_kds_list", JSON.stringify(this.subKdsList));
-        console.log(`已保存更新的子KDS列表，共${this.subKdsList.length}个子KDS`);
+        await this.registerSubKDS(ip, category);
       });
       
       // 4. 继续使用OrderService处理网络订单
       await OrderService.bindTCPServer();
       
+      // 通过UDP信标发现子KDS（确认后才加入列表）；信标超时的子KDS原生层不再连接
+      OrderService.startDiscovery(KDSRole.MASTER, CategoryType.ALL, (peers) => this.handlePeers(peers));
+      
+      // 原生层开始向子KDS推送（包括上次未送达的变化）
+      await this.syncReplicas();
+      
       // 5. 尝试连接所有子KDS
       for (const subKds of this.subKdsList) {
         this.connectToSubKDS(subKds.ip, subKds.category);
@@ -182,6 +176,13 @@ export class DistributionService {
     try {
       console.log("初始化子KDS...");
       
+      // 主KDS通过原生复制推送订单、状态变化和出餐，与下面的连接无关
+      OrderService.bindReplication();
+      
+      // 在UDP信标里广播本机的分类，主KDS的设置页面列出本机，确认添加后开始推送
+      const category = await AsyncStorage.getItem("kds_category") || CategoryType.ALL;
+      OrderService.startDiscovery(KDSRole.SLAVE, category, () => {});
+      
       // 获取主KDS IP
       const masterIP = await AsyncStorage.getItem("master_ip") || "";
       if (!masterIP) {
@@ -224,6 +225,68 @@ export class DistributionService {
     }
   }
   
+  // 添加或更新子KDS（注册请求），分类变化后重新设置原生复制
+  private static async registerSubKDS(ip: string, category: CategoryType): Promise<void> {
+    const existingIndex = this.subKdsList.findIndex(kds => kds.ip === ip);
+    
+    if (existingIndex >= 0) {
+      console.log(`子KDS ${ip} 已存在，更新连接状态和品类`);
+      this.subKdsList[existingIndex] = {
+        ...this.subKdsList[existingIndex],
+        category: category,
+        connected: true
+      };
+    } else {
+      console.log(`添加新的子KDS: ${ip}, 品类: ${category}`);
+      this.subKdsList.push({
+        ip: ip,
+        category: category,
+        connected: true
+      });
+    }
+    
+    // 保存更新后的子KDS列表
+    await AsyncStorage.setItem("sub_kds_list", JSON.stringify(this.subKdsList));
+    console.log(`已保存更新的子KDS列表，共${this.subKdsList.length}个子KDS`);
+    await this.syncReplicas();
+  }
+  
+  // 主KDS：根据UDP信标更新子KDS的在线状态。局域网内任何设备都可以广播信标，
+  // 所以不自动添加、不保存、不改已添加子KDS的品类；新发现的子KDS等操作员确认
+  private static handlePeers(peers: KdsPeer[]): void {
+    let discoveredChanged = false;
+    for (const peer of peers) {
+      if (peer.role !== KDSRole.SLAVE) continue;
+      const existing = this.subKdsList.find(kds => kds.ip === peer.address);
+      if (existing) {
+        if (existing.connected !== peer.alive) {
+          existing.connected = peer.alive;
+          console.log(`子KDS ${peer.address} ${peer.alive ? '已上线' : '已离线'}`);
+        }
+        if (peer.alive && existing.category !== peer.category) {
+          console.warn(`子KDS ${peer.address} 广播的品类 ${peer.category} 与设置的 ${existing.category} 不同，按设置推送`);
+        }
+        continue;
+      }
+      const discovered = this.discoveredKdsList.get(peer.address);
+      if (discovered && discovered.alive === peer.alive && discovered.category === peer.category) continue;
+      if (!discovered && peer.alive) {
+        console.log(`发现子KDS: ${peer.address}, 品类: ${peer.category}，等待确认添加`);
+      }
+      this.discoveredKdsList.set(peer.address, {
+        ip: peer.address,
+        category: peer.category as CategoryType,
+        alive: peer.alive
+      });
+      discoveredChanged = true;
+    }
+    if (discoveredChanged) this.notifyDiscovered();
+  }
+  
+  private static notifyDiscovered(): void {
+    if (this.discoveryListener) this.discoveryListener(this.getDiscoveredKdsList());
+  }
+  
   // 连接到子KDS
   private static async connectToSubKDS(ip: string, category: CategoryType): Promise<void> {
     try {
@@ -287,97 +350,13 @@ export class DistributionService {
         return;
       }
       
-      // 分析订单商品中的分类
-      console.log(`开始分析订单中的商品分类...`);
-      let allOrders = await OrderService.getAllOrders();
-      console.log(`总共有 ${allOrders.length} 个订单`);
-      
-      // 检查当前订单
-      let itemCategories = new Set<string>();
-      console.log(`订单 ${order.id} 有 ${order.products.length} 个商品`);
-      
-      // 增强商品分类识别，确保能正确识别饮料类
-      for (const product of order.products) {
-        console.log(`商品: ${product.name}, 原始分类: ${product.category || 'default'}`);
-        
-        // 处理分类，确保大小写匹配
-        let category = product.category;
-        
-        // 如果是"drinks"（小写），转换为"Drinks"（首字母大写）
-        if (category && category.toLowerCase() === 'drinks') {
-          category = 'Drinks';
-        }
-        
-        // 处理"Beverage"到"Drinks"的映射
-        if (category && category === 'Beverage') {
-          category = 'Drinks';
-          // 更新产品分类
-          product.category = 'Drinks';
-        }
-        
-        if (category) {
-          itemCategories.add(category);
-        } else {
-          // 根据商品名称判断分类
-          if (product.name.toLowerCase().includes('coffee') || 
-              product.name.toLowerCase().includes('tea') || 
-              product.name.toLowerCase().includes('juice') ||
-              product.name.toLowerCase().includes('dew') ||  // 增加Mountain Dew的识别
-              product.name.toLowerCase().includes('smoothie') || // 增加Smoothie的识别
-              product.name.toLowerCase().includes('crush') ||    // 增加Crush的识别
-              product.name.toLowerCase().includes('water')) {    // 增加Water的识别
-            itemCategories.add('Drinks');
-            product.category = 'Drinks'; // 更新产品分类
-          } else {
-            itemCategories.add('default');
-          }
-        }
-      }
-      
-      console.log(`找到的所有分类: ${JSON.stringify(Array.from(itemCategories))}`);
-      
-      // 检查是否有商品分类
-      if (itemCategories.size === 0) {
-        console.log(`订单 ${order.id} 没有可分发的商品分类，跳过分发`);
-        return;
-      }
-      
-      // 打印子KDS列表和连接状态
-      console.log(`当前子KDS列表: ${JSON.stringify(this.subKdsList.map(kds => ({ 
-        ip: kds.ip, 
-        category: kds.category, 
-        connected: kds.connected 
-      })))}`);
-      
-      // 3. 分发到所有连接的子KDS（发送完整订单）
-      for (const subKds of this.subKdsList) {
-        console.log(`检查子KDS ${subKds.ip}, 品类=${subKds.category}, 连接状态=${subKds.connected}`);
-        
-        if (!subKds.connected) {
-          console.log(`子KDS ${subKds.ip} 未连接，跳过分发`);
-          continue;
-        }
-        
-        // 发送完整订单，不再过滤商品
-        console.log(`准备向子KDS ${subKds.ip} 发送完整订单，商品数量: ${order.products.length}`);
-        
-        // 添加子KDS分类信息，以便子KDS可以根据自己的分类过滤显示
-        const subOrder: FormattedOrder = {
-          ...order,
-          id: order.id,
-          source: 'tcp',
-          orderTime: order.orderTime,
-          pickupMethod: order.pickupMethod,
-          pickupTime: order.pickupTime,
-          order_num: order.order_num,
-          targetCategory: subKds.category // 添加目标分类信息
-        };
-        
-        console.log(`子订单已创建，准备发送到子KDS ${subKds.ip}，商品数量: ${subOrder.products.length}`);
-        
-        // 发送子订单到子KDS
-        await this.sendOrderToSubKDS(subKds.ip, subOrder);
-      }
+      // 记录到原生复制日志，由原生层按子KDS的分类拆分（只发送该分类的商品）并推送
+      // 子KDS离线时不会丢单，重连后从最后确认的序号继续接收
+      const subOrder: FormattedOrder = {
+        ...order,
+        source: 'tcp'
+      };
+      await this.replicate('order', order.id, JSON.stringify(subOrder));
       
       // 添加订单ID到处理缓存
       this.addToProcessedCache(order.id);
@@ -448,31 +427,23 @@ export class DistributionService {
     return result;
   }
   
-  // 发送订单到子KDS
-  private static async sendOrderToSubKDS(ip: string, order: FormattedOrder): Promise<void> {
-    try {
-      console.log(`发送订单 ${order.id} 到子KDS ${ip}`);
-      
-      // 构建订单消息
-      const orderMessage = {
-        type: 'order',
-        data: order,
-        timestamp: new Date().toISOString()
-      };
-      
-      // 发送订单到子KDS
-      const success = await TCPSocketService.sendData(ip, orderMessage);
-      
-      if (success) {
-        console.log(`订单 ${order.id} 成功发送到子KDS ${ip}`);
-      } else {
-        console.error(`发送订单到子KDS ${ip} 失败`);
-      }
-    } catch (error) {
-      console.error(`发送订单到子KDS ${ip} 失败:`, error);
+  // 主KDS把一个变化（新订单、状态变化、出餐）推送给所有子KDS，没有子KDS时不记录
+  public static async replicate(op: 'order' | 'status' | 'bump', orderId: string, data: string = ''): Promise<void> {
+    if (this.role !== KDSRole.MASTER || this.subKdsList.length === 0) return;
+    const seq = await OrderService.publishReplication(op, orderId, data);
+    if (seq !== null) {
+      console.log(`[分发服务] ${op} ${orderId} 已记录，序号 ${seq}`);
     }
   }
   
+  // 把当前的子KDS列表同步给原生复制模块
+  private static async syncReplicas(): Promise<void> {
+    if (this.role !== KDSRole.MASTER) return;
+    await OrderService.configureReplicas(
+      this.subKdsList.map(kds => ({ address: kds.ip, category: kds.category }))
+    );
+  }
+  
   // 关闭分发服务
   public static async shutdown(): Promise<void> {
     try {
@@ -497,7 +468,17 @@ export class DistributionService {
     return [...this.subKdsList];
   }
   
-  // 手动添加子KDS (用于设置界面)
+  // 通过信标发现、还没有添加的子KDS
+  public static getDiscoveredKdsList(): DiscoveredKDSInfo[] {
+    return Array.from(this.discoveredKdsList.values());
+  }
+  
+  // 设置界面监听新发现的子KDS，传 null 取消
+  public static setDiscoveryListener(listener: ((peers: DiscoveredKDSInfo[]) => void) | null): void {
+    this.discoveryListener = listener;
+  }
+  
+  // 手动添加子KDS (用于设置界面，包括确认信标发现的子KDS)
   public static async addSubKDS(ip: string, category: CategoryType): Promise<boolean> {
     try {
       // 检查是否已存在
@@ -515,10 +496,12 @@ export class DistributionService {
       
       // 保存到存储
       await AsyncStorage.setItem("sub_kds_list", JSON.stringify(this.subKdsList));
+      if (this.discoveredKdsList.delete(ip)) this.notifyDiscovered();
       
       // 如果已初始化，则尝试连接
       if (this.initialized && this.role === KDSRole.MASTER) {
         this.connectToSubKDS(ip, category);
+        await this.syncReplicas();
       }
       
       return true;
@@ -533,6 +516,9 @@ export class DistributionService {
     try {
       this.subKdsList = this.subKdsList.filter(kds => kds.ip !== ip);
       await AsyncStorage.setItem("sub_kds_list", JSON.stringify(this.subKdsList));
+      if (this.initialized) {
+        await this.syncReplicas();
+      }
       return true;
     } catch (error) {
       console.error(`移除子KDS失败:`, error);
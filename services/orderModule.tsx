@@ -1,40 +1,155 @@
-import { NativeModules } from "react-native";
+import { EmitterSubscription, NativeEventEmitter, NativeModules } from "react-native";
+
+// 原生层按批次发出的订单事件
+const ORDERS_RECEIVED_EVENT = "onOrdersReceived";
+// 子KDS：主KDS推送的变化，按序号顺序成批发出
+const REPLICATION_EVENT = "onReplication";
+// 局域网内发现的KDS上线或离线，数据为当前所有KDS
+const PEERS_EVENT = "onPeersChanged";
+
+export interface ReceivedOrder {
+  order: any;
+  // 为 true 时，order 已经是原生层格式化好的 FormattedOrder
+  preformatted: boolean;
+}
+
+// 主KDS推送给子KDS的一个变化
+export type ReplicationOp = "order" | "status" | "bump";
+
+export interface ReplicationEntry {
+  seq: number;
+  op: ReplicationOp;
+  orderId: string;
+  // order 为订单JSON，status 为新状态，bump 为空
+  data: string;
+}
+
+export interface ReplicaConfig {
+  address: string;
+  // 子KDS的分类，"all" 收到整个订单
+  category: string;
+}
+
+// 通过UDP信标发现的KDS
+export interface KdsPeer {
+  id: string;
+  role: "master" | "slave";
+  category: string;
+  host: string;
+  port: number;
+  // 默认端口时只有IP，可以直接作为子KDS地址
+  address: string;
+  load: number;
+  // 信标超时后为 false
+  alive: boolean;
+  lastSeenMs: number;
+}
 
 class OrderModule {
   private nativeModule: any;
-  private onOrderReceived: ((order: any) => void) | null = null;
+  private onOrderReceived: ((order: any, preformatted: boolean) => void) | null = null;
+  private onOrderBatchReceived: ((orders: ReceivedOrder[]) => void | Promise<void>) | null = null;
+  // 批次按收到的顺序确认，后一批先保存完也要等前一批确认之后
+  private ackChain: Promise<void> = Promise.resolve();
+  private subscription: EmitterSubscription | null = null;
+  private replicationSubscription: EmitterSubscription | null = null;
+  private peersSubscription: EmitterSubscription | null = null;
+  private onPeersChanged: ((peers: KdsPeer[]) => void) | null = null;
+  private onReplication: ((entries: ReplicationEntry[]) => Promise<void>) | null = null;
+  // 设置回调之前收到的变化
+  private pendingReplication: ReplicationEntry[] = [];
 
   constructor() {
     this.nativeModule = NativeModules.OrderHandlerModule;
   }
 
-  // 绑定原生回调
+  // 监听原生订单事件
   public async bind() {
     try {
-      console.log("绑定TCP回调...");
-      this.nativeModule.BindCallback(this.handleIncomingData);
-      console.log("TCP回调绑定成功");
+      console.log("绑定TCP订单事件...");
+      if (!this.subscription) {
+        const emitter = new NativeEventEmitter(this.nativeModule);
+        this.subscription = emitter.addListener(ORDERS_RECEIVED_EVENT, this.handleIncomingBatch);
+        this.replicationSubscription = emitter.addListener(REPLICATION_EVENT, this.handleReplicationBatch);
+        this.peersSubscription = emitter.addListener(PEERS_EVENT, (peers: KdsPeer[]) => {
+          if (this.onPeersChanged && Array.isArray(peers)) this.onPeersChanged(peers);
+        });
+      }
+      console.log("TCP订单事件绑定成功");
       return true;
     } catch (error) {
-      console.error("绑定TCP回调失败:", error);
+      console.error("绑定TCP订单事件失败:", error);
       throw error;
     }
   }
 
-  // 处理接收到的TCP数据
-  private handleIncomingData = (data: any) => {
-    console.log("收到TCP数据:", data);
-    this.nativeModule.BindCallback(this.handleIncomingData); //??
-    console.log("data:", data);
+  // 处理原生层合并发出的一批TCP数据，批量回调（保存订单）完成后确认，原生层据此记录 jsAck 延迟
+  private handleIncomingBatch = (batch: any[]) => {
+    const processed = this.processBatch(batch).catch((error) => {
+      console.error("处理TCP数据批次失败:", error);
+    });
+    this.ackChain = this.ackChain
+      .then(() => processed)
+      .then(() => {
+        if (this.nativeModule && this.nativeModule.ackOrderBatch) {
+          this.nativeModule.ackOrderBatch();
+        }
+      })
+      .catch((error) => {
+        // 确认失败不能挡住后面的批次
+        console.error("确认TCP数据批次失败:", error);
+      });
+  };
+
+  private async processBatch(batch: any[]): Promise<void> {
+    if (!Array.isArray(batch)) return;
+    console.log(`收到TCP数据批次，共 ${batch.length} 条`);
+    const orders: ReceivedOrder[] = [];
+    for (const data of batch) {
+      const received = this.toReceivedOrder(data);
+      if (received) orders.push(received);
+    }
+    if (orders.length === 0) return;
+
+    if (this.onOrderBatchReceived) {
+      await this.onOrderBatchReceived(orders);
+    } else if (this.onOrderReceived) {
+      for (const { order, preformatted } of orders) {
+        this.onOrderReceived(order, preformatted);
+      }
+    }
+  }
+
+  // 按顺序应用主KDS推送的变化，应用完成后确认，子KDS重启后从确认的序号之后继续接收
+  private handleReplicationBatch = async (entries: ReplicationEntry[]) => {
+    if (!Array.isArray(entries) || entries.length === 0) return;
+    if (!this.onReplication) {
+      this.pendingReplication.push(...entries);
+      return;
+    }
+    try {
+      await this.onReplication(entries);
+      this.ackReplication(entries[entries.length - 1].seq);
+    } catch (error) {
+      // 不确认，重启后主KDS会重发
+      console.error("应用主KDS推送的变化失败:", error);
+    }
+  };
+
+  // 处理接收到的单条TCP数据
+  private toReceivedOrder(data: any): ReceivedOrder | null {
+    // 原生层已经解析并格式化好的订单（FormattedOrder），直接使用
+    if (data && typeof data === "object") {
+      return { order: data, preformatted: true };
+    }
     // 预检查是否是JSON格式
     if (typeof data === "string") {
       try {
-        console.log("data:", data);
         const trimmedData = data.trim(); // 去除前后空白字符
         const isJSON = trimmedData.startsWith("{") && trimmedData.endsWith("}");
         if (!isJSON) {
           console.error("收到非JSON格式数据:", data);
-          return;
+          return null;
         }
 
         const orderData = JSON.parse(trimmedData);
@@ -42,24 +157,186 @@ class OrderModule {
         // 检查数据结构
         if (!orderData || typeof orderData !== "object") {
           console.error("无效的JSON对象");
-          return;
-        }
-
-        // 如果设置了回调函数，调用它
-        if (this.onOrderReceived) {
-          this.onOrderReceived(orderData);
+          return null;
         }
+        return { order: orderData, preformatted: false };
       } catch (error) {
         console.error("处理TCP数据失败:", error);
       }
     }
-  };
+    return null;
+  }
 
   // 设置订单接收回调 这里的callback就可以拿到tcp传来的数据
-  public setOrderCallback(callback: (order: any) => void) {
+  // preformatted 为 true 时，order 已经是原生层格式化好的 FormattedOrder
+  public setOrderCallback(callback: (order: any, preformatted: boolean) => void) {
     this.onOrderReceived = callback;
   }
 
+  // 设置批量订单回调，设置后优先于单条回调，一批订单只回调一次
+  public setOrderBatchCallback(callback: (orders: ReceivedOrder[]) => void | Promise<void>) {
+    this.onOrderBatchReceived = callback;
+  }
+
+  // 设置子KDS应用主KDS变化的回调，回调完成（已保存）后才确认
+  public setReplicationCallback(callback: (entries: ReplicationEntry[]) => Promise<void>) {
+    this.onReplication = callback;
+    const pending = this.pendingReplication;
+    this.pendingReplication = [];
+    if (pending.length > 0) this.handleReplicationBatch(pending);
+  }
+
+  private ackReplication(seq: number) {
+    if (this.nativeModule && this.nativeModule.ackReplication) {
+      this.nativeModule.ackReplication(seq);
+    }
+  }
+
+  // 主KDS：设置要复制到的子KDS（address 为 "ip" 或 "ip:端口"），原生层按 category 拆分订单
+  public async configureReplicas(replicas: ReplicaConfig[]): Promise<boolean> {
+    if (this.nativeModule && this.nativeModule.configureReplicas) {
+      return await this.nativeModule.configureReplicas(replicas);
+    }
+    return false;
+  }
+
+  // 主KDS：记录一个变化，落盘后返回序号，原生层随后推送给所有子KDS
+  public async publishReplication(op: ReplicationOp, orderId: string, data: string = ""): Promise<number | null> {
+    if (this.nativeModule && this.nativeModule.publishReplication) {
+      return await this.nativeModule.publishReplication(op, orderId, data);
+    }
+    return null;
+  }
+
+  // 复制状态：主KDS为各子KDS的确认序号、落后条数和最近一次追上用的时间，子KDS为已应用/已确认的序号
+  public async getReplicationStatus(): Promise<any> {
+    if (this.nativeModule && this.nativeModule.getReplicationStatus) {
+      return await this.nativeModule.getReplicationStatus();
+    }
+    return null;
+  }
+
+  // 设置KDS上线或离线的回调
+  public setPeersCallback(callback: (peers: KdsPeer[]) => void) {
+    this.onPeersChanged = callback;
+  }
+
+  // 在UDP信标里广播本机的角色和分类，主KDS据此自动发现子KDS
+  public advertise(role: string, category: string) {
+    if (this.nativeModule && this.nativeModule.advertise) {
+      this.nativeModule.advertise(role, category);
+    }
+  }
+
+  // 当前订单数，作为负载写在信标里
+  public setDiscoveryLoad(load: number) {
+    if (this.nativeModule && this.nativeModule.setDiscoveryLoad) {
+      this.nativeModule.setDiscoveryLoad(load);
+    }
+  }
+
+  // 局域网内发现的KDS（包括已经离线的）
+  public async getPeers(): Promise<{ self: any; peers: KdsPeer[] } | null> {
+    if (this.nativeModule && this.nativeModule.getPeers) {
+      return await this.nativeModule.getPeers();
+    }
+    return null;
+  }
+
+  // 从收到连接到出纸各阶段的延迟分位数（毫秒）、连接/字节/错误计数和队列深度
+  public async getMetrics(): Promise<any> {
+    if (this.nativeModule && this.nativeModule.getMetrics) {
+      return await this.nativeModule.getMetrics();
+    }
+    return null;
+  }
+
+  // 接单流水线各阶段（network → order → persist → deliver）的队列深度、排队时间和服务时间
+  public async getPipelineStats(): Promise<any[] | null> {
+    if (this.nativeModule && this.nativeModule.getPipelineStats) {
+      return await this.nativeModule.getPipelineStats();
+    }
+    return null;
+  }
+
+  // 清空延迟统计，例如压测开始前
+  public resetMetrics() {
+    if (this.nativeModule && this.nativeModule.resetMetrics) {
+      this.nativeModule.resetMetrics();
+    }
+  }
+
+  // 订单原文日志级别：off / summary（默认）/ full
+  public async setPayloadLogLevel(level: "off" | "summary" | "full"): Promise<string | null> {
+    if (this.nativeModule && this.nativeModule.setPayloadLogLevel) {
+      return await this.nativeModule.setPayloadLogLevel(level);
+    }
+    return null;
+  }
+
+  // HTTP / WebSocket 接单端口（4323）的请求数、接受和失败的订单数
+  public async getHttpServerStats(): Promise<any> {
+    if (this.nativeModule && this.nativeModule.getHttpServerStats) {
+      return await this.nativeModule.getHttpServerStats();
+    }
+    return null;
+  }
+
+  // 设置接单的准入限制（连接数、处理中的订单数、帧大小、读取/空闲超时），只传需要修改的项，返回当前状态
+  public async configureAdmission(limits: {
+    maxConnections?: number;
+    maxConnectionsPerClient?: number;
+    maxInFlight?: number;
+    maxInFlightPerClient?: number;
+    maxFrameBytes?: number;
+    readTimeoutMs?: number;
+    idleTimeoutMs?: number;
+    retryAfterMs?: number;
+  }): Promise<any> {
+    if (this.nativeModule && this.nativeModule.configureAdmission) {
+      return await this.nativeModule.configureAdmission(limits);
+    }
+    return null;
+  }
+
+  // 准入控制状态：当前连接数、处理中的订单数，以及回复 BUSY、读取超时关闭的次数
+  public async getAdmissionStats(): Promise<any> {
+    if (this.nativeModule && this.nativeModule.getAdmissionStats) {
+      return await this.nativeModule.getAdmissionStats();
+    }
+    return null;
+  }
+
+  // 设置订单合并窗口（毫秒）和每批最多订单数
+  public configureBatching(windowMs: number, maxBatch: number) {
+    if (this.nativeModule && this.nativeModule.configureOrderBatching) {
+      this.nativeModule.configureOrderBatching(windowMs, maxBatch);
+    }
+  }
+
+  // 获取原生层订单合并的统计数据
+  public async getBatchStats(): Promise<any> {
+    if (this.nativeModule && this.nativeModule.getOrderBatchStats) {
+      return await this.nativeModule.getOrderBatchStats();
+    }
+    return null;
+  }
+
+  // 获取原生层订单去重的统计数据（POS 重发后直接确认、没有交给 JS 的订单数等）
+  public async getDedupStats(): Promise<any> {
+    if (this.nativeModule && this.nativeModule.getOrderDedupStats) {
+      return await this.nativeModule.getOrderDedupStats();
+    }
+    return null;
+  }
+
+  // 订单出餐后通知原生层，从订单日志中移除，重启后不再恢复
+  public markOrderBumped(orderId: string) {
+    if (this.nativeModule && this.nativeModule.markOrderBumped) {
+      this.nativeModule.markOrderBumped(orderId);
+    }
+  }
+
   // 关闭TCP服务器
   public async closeServer() {
     try {
@@ -85,6 +362,26 @@ class OrderModule {
       return false;
     }
   }
+
+  // 并行发送到多个子KDS，返回每个IP的发送结果
+  public async broadcastTCPData(
+    targetIPs: string[],
+    data: string
+  ): Promise<Record<string, { success: boolean; error?: string; latencyMs: number }>> {
+    if (this.nativeModule && this.nativeModule.broadcastTCPData) {
+      return await this.nativeModule.broadcastTCPData(targetIPs, data);
+    }
+    // 旧版原生模块没有批量方法，逐个发送
+    const results: Record<string, { success: boolean; error?: string; latencyMs: number }> = {};
+    const start = Date.now();
+    await Promise.all(
+      targetIPs.map(async (ip) => {
+        const success = await this.sendTCPData(ip, data);
+        results[ip] = { success, latencyMs: Date.now() - start };
+      })
+    );
+    return results;
+  }
 }
 const orderModule = new OrderModule();
 export default orderModule;
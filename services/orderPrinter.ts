@@ -1,4 +1,4 @@
-import { NativeModules } from 'react-native';
+import { EmitterSubscription, NativeEventEmitter, NativeModules } from 'react-native';
 const { Printer_K1215 } = NativeModules;
 
 // 检查打印机连接
@@ -16,22 +16,171 @@ export const checkPrinter = async () => {
   }
 };
 
-// 打印订单
-export const printOrder = async (order: any) => {
+export type PrintPriority = 'normal' | 'rush' | 'reprint';
+
+export interface PrintJobStatus {
+  jobId: string;
+  status: 'queued' | 'printing' | 'done' | 'failed';
+  priority: PrintPriority;
+  description: string;
+  position?: number;
+  enqueuedAt: number;
+  startedAt?: number;
+  finishedAt?: number;
+  waitMs?: number;
+  latencyMs?: number;
+  error?: string;
+  // 负责打印的打印机
+  printer?: string;
+  // 原任务转给备用打印机时，原任务号
+  forwardedFrom?: string;
+  // 订单拆分到多台打印机时（组任务号），各张小票的状态
+  jobs?: PrintJobStatus[];
+}
+
+export type PrinterType = 'usb' | 'bluetooth' | 'network';
+
+export interface PrinterConfig {
+  id: string;
+  type: PrinterType;
+  // USB 设备路径、蓝牙 MAC 或 IP 地址；USB 为空时连接第一个 USB 打印机
+  address?: string;
+  // 负责的商品分类，其余商品由 default 打印机打印
+  categories?: string[];
+  // 离线或忙碌时转给的打印机
+  backup?: string;
+}
+
+export type PrinterState = 'connecting' | 'online' | 'offline';
+
+export interface PrinterInfo extends PrinterConfig {
+  categories: string[];
+  online: boolean;
+  state: PrinterState;
+  lastError?: string;
+  // 离线时距离下一次自动重连的时间
+  nextRetryMs: number;
+  connectAttempts: number;
+  disconnects: number;
+  ticketsPrinted: number;
+  bytesSent: number;
+  failovers: number;
+  ticketsLastMinute: number;
+  queue: Record<string, number>;
+}
+
+export interface PrinterStatusEvent {
+  printerId: string;
+  state: PrinterState;
+  error?: string;
+  // 等待打印机恢复的任务数
+  heldJobs: number;
+  nextRetryMs: number;
+}
+
+// 订阅打印机连接状态变化（原生健康检查自动重连），返回的订阅用 remove() 取消
+export const onPrinterStatusChanged = (listener: (event: PrinterStatusEvent) => void): EmitterSubscription => {
+  return new NativeEventEmitter(Printer_K1215).addListener('onPrinterStatusChanged', listener);
+};
+
+// 打印订单：加入原生打印队列，立即返回任务号（失败返回 false）
+// 打印机离线时任务留在队列中，重新连接后自动打印
+// template 为小票模板名称，默认使用内置的 kitchen 模板
+export const printOrder = async (order: any, priority: PrintPriority = 'normal', template?: string) => {
   try {
-    // 先检查打印机状态
-    const ready = await checkPrinter();
-    if (!ready) {
-      console.error('打印机未就绪');
-      return false;
-    }
-    
     // 发送打印命令
-    const result = await Printer_K1215.printOrder(order);
-    console.log('打印结果:', result);
-    return result;
+    const jobId: string = await Printer_K1215.printOrder(template ? { ...order, priority, template } : { ...order, priority });
+    console.log('打印任务已加入队列:', jobId);
+    return jobId;
   } catch (error) {
     console.error('打印订单失败:', error);
     return false;
   }
-};
\ No newline at end of file
+};
+
+export interface PrintBatchOptions {
+  // 小票模板名称，默认 kitchen
+  template?: string;
+  // 打印机 id，默认 default；批量打印不按分类拆分
+  printer?: string;
+  // 每张小票之后切纸，默认 true；为 false 时只在最后切纸
+  cutBetween?: boolean;
+  priority?: PrintPriority;
+}
+
+export interface PrintBatchProgressEvent {
+  jobId: string;
+  index: number;
+  orderId: string;
+  printed: number;
+  total: number;
+}
+
+// 批量打印（重打、交班汇总）：整批作为一个打印任务，只检查一次连接，返回任务号（失败返回 false）
+export const printOrdersBatch = async (orders: any[], options: PrintBatchOptions = {}) => {
+  try {
+    const jobId: string = await Printer_K1215.printOrdersBatch(orders, options);
+    console.log(`批量打印任务已加入队列: ${jobId}（${orders.length} 张）`);
+    return jobId;
+  } catch (error) {
+    console.error('批量打印失败:', error);
+    return false;
+  }
+};
+
+// 订阅批量打印进度（每张小票写给打印机后一次）
+export const onPrintBatchProgress = (listener: (event: PrintBatchProgressEvent) => void): EmitterSubscription => {
+  return new NativeEventEmitter(Printer_K1215).addListener('onPrintBatchProgress', listener);
+};
+
+// 查询打印任务状态
+export const getPrintJobStatus = async (jobId: string): Promise<PrintJobStatus | null> => {
+  try {
+    return await Printer_K1215.getPrintJobStatus(jobId);
+  } catch (error) {
+    console.error('查询打印任务失败:', error);
+    return null;
+  }
+};
+
+// 等待打印任务完成，返回是否打印成功
+export const waitForPrintJob = async (jobId: string, timeoutMs = 30000): Promise<boolean> => {
+  const deadline = Date.now() + timeoutMs;
+  while (Date.now() < deadline) {
+    const job = await getPrintJobStatus(jobId);
+    if (!job) return false;
+    if (job.status === 'done') return true;
+    if (job.status === 'failed') {
+      console.error(`打印任务 ${jobId} 失败:`, job.error);
+      return false;
+    }
+    await new Promise((resolve) => setTimeout(resolve, 200));
+  }
+  console.error(`等待打印任务 ${jobId} 超时`);
+  return false;
+};
+
+// 打印队列统计
+export const getPrintQueueMetrics = async () => {
+  return await Printer_K1215.getPrintQueueMetrics();
+};
+
+// 保存小票模板（语法见原生 TicketTemplate），模板有错误时抛出异常，错误信息包含行号
+export const saveTicketTemplate = async (name: string, source: string): Promise<void> => {
+  await Printer_K1215.saveTicketTemplate(name, source);
+};
+
+// 删除保存的小票模板，同名的内置模板（kitchen、receipt）重新生效
+export const removeTicketTemplate = async (name: string): Promise<boolean> => {
+  return await Printer_K1215.removeTicketTemplate(name);
+};
+
+// 配置多台打印机（default 为原来的 USB 打印机，始终存在），商品按分类拆分到各打印机
+export const configurePrinters = async (printers: PrinterConfig[]): Promise<void> => {
+  await Printer_K1215.configurePrinters(printers);
+};
+
+// 所有打印机的状态和统计
+export const getPrinters = async (): Promise<PrinterInfo[]> => {
+  return await Printer_K1215.getPrinters();
+};
@@ -4,6 +4,7 @@
  */
 
 import { FormattedOrder } from '../types';
+import { KdsPeer, ReplicaConfig, ReplicationEntry } from '../orderModule';
 import AudioService from '../audioService';
 
 // 导入各模块功能
@@ -114,7 +115,7 @@ export class OrderService {
 
       // 添加新订单
       this.networkOrders = [order, ...this.networkOrders];
-      await StorageService.saveNetworkOrders(this.networkOrders);
+      await StorageService.saveNewNetworkOrders([order], this.networkOrders);
       console.log(`网络订单已添加并保存，当前总数: ${this.networkOrders.length}`);
      
       // 播放新订单提示音
@@ -143,36 +144,51 @@ export class OrderService {
    * 添加新TCP订单
    */
   public static async addTCPOrder(order: FormattedOrder): Promise<void> {
+    return this.addTCPOrders([order]);
+  }
+
+  /**
+   * 批量添加TCP订单：只保存一次、播放一次提示音、触发一次回调
+   */
+  public static async addTCPOrders(orders: FormattedOrder[]): Promise<void> {
     try {
-      // 确保订单有ID
-      if (!order.id) {
-        console.error('TCP订单缺少ID，无法处理');
-        return;
-      }
-      
-      // 确保订单来源标记为tcp
-      order.source = 'tcp';
-      
-      // 检查订单是否已处理过
-      if (this.isOrderProcessed(order._id)) {
-        console.log(`TCP订单 ${order.id} 已处理过，跳过`);
-        return;
+      const newOrders: FormattedOrder[] = [];
+      for (const order of orders) {
+        // 确保订单有ID
+        if (!order.id) {
+          console.error('TCP订单缺少ID，无法处理');
+          continue;
+        }
+        
+        // 确保订单来源标记为tcp
+        order.source = 'tcp';
+        
+        // 检查订单是否已处理过
+        if (this.isOrderProcessed(order._id)) {
+          console.log(`TCP订单 ${order.id} 已处理过，跳过`);
+          continue;
+        }
+        
+        // 检查订单是否已存在
+        const existingOrderIndex = this.tcpOrders.findIndex((o) => o.id === order.id);
+        if (existingOrderIndex !== -1) {
+          console.log(`TCP订单已存在,ID: ${order.id}`);
+          continue;
+        }
+
+        // 添加到处理缓存
+        this.addToProcessedCache(order.id);
+        newOrders.unshift(order);
       }
-      
-      // 检查订单是否已存在
-      const existingOrderIndex = this.tcpOrders.findIndex((o) => o.id === order.id);
-      if (existingOrderIndex !== -1) {
-        console.log(`TCP订单已存在,ID: ${order.id}`);
+      if (newOrders.length === 0) {
         return;
       }
 
-      // 添加到处理缓存
-      this.addToProcessedCache(order.id);
-
-      // 添加新订单
-      this.tcpOrders = [order, ...this.tcpOrders];
-      await StorageService.saveTCPOrders(this.tcpOrders);
-      console.log(`TCP订单已添加并保存，当前总数: ${this.tcpOrders.length}`);
+      // 添加新订单（最新的在前）
+      this.tcpOrders = [...newOrders, ...this.tcpOrders];
+      await StorageService.saveNewTCPOrders(newOrders, this.tcpOrders);
+      TCPService.reportLoad(this.tcpOrders.length);
+      console.log(`TCP订单已添加并保存 ${newOrders.length} 条，当前总数: ${this.tcpOrders.length}`);
      
       // 播放新订单提示音
       AudioService.playNewOrderAlert();
@@ -190,6 +206,7 @@ export class OrderService {
     }
   }
 
+
   /**
    * 获取所有订单（网络+TCP）
    */
@@ -213,7 +230,12 @@ export class OrderService {
       const tcpIndex = this.tcpOrders.findIndex(order => order.id === orderId);
       if (tcpIndex !== -1) {
         this.tcpOrders = await StorageService.removeTCPOrder(orderId, this.tcpOrders);
+        TCPService.markOrderBumped(orderId);
+        TCPService.reportLoad(this.tcpOrders.length);
       }
+
+      // 主KDS出餐后通知子KDS
+      await DistributionService.replicate('bump', orderId);
       
       // 触发更新回调
       if (this.combinedOrderUpdateCallback) {
@@ -224,6 +246,34 @@ export class OrderService {
     }
   }
 
+  /**
+   * 更新订单状态（网络和TCP）
+   */
+  static async updateOrderStatus(orderId: string, status: string) {
+    try {
+      if (this.networkOrders.some(order => order.id === orderId)) {
+        this.networkOrders = await StorageService.updateOrderStatus(
+          orderId, status, this.networkOrders, StorageService.saveNetworkOrders
+        );
+      }
+      if (this.tcpOrders.some(order => order.id === orderId)) {
+        this.tcpOrders = await StorageService.updateOrderStatus(
+          orderId, status, this.tcpOrders, StorageService.saveTCPOrders
+        );
+      }
+
+      // 主KDS的状态变化同步到子KDS
+      await DistributionService.replicate('status', orderId, status);
+      
+      // 触发更新回调
+      if (this.combinedOrderUpdateCallback) {
+        this.combinedOrderUpdateCallback([...this.networkOrders, ...this.tcpOrders]);
+      }
+    } catch (error) {
+      console.error('更新订单状态失败:', error);
+    }
+  }
+
   /**
    * 初始化订单服务
    */
@@ -236,6 +286,7 @@ export class OrderService {
       this.tcpOrders = await StorageService.loadTCPOrders();
       
       console.log(`已加载 ${this.networkOrders.length} 个网络订单和 ${this.tcpOrders.length} 个TCP订单`);
+      TCPService.reportLoad(this.tcpOrders.length);
       
       // 初始化已处理订单缓存
       // 将所有已加载的订单ID添加到处理缓存中，防止重复处理
@@ -303,7 +354,7 @@ export class OrderService {
    * 设置TCP回调函数
    */
   static setTCPCallback(callback: (orderData: FormattedOrder) => void) {
-    TCPService.setTCPCallback(callback, Formatters.formatTCPOrder, this.addTCPOrder.bind(this));
+    TCPService.setTCPCallback(callback, Formatters.formatTCPOrder, this.addTCPOrders.bind(this));
   }
 
   /**
@@ -538,6 +589,59 @@ export class OrderService {
     return TCPService.broadcastToSubKDS(data, subKDSList);
   }
 
+  /**
+   * 主KDS：设置要复制到的子KDS
+   */
+  static async configureReplicas(replicas: ReplicaConfig[]) {
+    return TCPService.configureReplicas(replicas);
+  }
+
+  /**
+   * 主KDS：把一个变化推送给所有子KDS
+   */
+  static async publishReplication(op: ReplicationEntry['op'], orderId: string, data: string = '') {
+    return TCPService.publishReplication(op, orderId, data);
+  }
+
+  /**
+   * 广播本机的角色和分类，局域网内的KDS上线或离线时回调
+   */
+  static startDiscovery(role: string, category: string, callback: (peers: KdsPeer[]) => void) {
+    TCPService.startDiscovery(role, category, callback);
+  }
+
+  /**
+   * 子KDS：接收主KDS推送的变化
+   */
+  static bindReplication() {
+    TCPService.setReplicationCallback(this.applyReplication.bind(this));
+  }
+
+  /**
+   * 子KDS：按顺序应用主KDS推送的变化，连续的新订单合并成一批保存
+   */
+  static async applyReplication(entries: ReplicationEntry[]): Promise<void> {
+    let orders: FormattedOrder[] = [];
+    for (const entry of entries) {
+      if (entry.op === 'order') {
+        orders.push(JSON.parse(entry.data) as FormattedOrder);
+        continue;
+      }
+      if (orders.length > 0) {
+        await this.addTCPOrders(orders);
+        orders = [];
+      }
+      if (entry.op === 'status') {
+        await this.updateOrderStatus(entry.orderId, entry.data);
+      } else if (entry.op === 'bump') {
+        await this.removeOrder(entry.orderId);
+      }
+    }
+    if (orders.length > 0) {
+      await this.addTCPOrders(orders);
+    }
+  }
+
   /**
    * 撤回历史订单到新订单队列
    */
@@ -1,17 +1,43 @@
 /**
  * OrderService 本地存储服务
  * 处理订单的本地存储逻辑
+ *
+ * 有原生订单存储（OrderStoreModule）时按订单增量保存；
+ * 否则退回 AsyncStorage，每次改动整体保存订单数组
  */
 
 import AsyncStorage from '@react-native-async-storage/async-storage';
 import { FormattedOrder } from '../types';
+import orderStore from '../orderStore';
 import { NETWORK_ORDERS_KEY, TCP_ORDERS_KEY } from './constants';
 
+/**
+ * 从原生订单存储加载某个来源的订单
+ * 第一次使用时把 AsyncStorage 中的旧数据迁移到原生存储
+ */
+const loadFromStore = async (source: string, legacyKey: string): Promise<FormattedOrder[]> => {
+  const legacyJson = await AsyncStorage.getItem(legacyKey);
+  if (legacyJson) {
+    const legacyOrders: FormattedOrder[] = JSON.parse(legacyJson);
+    // 旧数组最新的在前，倒序写入以保持原来的顺序
+    await orderStore.upsertOrders(
+      legacyOrders.reverse().map((order) => ({ ...order, source: order.source || source }))
+    );
+    await AsyncStorage.removeItem(legacyKey);
+    console.log(`已迁移 ${legacyOrders.length} 个${source}订单到原生订单存储`);
+  }
+  const orders = await orderStore.queryOrders();
+  return orders.filter((order) => order.source === source);
+};
+
 /**
  * 从 AsyncStorage 加载网络订单
  */
 export const loadNetworkOrders = async (): Promise<FormattedOrder[]> => {
   try {
+    if (orderStore.isAvailable()) {
+      return await loadFromStore('network', NETWORK_ORDERS_KEY);
+    }
     const ordersJson = await AsyncStorage.getItem(NETWORK_ORDERS_KEY);
     return ordersJson ? JSON.parse(ordersJson) : [];
   } catch (error) {
@@ -25,6 +51,9 @@ export const loadNetworkOrders = async (): Promise<FormattedOrder[]> => {
  */
 export const loadTCPOrders = async (): Promise<FormattedOrder[]> => {
   try {
+    if (orderStore.isAvailable()) {
+      return await loadFromStore('tcp', TCP_ORDERS_KEY);
+    }
     const ordersJson = await AsyncStorage.getItem(TCP_ORDERS_KEY);
     return ordersJson ? JSON.parse(ordersJson) : [];
   } catch (error) {
@@ -35,9 +64,14 @@ export const loadTCPOrders = async (): Promise<FormattedOrder[]> => {
 
 /**
  * 保存网络订单到 AsyncStorage
+ * 使用原生存储时只新增/更新这些订单，删除请用 removeNetworkOrder
  */
 export const saveNetworkOrders = async (orders: FormattedOrder[]): Promise<void> => {
   try {
+    if (orderStore.isAvailable()) {
+      await orderStore.upsertOrders(orders);
+      return;
+    }
     await AsyncStorage.setItem(NETWORK_ORDERS_KEY, JSON.stringify(orders));
   } catch (error) {
     console.error('保存网络订单失败:', error);
@@ -46,22 +80,67 @@ export const saveNetworkOrders = async (orders: FormattedOrder[]): Promise<void>
 
 /**
  * 保存TCP订单到 AsyncStorage
+ * 使用原生存储时只新增/更新这些订单，删除请用 removeTCPOrder
  */
 export const saveTCPOrders = async (orders: FormattedOrder[]): Promise<void> => {
   try {
+    if (orderStore.isAvailable()) {
+      await orderStore.upsertOrders(orders);
+      return;
+    }
     await AsyncStorage.setItem(TCP_ORDERS_KEY, JSON.stringify(orders));
   } catch (error) {
     console.error('保存TCP订单失败:', error);
   }
 };
 
+/**
+ * 保存新增的网络订单：原生存储只写入新订单，AsyncStorage 整体保存 allOrders
+ */
+export const saveNewNetworkOrders = async (newOrders: FormattedOrder[], allOrders: FormattedOrder[]): Promise<void> => {
+  return saveNetworkOrders(orderStore.isAvailable() ? newOrders : allOrders);
+};
+
+/**
+ * 保存新增的TCP订单：原生存储只写入新订单，AsyncStorage 整体保存 allOrders
+ */
+export const saveNewTCPOrders = async (newOrders: FormattedOrder[], allOrders: FormattedOrder[]): Promise<void> => {
+  return saveTCPOrders(orderStore.isAvailable() ? newOrders : allOrders);
+};
+
+/**
+ * 更新订单状态，返回更新后的订单列表
+ */
+export const updateOrderStatus = async (
+  orderId: string,
+  status: string,
+  currentOrders: FormattedOrder[],
+  save: (orders: FormattedOrder[]) => Promise<void>
+): Promise<FormattedOrder[]> => {
+  const updatedOrders = currentOrders.map(order => (order.id === orderId ? { ...order, status } : order));
+  try {
+    if (orderStore.isAvailable()) {
+      await orderStore.updateStatus(orderId, status);
+    } else {
+      await save(updatedOrders);
+    }
+  } catch (error) {
+    console.error('更新订单状态失败:', error);
+  }
+  return updatedOrders;
+};
+
 /**
  * 删除网络订单
  */
 export const removeNetworkOrder = async (orderId: string, currentOrders: FormattedOrder[]): Promise<FormattedOrder[]> => {
   try {
     const filteredOrders = currentOrders.filter(order => order.id !== orderId);
-    await saveNetworkOrders(filteredOrders);
+    if (orderStore.isAvailable()) {
+      await orderStore.removeOrder(orderId);
+    } else {
+      await saveNetworkOrders(filteredOrders);
+    }
     console.log('网络订单已删除，ID:', orderId);
     return filteredOrders;
   } catch (error) {
@@ -76,7 +155,11 @@ export const removeNetworkOrder = async (orderId: string, currentOrders: Formatt
 export const removeTCPOrder = async (orderId: string, currentOrders: FormattedOrder[]): Promise<FormattedOrder[]> => {
   try {
     const filteredOrders = currentOrders.filter(order => order.id !== orderId);
-    await saveTCPOrders(filteredOrders);
+    if (orderStore.isAvailable()) {
+      await orderStore.removeOrder(orderId);
+    } else {
+      await saveTCPOrders(filteredOrders);
+    }
     console.log('TCP订单已删除，ID:', orderId);
     return filteredOrders;
   } catch (error) {
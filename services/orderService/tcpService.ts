@@ -3,7 +3,7 @@
  * 处理 TCP 通信相关功能
  */
 
-import orderModule from '../orderModule';
+import orderModule, { KdsPeer, ReplicaConfig, ReplicationEntry, ReplicationOp } from '../orderModule';
 import { FormattedOrder } from '../types';
 
 /**
@@ -23,26 +23,29 @@ export const bindTCPServer = async (): Promise<boolean> => {
 
 /**
  * 设置 TCP 回调函数
+ * 原生层按批次发送订单，一批订单只保存一次、通知一次界面更新
  */
 export const setTCPCallback = (
   callback: (orderData: FormattedOrder) => void,
   formatTCPOrder: (orderData: any) => FormattedOrder,
-  addTCPOrder: (order: FormattedOrder) => Promise<void>
+  addTCPOrders: (orders: FormattedOrder[]) => Promise<void>
 ): void => {
   try {
     console.log('设置TCP订单回调...');
     
-    orderModule.setOrderCallback(async (orderData) => {
-      console.log('收到原始TCP订单数据:', orderData);
+    orderModule.setOrderBatchCallback(async (orders) => {
+      console.log(`收到TCP订单批次，共 ${orders.length} 条`);
       
-      // 格式化订单数据
-      const formattedOrder = formatTCPOrder(orderData);
+      // 格式化订单数据（原生层已解析的订单不需要再格式化）
+      const formattedOrders = orders.map(({ order, preformatted }) =>
+        preformatted ? (order as FormattedOrder) : formatTCPOrder(order)
+      );
       
       // 添加到TCP本地存储
-      await addTCPOrder(formattedOrder);
+      await addTCPOrders(formattedOrders);
       
       // 调用外部回调
-      callback(formattedOrder);
+      formattedOrders.forEach((formattedOrder) => callback(formattedOrder));
     });
   } catch (error) {
     console.error('设置TCP回调失败:', error);
@@ -50,6 +53,71 @@ export const setTCPCallback = (
   }
 };
 
+/**
+ * TCP订单出餐后通知原生订单日志
+ */
+export const markOrderBumped = (orderId: string): void => {
+  try {
+    orderModule.markOrderBumped(orderId);
+  } catch (error) {
+    console.error('标记订单出餐失败:', error);
+  }
+};
+
+/**
+ * 主KDS：设置要复制到的子KDS
+ */
+export const configureReplicas = async (replicas: ReplicaConfig[]): Promise<boolean> => {
+  try {
+    return await orderModule.configureReplicas(replicas);
+  } catch (error) {
+    console.error('设置子KDS复制失败:', error);
+    return false;
+  }
+};
+
+/**
+ * 主KDS：把一个变化（新订单、状态变化、出餐）推送给所有子KDS
+ */
+export const publishReplication = async (op: ReplicationOp, orderId: string, data: string = ''): Promise<number | null> => {
+  try {
+    return await orderModule.publishReplication(op, orderId, data);
+  } catch (error) {
+    console.error(`记录复制变化失败 (${op} ${orderId}):`, error);
+    return null;
+  }
+};
+
+/**
+ * 子KDS：设置应用主KDS变化的回调
+ */
+export const setReplicationCallback = (callback: (entries: ReplicationEntry[]) => Promise<void>): void => {
+  orderModule.setReplicationCallback(callback);
+};
+
+/**
+ * 在UDP信标里广播本机的角色和分类，并接收其他KDS上线或离线的通知
+ */
+export const startDiscovery = (
+  role: string,
+  category: string,
+  callback: (peers: KdsPeer[]) => void
+): void => {
+  try {
+    orderModule.setPeersCallback(callback);
+    orderModule.advertise(role, category);
+  } catch (error) {
+    console.error('启动KDS发现失败:', error);
+  }
+};
+
+/**
+ * 上报当前订单数（信标里的负载）
+ */
+export const reportLoad = (load: number): void => {
+  orderModule.setDiscoveryLoad(load);
+};
+
 /**
  * 向特定IP发送TCP数据
  */
@@ -68,7 +136,16 @@ export const sendTCPData = async (targetIP: string, data: any): Promise<boolean>
  * 向所有子KDS广播TCP数据
  */
 export const broadcastToSubKDS = async (data: any, subKDSList: string[]): Promise<void> => {
-  for (const ip of subKDSList) {
-    await sendTCPData(ip, data);
+  if (subKDSList.length === 0) return;
+  try {
+    // 只序列化一次，由原生层并行发送到所有子KDS
+    const results = await orderModule.broadcastTCPData(subKDSList, JSON.stringify(data));
+    Object.entries(results).forEach(([ip, result]) => {
+      if (!result.success) {
+        console.error(`向 ${ip} 发送TCP数据失败:`, result.error);
+      }
+    });
+  } catch (error) {
+    console.error('广播TCP数据失败:', error);
   }
 }; 
\ No newline at end of file
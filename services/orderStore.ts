@@ -0,0 +1,52 @@
+import { NativeModules } from "react-native";
+import { FormattedOrder } from "./types";
+
+export interface OrderQuery {
+  status?: string;
+  category?: string;
+  // 毫秒时间戳，只返回下单时间不早于它的订单
+  sinceTime?: number;
+}
+
+// 原生订单存储（OrderStoreModule）：按订单增量保存，不再整体重写订单数组
+class OrderStore {
+  private nativeModule: any;
+
+  constructor() {
+    this.nativeModule = NativeModules.OrderStoreModule;
+  }
+
+  // 原生模块不存在（iOS 或旧版本）时，调用方应退回 AsyncStorage
+  public isAvailable(): boolean {
+    return !!this.nativeModule;
+  }
+
+  public async upsertOrder(order: FormattedOrder): Promise<void> {
+    await this.nativeModule.upsertOrder(order.id, JSON.stringify(order));
+  }
+
+  public async upsertOrders(orders: FormattedOrder[]): Promise<void> {
+    await Promise.all(orders.map((order) => this.upsertOrder(order)));
+  }
+
+  public async updateStatus(orderId: string, status: string): Promise<boolean> {
+    return await this.nativeModule.updateStatus(orderId, status);
+  }
+
+  public async removeOrder(orderId: string): Promise<boolean> {
+    return await this.nativeModule.removeOrder(orderId);
+  }
+
+  // 最新的订单在前
+  public async queryOrders(query: OrderQuery = {}): Promise<FormattedOrder[]> {
+    const json = await this.nativeModule.queryOrders(
+      query.status ?? null,
+      query.category ?? null,
+      query.sinceTime ?? 0
+    );
+    return JSON.parse(json);
+  }
+}
+
+const orderStore = new OrderStore();
+export default orderStore;
@@ -1,5 +1,5 @@
 import { NativeModules } from 'react-native';
-import { checkPrinter } from './orderPrinter';
+import { checkPrinter, waitForPrintJob } from './orderPrinter';
 import { FormattedOrder } from './types';
 
 const { Printer_K1215 } = NativeModules;
@@ -52,7 +52,8 @@ export const printTestReceipt = async (): Promise<boolean> => {
     const testOrder = createTestOrder();
     
     // 打印测试订单
-    const result = await Printer_K1215.printOrder(testOrder);
+    const jobId = await Printer_K1215.printOrder(testOrder);
+    const result = await waitForPrintJob(jobId);
     console.log('测试打印结果:', result);
     return result;
   } catch (error) {